@@ -6,9 +6,11 @@ import com.neuromancer42.tea.absdomain.memmodel.MemorySSA;
 import com.neuromancer42.tea.absdomain.misc.ExtMethMarker;
 import com.neuromancer42.tea.absdomain.misc.Cardinals;
 import com.neuromancer42.tea.absdomain.interval.IntervalGenerator;
+import com.neuromancer42.tea.commons.bddbddb.ProgramTrgtCache;
 import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.commons.analyses.AnalysisUtil;
+import com.neuromancer42.tea.commons.analyses.TrgtStreams;
 import com.neuromancer42.tea.core.analysis.Analysis;
 import com.neuromancer42.tea.core.analysis.ProviderGrpc;
 import io.grpc.Grpc;
@@ -125,7 +127,9 @@ public class Abstractor extends ProviderGrpc.ProviderImplBase {
             case MemorySSA.name:
                 try {
                     Files.createDirectories(workPath);
-                    MemorySSA memssa = new MemorySSA(workPath);
+                    int numJobs = Integer.parseInt(config.getPropertyOrDefault(Constants.OPT_JOBS,
+                            String.valueOf(Runtime.getRuntime().availableProcessors())));
+                    MemorySSA memssa = new MemorySSA(workPath, numJobs);
                     results = AnalysisUtil.runAnalysis(memssa, request);
                 } catch (IOException e) {
                     Messages.error("Abstractor: failed to create working directory for analysis %s: %s", MemorySSA.name, e.getMessage());
@@ -151,7 +155,11 @@ public class Abstractor extends ProviderGrpc.ProviderImplBase {
             case IntervalGenerator.name:
                 try {
                     Files.createDirectories(workPath);
-                    IntervalGenerator itvGen = new IntervalGenerator(workPath);
+                    int numJobs = Integer.parseInt(config.getPropertyOrDefault(Constants.OPT_JOBS,
+                            String.valueOf(Runtime.getRuntime().availableProcessors())));
+                    boolean restrict = Boolean.parseBoolean(config.getPropertyOrDefault(Constants.OPT_ITV_RESTRICT, "false"));
+                    int budget = Integer.parseInt(config.getPropertyOrDefault(Constants.OPT_ITV_BUDGET, "0"));
+                    IntervalGenerator itvGen = new IntervalGenerator(workPath, numJobs, restrict, budget);
                     results = AnalysisUtil.runAnalysis(itvGen, request);
                 } catch (IOException e) {
                     Messages.error("Abstractor: failed to create working directory for analysis %s: %s", IntervalGenerator.name, e.getMessage());
@@ -189,7 +197,17 @@ public class Abstractor extends ProviderGrpc.ProviderImplBase {
      */
     @Override
     public void shutdown(Analysis.ShutdownRequest request, StreamObserver<Analysis.ShutdownResponse> responseObserver) {
+        ProgramTrgtCache.g().releaseProject(request.getProjectId());
         responseObserver.onNext(Analysis.ShutdownResponse.getDefaultInstance());
         responseObserver.onCompleted();
     }
+
+    /**
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void fetch(Analysis.FetchRequest request, StreamObserver<Analysis.TrgtChunk> responseObserver) {
+        TrgtStreams.serveFetch(request, responseObserver);
+    }
 }
\ No newline at end of file
@@ -9,7 +9,12 @@ import com.neuromancer42.tea.commons.configs.Messages;
 
 import java.nio.file.Path;
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
 
 @TeAAnalysis(name = "gen_interval")
 public class IntervalGenerator extends AbstractAnalysis {
@@ -22,9 +27,35 @@ public class IntervalGenerator extends AbstractAnalysis {
     public static final String mininfRepr = Interval.MIN_INF.toString();
     public static final String maxinfRepr = Interval.MAX_INF.toString();
     private final Path workPath;
+    private final int numJobs;
+    private final boolean restrict;
+    private final int budget;
 
     public IntervalGenerator(Path path) {
+        this(path, 1, false, 0);
+    }
+
+    /**
+     * @param numJobs threads computing the eval tables, one table per task
+     * @param restrict compute pairwise entries of the tables read only through operation facts (and, or, xor, ne,
+     *                 gt, ge) only for intervals that their operands may take, i.e. those of constant operands
+     *                 unless some operand is not a constant; tables also read on offsets, bounds and zero
+     *                 (add, sub, mul, eq, lt, le) are always complete; the shipped cwe_interval rules declare
+     *                 the restricted tables but never read them, so this currently only shrinks unused outputs
+     *                 while still consuming the operation facts
+     * @param budget maximum number of intervals besides empty and unknown, or non-positive for one interval per
+     *               constant and gap; if positive, constant operands of comparisons bound intervals too, and
+     *               constants are merged into their neighbouring intervals to fit in it, compared ones last; only
+     *               0, 1, -1, the bounds and array lengths are never merged
+     */
+    public IntervalGenerator(Path path, int numJobs, boolean restrict, int budget) {
         workPath = path;
+        this.numJobs = numJobs;
+        this.restrict = restrict;
+        this.budget = budget;
+        if (restrict) {
+            Messages.warn("IntervalGenerator: eval tables of and, or, xor, ne, gt and ge are restricted to operands of operation facts, custom rules reading them otherwise are unsound");
+        }
     }
 
     @ConsumeDom(description = "variables")
@@ -51,6 +82,13 @@ public class IntervalGenerator extends AbstractAnalysis {
     @ConsumeRel(doms = {"H", "V", "T"})
     public ProgramRel relObjVarShape;
 
+    @ConsumeRel(name = "operation_binary_and", doms = {"V", "V", "V"})
+    public ProgramRel relAnd;
+    @ConsumeRel(name = "operation_binary_or", doms = {"V", "V", "V"})
+    public ProgramRel relOr;
+    @ConsumeRel(name = "operation_binary_xor", doms = {"V", "V", "V"})
+    public ProgramRel relXor;
+
     @ConsumeRel(name = "operation_icmp_eq", doms = {"V", "V", "V"})
     public ProgramRel relIcmpEQ;
     @ConsumeRel(name = "operation_icmp_ne", doms = {"V", "V", "V"})
@@ -118,7 +156,16 @@ public class IntervalGenerator extends AbstractAnalysis {
     public ProgramRel relPredUnknown;
 
     private final Map<String, Integer> literalMap = new HashMap<>();
-    private final LinkedHashSet<Interval> sortedITVs = new LinkedHashSet<>();
+    // intervals partitioning all values in ascending order, with ids from itvBase in dom U
+    private Interval[] sortedITVs;
+    private int[] lowers;
+    private int[] uppers;
+    private int itvBase;
+    private int emptyId;
+    private int unknownId;
+    private int zeroId;
+    private int oneId;
+    private long numEvalTuples = 0;
     private final Map<String, Integer> regToLiteral = new HashMap<>();
     private final Set<String> cmpVars = new HashSet<>();
 
@@ -178,6 +225,18 @@ public class IntervalGenerator extends AbstractAnalysis {
             String v = (String) tuple[0];
             cmpVars.add(v);
         }
+        // constant operands of comparisons, merged last within the budget
+        Set<Integer> comparedConstants = new HashSet<>();
+        for (ProgramRel relIcmp : new ProgramRel[]{relIcmpEQ, relIcmpNE, relIcmpULT, relIcmpULE, relIcmpUGT,
+                relIcmpUGE, relIcmpSLT, relIcmpSLE, relIcmpSGT, relIcmpSGE}) {
+            for (Object[] tuple : relIcmp.getValTuples()) {
+                for (int k = 1; k < 3; ++k) {
+                    Integer c = regToLiteral.get((String) tuple[k]);
+                    if (c != null)
+                        comparedConstants.add(c);
+                }
+            }
+        }
         Set<Integer> intConstants = new HashSet<>();
         Map<String, Integer> typeWidth = new HashMap<>();
         for (Object[] tuple : relTypeWidth.getValTuples()) {
@@ -188,11 +247,14 @@ public class IntervalGenerator extends AbstractAnalysis {
             String t = (String) tuple[0];
             typeWidth.put(t, len);
         }
+        // constants never merged within the budget
+        Set<Integer> keptConstants = new HashSet<>(List.of(0, 1, -1, Interval.min_bound, Interval.max_bound));
         for (Object[] tuple : relArrLen.getValTuples()) {
             Integer len = literalMap.get((String) tuple[1]);
             assert len != null;
 
             intConstants.add(len);
+            keptConstants.add(len);
         }
         for (Object[] tuple : relArrComp.getValTuples()) {
             String arrTy = (String) tuple[0];
@@ -240,26 +302,97 @@ public class IntervalGenerator extends AbstractAnalysis {
         intConstants.add(-1);
         intConstants.add(Interval.min_bound);
         intConstants.add(Interval.max_bound);
+        if (budget > 0) {
+            // constant operands of comparisons split the intervals they fall in, so that branches are told apart
+            intConstants.addAll(comparedConstants);
+        }
         List<Integer> boundList = new ArrayList<>(intConstants);
         Collections.sort(boundList);
         Messages.debug("IntervalGenerator: found int constants: %s", Arrays.toString(boundList.toArray()));
+        if (budget > 0) {
+            boundList = clusterConstants(boundList, keptConstants, comparedConstants);
+        }
 
-        sortedITVs.add(Interval.MIN_INF);
-        sortedITVs.add(new Interval(Integer.MIN_VALUE, boundList.get(0) - 1));
+        LinkedHashSet<Interval> itvSet = new LinkedHashSet<>();
+        itvSet.add(Interval.MIN_INF);
+        itvSet.add(new Interval(Integer.MIN_VALUE, boundList.get(0) - 1));
         for (int i = 0; i < boundList.size(); ++i) {
-            sortedITVs.add(new Interval(boundList.get(i)));
+            itvSet.add(new Interval(boundList.get(i)));
             int l = boundList.get(i) + 1;
             int r = (i + 1 == boundList.size()) ? Integer.MAX_VALUE : (boundList.get(i + 1) - 1);
             if (l <= r)
-                sortedITVs.add(new Interval(l, r));
+                itvSet.add(new Interval(l, r));
+        }
+        itvSet.add(Interval.MAX_INF);
+        Messages.debug("IntervalGenerator: generated Intervals: %s", Arrays.toString(itvSet.toArray()));
+        sortedITVs = itvSet.toArray(new Interval[0]);
+        lowers = new int[sortedITVs.length];
+        uppers = new int[sortedITVs.length];
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            lowers[i] = sortedITVs[i].lower;
+            uppers[i] = sortedITVs[i].upper;
         }
-        sortedITVs.add(Interval.MAX_INF);
-        Messages.debug("IntervalGenerator: generated Intervals: %s", Arrays.toString(sortedITVs.toArray()));
         domU.add(emptyRepr);
         domU.add(unknownRepr);
+        emptyId = domU.indexOf(emptyRepr);
+        unknownId = domU.indexOf(unknownRepr);
+        itvBase = domU.size();
         for (Interval itv : sortedITVs) {
             domU.add(itv.toString());
         }
+        zeroId = itvBase + indexOf(0);
+        oneId = itvBase + indexOf(1);
+        Messages.log("IntervalGenerator: generated %d intervals from %d of %d int constants (budget %d)",
+                sortedITVs.length, boundList.size(), intConstants.size(), budget);
+    }
+
+    /**
+     * Drops constants not to be kept until the intervals they bound fit in the budget, those closest to their
+     * neighbours first, so that dense clusters of constants merge into single intervals; compared constants are
+     * dropped only after all others. Constants beyond the bounds are dropped as well, as they only bound the
+     * infinite intervals.
+     */
+    private List<Integer> clusterConstants(List<Integer> boundList, Set<Integer> keptConstants, Set<Integer> comparedConstants) {
+        List<Integer> inBounds = new ArrayList<>();
+        for (int b : boundList) {
+            if (b >= Interval.min_bound && b <= Interval.max_bound)
+                inBounds.add(b);
+        }
+        List<int[]> dropOrder = new ArrayList<>();
+        for (int i = 0; i < inBounds.size(); ++i) {
+            int b = inBounds.get(i);
+            if (!keptConstants.contains(b)) {
+                // kept constants include both bounds, so neighbours exist
+                int spread = Math.min(b - inBounds.get(i - 1), inBounds.get(i + 1) - b);
+                dropOrder.add(new int[]{comparedConstants.contains(b) ? 1 : 0, spread, b});
+            }
+        }
+        dropOrder.sort(Comparator.<int[]>comparingInt(e -> e[0]).thenComparingInt(e -> e[1]).thenComparingInt(e -> -Math.abs(e[2])));
+
+        TreeSet<Integer> bounds = new TreeSet<>(inBounds);
+        // both infinities, a singleton per constant, and a gap between non-adjacent constants
+        int numItvs = 2 + inBounds.size();
+        for (int i = 0; i + 1 < inBounds.size(); ++i) {
+            if (inBounds.get(i + 1) - inBounds.get(i) >= 2)
+                ++numItvs;
+        }
+        for (int[] e : dropOrder) {
+            if (numItvs <= budget)
+                break;
+            int b = e[2];
+            int prev = bounds.lower(b);
+            int next = bounds.higher(b);
+            // the singleton and the gaps around it merge into one gap
+            if (b - prev >= 2)
+                --numItvs;
+            if (next - b >= 2)
+                --numItvs;
+            bounds.remove(b);
+        }
+        if (numItvs > budget) {
+            Messages.warn("IntervalGenerator: %d intervals of kept constants exceed the budget %d", numItvs, budget);
+        }
+        return new ArrayList<>(bounds);
     }
 
     @Override
@@ -282,29 +415,36 @@ public class IntervalGenerator extends AbstractAnalysis {
                     relUnonzero.add(u);
                 }
             }
-            computeAdd(sortedITVs, (List<String> elems) -> relEvalAddU.add(elems.get(0), elems.get(1), elems.get(2)));
-            computeSub(sortedITVs, (List<String> elems) -> relEvalSubU.add(elems.get(0), elems.get(1), elems.get(2)));
-            computeMul(sortedITVs, (List<String> elems) -> relEvalMulU.add(elems.get(0), elems.get(1), elems.get(2)));
-            computeAnd(sortedITVs, (List<String> elems) -> relEvalAndU.add(elems.get(0), elems.get(1), elems.get(2)));
-            computeOr(sortedITVs, (List<String> elems) -> relEvalOrU.add(elems.get(0), elems.get(1), elems.get(2)));
-            computeXor(sortedITVs, (List<String> elems) -> relEvalXorU.add(elems.get(0), elems.get(1), elems.get(2)));
-            computeEQ(sortedITVs, (List<String> elems) -> relEvalEQU.add(elems.get(0), elems.get(1)));
-            computeNE(sortedITVs, (List<String> elems) -> relEvalNEU.add(elems.get(0), elems.get(1)));
-            computeLT(sortedITVs, (List<String> elems) -> relEvalLTU.add(elems.get(0), elems.get(1)));
-            computeLE(sortedITVs, (List<String> elems) -> relEvalLEU.add(elems.get(0), elems.get(1)));
-            computeGT(sortedITVs, (List<String> elems) -> relEvalGTU.add(elems.get(0), elems.get(1)));
-            computeGE(sortedITVs, (List<String> elems) -> relEvalGEU.add(elems.get(0), elems.get(1)));
+            // operands are collected beforehand, as rels are not to be read concurrently;
+            // add, sub, mul, lt and le are also evaluated on offsets, bounds and zero by the rules, so never restricted
+            boolean[][] anyOps = new boolean[2][];
+            boolean[][] andOps = occurringOperands(relAnd);
+            boolean[][] orOps = occurringOperands(relOr);
+            boolean[][] xorOps = occurringOperands(relXor);
+            boolean[][] eqOps = occurringOperands(relIcmpEQ);
+            boolean[][] neOps = occurringOperands(relIcmpNE);
+            boolean[][] gtOps = occurringOperands(relIcmpUGT, relIcmpSGT);
+            boolean[][] geOps = occurringOperands(relIcmpUGE, relIcmpSGE);
+            Map<ProgramRel, Supplier<EvalTable>> evalTasks = new LinkedHashMap<>();
+            evalTasks.put(relEvalAddU, () -> computeAdd(anyOps[0], anyOps[1]));
+            evalTasks.put(relEvalSubU, () -> computeSub(anyOps[0], anyOps[1]));
+            evalTasks.put(relEvalMulU, () -> computeMul(anyOps[0], anyOps[1]));
+            evalTasks.put(relEvalAndU, () -> computeBitwise(andOps[0], andOps[1], (a, b) -> a & b));
+            evalTasks.put(relEvalOrU, () -> computeBitwise(orOps[0], orOps[1], (a, b) -> a | b));
+            evalTasks.put(relEvalXorU, () -> computeBitwise(xorOps[0], xorOps[1], (a, b) -> a ^ b));
+            evalTasks.put(relEvalEQU, () -> computeEQ());
+            evalTasks.put(relEvalNEU, () -> computeNE(neOps[0], neOps[1]));
+            evalTasks.put(relEvalLTU, () -> computeLT(anyOps[0], anyOps[1]));
+            evalTasks.put(relEvalLEU, () -> computeLE(anyOps[0], anyOps[1]));
+            evalTasks.put(relEvalGTU, () -> computeGT(gtOps[0], gtOps[1]));
+            evalTasks.put(relEvalGEU, () -> computeGE(geOps[0], geOps[1]));
+            computeEvalTables(evalTasks);
+            Messages.log("IntervalGenerator: computed %d tuples of eval tables on %d intervals", numEvalTuples, domU.size());
 
             for (String c : domC) {
                 if (literalMap.containsKey(c)) {
                     int primVal = literalMap.get(c);
-                    for (Interval itv : sortedITVs) {
-                        if (itv.contains(primVal)) {
-                            relConstU.add(c, itv.toString());
-                            break;
-                        }
-                    }
-
+                    relConstU.add(c, sortedITVs[indexOf(primVal)].toString());
                 } else {
                     relConstU.add(c, unknownRepr);
                 }
@@ -320,266 +460,376 @@ public class IntervalGenerator extends AbstractAnalysis {
         }
     }
 
-    private static void computeAdd(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> addRel) {
-        addRel.accept(List.of(emptyRepr, emptyRepr, emptyRepr));
-        addRel.accept(List.of(unknownRepr, unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            addRel.accept(List.of(emptyRepr, x.toString(), emptyRepr));
-            addRel.accept(List.of(unknownRepr, x.toString(), unknownRepr));
-            addRel.accept(List.of(x.toString(), emptyRepr, emptyRepr));
-            addRel.accept(List.of(x.toString(), unknownRepr, unknownRepr));
-            for (Interval y : sortedITVs) {
-                int l = x.lower + y.lower;
-                if (x.equals(Interval.MIN_INF) || y.equals(Interval.MIN_INF)) {
-                    l = Interval.min_inf;
-                }
-                int r = x.upper + y.upper;
-                if (x.equals(Interval.MAX_INF) || y.equals(Interval.MAX_INF)) {
-                    r = Interval.max_inf;
-                }
-                LinkedHashSet<Interval> res = filterInterval(sortedITVs, l, r);
-                for (Interval z : res) {
-                    addRel.accept(List.of(x.toString(), y.toString(), z.toString()));
+    private void computeEvalTables(Map<ProgramRel, Supplier<EvalTable>> evalTasks) {
+        int numThreads = Math.max(1, Math.min(numJobs, evalTasks.size()));
+        if (numThreads == 1) {
+            for (var evalTask : evalTasks.entrySet()) {
+                saveEvalTable(evalTask.getKey(), evalTask.getValue().get());
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            Map<ProgramRel, Future<EvalTable>> futures = new LinkedHashMap<>();
+            for (var evalTask : evalTasks.entrySet()) {
+                futures.put(evalTask.getKey(), executor.submit(evalTask.getValue()::get));
+            }
+            // tables are added in a fixed order, as rels are not to be modified concurrently
+            for (var future : futures.entrySet()) {
+                saveEvalTable(future.getKey(), future.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("IntervalGenerator: interrupted while computing eval tables", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("IntervalGenerator: failed to compute eval tables: " + e.getCause(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void saveEvalTable(ProgramRel evalRel, EvalTable table) {
+        evalRel.addAll(table);
+        numEvalTuples += table.size();
+        Messages.debug("IntervalGenerator: computed %d tuples of %s", table.size(), evalRel.getName());
+    }
+
+    /**
+     * Intervals that the left and right operands of the operation facts may take, or null for all intervals.
+     * Unless restricted, or once an operand is not a constant, any interval may be taken.
+     */
+    private boolean[][] occurringOperands(ProgramRel... opRels) {
+        boolean[][] operands = new boolean[2][];
+        if (!restrict) {
+            return operands;
+        }
+        operands[0] = new boolean[sortedITVs.length];
+        operands[1] = new boolean[sortedITVs.length];
+        for (ProgramRel opRel : opRels) {
+            for (Object[] tuple : opRel.getValTuples()) {
+                for (int k = 0; k < 2; ++k) {
+                    if (operands[k] == null)
+                        continue;
+                    Integer c = regToLiteral.get((String) tuple[k + 1]);
+                    if (c == null)
+                        operands[k] = null;
+                    else
+                        operands[k][indexOf(c)] = true;
                 }
             }
         }
+        return operands;
     }
 
-    private static void computeSub(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> subRel) {
-        subRel.accept(List.of(emptyRepr, emptyRepr, emptyRepr));
-        subRel.accept(List.of(unknownRepr, unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            subRel.accept(List.of(emptyRepr, x.toString(), emptyRepr));
-            subRel.accept(List.of(x.toString(), emptyRepr, emptyRepr));
-            subRel.accept(List.of(unknownRepr, x.toString(), unknownRepr));
-            subRel.accept(List.of(x.toString(), unknownRepr, unknownRepr));
-            for (Interval y : sortedITVs) {
-                int l = x.lower - y.upper;
-                if (x.equals(Interval.MIN_INF) || y.equals(Interval.MAX_INF)) {
+    private static boolean occurs(boolean[] operands, int i) {
+        return operands == null || operands[i];
+    }
+
+    private EvalTable computeAdd(boolean[] lhs, boolean[] rhs) {
+        EvalTable addRel = new EvalTable(3);
+        addRel.add(emptyId, emptyId, emptyId);
+        addRel.add(unknownId, unknownId, unknownId);
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            int x = itvBase + i;
+            addRel.add(emptyId, x, emptyId);
+            addRel.add(unknownId, x, unknownId);
+            addRel.add(x, emptyId, emptyId);
+            addRel.add(x, unknownId, unknownId);
+            if (!occurs(lhs, i))
+                continue;
+            for (int j = 0; j < sortedITVs.length; ++j) {
+                if (!occurs(rhs, j))
+                    continue;
+                int l = lowers[i] + lowers[j];
+                if (lowers[i] == Interval.min_inf || lowers[j] == Interval.min_inf) {
                     l = Interval.min_inf;
                 }
-                int r = x.upper - y.lower;
-                if (x.equals(Interval.MAX_INF) || y.equals(Interval.MIN_INF)) {
+                int r = uppers[i] + uppers[j];
+                if (uppers[i] == Interval.max_inf || uppers[j] == Interval.max_inf) {
                     r = Interval.max_inf;
                 }
-                LinkedHashSet<Interval> res = filterInterval(sortedITVs, l, r);
-                for (Interval z : res) {
-                    subRel.accept(List.of(x.toString(), y.toString(), z.toString()));
-                }
+                addOverlapping(addRel, x, itvBase + j, l, r, null);
             }
         }
+        return addRel;
     }
 
-    private static void computeMul(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> mulRel) {
-        mulRel.accept(List.of(emptyRepr, emptyRepr, emptyRepr));
-        mulRel.accept(List.of(unknownRepr, unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            mulRel.accept(List.of(emptyRepr, x.toString(), emptyRepr));
-            mulRel.accept(List.of(unknownRepr, x.toString(), unknownRepr));
-            mulRel.accept(List.of(x.toString(), emptyRepr, emptyRepr));
-            mulRel.accept(List.of(x.toString(), unknownRepr, unknownRepr));
-            for (Interval y : sortedITVs) {
-                int p1 =  x.lower * y.lower,
-                        p2 = x.lower * y.upper,
-                        p3 = x.upper * y.lower,
-                        p4 = x.upper * y.upper;
-                int l = Collections.min(Arrays.asList(p1, p2 ,p3, p4));
-                int r = Collections.max(Arrays.asList(p1, p2, p3, p4));
-                LinkedHashSet<Interval> res = filterInterval(sortedITVs, l, r);
-                for (Interval z : res) {
-                    mulRel.accept(List.of(x.toString(), y.toString(), z.toString()));
+    private EvalTable computeSub(boolean[] lhs, boolean[] rhs) {
+        EvalTable subRel = new EvalTable(3);
+        subRel.add(emptyId, emptyId, emptyId);
+        subRel.add(unknownId, unknownId, unknownId);
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            int x = itvBase + i;
+            subRel.add(emptyId, x, emptyId);
+            subRel.add(x, emptyId, emptyId);
+            subRel.add(unknownId, x, unknownId);
+            subRel.add(x, unknownId, unknownId);
+            if (!occurs(lhs, i))
+                continue;
+            for (int j = 0; j < sortedITVs.length; ++j) {
+                if (!occurs(rhs, j))
+                    continue;
+                int l = lowers[i] - uppers[j];
+                if (lowers[i] == Interval.min_inf || uppers[j] == Interval.max_inf) {
+                    l = Interval.min_inf;
+                }
+                int r = uppers[i] - lowers[j];
+                if (uppers[i] == Interval.max_inf || lowers[j] == Interval.min_inf) {
+                    r = Interval.max_inf;
                 }
+                addOverlapping(subRel, x, itvBase + j, l, r, null);
             }
         }
+        return subRel;
     }
 
-    private static void computeAnd(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> andRel) {
-        andRel.accept(List.of(emptyRepr, emptyRepr, emptyRepr));
-        andRel.accept(List.of(unknownRepr, unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            for (Interval y : sortedITVs) {
-                String xRepr = x.toString();
-                String yRepr = y.toString();
-                if (xRepr.equals(oneRepr) && yRepr.equals(oneRepr))
-                    andRel.accept(List.of(xRepr, yRepr, oneRepr));
-                else if (xRepr.equals(oneRepr) && yRepr.equals(zeroRepr))
-                    andRel.accept(List.of(xRepr, yRepr, zeroRepr));
-                else if (xRepr.equals(zeroRepr) && yRepr.equals(oneRepr))
-                    andRel.accept(List.of(xRepr, yRepr, zeroRepr));
-                else if (xRepr.equals(zeroRepr) && yRepr.equals(zeroRepr))
-                    andRel.accept(List.of(xRepr, yRepr, zeroRepr));
-                else
-                    andRel.accept(List.of(xRepr, yRepr, unknownRepr));
+    private EvalTable computeMul(boolean[] lhs, boolean[] rhs) {
+        EvalTable mulRel = new EvalTable(3);
+        mulRel.add(emptyId, emptyId, emptyId);
+        mulRel.add(unknownId, unknownId, unknownId);
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            int x = itvBase + i;
+            mulRel.add(emptyId, x, emptyId);
+            mulRel.add(unknownId, x, unknownId);
+            mulRel.add(x, emptyId, emptyId);
+            mulRel.add(x, unknownId, unknownId);
+            if (!occurs(lhs, i))
+                continue;
+            for (int j = 0; j < sortedITVs.length; ++j) {
+                if (!occurs(rhs, j))
+                    continue;
+                int p1 = lowers[i] * lowers[j],
+                        p2 = lowers[i] * uppers[j],
+                        p3 = uppers[i] * lowers[j],
+                        p4 = uppers[i] * uppers[j];
+                int l = Math.min(Math.min(p1, p2), Math.min(p3, p4));
+                int r = Math.max(Math.max(p1, p2), Math.max(p3, p4));
+                addOverlapping(mulRel, x, itvBase + j, l, r, null);
             }
         }
+        return mulRel;
     }
 
-    private static void computeOr(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> orRel) {
-        orRel.accept(List.of(emptyRepr, emptyRepr, emptyRepr));
-        orRel.accept(List.of(unknownRepr, unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            for (Interval y : sortedITVs) {
-                String xRepr = x.toString();
-                String yRepr = y.toString();
-                if (xRepr.equals(oneRepr) && yRepr.equals(oneRepr))
-                    orRel.accept(List.of(xRepr, yRepr, oneRepr));
-                else if (xRepr.equals(oneRepr) && yRepr.equals(zeroRepr))
-                    orRel.accept(List.of(xRepr, yRepr, oneRepr));
-                else if (xRepr.equals(zeroRepr) && yRepr.equals(oneRepr))
-                    orRel.accept(List.of(xRepr, yRepr, oneRepr));
-                else if (xRepr.equals(zeroRepr) && yRepr.equals(zeroRepr))
-                    orRel.accept(List.of(xRepr, yRepr, zeroRepr));
-                else
-                    orRel.accept(List.of(xRepr, yRepr, unknownRepr));
+    // bitwise operations are only evaluated on booleans
+    private EvalTable computeBitwise(boolean[] lhs, boolean[] rhs, IntBinaryOperator bitOp) {
+        EvalTable bitRel = new EvalTable(3);
+        bitRel.add(emptyId, emptyId, emptyId);
+        bitRel.add(unknownId, unknownId, unknownId);
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            if (!occurs(lhs, i))
+                continue;
+            int x = itvBase + i;
+            for (int j = 0; j < sortedITVs.length; ++j) {
+                if (!occurs(rhs, j))
+                    continue;
+                int y = itvBase + j;
+                if ((x == zeroId || x == oneId) && (y == zeroId || y == oneId)) {
+                    int res = bitOp.applyAsInt(x == oneId ? 1 : 0, y == oneId ? 1 : 0);
+                    bitRel.add(x, y, res == 0 ? zeroId : oneId);
+                } else {
+                    bitRel.add(x, y, unknownId);
+                }
             }
         }
+        return bitRel;
     }
 
-    private static void computeXor(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> xorRel) {
-        xorRel.accept(List.of(emptyRepr, emptyRepr, emptyRepr));
-        xorRel.accept(List.of(unknownRepr, unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            for (Interval y : sortedITVs) {
-                String xRepr = x.toString();
-                String yRepr = y.toString();
-                if (xRepr.equals(oneRepr) && yRepr.equals(oneRepr))
-                    xorRel.accept(List.of(xRepr, yRepr, zeroRepr));
-                else if (xRepr.equals(oneRepr) && yRepr.equals(zeroRepr))
-                    xorRel.accept(List.of(xRepr, yRepr, oneRepr));
-                else if (xRepr.equals(zeroRepr) && yRepr.equals(oneRepr))
-                    xorRel.accept(List.of(xRepr, yRepr, oneRepr));
-                else if (xRepr.equals(zeroRepr) && yRepr.equals(zeroRepr))
-                    xorRel.accept(List.of(xRepr, yRepr, zeroRepr));
-                else
-                    xorRel.accept(List.of(xRepr, yRepr, unknownRepr));
+    private EvalTable computeEQ() {
+        EvalTable eqRel = new EvalTable(2);
+        eqRel.add(emptyId, emptyId);
+        eqRel.add(unknownId, unknownId);
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            int x = itvBase + i;
+            eqRel.add(emptyId, x);
+            eqRel.add(x, emptyId);
+            eqRel.add(unknownId, x);
+            eqRel.add(x, unknownId);
+            eqRel.add(x, x);
+        }
+        return eqRel;
+    }
+
+    private EvalTable computeNE(boolean[] lhs, boolean[] rhs) {
+        EvalTable neRel = new EvalTable(2);
+        neRel.add(emptyId, emptyId);
+        neRel.add(unknownId, unknownId);
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            int x = itvBase + i;
+            neRel.add(emptyId, x);
+            neRel.add(x, emptyId);
+            neRel.add(unknownId, x);
+            neRel.add(x, unknownId);
+            if (lowers[i] < uppers[i] || lowers[i] == Interval.min_inf || lowers[i] == Interval.max_inf) {
+                neRel.add(x, x);
+            }
+            if (!occurs(lhs, i))
+                continue;
+            for (int j = 0; j < sortedITVs.length; ++j) {
+                if (j != i && occurs(rhs, j)) {
+                    neRel.add(x, itvBase + j);
+                }
             }
         }
+        return neRel;
     }
 
-    private static void computeEQ(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> eqRel) {
-        eqRel.accept(List.of(emptyRepr, emptyRepr));
-        eqRel.accept(List.of(unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            eqRel.accept(List.of(emptyRepr, x.toString()));
-            eqRel.accept(List.of(x.toString(), emptyRepr));
-            eqRel.accept(List.of(unknownRepr, x.toString()));
-            eqRel.accept(List.of(x.toString(), unknownRepr));
-            eqRel.accept(List.of(x.toString(), x.toString()));
+    private EvalTable computeLT(boolean[] lhs, boolean[] rhs) {
+        EvalTable ltRel = initCmpTable();
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            if (occurs(lhs, i))
+                addOverlapping(ltRel, itvBase + i, -1, lowers[i] + 1, Interval.max_inf, rhs);
         }
+        return ltRel;
     }
 
-    private static void computeNE(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> neRel) {
-        neRel.accept(List.of(emptyRepr, emptyRepr));
-        neRel.accept(List.of(unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            neRel.accept(List.of(emptyRepr, x.toString()));
-            neRel.accept(List.of(x.toString(), emptyRepr));
-            neRel.accept(List.of(unknownRepr, x.toString()));
-            neRel.accept(List.of(x.toString(), unknownRepr));
-            if (x.equals(Interval.MIN_INF) || x.equals(Interval.MAX_INF) || x.lower < x.upper) {
-                neRel.accept(List.of(x.toString(), x.toString()));
-            }
-            for (Interval y : sortedITVs) {
-                if (!x.equals(y)) {
-                    neRel.accept(List.of(x.toString(), y.toString()));
-                }
-            }
+    private EvalTable computeLE(boolean[] lhs, boolean[] rhs) {
+        EvalTable leRel = initCmpTable();
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            if (occurs(lhs, i))
+                addOverlapping(leRel, itvBase + i, -1, lowers[i], Interval.max_inf, rhs);
         }
+        return leRel;
     }
 
-    private static void computeLT(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> ltRel) {
-        ltRel.accept(List.of(emptyRepr, emptyRepr));
-        ltRel.accept(List.of(unknownRepr, unknownRepr));
-        ltRel.accept(List.of(unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            ltRel.accept(List.of(emptyRepr, x.toString()));
-            ltRel.accept(List.of(x.toString(), emptyRepr));
-            ltRel.accept(List.of(unknownRepr, x.toString()));
-            ltRel.accept(List.of(unknownRepr, x.toString()));
-            ltRel.accept(List.of(x.toString(), unknownRepr));
-            ltRel.accept(List.of(x.toString(), unknownRepr));
-            {
-                int l = x.lower + 1;
-                int r = Interval.max_inf;
-                LinkedHashSet<Interval> res = filterInterval(sortedITVs, l, r);
-                for (Interval y : res) {
-                    ltRel.accept(List.of(x.toString(), y.toString()));
-                }
-            }
+    private EvalTable computeGT(boolean[] lhs, boolean[] rhs) {
+        EvalTable gtRel = initCmpTable();
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            if (occurs(lhs, i))
+                addOverlapping(gtRel, itvBase + i, -1, Interval.min_inf, uppers[i] - 1, rhs);
         }
+        return gtRel;
     }
 
-    private static void computeLE(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> leRel) {
-        leRel.accept(List.of(emptyRepr, emptyRepr));
-        leRel.accept(List.of(unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            leRel.accept(List.of(emptyRepr, x.toString()));
-            leRel.accept(List.of(x.toString(), emptyRepr));
-            leRel.accept(List.of(unknownRepr, x.toString()));
-            leRel.accept(List.of(x.toString(), unknownRepr));
-            {
-                int l = x.lower;
-                int r = Interval.max_inf;
-                LinkedHashSet<Interval> res = filterInterval(sortedITVs, l, r);
-                for (Interval y : res) {
-                    leRel.accept(List.of(x.toString(), y.toString()));
-                }
-            }
+    private EvalTable computeGE(boolean[] lhs, boolean[] rhs) {
+        EvalTable geRel = initCmpTable();
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            if (occurs(lhs, i))
+                addOverlapping(geRel, itvBase + i, -1, Interval.min_inf, uppers[i], rhs);
         }
+        return geRel;
     }
 
-    private static void computeGT(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> gtRel) {
-        gtRel.accept(List.of(emptyRepr, emptyRepr));
-        gtRel.accept(List.of(unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            gtRel.accept(List.of(emptyRepr, x.toString()));
-            gtRel.accept(List.of(x.toString(), emptyRepr));
-            gtRel.accept(List.of(unknownRepr, x.toString()));
-            gtRel.accept(List.of(x.toString(), unknownRepr));
-            {
-                int l = Interval.min_inf;
-                int r = x.upper - 1;
-                LinkedHashSet<Interval> res = filterInterval(sortedITVs, l, r);
-                for (Interval y : res) {
-                    gtRel.accept(List.of(x.toString(), y.toString()));
-                }
-            }
+    private EvalTable initCmpTable() {
+        EvalTable cmpRel = new EvalTable(2);
+        cmpRel.add(emptyId, emptyId);
+        cmpRel.add(unknownId, unknownId);
+        for (int i = 0; i < sortedITVs.length; ++i) {
+            int x = itvBase + i;
+            cmpRel.add(emptyId, x);
+            cmpRel.add(x, emptyId);
+            cmpRel.add(unknownId, x);
+            cmpRel.add(x, unknownId);
+        }
+        return cmpRel;
+    }
+
+    /**
+     * Adds a tuple ending with each interval overlapping [l, r], i.e. (x, y, z) or (x, z) if y is negative;
+     * as the intervals are sorted and partition all values, these form a range of ids.
+     */
+    private void addOverlapping(EvalTable table, int x, int y, int l, int r, boolean[] filter) {
+        if (l > r)
+            return;
+        int to = indexAfter(r);
+        for (int k = indexOf(l); k < to; ++k) {
+            if (!occurs(filter, k))
+                continue;
+            if (y < 0)
+                table.add(x, itvBase + k);
+            else
+                table.add(x, y, itvBase + k);
         }
     }
 
-    private static void computeGE(LinkedHashSet<Interval> sortedITVs, Consumer<List<String>> geRel) {
-        geRel.accept(List.of(emptyRepr, emptyRepr));
-        geRel.accept(List.of(unknownRepr, unknownRepr));
-        geRel.accept(List.of(unknownRepr, unknownRepr));
-        for (Interval x : sortedITVs) {
-            geRel.accept(List.of(emptyRepr, x.toString()));
-            geRel.accept(List.of(x.toString(), emptyRepr));
-            geRel.accept(List.of(unknownRepr, x.toString()));
-            geRel.accept(List.of(unknownRepr, x.toString()));
-            geRel.accept(List.of(x.toString(), unknownRepr));
-            geRel.accept(List.of(x.toString(), unknownRepr));
-            {
-                int l = Interval.min_inf;
-                int r = x.upper;
-                LinkedHashSet<Interval> res = filterInterval(sortedITVs, l, r);
-                for (Interval y : res) {
-                    geRel.accept(List.of(x.toString(), y.toString()));
-                }
+    // index of the interval containing v, i.e. the first one not below v
+    private int indexOf(int v) {
+        v = Math.max(Interval.min_inf, Math.min(Interval.max_inf, v));
+        int lo = 0, hi = uppers.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (uppers[mid] < v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // index after the last interval not above v
+    private int indexAfter(int v) {
+        v = Math.max(Interval.min_inf, Math.min(Interval.max_inf, v));
+        int lo = 0, hi = lowers.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lowers[mid] <= v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Tuples of an eval table as ids in dom U, stored flat in a primitive array to be added to the rel in bulk.
+     * Its iterator reuses one array for all tuples.
+     */
+    private static class EvalTable implements Iterable<int[]> {
+        private final int arity;
+        private int[] ids = new int[1024];
+        private int size = 0;
+
+        private EvalTable(int arity) {
+            this.arity = arity;
+        }
+
+        private void add(int x, int y) {
+            assert arity == 2;
+            ensureCapacity();
+            ids[size * 2] = x;
+            ids[size * 2 + 1] = y;
+            ++size;
+        }
+
+        private void add(int x, int y, int z) {
+            assert arity == 3;
+            ensureCapacity();
+            ids[size * 3] = x;
+            ids[size * 3 + 1] = y;
+            ids[size * 3 + 2] = z;
+            ++size;
+        }
+
+        private void ensureCapacity() {
+            if ((size + 1) * arity > ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
             }
         }
-    }
 
-    private static LinkedHashSet<Interval> filterInterval(LinkedHashSet<Interval> sortedITVs, int l, int r) {
-        LinkedHashSet<Interval> res = new LinkedHashSet<>();
-        for (Interval z : sortedITVs) {
-            if (z.upper < l)
-                continue;
-            if (z.overlap(l, r))
-                res.add(z);
-            if (z.lower > r)
-                break;
+        private int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<int[]> iterator() {
+            return new Iterator<>() {
+                private final int[] tuple = new int[arity];
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public int[] next() {
+                    if (next >= size)
+                        throw new NoSuchElementException();
+                    System.arraycopy(ids, next * arity, tuple, 0, arity);
+                    ++next;
+                    return tuple;
+                }
+            };
         }
-        return res;
     }
 
     @Override
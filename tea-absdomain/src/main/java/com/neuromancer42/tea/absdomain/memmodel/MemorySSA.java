@@ -10,12 +10,18 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 @TeAAnalysis(name = "memory_ssa")
 public class MemorySSA extends AbstractAnalysis {
     public static final String name = "memory_ssa";
     public static final Integer INIT_GEN = 0;
     private final Path workpath;
+    private final int numJobs;
 
     @ConsumeDom
     public ProgramDom domA;
@@ -217,11 +223,8 @@ public class MemorySSA extends AbstractAnalysis {
             localObjs.put(m, new LinkedHashSet<>(localVarToObj.get(m).values()));
         }
 
-        domG.add(INIT_GEN.toString());
-        for (String m : mp.keySet()) {
-            if (!mpEntry.containsKey(m)) {
-                continue;
-            }
+        // methods are built independently and merged in order, for stable output
+        Function<String, MethodSSA> methodBuilder = m -> {
             Messages.debug("MemorySSA: build SSA for method %s", m);
             String entryP = mpEntry.get(m);
             Map<String, BitSet> useObjs = new LinkedHashMap<>();
@@ -281,25 +284,44 @@ public class MemorySSA extends AbstractAnalysis {
             Map<Integer, Map<String, Pair<Integer, Integer>>> localMemDefs = new LinkedHashMap<>();
             Map<Integer, Map<String, Pair<Integer, Map<String, Integer>>>> localMemPhis = new LinkedHashMap<>();
             List<BitSet> localregions = buildSSA(useObjs, defObjs, entryP, origPartition, prevEdges, PinBB, BBpreds, BBentry, localMemUses, localMemDefs, localMemPhis);
-            methRegions.put(m, localregions);
-            memuses.put(m, localMemUses);
-            memdefs.put(m, localMemDefs);
-            memphis.put(m, localMemPhis);
 
             BitSet entryObj = entryObjs.getOrDefault(m, new BitSet());
             Set<Integer> localEntryRegions = new HashSet<>();
-            entryRegions.put(m, localEntryRegions);
             for (int rid = 0; rid < localregions.size(); ++rid) {
                 if (localMemUses.containsKey(rid) || localMemDefs.containsKey(rid) || localMemPhis.containsKey(rid)) {
                     if (localregions.get(rid).intersects(entryObj) || localregions.get(rid).intersects(globalReach)) {
                         localEntryRegions.add(rid);
                     }
+                }
+            }
+            return new MethodSSA(localregions, localEntryRegions, localMemUses, localMemDefs, localMemPhis);
+        };
+
+        List<String> meths = new ArrayList<>();
+        for (String m : mp.keySet()) {
+            if (mpEntry.containsKey(m)) {
+                meths.add(m);
+            }
+        }
+        List<MethodSSA> methSSAs = buildMethods(meths, methodBuilder);
+
+        domG.add(INIT_GEN.toString());
+        for (int i = 0; i < meths.size(); ++i) {
+            String m = meths.get(i);
+            MethodSSA methSSA = methSSAs.get(i);
+            methRegions.put(m, methSSA.regions);
+            entryRegions.put(m, methSSA.entryRegions);
+            memuses.put(m, methSSA.memUses);
+            memdefs.put(m, methSSA.memDefs);
+            memphis.put(m, methSSA.memPhis);
+            for (int rid = 0; rid < methSSA.regions.size(); ++rid) {
+                if (methSSA.memUses.containsKey(rid) || methSSA.memDefs.containsKey(rid) || methSSA.memPhis.containsKey(rid)) {
                     String regStr = m + "." + rid;
                     domR.add(regStr);
-                    for (var def : localMemDefs.get(rid).values()) {
+                    for (var def : methSSA.memDefs.get(rid).values()) {
                         domG.add(def.getLeft().toString());
                     }
-                    for (var phi : localMemPhis.get(rid).values()) {
+                    for (var phi : methSSA.memPhis.get(rid).values()) {
                         domG.add(phi.getLeft().toString());
                     }
                 }
@@ -307,6 +329,61 @@ public class MemorySSA extends AbstractAnalysis {
         }
     }
 
+    /**
+     * Memory regions of a method, with the versions of them that its operations use and define.
+     */
+    private static class MethodSSA {
+        private final List<BitSet> regions;
+        private final Set<Integer> entryRegions;
+        private final Map<Integer, Map<String, Integer>> memUses;
+        private final Map<Integer, Map<String, Pair<Integer, Integer>>> memDefs;
+        private final Map<Integer, Map<String, Pair<Integer, Map<String, Integer>>>> memPhis;
+
+        private MethodSSA(List<BitSet> regions, Set<Integer> entryRegions,
+                          Map<Integer, Map<String, Integer>> memUses,
+                          Map<Integer, Map<String, Pair<Integer, Integer>>> memDefs,
+                          Map<Integer, Map<String, Pair<Integer, Map<String, Integer>>>> memPhis) {
+            this.regions = regions;
+            this.entryRegions = entryRegions;
+            this.memUses = memUses;
+            this.memDefs = memDefs;
+            this.memPhis = memPhis;
+        }
+    }
+
+    /**
+     * Builds SSA of methods on a fork-join pool if multiple jobs are allowed, returning results in the given order.
+     */
+    private List<MethodSSA> buildMethods(List<String> meths, Function<String, MethodSSA> methodBuilder) {
+        int numThreads = Math.max(1, Math.min(numJobs, meths.size()));
+        List<MethodSSA> methSSAs = new ArrayList<>(meths.size());
+        if (numThreads == 1) {
+            for (String m : meths) {
+                methSSAs.add(methodBuilder.apply(m));
+            }
+            return methSSAs;
+        }
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            List<Callable<MethodSSA>> tasks = new ArrayList<>(meths.size());
+            for (String m : meths) {
+                tasks.add(() -> methodBuilder.apply(m));
+            }
+            for (Future<MethodSSA> future : pool.invokeAll(tasks)) {
+                methSSAs.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("MemorySSA: interrupted while building SSA of methods", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("MemorySSA: failed to build SSA of methods: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        Messages.debug("MemorySSA: built SSA of %d methods on %d threads", meths.size(), numThreads);
+        return methSSAs;
+    }
+
     @Override
     protected void relPhase() {
         relInitGen.add(INIT_GEN.toString());
@@ -759,7 +836,15 @@ public class MemorySSA extends AbstractAnalysis {
     }
 
     public MemorySSA(Path workpath) {
+        this(workpath, 1);
+    }
+
+    /**
+     * @param numJobs threads building SSA of methods in parallel
+     */
+    public MemorySSA(Path workpath, int numJobs) {
         this.workpath = workpath;
+        this.numJobs = numJobs;
     }
 
     @Override
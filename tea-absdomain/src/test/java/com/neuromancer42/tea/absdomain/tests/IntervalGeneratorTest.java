@@ -0,0 +1,142 @@
+package com.neuromancer42.tea.absdomain.tests;
+
+import com.neuromancer42.tea.absdomain.interval.IntervalGenerator;
+import com.neuromancer42.tea.commons.analyses.AnalysisUtil;
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class IntervalGeneratorTest {
+    private static final Path workDirPath = Paths.get("test-out").resolve("test-interval");
+    private static final Map<String, String> domLocMap = new LinkedHashMap<>();
+    private static final Map<String, String> relLocMap = new LinkedHashMap<>();
+
+    private static void setDom(String dir, ProgramDom dom, String... elems) {
+        dom.init();
+        for (String elem : elems)
+            dom.add(elem);
+        dom.save(dir);
+        domLocMap.put(dom.getName(), dom.getLocation());
+    }
+
+    private static void setRel(String dir, ProgramRel rel, Object[]... tuples) {
+        rel.init();
+        for (Object[] tuple : tuples) {
+            rel.add(tuple);
+        }
+        rel.save(dir);
+        rel.close();
+        relLocMap.put(rel.getName(), rel.getLocation());
+    }
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        Path path = workDirPath.resolve("input");
+        Files.createDirectories(path);
+        String dir = path.toAbsolutePath().toString();
+        ProgramDom domV = new ProgramDom("V");
+        setDom(dir, domV, "v", "c3", "c5", "conj", "cmp");
+        ProgramDom domP = new ProgramDom("P");
+        setDom(dir, domP, "p0", "p1");
+        ProgramDom domC = new ProgramDom("C");
+        setDom(dir, domC, "2", "3", "4", "5", "8");
+        ProgramDom domT = new ProgramDom("T");
+        setDom(dir, domT, "i32", "[2 x i32]");
+        ProgramDom domH = new ProgramDom("H");
+        setDom(dir, domH);
+
+        setRel(dir, new ProgramRel("variable_const_int", domV, domC), new Object[]{"c3", "3"}, new Object[]{"c5", "5"});
+        setRel(dir, new ProgramRel("type_width", domT, domC), new Object[]{"i32", "4"}, new Object[]{"[2 x i32]", "8"});
+        setRel(dir, new ProgramRel("array_type_size", domT, domC), new Object[]{"[2 x i32]", "2"});
+        setRel(dir, new ProgramRel("array_type_component", domT, domT), new Object[]{"[2 x i32]", "i32"});
+        setRel(dir, new ProgramRel("ObjFixShape", domH, domC, domT));
+        setRel(dir, new ProgramRel("ObjVarShape", domH, domV, domT));
+        setRel(dir, new ProgramRel("operation_binary_and", domV, domV, domV), new Object[]{"conj", "c3", "c5"});
+        for (String op : new String[]{"or", "xor"}) {
+            setRel(dir, new ProgramRel("operation_binary_" + op, domV, domV, domV));
+        }
+        setRel(dir, new ProgramRel("operation_icmp_slt", domV, domV, domV), new Object[]{"cmp", "v", "c5"});
+        for (String op : new String[]{"eq", "ne", "ugt", "uge", "ult", "ule", "sgt", "sge", "sle"}) {
+            setRel(dir, new ProgramRel("operation_icmp_" + op, domV, domV, domV));
+        }
+        setRel(dir, new ProgramRel("PPtrue", domP, domP, domV), new Object[]{"p0", "p1", "cmp"});
+    }
+
+    private static Map<String, ProgramRel> run(String name, int numJobs, boolean restrict, int budget) throws IOException {
+        Path path = workDirPath.resolve(name);
+        Files.createDirectories(path);
+        IntervalGenerator itvGen = new IntervalGenerator(path, numJobs, restrict, budget);
+        Pair<Map<String, String>, Map<String, String>> output = AnalysisUtil.runAnalysis(itvGen, domLocMap, relLocMap);
+        Assertions.assertNotNull(output);
+        ProgramDom domU = new ProgramDom("U");
+        domU.load(output.getLeft().get("U"));
+        Map<String, ProgramRel> rels = new LinkedHashMap<>();
+        for (String relName : new String[]{"evalAddU", "evalSubU", "evalMulU", "evalAndU"}) {
+            rels.put(relName, new ProgramRel(relName, domU, domU, domU));
+        }
+        rels.put("evalLTU", new ProgramRel("evalLTU", domU, domU));
+        rels.put("evalLEU", new ProgramRel("evalLEU", domU, domU));
+        rels.put("Uinput", new ProgramRel("Uinput", domU));
+        for (ProgramRel rel : rels.values()) {
+            rel.attach(output.getRight().get(rel.getName()));
+        }
+        return rels;
+    }
+
+    @Test
+    @DisplayName("IntervalGenerator computes eval tables on all intervals, restricting only those read through operations")
+    public void evalTableTest() throws IOException {
+        Map<String, ProgramRel> full = run("full", 4, false, 0);
+        Assertions.assertTrue(full.get("evalAddU").contains("Itv:{1}", "Itv:{1}", "Itv:{2}"));
+        Assertions.assertTrue(full.get("evalAddU").contains("Itv:{1}", "Itv:{3}", "Itv:{4}"));
+        Assertions.assertTrue(full.get("evalSubU").contains("Itv:{2}", "Itv:{3}", "Itv:{-1}"));
+        Assertions.assertTrue(full.get("evalMulU").contains("Itv:{3}", "Itv:[5,7]", "Itv:[9,32766]"));
+        Assertions.assertTrue(full.get("evalLTU").contains("Itv:{1}", "Itv:{2}"));
+        Assertions.assertFalse(full.get("evalLTU").contains("Itv:{2}", "Itv:{1}"));
+
+        Assertions.assertTrue(full.get("evalAndU").contains("Itv:{1}", "Itv:{1}", "Itv:{1}"));
+
+        Map<String, ProgramRel> restricted = run("restricted", 1, true, 0);
+        Assertions.assertTrue(restricted.get("evalAndU").contains("Itv:{3}", "Itv:[5,7]", "Itv:unknown"));
+        Assertions.assertFalse(restricted.get("evalAndU").contains("Itv:{1}", "Itv:{1}", "Itv:{1}"));
+        Assertions.assertTrue(restricted.get("evalAndU").size() < full.get("evalAndU").size());
+        // tables read on offsets, bounds and zero by the rules stay complete
+        Assertions.assertTrue(restricted.get("evalSubU").contains("Itv:{0}", "Itv:{3}", "Itv:[-32766,-2]"));
+        Assertions.assertTrue(restricted.get("evalLEU").contains("Itv:{0}", "Itv:{2}"));
+        for (String relName : new String[]{"evalAddU", "evalSubU", "evalMulU", "evalLTU", "evalLEU"}) {
+            Assertions.assertEquals(full.get(relName).size(), restricted.get(relName).size());
+        }
+    }
+
+    @Test
+    @DisplayName("IntervalGenerator merges constants to fit intervals in the budget, keeping array lengths and merging compared constants last")
+    public void budgetTest() throws IOException {
+        Map<String, ProgramRel> full = run("unbounded", 1, false, 0);
+        Assertions.assertTrue(full.get("Uinput").contains("Itv:{4}"));
+        Assertions.assertEquals(12, full.get("Uinput").size());
+
+        Map<String, ProgramRel> bounded = run("bounded", 1, false, 12);
+        Assertions.assertEquals(10, bounded.get("Uinput").size());
+        Assertions.assertTrue(bounded.get("Uinput").contains("Itv:[3,4]"));
+        Assertions.assertTrue(bounded.get("Uinput").contains("Itv:{2}"));
+        Assertions.assertTrue(bounded.get("Uinput").contains("Itv:{5}"));
+        Assertions.assertTrue(bounded.get("evalAddU").contains("Itv:{1}", "Itv:{2}", "Itv:[3,4]"));
+
+        // compared constants are merged too once all others are, only array lengths are never merged
+        Map<String, ProgramRel> exceeded = run("exceeded", 1, false, 1);
+        Assertions.assertEquals(8, exceeded.get("Uinput").size());
+        Assertions.assertTrue(exceeded.get("Uinput").contains("Itv:{2}"));
+        Assertions.assertTrue(exceeded.get("Uinput").contains("Itv:[3,32766]"));
+    }
+}
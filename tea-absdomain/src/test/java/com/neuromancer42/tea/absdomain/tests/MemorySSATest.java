@@ -0,0 +1,161 @@
+package com.neuromancer42.tea.absdomain.tests;
+
+import com.neuromancer42.tea.absdomain.memmodel.MemorySSA;
+import com.neuromancer42.tea.commons.analyses.AnalysisUtil;
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class MemorySSATest {
+    private static final Path workDirPath = Paths.get("test-out").resolve("test-memssa");
+    private static final Map<String, String> domLocMap = new LinkedHashMap<>();
+    private static final Map<String, String> relLocMap = new LinkedHashMap<>();
+
+    private static void setDom(String dir, ProgramDom dom, List<String> elems) {
+        dom.init();
+        for (String elem : elems)
+            dom.add(elem);
+        dom.save(dir);
+        domLocMap.put(dom.getName(), dom.getLocation());
+    }
+
+    private static void setRel(String dir, ProgramRel rel, List<Object[]> tuples) {
+        rel.init();
+        for (Object[] tuple : tuples) {
+            rel.add(tuple);
+        }
+        rel.save(dir);
+        rel.close();
+        relLocMap.put(rel.getName(), rel.getLocation());
+    }
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        Path path = workDirPath.resolve("input");
+        Files.createDirectories(path);
+        String dir = path.toAbsolutePath().toString();
+
+        // methods of three basic blocks with a loop, loading and storing random objects
+        Random random = new Random(7);
+        int numMeths = 40, numInsts = 30, numObjs = 20;
+        List<String> objs = new ArrayList<>();
+        for (int i = 0; i < numObjs; ++i)
+            objs.add("a" + i);
+        List<String> meths = new ArrayList<>();
+        List<String> insts = new ArrayList<>();
+        List<String> blocks = new ArrayList<>();
+        List<Object[]> methInsts = new ArrayList<>();
+        List<Object[]> methEntries = new ArrayList<>();
+        List<Object[]> instBlocks = new ArrayList<>();
+        List<Object[]> blockEntries = new ArrayList<>();
+        List<Object[]> blockPreds = new ArrayList<>();
+        List<Object[]> duEdges = new ArrayList<>();
+        List<Object[]> loads = new ArrayList<>();
+        List<Object[]> stores = new ArrayList<>();
+        List<Object[]> liveOnEntry = new ArrayList<>();
+        List<Object[]> localReachable = new ArrayList<>();
+        for (int m = 0; m < numMeths; ++m) {
+            String meth = "m" + m;
+            meths.add(meth);
+            for (int b = 0; b < 3; ++b)
+                blocks.add(meth + "b" + b);
+            for (int i = 0; i < numInsts; ++i) {
+                String inst = meth + "p" + i;
+                insts.add(inst);
+                methInsts.add(new Object[]{meth, inst});
+                String block = meth + "b" + (i * 3 / numInsts);
+                instBlocks.add(new Object[]{inst, block});
+                if (i % (numInsts / 3) == 0)
+                    blockEntries.add(new Object[]{block, inst});
+                if (i > 0)
+                    duEdges.add(new Object[]{meth + "p" + (i - 1), inst});
+                if (random.nextInt(3) == 0)
+                    stores.add(new Object[]{inst, objs.get(random.nextInt(numObjs))});
+                if (random.nextInt(3) == 0)
+                    loads.add(new Object[]{inst, objs.get(random.nextInt(numObjs))});
+            }
+            duEdges.add(new Object[]{meth + "p" + (numInsts - 1), meth + "p" + (numInsts / 3)});
+            blockPreds.add(new Object[]{meth + "b0", meth + "b1"});
+            blockPreds.add(new Object[]{meth + "b1", meth + "b2"});
+            blockPreds.add(new Object[]{meth + "b2", meth + "b1"});
+            methEntries.add(new Object[]{meth, meth + "p0"});
+            for (int k = 0; k < 5; ++k)
+                localReachable.add(new Object[]{meth, objs.get(random.nextInt(numObjs))});
+            liveOnEntry.add(new Object[]{meth, objs.get(random.nextInt(numObjs))});
+        }
+
+        ProgramDom domA = new ProgramDom("A");
+        setDom(dir, domA, objs);
+        ProgramDom domM = new ProgramDom("M");
+        setDom(dir, domM, meths);
+        ProgramDom domP = new ProgramDom("P");
+        setDom(dir, domP, insts);
+        ProgramDom domB = new ProgramDom("B");
+        setDom(dir, domB, blocks);
+        ProgramDom domZ = new ProgramDom("Z");
+        setDom(dir, domZ, List.of("0"));
+        ProgramDom domV = new ProgramDom("V");
+        setDom(dir, domV, List.of("g"));
+
+        setRel(dir, new ProgramRel("instruction_basicblock", domP, domB), instBlocks);
+        setRel(dir, new ProgramRel("basicblock_pred", domB, domB), blockPreds);
+        setRel(dir, new ProgramRel("basicblock_entry", domB, domP), blockEntries);
+        setRel(dir, new ProgramRel("MP", domM, domP), methInsts);
+        setRel(dir, new ProgramRel("MPentry", domM, domP), methEntries);
+        setRel(dir, new ProgramRel("load_may_use", domP, domA), loads);
+        setRel(dir, new ProgramRel("store_may_def", domP, domA), stores);
+        setRel(dir, new ProgramRel("invk_may_use", domP, domA), List.of());
+        setRel(dir, new ProgramRel("invk_may_def", domP, domA), List.of());
+        setRel(dir, new ProgramRel("live_on_entry", domM, domA), liveOnEntry);
+        setRel(dir, new ProgramRel("ret_may_use", domP, domA), List.of());
+        setRel(dir, new ProgramRel("global_obj", domV, domA), List.of(new Object[]{"g", "a0"}, new Object[]{"g", "a1"}));
+        setRel(dir, new ProgramRel("local_obj", domM, domV, domA), List.of());
+        setRel(dir, new ProgramRel("global_reachable", domA), List.of(new Object[]{"a0"}, new Object[]{"a2"}));
+        setRel(dir, new ProgramRel("local_reachable", domM, domA), localReachable);
+        setRel(dir, new ProgramRel("DUedge", domP, domP), duEdges);
+    }
+
+    private static Pair<Map<String, String>, Map<String, String>> run(int numJobs) throws IOException {
+        Path path = workDirPath.resolve("jobs" + numJobs);
+        Files.createDirectories(path);
+        Pair<Map<String, String>, Map<String, String>> output = AnalysisUtil.runAnalysis(new MemorySSA(path, numJobs), domLocMap, relLocMap);
+        Assertions.assertNotNull(output);
+        return output;
+    }
+
+    private static List<String> domElems(Map<String, String> domLocs, String domName) {
+        ProgramDom dom = new ProgramDom(domName);
+        dom.load(domLocs.get(domName));
+        List<String> elems = new ArrayList<>();
+        for (String elem : dom)
+            elems.add(elem);
+        return elems;
+    }
+
+    @Test
+    @DisplayName("MemorySSA builds the same regions and edges with one job and with several")
+    public void parallelTest() throws IOException {
+        Pair<Map<String, String>, Map<String, String>> serial = run(1);
+        Pair<Map<String, String>, Map<String, String>> parallel = run(4);
+        for (String domName : new String[]{"R", "G"}) {
+            List<String> elems = domElems(serial.getLeft(), domName);
+            Assertions.assertFalse(elems.isEmpty());
+            Assertions.assertEquals(elems, domElems(parallel.getLeft(), domName));
+        }
+        Assertions.assertEquals(serial.getRight().keySet(), parallel.getRight().keySet());
+        for (String relName : serial.getRight().keySet()) {
+            Assertions.assertArrayEquals(Files.readAllBytes(Paths.get(serial.getRight().get(relName))),
+                    Files.readAllBytes(Paths.get(parallel.getRight().get(relName))), relName);
+        }
+    }
+}
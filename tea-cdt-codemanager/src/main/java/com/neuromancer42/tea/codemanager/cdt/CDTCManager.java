@@ -2,6 +2,7 @@ package com.neuromancer42.tea.codemanager.cdt;
 
 import com.google.common.graph.EndpointPair;
 import com.google.common.graph.ValueGraph;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.TextFormat;
 import com.neuromancer42.tea.commons.analyses.AbstractAnalysis;
 import com.neuromancer42.tea.commons.analyses.annotations.ProduceDom;
@@ -29,9 +30,15 @@ import org.neuromancer42.tea.ir.Expr;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 @TeAAnalysis(name = "cmanager")
 public class CDTCManager extends AbstractAnalysis {
@@ -158,13 +165,16 @@ public class CDTCManager extends AbstractAnalysis {
     @ProduceRel(name = "NotPtrOP", doms = {"OP"}, description = "operators not for pointer computations")
     public ProgramRel relNotPtrOP;
 
+    private final List<IASTTranslationUnit> translationUnits = new ArrayList<>();
     private IASTTranslationUnit translationUnit = null;
     private CFGBuilder builder;
 
     private final File sourceFile;
     private final String compileCmd;
     private Path workPath;
+    private final int numJobs;
     private static Path dummySysrootPath;
+    private static Path ppCachePath;
 
     public List<ProgramDom> getProducedDoms() {
         return List.of(
@@ -186,9 +196,47 @@ public class CDTCManager extends AbstractAnalysis {
     }
 
     public CDTCManager(Path workPath, String fileName, String command) {
-        compileCmd = command;
-        sourceFile = new File(fileName);
+        this(workPath, List.of(CompilationDatabase.Unit.ofCommand(null, fileName, command)), 1);
+    }
+
+    /**
+     * Parses translation units on at most numJobs threads, and links them into one program.
+     * Instrumentation is supported only for a single translation unit.
+     */
+    public CDTCManager(Path workPath, List<CompilationDatabase.Unit> units, int numJobs) {
+        CompilationDatabase.Unit first = units.get(0);
+        compileCmd = String.join(" ", first.arguments());
+        sourceFile = first.resolve(first.file()).toFile();
         this.workPath = workPath;
+        this.numJobs = numJobs;
+        if (units.size() == 1) {
+            translationUnits.add(parseUnit(first, "preprocessed.c"));
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numJobs, units.size())));
+            try {
+                List<Future<IASTTranslationUnit>> futures = new ArrayList<>();
+                for (int i = 0; i < units.size(); ++i) {
+                    CompilationDatabase.Unit unit = units.get(i);
+                    String ppName = String.format("preprocessed-%d-%s", i, Paths.get(unit.file()).getFileName());
+                    futures.add(executor.submit(() -> parseUnit(unit, ppName)));
+                }
+                for (Future<IASTTranslationUnit> future : futures) {
+                    translationUnits.add(future.get());
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                Messages.error("CParser: failed to parse %d translation units", units.size());
+                Messages.fatal(e);
+            } finally {
+                executor.shutdownNow();
+            }
+            Messages.log("CParser: parsed %d translation units", units.size());
+        }
+        translationUnit = translationUnits.get(0);
+    }
+
+    private IASTTranslationUnit parseUnit(CompilationDatabase.Unit unit, String ppName) {
+        List<String> arguments = unit.arguments();
+        File sourceFile = unit.resolve(unit.file()).toFile();
         if (!sourceFile.isFile()) {
             Messages.fatal("CParser: the referenced path %s is not a source file", sourceFile.toString());
         }
@@ -196,7 +244,7 @@ public class CDTCManager extends AbstractAnalysis {
         Map<String, String> definedSymbols = new LinkedHashMap<>();
         boolean isInclude = false;
         boolean isDefine = false;
-        for (String cmdPart : command.split(" ")) {
+        for (String cmdPart : arguments) {
             if (cmdPart.isBlank()) {
                 continue;
             }
@@ -206,7 +254,7 @@ public class CDTCManager extends AbstractAnalysis {
                 }
                 for (String includePath : cmdPart.split(File.pathSeparator))  {
                     Messages.log("CParser: add include path %s", includePath);
-                    includePaths.add(includePath);
+                    includePaths.add(unit.resolve(includePath).toString());
                 }
                 isInclude = false;
             } else if (cmdPart.equals("-I")) {
@@ -218,13 +266,13 @@ public class CDTCManager extends AbstractAnalysis {
                 }
                 for (String includePath : cmdPart.split(File.pathSeparator)) {
                     Messages.log("CParser: add include path %s", includePath);
-                    includePaths.add(includePath);
+                    includePaths.add(unit.resolve(includePath).toString());
                 }
             } else if (isDefine) {
                 if (cmdPart.startsWith("\"") && cmdPart.endsWith("\"")) {
                     cmdPart = cmdPart.substring(1, cmdPart.length() - 1);
                 }
-                String[] pair = cmdPart.split("=");
+                String[] pair = cmdPart.split("=", 2);
                 String symbol = pair[0];
                 String value = "";
                 if (pair.length > 1)
@@ -239,7 +287,7 @@ public class CDTCManager extends AbstractAnalysis {
                 if (cmdPart.startsWith("\"") && cmdPart.endsWith("\"")) {
                     cmdPart = cmdPart.substring(1, cmdPart.length() - 1);
                 }
-                String[] pair = cmdPart.split("=");
+                String[] pair = cmdPart.split("=", 2);
                 String symbol = pair[0];
                 String value = "";
                 if (pair.length > 1)
@@ -249,7 +297,7 @@ public class CDTCManager extends AbstractAnalysis {
             }
         }
 
-        String ppFilename = preprocess(command, fileName, includePaths, definedSymbols);
+        String ppFilename = preprocess(arguments.get(0), sourceFile.getPath(), includePaths, definedSymbols, ppName);
 
         FileContent fileContent = FileContent.createForExternalFileLocation(ppFilename);
         IScannerInfo scannerInfo = new ScannerInfo(definedSymbols, includePaths.toArray(new String[0]));
@@ -274,11 +322,12 @@ public class CDTCManager extends AbstractAnalysis {
             definedSymbols.putIfAbsent("uint16_t", "unsigned short");
             definedSymbols.putIfAbsent("int8_t", "char");
             definedSymbols.putIfAbsent("uint8_t", "unsigned char");
-            translationUnit = GCCLanguage.getDefault().getASTTranslationUnit(fileContent, scannerInfo, includeContents, null, opts, log);
+            return GCCLanguage.getDefault().getASTTranslationUnit(fileContent, scannerInfo, includeContents, null, opts, log);
         } catch (CoreException e) {
             Messages.error("CParser: failed to crete parser for file %s, exit.", ppFilename);
             Messages.fatal(e);
             assert false;
+            return null;
         }
     }
 
@@ -299,7 +348,10 @@ public class CDTCManager extends AbstractAnalysis {
                 if (!headerPath.getParent().toFile().isDirectory()) {
                     Files.createDirectories(headerPath.getParent());
                 }
-                Files.write(headerPath, lines, StandardCharsets.UTF_8);
+                // rewriting an unchanged header would invalidate every cached unit including it
+                if (!Files.exists(headerPath) || !Files.readAllLines(headerPath, StandardCharsets.UTF_8).equals(lines)) {
+                    Files.write(headerPath, lines, StandardCharsets.UTF_8);
+                }
             }
         } catch (IOException e) {
             Messages.error("CParser: failed to set dummy headers");
@@ -307,10 +359,21 @@ public class CDTCManager extends AbstractAnalysis {
         }
     }
 
-    private String preprocess(String command, String filename, List<String> includes, Map<String, String> defines) {
-        String[] commands = command.split(" ");
+    /**
+     * Keeps preprocessed translation units under the given directory, to be reused across runs while the files
+     * they include stay unmodified.
+     */
+    public static void setPreprocessCache(Path path) {
+        try {
+            ppCachePath = Files.createDirectories(path);
+        } catch (IOException e) {
+            Messages.error("CParser: failed to create preprocess cache %s, preprocess without it: %s", path, e.getMessage());
+        }
+    }
+
+    private String preprocess(String compiler, String filename, List<String> includes, Map<String, String> defines, String ppName) {
         List<String> ppCmd = new ArrayList<>();
-        ppCmd.add(commands[0]);
+        ppCmd.add(compiler);
         ppCmd.add("-E");
         ppCmd.add(String.format("-D%s=#include", incDirective));
         ppCmd.add("-I" + dummySysrootPath.toAbsolutePath());
@@ -322,18 +385,92 @@ public class CDTCManager extends AbstractAnalysis {
         }
         ppCmd.add(Paths.get(filename).toAbsolutePath().toString());
 
+        Path ppPath = workPath.resolve(ppName);
+        // the preprocessing command fixes the compiler, include paths, defines and source file
+        Path cachedPath = null;
+        if (ppCachePath != null) {
+            String key = Hashing.sha256().hashString(String.join("\n", ppCmd), StandardCharsets.UTF_8).toString();
+            cachedPath = ppCachePath.resolve(key + ".c");
+            try {
+                if (isCacheValid(cachedPath)) {
+                    Files.copy(cachedPath, ppPath, StandardCopyOption.REPLACE_EXISTING);
+                    Messages.log("CParser: reuse preprocessed file %s for %s", cachedPath, filename);
+                    return ppPath.toAbsolutePath().toString();
+                }
+            } catch (IOException e) {
+                Messages.warn("CParser: failed to reuse preprocessed file %s: %s", cachedPath, e.getMessage());
+            }
+        }
+
         try {
-            ProcessExecutor.simpleExecute(workPath, false, ppCmd, "preprocessed.c");
+            ProcessExecutor.simpleExecute(workPath, false, ppCmd, ppName);
         } catch (IOException | InterruptedException e) {
             Messages.error("CParser: failed to preprocess source file");
             Messages.fatal(e);
             assert false;
         }
-        Path ppPath = workPath.resolve("preprocessed.c");
         Messages.log("CParser: dumping preprocessed file to %s", ppPath);
+        if (cachedPath != null) {
+            try {
+                saveCache(ppPath, cachedPath);
+            } catch (IOException e) {
+                Messages.warn("CParser: failed to cache preprocessed file %s: %s", ppPath, e.getMessage());
+            }
+        }
         return ppPath.toAbsolutePath().toString();
     }
 
+    private static final String DEPS_SUFFIX = ".deps";
+
+    // a cached file is valid if none of the files recorded by its line markers has been modified since
+    private static boolean isCacheValid(Path cachedPath) throws IOException {
+        Path depsPath = cachedPath.resolveSibling(cachedPath.getFileName() + DEPS_SUFFIX);
+        if (!Files.exists(cachedPath) || !Files.exists(depsPath)) {
+            return false;
+        }
+        for (String line : Files.readAllLines(depsPath, StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                return false;
+            }
+            long mtime = Long.parseLong(line.substring(0, tab));
+            Path dep = Paths.get(line.substring(tab + 1));
+            if (!Files.exists(dep) || Files.getLastModifiedTime(dep).toMillis() != mtime) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void saveCache(Path ppPath, Path cachedPath) throws IOException {
+        Set<String> deps = new LinkedHashSet<>();
+        try (var lines = Files.lines(ppPath, StandardCharsets.ISO_8859_1)) {
+            lines.forEach(line -> {
+                // line markers: # linenum "filename" flags
+                if (line.startsWith("# ") && line.length() > 2 && Character.isDigit(line.charAt(2))) {
+                    int start = line.indexOf('"');
+                    int end = line.lastIndexOf('"');
+                    if (start > 0 && end > start && line.charAt(start + 1) != '<') {
+                        deps.add(line.substring(start + 1, end));
+                    }
+                }
+            });
+        }
+        List<String> depLines = new ArrayList<>();
+        for (String dep : deps) {
+            Path depPath = ppPath.resolveSibling(dep);
+            depLines.add(Files.getLastModifiedTime(depPath).toMillis() + "\t" + depPath.toAbsolutePath());
+        }
+        String tmpSuffix = ".tmp-" + Thread.currentThread().getId();
+        Path depsPath = cachedPath.resolveSibling(cachedPath.getFileName() + DEPS_SUFFIX);
+        Path tmpDeps = depsPath.resolveSibling(depsPath.getFileName() + tmpSuffix);
+        Files.write(tmpDeps, depLines, StandardCharsets.UTF_8);
+        Files.move(tmpDeps, depsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path tmpCached = cachedPath.resolveSibling(cachedPath.getFileName() + tmpSuffix);
+        Files.copy(ppPath, tmpCached, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpCached, cachedPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     public void init() {
         domM = new ProgramDom("M");
         domP = new ProgramDom("P");
@@ -444,8 +581,8 @@ public class CDTCManager extends AbstractAnalysis {
 
     @Override
     protected void domPhase() {
-        builder = new CFGBuilder(translationUnit);
-        builder.build();
+        builder = new CFGBuilder(translationUnits);
+        builder.build(numJobs);
 
         int numRegs = builder.getRegisters().size();
         for (int i = 0; i < numRegs; ++i) {
@@ -714,10 +851,22 @@ public class CDTCManager extends AbstractAnalysis {
         return translationUnit;
     }
 
+    public List<IASTTranslationUnit> getTranslationUnits() {
+        return translationUnits;
+    }
+
+    public boolean isInstrumentable() {
+        return translationUnits.size() == 1;
+    }
+
     private CInstrument instr;
 
 
     public void setInstrument() {
+        if (!isInstrumentable()) {
+            Messages.error("CParser: cannot instrument a program of %d translation units", translationUnits.size());
+            return;
+        }
         String target = null;
         List<String> splitted = new ArrayList<>(List.of(compileCmd.split(" ")));
         if (splitted.contains("-o")) {
@@ -959,15 +1108,22 @@ public class CDTCManager extends AbstractAnalysis {
         public void dumpInstrumented(Path newFilePath) {
             try {
                 List<String> lines = new ArrayList<>();
+                // records are fixed-size binary (int32 type, int32 id, int64 content) in native byte order,
+                // written unbuffered to an append-only descriptor, so that records before a crash or kill are kept
                 lines.add("""
-                        #include <stdio.h>
+                        #include <stdint.h>
+                        #include <fcntl.h>
+                        #include <unistd.h>
+                        static int peek_fd = -1;
                         void* peek (int type, int id, void *ptr) {
-                                FILE *fptr = fopen("peek.log", "a");
-                                fprintf(fptr, "%d\t%d\t%ld\\n", type, id, (long) ptr);
-                                fclose(fptr);
+                                struct { int32_t type; int32_t id; int64_t content; } rec = {type, id, (int64_t) (intptr_t) ptr};
+                                if (peek_fd < 0)
+                                        peek_fd = open("%s", O_WRONLY | O_APPEND | O_CREAT, 0644);
+                                if (peek_fd >= 0)
+                                        write(peek_fd, &rec, sizeof(rec));
                                 return ptr;
                         }
-                        """);
+                        """.formatted(PEEK_FILE));
                 for (IASTPreprocessorIncludeStatement incl : translationUnit.getIncludeDirectives()) {
                     lines.add(incl.toString());
                 }
@@ -1026,26 +1182,18 @@ public class CDTCManager extends AbstractAnalysis {
         }
 
         private boolean built = false;
-        public Set<Trgt.Tuple> test(List<String> argList) {
+
+        private synchronized void ensureBuilt() {
             if (!built) {
                 compile();
                 built = true;
             }
+        }
 
-            List<String> peekLines = runInstrumentedAndPeek(argList.toArray(new String[0]));
-
-            List<Trace> traces = new ArrayList<>();
-
-            for (String line : peekLines) {
-                String[] words = line.split("\t");
-                int id = Integer.parseInt(words[0]);
-                long[] content = new long[words.length - 1];
-                for (int i = 0; i < content.length; ++i) {
-                    content[i] = Long.parseLong(words[i + 1]);
-                }
-                traces.add(new Trace(id, content));
+        public Set<Trgt.Tuple> test(String testId, List<String> argList) {
+            ensureBuilt();
 
-            }
+            Collection<Trace> traces = runInstrumentedAndPeek(testId, argList.toArray(new String[0]));
             Set<Trgt.Tuple> triggerd = new LinkedHashSet<>();
             triggerd.addAll(processTraceCIIM(traces));
             triggerd.addAll(processTraceReachableM(traces));
@@ -1053,8 +1201,50 @@ public class CDTCManager extends AbstractAnalysis {
             return triggerd;
         }
 
-        private int testTime = 0;
-        public List<String> runInstrumentedAndPeek(String ... argList) {
+        /**
+         * Runs tests concurrently on at most numJobs workers, and hands over the triggered tuples of each test
+         * to the consumer, on the calling thread, as soon as the test finishes.
+         */
+        public void testAll(Map<String, List<String>> testArgs, int numJobs, BiConsumer<String, Set<Trgt.Tuple>> onFinished) {
+            if (testArgs.isEmpty())
+                return;
+            ensureBuilt();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numJobs, testArgs.size())));
+            CompletionService<Map.Entry<String, Set<Trgt.Tuple>>> completion = new ExecutorCompletionService<>(executor);
+            try {
+                for (var testEntry : testArgs.entrySet()) {
+                    String testId = testEntry.getKey();
+                    completion.submit(() -> {
+                        try {
+                            return Map.entry(testId, test(testId, testEntry.getValue()));
+                        } catch (RuntimeException e) {
+                            Messages.error("CInstrument: test %s failed, skip: %s", testId, e.toString());
+                            return Map.entry(testId, Set.of());
+                        }
+                    });
+                }
+                for (int i = 0; i < testArgs.size(); ++i) {
+                    var result = completion.take().get();
+                    onFinished.accept(result.getKey(), result.getValue());
+                }
+            } catch (InterruptedException e) {
+                Messages.error("CInstrument: interrupted while waiting for tests");
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Messages.error("CInstrument: failed to run tests: %s", e.getCause().toString());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        private final AtomicInteger testCnt = new AtomicInteger(0);
+
+        private static final String PEEK_FILE = "peek.bin";
+        private static final int PEEK_RECORD_SIZE = 16;
+        private static final long PEEK_CHUNK_SIZE = (64L << 20) / PEEK_RECORD_SIZE * PEEK_RECORD_SIZE;
+
+        // each test runs in its own sandbox, so that the peek file appended by the instrumented binary is not shared
+        public Collection<Trace> runInstrumentedAndPeek(String testId, String ... argList) {
             List<String> executeCmd = new ArrayList<>();
             Path targetPath = instrWorkDirPath.resolve(target);
             if (!Files.isExecutable(targetPath)) {
@@ -1064,19 +1254,51 @@ public class CDTCManager extends AbstractAnalysis {
             executeCmd.add(targetPath.toAbsolutePath().toString());
             executeCmd.addAll(List.of(argList));
             try {
-                Path peekLog = instrWorkDirPath.resolve("peek.log");
-                Files.deleteIfExists(peekLog);
-                int retval = ProcessExecutor.simpleExecute(instrWorkDirPath, true, executeCmd, String.format("test-%03d.out", testTime));
-                List<String> peekLines = Files.readAllLines(peekLog);
-                Files.move(peekLog, peekLog.resolveSibling(String.format("peek-%03d.log", testTime)), StandardCopyOption.REPLACE_EXISTING);
-                testTime++;
-                return peekLines;
+                String sandboxName = String.format("test-%03d-%s", testCnt.getAndIncrement(), testId.replaceAll("[^A-Za-z0-9._-]", "_"));
+                Path sandbox = Files.createDirectories(instrWorkDirPath.resolve("tests").resolve(sandboxName));
+                Path peekFile = sandbox.resolve(PEEK_FILE);
+                Files.deleteIfExists(peekFile);
+                int retval = ProcessExecutor.simpleExecute(sandbox, true, executeCmd, "test.out");
+                if (!Files.exists(peekFile)) {
+                    Messages.debug("CInstrument: test %s exited with %d and reached no instrumented position", testId, retval);
+                    return new ArrayList<>();
+                }
+                return readPeekTraces(peekFile);
             } catch (InterruptedException | IOException e) {
                 Messages.error("CInstrument: failed to execute cmd {%s}, skip: %s", StringUtil.join(executeCmd, " "), e.toString());
             }
             return new ArrayList<>();
         }
 
+        /**
+         * Streams the peek records by mapping the file chunk by chunk, keeping only distinct traces in the order
+         * they are first seen, so memory is bounded by the number of observations rather than the length of the run.
+         */
+        private Collection<Trace> readPeekTraces(Path peekFile) throws IOException {
+            Set<Trace> traces = new LinkedHashSet<>();
+            long numRecords = 0;
+            try (FileChannel channel = FileChannel.open(peekFile, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size % PEEK_RECORD_SIZE != 0) {
+                    Messages.warn("CInstrument: dropping truncated record at the end of %s", peekFile);
+                    size -= size % PEEK_RECORD_SIZE;
+                }
+                for (long pos = 0; pos < size; pos += PEEK_CHUNK_SIZE) {
+                    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(PEEK_CHUNK_SIZE, size - pos));
+                    chunk.order(ByteOrder.nativeOrder());
+                    while (chunk.remaining() >= PEEK_RECORD_SIZE) {
+                        int type = chunk.getInt();
+                        int id = chunk.getInt();
+                        long content = chunk.getLong();
+                        traces.add(new Trace(type, id, content));
+                        ++numRecords;
+                    }
+                }
+            }
+            Messages.debug("CInstrument: read %d distinct traces out of %d records from %s", traces.size(), numRecords, peekFile);
+            return traces;
+        }
+
         public void compile() {
             try {
                 Path instrFile = instrWorkDirPath.resolve(source);
@@ -1257,7 +1479,7 @@ public class CDTCManager extends AbstractAnalysis {
             return true;
         }
 
-        private List<Trgt.Tuple> processTraceCIIM(List<Trace> traces) {
+        private List<Trgt.Tuple> processTraceCIIM(Collection<Trace> traces) {
             List<Trgt.Tuple> provedTuples = new ArrayList<>();
             Map<Long, String> methAddrMap = new LinkedHashMap<>();
             for (Trace trace: traces) {
@@ -1295,7 +1517,7 @@ public class CDTCManager extends AbstractAnalysis {
             return true;
         }
 
-        private List<Trgt.Tuple> processTraceReachableM(List<Trace> traces) {
+        private List<Trgt.Tuple> processTraceReachableM(Collection<Trace> traces) {
             List<Trgt.Tuple> provedTuples = new ArrayList<>();
             for (Trace trace : traces) {
                 if (trace.getType() == Trace.ENTER_METHOD) {
@@ -1328,7 +1550,7 @@ public class CDTCManager extends AbstractAnalysis {
             return true;
         }
 
-        private List<Trgt.Tuple> processTracePHval(List<Trace> traces) {
+        private List<Trgt.Tuple> processTracePHval(Collection<Trace> traces) {
             List<Trgt.Tuple> provedTuples = new ArrayList<>();
             for (Trace trace : traces) {
                 if (trace.getType() == Trace.BEFORE_EXPR) {
@@ -1386,6 +1608,16 @@ public class CDTCManager extends AbstractAnalysis {
                     return contents[i];
                 }
             }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Trace && typeId == ((Trace) o).typeId && Arrays.equals(contents, ((Trace) o).contents);
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * typeId + Arrays.hashCode(contents);
+            }
         }
     }
 }
@@ -3,6 +3,7 @@ package com.neuromancer42.tea.codemanager.cdt;
 import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.commons.analyses.AnalysisUtil;
+import com.neuromancer42.tea.commons.analyses.TrgtStreams;
 import com.neuromancer42.tea.core.analysis.Analysis;
 import com.neuromancer42.tea.core.analysis.ProviderGrpc;
 import com.neuromancer42.tea.core.analysis.Trgt;
@@ -28,6 +29,7 @@ public class CDTProvider extends ProviderGrpc.ProviderImplBase {
     public static void init(Path workPath) throws IOException {
         Files.createDirectories(workPath);
         CDTCManager.setDummySysroot(workPath);
+        CDTCManager.setPreprocessCache(workPath.resolve("pp-cache"));
     }
 
     public static void main(String[] args) throws IOException, InterruptedException, ParseException {
@@ -106,7 +108,24 @@ public class CDTProvider extends ProviderGrpc.ProviderImplBase {
         assert request.getAnalysisName().equals("cmanager");
         Map<String, String> option = request.getOption().getPropertyMap();
         Analysis.RunResults runResults;
-        if (!option.containsKey(Constants.OPT_SRC)) {
+        String srcDb = option.getOrDefault(Constants.OPT_SRC_DB, "");
+        if (!srcDb.isBlank()) {
+            String projId = request.getProjectId();
+            int numJobs = Integer.parseInt(option.getOrDefault(Constants.OPT_JOBS,
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            Path projPath = workPath.resolve(projId);
+            try {
+                List<CompilationDatabase.Unit> units = CompilationDatabase.load(Paths.get(srcDb));
+                Files.createDirectories(projPath);
+                CDTCManager manager = new CDTCManager(projPath, units, numJobs);
+                managerMap.put(projId, manager);
+                runResults = AnalysisUtil.runAnalysis(manager, request);
+            } catch (IOException e) {
+                String failMsg = String.format("failed to parse compilation database %s for analysis %s in project %s: %s", srcDb, request.getAnalysisName(), projId, e.getMessage());
+                Messages.error("CParser: " + failMsg);
+                runResults = Analysis.RunResults.newBuilder().setMsg(Constants.MSG_FAIL + ": " + failMsg).build();
+            }
+        } else if (!option.containsKey(Constants.OPT_SRC)) {
             String failMsg = String.format("no source file specified in options for analysis %s in project %s", request.getAnalysisName(), request.getProjectId());
             Messages.error("CParser: " + failMsg);
             runResults = Analysis.RunResults.newBuilder()
@@ -151,7 +170,9 @@ public class CDTProvider extends ProviderGrpc.ProviderImplBase {
         Messages.log("CParser: processing instrument request");
         Analysis.InstrumentResponse.Builder respBuilder = Analysis.InstrumentResponse.newBuilder();
         CDTCManager cmanager = managerMap.get(request.getProjectId());
-        if (cmanager != null) {
+        if (cmanager != null && !cmanager.isInstrumentable()) {
+            Messages.error("CParser: project %s of multiple translation units cannot be instrumented", request.getProjectId());
+        } else if (cmanager != null) {
             cmanager.setInstrument();
             for (Trgt.Tuple tuple : request.getInstrTupleList()) {
                 if (cmanager.getInstrument().instrument(tuple)) {
@@ -171,15 +192,26 @@ public class CDTProvider extends ProviderGrpc.ProviderImplBase {
      */
     @Override
     public void test(Analysis.TestRequest request, StreamObserver<Analysis.TestResponse> responseObserver) {
-        Analysis.TestResponse.Builder respBuilder = Analysis.TestResponse.newBuilder();
         CDTCManager cmanager = managerMap.get(request.getProjectId());
-        if (cmanager != null) {
-            Set<Trgt.Tuple> triggered = cmanager.getInstrument().test(request.getArgList());
-            respBuilder.addAllTriggeredTuple(triggered);
+        if (cmanager != null && !cmanager.isInstrumentable()) {
+            Messages.error("CParser: project %s of multiple translation units cannot be tested", request.getProjectId());
+        } else if (cmanager != null) {
+            // each test case is an input file under the test directory
+            Map<String, List<String>> testArgs = new LinkedHashMap<>();
+            for (String testId : request.getTestIdList()) {
+                testArgs.put(testId, List.of(Paths.get(request.getTestDir(), testId).toAbsolutePath().toString()));
+            }
+            int numJobs = Integer.parseInt(request.getOption().getPropertyOrDefault(Constants.OPT_JOBS,
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            cmanager.getInstrument().testAll(testArgs, numJobs, (testId, triggered) ->
+                    responseObserver.onNext(Analysis.TestResponse.newBuilder()
+                            .setTestId(testId)
+                            .addAllTriggeredTuple(triggered)
+                            .build())
+            );
         } else {
             Messages.error("CParser: project %s not parsed before testing", request.getProjectId());
         }
-        responseObserver.onNext(respBuilder.build());
         responseObserver.onCompleted();
     }
 
@@ -199,4 +231,13 @@ public class CDTProvider extends ProviderGrpc.ProviderImplBase {
         responseObserver.onNext(Analysis.ShutdownResponse.getDefaultInstance());
         responseObserver.onCompleted();
     }
+
+    /**
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void fetch(Analysis.FetchRequest request, StreamObserver<Analysis.TrgtChunk> responseObserver) {
+        TrgtStreams.serveFetch(request, responseObserver);
+    }
 }
@@ -1,6 +1,7 @@
 package com.neuromancer42.tea.codemanager.cdt;
 
 import com.google.common.graph.ElementOrder;
+import com.google.common.graph.EndpointPair;
 import com.google.common.graph.ImmutableValueGraph;
 import com.google.common.graph.ValueGraph;
 import com.google.common.graph.ValueGraphBuilder;
@@ -21,9 +22,17 @@ import org.neuromancer42.tea.ir.Expr;
 
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CFGBuilder {
-    private final IASTTranslationUnit transUnit;
+    private final List<IASTTranslationUnit> transUnits;
+    // the builder a worker merges into, null for the global builder itself
+    private final CFGBuilder global;
+    // global ids of registers allocated locally by a worker, filled on merge
+    private int[] globalRegs;
     private final Map<IFunction, ValueGraph<CFG.CFGNode, Integer>> intraCFGMap;
     private final Map<IFunction, CFG.CFGNode> funcEntryMap;
 
@@ -41,6 +50,7 @@ public class CFGBuilder {
     private int gepIdx = 0;
 
     private final Map<String, IFunction> funcs;
+    private final Map<String, IVariable> externVars;
     private final Map<IFunction, Set<Integer>> funcVars;
     private final Set<Integer> staticRefs;
     private final Map<Integer, CFG.Alloca> allocaMap;
@@ -72,12 +82,24 @@ public class CFGBuilder {
     public util util = new util();
 
     public CFGBuilder(IASTTranslationUnit tu) {
-        this.transUnit = tu;
+        this(List.of(tu));
+    }
+
+    /**
+     * Collects declarations of translation units linked into one program, in the given order.
+     * <p>
+     * Functions and global variables of external linkage are linked by name: one declared in several units is referred
+     * to by its first declaration. Static ones are kept per unit, and named with the file of their unit.
+     */
+    public CFGBuilder(List<IASTTranslationUnit> tus) {
+        this.transUnits = tus;
+        this.global = null;
         intraCFGMap = new HashMap<>();
         funcEntryMap = new HashMap<>();
         registers = new IndexMap<>();
 
         funcs = new LinkedHashMap<>();
+        externVars = new LinkedHashMap<>();
         funcVars = new HashMap<>();
         staticRefs = new LinkedHashSet<>();
         allocaMap = new LinkedHashMap<>();
@@ -92,27 +114,321 @@ public class CFGBuilder {
         simpleConstants = new LinkedHashMap<>();
 
         curFunc = null;
-        for (IASTDeclaration decl : tu.getDeclarations()) {
-            // add declared variables and functions into registers
-            if (decl instanceof IASTFunctionDefinition) {
-                IASTDeclarator dtor = ((IASTFunctionDefinition) decl).getDeclarator();
-                Messages.debug("CParser: declare func [%s] at %s:#%d", dtor.getName(), dtor.getFileLocation().getFileName(), dtor.getFileLocation().getStartingLineNumber());
-                processDeclarator(dtor, true);
-            } else if (decl instanceof IASTSimpleDeclaration) {
-                IASTDeclarator[] dtors = ((IASTSimpleDeclaration) decl).getDeclarators();
-                for (var dtor : dtors) {
+        for (IASTTranslationUnit tu : tus) {
+            for (IASTDeclaration decl : tu.getDeclarations()) {
+                // add declared variables and functions into registers
+                if (decl instanceof IASTFunctionDefinition) {
+                    IASTDeclarator dtor = ((IASTFunctionDefinition) decl).getDeclarator();
+                    Messages.debug("CParser: declare func [%s] at %s:#%d", dtor.getName(), dtor.getFileLocation().getFileName(), dtor.getFileLocation().getStartingLineNumber());
                     processDeclarator(dtor, true);
+                } else if (decl instanceof IASTSimpleDeclaration) {
+                    IASTDeclarator[] dtors = ((IASTSimpleDeclaration) decl).getDeclarators();
+                    for (var dtor : dtors) {
+                        processDeclarator(dtor, true);
+                    }
                 }
             }
         }
     }
 
+    // a worker building the CFG of a single function, reading the global builder and recording what it adds
+    private CFGBuilder(CFGBuilder global, IFunction func) {
+        this.transUnits = global.transUnits;
+        this.global = global;
+        intraCFGMap = new HashMap<>();
+        funcEntryMap = new HashMap<>();
+        registers = new LocalRegisters(global.registers);
+
+        funcs = new LinkedHashMap<>();
+        externVars = new LinkedHashMap<>();
+        funcVars = new HashMap<>();
+        funcVars.put(func, new LinkedHashSet<>());
+        staticRefs = new LinkedHashSet<>();
+        allocaMap = new LinkedHashMap<>();
+        types = new LinkedHashSet<>();
+        fields = new LinkedHashSet<>();
+
+        funcArgsMap = new HashMap<>();
+        refRegMap = new HashMap<>();
+        inclIdMap = new HashMap<>();
+        staticInvkMap = new LinkedHashMap<>();
+        stringConstants = new LinkedHashMap<>();
+        simpleConstants = new LinkedHashMap<>();
+    }
+
     public void build() {
-        for (var decl: transUnit.getDeclarations()) {
-            if (decl instanceof IASTFunctionDefinition) {
-                var fDef = (IASTFunctionDefinition) decl;
-                buildIntraCFG(fDef);
+        build(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds the CFGs of all function definitions on at most numJobs threads.
+     * <p>
+     * Each function is built by a worker of its own, which numbers the registers it allocates after the global ones.
+     * Workers are merged back in the order of definitions, re-allocating their registers globally, so that registers
+     * are numbered the same whatever the number of threads.
+     */
+    public void build(int numJobs) {
+        List<IASTFunctionDefinition> fDefs = new ArrayList<>();
+        List<CFGBuilder> workers = new ArrayList<>();
+        Set<IFunction> defined = new HashSet<>();
+        for (IASTTranslationUnit tu : transUnits) {
+            // bindings are resolved lazily into the shared AST, resolve them all before workers read it concurrently
+            tu.accept(new ASTVisitor() {
+                {
+                    shouldVisitNames = true;
+                }
+
+                @Override
+                public int visit(IASTName name) {
+                    name.resolveBinding();
+                    return PROCESS_CONTINUE;
+                }
+            });
+            for (var decl : tu.getDeclarations()) {
+                if (decl instanceof IASTFunctionDefinition) {
+                    IASTFunctionDefinition fDef = (IASTFunctionDefinition) decl;
+                    IFunction func = canonicalFunc((IFunction) fDef.getDeclarator().getName().resolveBinding());
+                    if (!defined.add(func)) {
+                        Messages.warn("CParser: function %s defined in more than one translation unit, keep the first definition (%s)", func, tu.getContainingFilename());
+                        continue;
+                    }
+                    fDefs.add(fDef);
+                    workers.add(new CFGBuilder(this, func));
+                }
+            }
+        }
+        int numThreads = Math.max(1, Math.min(numJobs, fDefs.size()));
+        if (numThreads == 1) {
+            for (int i = 0; i < fDefs.size(); ++i) {
+                workers.get(i).buildIntraCFG(fDefs.get(i));
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < fDefs.size(); ++i) {
+                    CFGBuilder worker = workers.get(i);
+                    IASTFunctionDefinition fDef = fDefs.get(i);
+                    futures.add(executor.submit(() -> worker.buildIntraCFG(fDef)));
+                }
+                // workers read the global builder, so merge only after all of them finish
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("CParser: interrupted while building CFGs", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("CParser: failed to build CFGs: " + e.getCause(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        for (CFGBuilder worker : workers) {
+            merge(worker);
+        }
+        Messages.debug("CParser: built CFGs of %d functions on %d threads, %d registers allocated", fDefs.size(), numThreads, registers.size());
+    }
+
+    private void merge(CFGBuilder worker) {
+        List<Object> localRegs = ((LocalRegisters) worker.registers).getLocals();
+        worker.globalRegs = new int[localRegs.size()];
+        for (int i = 0; i < localRegs.size(); ++i) {
+            Object regObj = localRegs.get(i);
+            if (regObj instanceof Pair<?, ?> pair) {
+                // registers carrying other registers refer to earlier ones, which have been re-allocated already
+                if (pair.getLeft() instanceof Expr.Expression gepExpr) {
+                    gepIdx++;
+                    regObj = new ImmutablePair<>(worker.globalExpr(gepExpr), gepIdx);
+                } else if (pair.getLeft() instanceof Integer ptr) {
+                    regObj = new ImmutablePair<>(worker.globalReg(ptr), pair.getRight());
+                }
+            }
+            registers.add(regObj);
+            worker.globalRegs[i] = registers.indexOf(regObj);
+        }
+
+        worker.funcs.forEach(funcs::put);
+        worker.externVars.forEach(externVars::putIfAbsent);
+        worker.funcVars.forEach((func, vars) -> {
+            Set<Integer> globalVars = funcVars.computeIfAbsent(func, f -> new LinkedHashSet<>());
+            for (int vReg : vars) {
+                globalVars.add(worker.globalReg(vReg));
+            }
+        });
+        for (int reg : worker.staticRefs) {
+            staticRefs.add(worker.globalReg(reg));
+        }
+        worker.allocaMap.forEach((reg, alloca) -> allocaMap.put(worker.globalReg(reg), worker.globalAlloca(alloca)));
+        types.addAll(worker.types);
+        fields.addAll(worker.fields);
+
+        worker.funcArgsMap.forEach((func, argRegs) -> funcArgsMap.put(func, Arrays.stream(argRegs).map(worker::globalReg).toArray()));
+        worker.refRegMap.forEach((binding, reg) -> refRegMap.put(binding, worker.globalReg(reg)));
+        worker.inclIdMap.forEach((id, reg) -> inclIdMap.put(id, worker.globalReg(reg)));
+        staticInvkMap.putAll(worker.staticInvkMap);
+        worker.stringConstants.forEach((s, reg) -> stringConstants.putIfAbsent(s, worker.globalReg(reg)));
+        worker.simpleConstants.forEach((reg, c) -> simpleConstants.put(worker.globalReg(reg), c));
+        worker.invkExprMap.forEach((invk, invkExpr) -> invkExprMap.put(worker.globalInvoke(invk), invkExpr));
+        worker.exprMap.forEach((expr, astExpr) -> exprMap.put(worker.globalExpr(expr), astExpr));
+
+        worker.intraCFGMap.forEach((func, intraCFG) -> intraCFGMap.put(func, worker.globalCFG(intraCFG)));
+        worker.funcEntryMap.forEach((func, entry) -> funcEntryMap.put(func, worker.globalNode(entry)));
+    }
+
+    private int globalReg(int reg) {
+        int base = ((LocalRegisters) registers).getBaseSize();
+        return reg < base ? reg : globalRegs[reg - base];
+    }
+
+    private String globalRepr(String regRepr) {
+        int reg = util.reprToReg(regRepr);
+        int globalReg = globalReg(reg);
+        if (globalReg == reg) {
+            return regRepr;
+        }
+        int colon = regRepr.indexOf(":");
+        return "%" + globalReg + (colon >= 0 ? regRepr.substring(colon) : "");
+    }
+
+    private Expr.Expression globalExpr(Expr.Expression expr) {
+        Expr.Expression.Builder builder = expr.toBuilder();
+        switch (expr.getExprCase()) {
+            case UNARY -> builder.getUnaryBuilder()
+                    .setOprand(globalRepr(expr.getUnary().getOprand()));
+            case BINARY -> builder.getBinaryBuilder()
+                    .setOprand1(globalRepr(expr.getBinary().getOprand1()))
+                    .setOprand2(globalRepr(expr.getBinary().getOprand2()));
+            case GEP -> {
+                builder.getGepBuilder().setBasePtr(globalRepr(expr.getGep().getBasePtr()));
+                if (expr.getGep().hasIndex())
+                    builder.getGepBuilder().setIndex(globalRepr(expr.getGep().getIndex()));
+            }
+            case SIZEOF -> builder.getSizeofBuilder()
+                    .setRef(globalRepr(expr.getSizeof().getRef()));
+            case CAST -> builder.getCastBuilder()
+                    .setInner(globalRepr(expr.getCast().getInner()));
+            default -> {}
+        }
+        return builder.build();
+    }
+
+    private CFG.Alloca globalAlloca(CFG.Alloca alloca) {
+        return alloca.toBuilder().setReg(globalRepr(alloca.getReg())).build();
+    }
+
+    private CFG.Invoke globalInvoke(CFG.Invoke invk) {
+        CFG.Invoke.Builder builder = invk.toBuilder();
+        if (invk.hasActualRet())
+            builder.setActualRet(globalRepr(invk.getActualRet()));
+        for (int i = 0; i < invk.getActualArgCount(); ++i)
+            builder.setActualArg(i, globalRepr(invk.getActualArg(i)));
+        if (invk.hasFuncPtr())
+            builder.setFuncPtr(globalRepr(invk.getFuncPtr()));
+        return builder.build();
+    }
+
+    private CFG.CFGNode globalNode(CFG.CFGNode node) {
+        CFG.CFGNode.Builder builder = node.toBuilder();
+        switch (node.getNodeCase()) {
+            case ENTRY -> {
+                CFG.Entry.Builder entryBuilder = builder.getEntryBuilder();
+                for (int i = 0; i < entryBuilder.getFormalArgCount(); ++i)
+                    entryBuilder.setFormalArg(i, globalRepr(entryBuilder.getFormalArg(i)));
+            }
+            case RETURN -> {
+                if (node.getReturn().hasFormalRet())
+                    builder.getReturnBuilder().setFormalRet(globalRepr(node.getReturn().getFormalRet()));
+            }
+            case INVK -> builder.setInvk(globalInvoke(node.getInvk()));
+            case COND -> {
+                if (node.getCond().hasCondReg())
+                    builder.getCondBuilder().setCondReg(globalRepr(node.getCond().getCondReg()));
             }
+            case ALLOCA -> builder.setAlloca(globalAlloca(node.getAlloca()));
+            case LOAD -> builder.getLoadBuilder()
+                    .setReg(globalRepr(node.getLoad().getReg()))
+                    .setAddr(globalRepr(node.getLoad().getAddr()));
+            case STORE -> builder.getStoreBuilder()
+                    .setAddr(globalRepr(node.getStore().getAddr()))
+                    .setReg(globalRepr(node.getStore().getReg()));
+            case EVAL -> builder.getEvalBuilder()
+                    .setResultReg(globalRepr(node.getEval().getResultReg()))
+                    .setExpr(globalExpr(node.getEval().getExpr()));
+            default -> {}
+        }
+        return builder.build();
+    }
+
+    private ValueGraph<CFG.CFGNode, Integer> globalCFG(ValueGraph<CFG.CFGNode, Integer> intraCFG) {
+        ImmutableValueGraph.Builder<CFG.CFGNode, Integer> builder = ValueGraphBuilder.directed().nodeOrder(ElementOrder.stable()).incidentEdgeOrder(ElementOrder.stable()).allowsSelfLoops(true).immutable();
+        Map<CFG.CFGNode, CFG.CFGNode> nodeMap = new HashMap<>();
+        for (CFG.CFGNode node : intraCFG.nodes()) {
+            CFG.CFGNode globalNode = globalNode(node);
+            nodeMap.put(node, globalNode);
+            builder.addNode(globalNode);
+        }
+        for (EndpointPair<CFG.CFGNode> edge : intraCFG.edges()) {
+            int cond = intraCFG.edgeValueOrDefault(edge, -1);
+            // conditional edges carry the condition register, see branch()
+            if (cond >= 0)
+                cond = globalReg(cond / 2) * 2 + cond % 2;
+            builder.putEdgeValue(nodeMap.get(edge.source()), nodeMap.get(edge.target()), cond);
+        }
+        return builder.build();
+    }
+
+    // registers of a worker: global ones are looked up in the global builder, local ones are numbered after them
+    private static class LocalRegisters extends IndexMap<Object> {
+        private final IndexMap<Object> base;
+        private final int baseSize;
+
+        private LocalRegisters(IndexMap<Object> base) {
+            this.base = base;
+            this.baseSize = base.size();
+        }
+
+        private int getBaseSize() {
+            return baseSize;
+        }
+
+        private List<Object> getLocals() {
+            return list;
+        }
+
+        @Override
+        public boolean contains(Object val) {
+            return base.contains(val) || super.contains(val);
+        }
+
+        @Override
+        public int indexOf(Object val) {
+            int idx = base.indexOf(val);
+            if (idx >= 0)
+                return idx;
+            idx = super.indexOf(val);
+            return idx < 0 ? -1 : baseSize + idx;
+        }
+
+        @Override
+        public int getOrAdd(Object val) {
+            int idx = base.indexOf(val);
+            return idx >= 0 ? idx : baseSize + super.getOrAdd(val);
+        }
+
+        @Override
+        public boolean add(Object val) {
+            return !base.contains(val) && super.add(val);
+        }
+
+        @Override
+        public Object get(int idx) {
+            return idx < baseSize ? base.get(idx) : super.get(idx - baseSize);
+        }
+
+        @Override
+        public int size() {
+            return baseSize + super.size();
         }
     }
 
@@ -132,7 +448,7 @@ public class CFGBuilder {
         IBinding binding = declarator.getName().resolveBinding();
         if (binding instanceof IVariable) {
             IVariable var = (IVariable) binding;
-            if (refRegMap.containsKey(var))
+            if (getRefRegOrNull(var) != null)
                 Messages.warn("CParser: re-declare variable %s[%s] at line#%d: (%s)", var.getClass().getSimpleName(), var, declarator.getFileLocation().getStartingLineNumber(), declarator.getRawSignature());
             if (var.getType().isSameType(CBasicType.VOID)) {
                 Messages.warn("CParser: skip declared null variable %s[%s] at line#%d: (%s)", var.getClass().getSimpleName(), var, declarator.getFileLocation().getStartingLineNumber(), declarator.getRawSignature());
@@ -141,7 +457,7 @@ public class CFGBuilder {
             processVariable(var, isStatic);
         } else if (binding instanceof IFunction) {
             IFunction func = (IFunction) binding;
-            if (funcs.containsValue(func))
+            if (isProcessed(func))
                 Messages.warn("CParser: re-declare function %s[%s] at line#%d: (%s)", func.getClass().getSimpleName(), func, declarator.getFileLocation().getStartingLineNumber(), declarator.getRawSignature());
             processFunction(func);
         } else if (binding instanceof ITypedef) {
@@ -154,10 +470,24 @@ public class CFGBuilder {
     }
 
     private int processVariable(IVariable var, boolean isStatic) {
+        IVariable canonical = canonicalVar(var);
+        if (canonical != var) {
+            Integer linkedReg = getRefRegOrNull(canonical);
+            if (linkedReg != null) {
+                // declared again in another translation unit, share the location of the first declaration
+                refRegMap.put(var, linkedReg);
+                Messages.debug("CParser: link variable %s[%s] to its declaration @%d", var.getClass().getSimpleName(), var, linkedReg);
+                return linkedReg;
+            }
+        }
         registers.add(var);
         int vReg = registers.indexOf(var);
         refRegMap.put(var, vReg);
-        if (isStatic) {
+        if (isExternal(var)) {
+            externVars.putIfAbsent(util.varToRepr(var), var);
+        }
+        // variables declared extern in a function body still live in static storage
+        if (isStatic || var.isExtern()) {
             staticRefs.add(vReg);
             allocaMap.put(vReg, newAlloca(vReg, var));
         } else {
@@ -182,7 +512,58 @@ public class CFGBuilder {
     }
 
 
+    private IFunction getFuncOrNull(String fRepr) {
+        IFunction func = funcs.get(fRepr);
+        if (func == null && global != null)
+            func = global.funcs.get(fRepr);
+        return func;
+    }
+
+    private IVariable getExternVarOrNull(String vRepr) {
+        IVariable var = externVars.get(vRepr);
+        if (var == null && global != null)
+            var = global.externVars.get(vRepr);
+        return var;
+    }
+
+    // functions and file-scope variables not declared static are visible to other translation units
+    private static boolean isExternal(IBinding binding) {
+        if (binding instanceof IFunction)
+            return !((IFunction) binding).isStatic();
+        if (binding instanceof IVariable && !(binding instanceof IParameter)) {
+            IVariable var = (IVariable) binding;
+            return var.isExtern() || !var.isStatic() && var.getOwner() == null;
+        }
+        return false;
+    }
+
+    // the binding a variable of external linkage is referred to by, its first declaration among all translation units
+    private IVariable canonicalVar(IVariable var) {
+        if (!isExternal(var))
+            return var;
+        IVariable canonical = getExternVarOrNull(util.varToRepr(var));
+        return canonical != null ? canonical : var;
+    }
+
+    // the binding a function is referred to by, its first declaration among all translation units;
+    // static functions are named after their own unit, so they are never linked to namesakes in other units
+    private IFunction canonicalFunc(IFunction func) {
+        IFunction canonical = getFuncOrNull(util.methToRepr(func));
+        return canonical != null ? canonical : func;
+    }
+
     private int processFunction(IFunction func) {
+        IFunction canonical = canonicalFunc(func);
+        if (canonical != func) {
+            // declared again in another translation unit, share the registers of the first declaration
+            int fReg = getRefReg(canonical);
+            refRegMap.put(func, fReg);
+            int[] argRegs = getFuncArgsOrNull(canonical);
+            if (argRegs != null)
+                funcArgsMap.put(func, argRegs);
+            Messages.debug("CParser: link function %s[%s] to its declaration @%d", func.getClass().getSimpleName(), func, fReg);
+            return fReg;
+        }
         registers.add(func);
         int fReg = registers.indexOf(func);
         funcs.put(util.methToRepr(func), func);
@@ -208,8 +589,12 @@ public class CFGBuilder {
         return fReg;
     }
 
+    private boolean isProcessed(IFunction func) {
+        return funcs.containsValue(func) || global != null && global.funcs.containsValue(func);
+    }
+
     private void processType(IType type) {
-        boolean newFound = types.add(type);
+        boolean newFound = (global == null || !global.types.contains(type)) && types.add(type);
         if (!newFound)
             return;
         if (type instanceof IArrayType) {
@@ -256,7 +641,7 @@ public class CFGBuilder {
     }
 
     public int[] getFuncArgs(IFunction meth) {
-        int[] args = funcArgsMap.get(meth);
+        int[] args = getFuncArgsOrNull(meth);
         if (args == null) {
             Messages.error("CParser: function %s[%s] arguments not processed", meth.getClass().getSimpleName(), meth);
             return new int[0];
@@ -265,8 +650,22 @@ public class CFGBuilder {
         }
     }
 
-    public int getRefReg(IBinding id) {
+    private int[] getFuncArgsOrNull(IFunction meth) {
+        int[] args = funcArgsMap.get(meth);
+        if (args == null && global != null)
+            args = global.funcArgsMap.get(meth);
+        return args;
+    }
+
+    private Integer getRefRegOrNull(IBinding id) {
         Integer reg = refRegMap.get(id);
+        if (reg == null && global != null)
+            reg = global.refRegMap.get(id);
+        return reg;
+    }
+
+    public int getRefReg(IBinding id) {
+        Integer reg = getRefRegOrNull(id);
         if (reg == null) {
             Messages.debug("CParser: referencing undeclared identifier %s[%s]", id.getClass().getSimpleName(), id);
             return -1;
@@ -305,9 +704,9 @@ public class CFGBuilder {
     public void buildIntraCFG(IASTFunctionDefinition fDef) {
         intraCFGBuilder = ValueGraphBuilder.directed().nodeOrder(ElementOrder.stable()).incidentEdgeOrder(ElementOrder.stable()).allowsSelfLoops(true).immutable();
         IASTFunctionDeclarator fDecl = fDef.getDeclarator();
-        curFunc = (IFunction) fDecl.getName().resolveBinding();
+        curFunc = canonicalFunc((IFunction) fDecl.getName().resolveBinding());
         nodeIdx = 0;
-        start = newEntryNode(funcArgsMap.get(curFunc));
+        start = newEntryNode(getFuncArgsOrNull(curFunc));
         exits = new ArrayList<>();
         outerContinueTarget = null;
         outerContinueBackward = true;
@@ -331,7 +730,7 @@ public class CFGBuilder {
             Messages.error("CParser: skip unhandled function declarator %s[%s]", fDecl.getClass().getSimpleName(), fDecl.getName());
             return;
         }
-        int[] argRegs = funcArgsMap.get(curFunc);
+        int[] argRegs = getFuncArgsOrNull(curFunc);
         for (int i = 0; i < paramDtors.length; ++i) {
             IASTDeclarator dtor = paramDtors[i];
             IParameter param = (IParameter) processDeclarator(dtor, false);
@@ -346,6 +745,11 @@ public class CFGBuilder {
             CFG.CFGNode allocNode = newAllocaNode(refReg, param);
             prevNode = connect(prevNode, allocNode);
 
+            if (argRegs == null || i >= argRegs.length) {
+                // declared with fewer parameters in the translation unit that declares it first
+                Messages.warn("CParser: parameter %s of function %s missing in its declaration", param, curFunc);
+                break;
+            }
             int aReg = argRegs[i];
             Messages.debug("CParser: store parameter in location @%d <- %s@%d (%s)", refReg, param.getType(), aReg, param);
 
@@ -828,8 +1232,11 @@ public class CFGBuilder {
     private int processStringConstant(IASTLiteralExpression literal) {
         int refReg;
         String s = String.valueOf(literal.getValue());
-        if (stringConstants.containsKey(s)) {
-            refReg = stringConstants.get(s);
+        Integer constReg = stringConstants.get(s);
+        if (constReg == null && global != null)
+            constReg = global.stringConstants.get(s);
+        if (constReg != null) {
+            refReg = constReg;
         } else {
             registers.add(s);
             refReg = registers.indexOf(s);
@@ -1245,7 +1652,7 @@ public class CFGBuilder {
         IFunction receiver = findReceiver(fNameExpr);
         if (receiver != null) {
             Messages.debug("CParser: resolve static invocation %s[%s] to %s", fNameExpr.getClass().getSimpleName(), fNameExpr.getRawSignature(), receiver);
-            if (!funcs.containsValue(receiver)) {
+            if (!isProcessed(receiver)) {
                 Messages.debug("CParser: invoke external function %s[%s] at line#%d (%s)", receiver.getClass().getSimpleName(), receiver, fNameExpr.getFileLocation().getStartingLineNumber(), fNameExpr.getRawSignature());
                 processFunction(receiver);
             }
@@ -1616,7 +2023,11 @@ public class CFGBuilder {
     }
 
     public void dumpDot(PrintWriter pw) {
-        pw.println("digraph \"" + transUnit.getContainingFilename() + "\" {");
+        List<String> filenames = new ArrayList<>();
+        for (IASTTranslationUnit tu : transUnits) {
+            filenames.add(tu.getContainingFilename());
+        }
+        pw.println("digraph \"" + String.join(",", filenames) + "\" {");
         pw.println("compound=true;");
         for (IFunction meth : funcs.values()) {
             ValueGraph<CFG.CFGNode, Integer> intraCFG = getIntraCFG(meth);
@@ -2131,7 +2542,20 @@ public class CFGBuilder {
         private util() {}
 
         public String methToRepr(IFunction meth) {
-            return meth.getName().replaceAll("\n", "\\n");
+            String repr = meth.getName().replaceAll("\n", "\\n");
+            if (meth.isStatic())
+                repr = withUnit(repr, meth);
+            return repr;
+        }
+
+        // qualifies the name of a binding of internal linkage with the file of its translation unit, if several are linked
+        private String withUnit(String repr, IBinding binding) {
+            if (transUnits.size() <= 1 || !(binding instanceof ICInternalBinding))
+                return repr;
+            IASTNode node = ((ICInternalBinding) binding).getPhysicalNode();
+            if (node == null || node.getTranslationUnit() == null)
+                return repr;
+            return repr + "@" + node.getTranslationUnit().getFilePath();
         }
 
         private Map<Integer, String> debugStrMap = new HashMap<>();
@@ -2316,7 +2740,10 @@ public class CFGBuilder {
         }
 
         public String varToRepr(IVariable var) {
-            return var.getName().replaceAll("\n", "\\n");
+            String repr = var.getName().replaceAll("\n", "\\n");
+            if (var.isStatic() && var.getOwner() == null)
+                repr = withUnit(repr, var);
+            return repr;
         }
 
         public String varToRepr(String id) {
@@ -0,0 +1,130 @@
+package com.neuromancer42.tea.codemanager.cdt;
+
+import com.google.gson.*;
+import com.neuromancer42.tea.commons.configs.Messages;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * C translation units of a project listed in a JSON compilation database, i.e. compile_commands.json as generated
+ * by CMake or Bear.
+ */
+public class CompilationDatabase {
+    /**
+     * A translation unit: its source file, the arguments of the command compiling it, and the directory the command
+     * runs in, which relative paths in the command are resolved against (the working directory if null).
+     */
+    public record Unit(String directory, String file, List<String> arguments) {
+        public static Unit ofCommand(String directory, String file, String command) {
+            return new Unit(directory, file, splitCommand(command));
+        }
+
+        public Path resolve(String path) {
+            return directory == null ? Paths.get(path) : Paths.get(directory).resolve(path);
+        }
+    }
+
+    private CompilationDatabase() {}
+
+    /**
+     * Reads the C source files of a compilation database in its order, skipping other sources and repeated files.
+     */
+    public static List<Unit> load(Path dbPath) throws IOException {
+        JsonArray entries;
+        try (Reader reader = Files.newBufferedReader(dbPath)) {
+            entries = JsonParser.parseReader(reader).getAsJsonArray();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("malformed compilation database " + dbPath + ": " + e.getMessage(), e);
+        }
+        String defaultDir = dbPath.toAbsolutePath().getParent().toString();
+        List<Unit> units = new ArrayList<>();
+        Set<Path> files = new HashSet<>();
+        for (JsonElement elem : entries) {
+            JsonObject entry = elem.getAsJsonObject();
+            if (!entry.has("file")) {
+                throw new IOException("entry without file in compilation database " + dbPath);
+            }
+            String directory = entry.has("directory") ? entry.get("directory").getAsString() : defaultDir;
+            List<String> arguments;
+            if (entry.has("arguments")) {
+                arguments = new ArrayList<>();
+                for (JsonElement arg : entry.getAsJsonArray("arguments")) {
+                    arguments.add(arg.getAsString());
+                }
+            } else if (entry.has("command")) {
+                arguments = splitCommand(entry.get("command").getAsString());
+            } else {
+                throw new IOException("entry without command in compilation database " + dbPath);
+            }
+            Path file = Paths.get(directory).resolve(entry.get("file").getAsString()).normalize();
+            if (!file.getFileName().toString().endsWith(".c")) {
+                Messages.warn("CParser: skip non-C source %s in compilation database", file);
+                continue;
+            }
+            if (!files.add(file)) {
+                Messages.warn("CParser: skip repeated source %s in compilation database", file);
+                continue;
+            }
+            if (arguments.isEmpty()) {
+                throw new IOException("entry with empty command in compilation database " + dbPath);
+            }
+            units.add(new Unit(directory, file.toString(), arguments));
+        }
+        if (units.isEmpty()) {
+            throw new IOException("no C source in compilation database " + dbPath);
+        }
+        return units;
+    }
+
+    /**
+     * Splits a command line into arguments as a POSIX shell does, honoring quotes and backslash escapes.
+     */
+    public static List<String> splitCommand(String command) {
+        List<String> arguments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inArgument = false;
+        char quote = 0;
+        for (int i = 0; i < command.length(); ++i) {
+            char c = command.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else if (c == '\\' && i + 1 < command.length() && "\"\\$`".indexOf(command.charAt(i + 1)) >= 0) {
+                    current.append(command.charAt(++i));
+                } else {
+                    current.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (inArgument) {
+                    arguments.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                inArgument = true;
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '\\' && i + 1 < command.length()) {
+                    current.append(command.charAt(++i));
+                } else {
+                    current.append(c);
+                }
+            }
+        }
+        if (inArgument) {
+            arguments.add(current.toString());
+        }
+        return arguments;
+    }
+}
@@ -2,11 +2,14 @@ package com.neuromancer42.tea.codemanager.cdt.tests;
 
 import com.neuromancer42.tea.codemanager.cdt.CDTCManager;
 import com.neuromancer42.tea.codemanager.cdt.CFGBuilder;
+import com.neuromancer42.tea.codemanager.cdt.CompilationDatabase;
 import com.neuromancer42.tea.commons.analyses.AnalysisUtil;
 import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
 import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
 import com.neuromancer42.tea.commons.configs.Messages;
 import org.apache.commons.lang3.tuple.Pair;
+import org.eclipse.cdt.core.dom.ast.IASTTranslationUnit;
+import org.eclipse.cdt.core.dom.ast.IFunction;
 import org.eclipse.cdt.internal.core.dom.rewrite.astwriter.ASTWriter;
 import org.junit.jupiter.api.*;
 
@@ -16,7 +19,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ParseTest {
@@ -43,6 +49,8 @@ public class ParseTest {
     private static Path sizeofPath;
     private static final String misc0Name = "misc0.c";
     private static Path misc0Path;
+    private static final String linkedMainName = "linked_main.c";
+    private static final String linkedLibName = "linked_lib.c";
 
     private static final Path rootDir = Paths.get("test-out").resolve("test-parse");
 
@@ -128,6 +136,14 @@ public class ParseTest {
         assert misc0In != null;
         Files.copy(misc0In, misc0Path, StandardCopyOption.REPLACE_EXISTING);
         misc0In.close();
+
+        for (String linkedName : List.of(linkedMainName, linkedLibName)) {
+            InputStream linkedIn = CDTCManager.class.getClassLoader().getResourceAsStream(linkedName);
+            System.err.println("Writing " + linkedName);
+            assert linkedIn != null;
+            Files.copy(linkedIn, srcDir.resolve(linkedName), StandardCopyOption.REPLACE_EXISTING);
+            linkedIn.close();
+        }
     }
 
     @Test
@@ -394,4 +410,129 @@ public class ParseTest {
         CDTCManager cmanager = new CDTCManager(workDir, misc0Path.toString(), "clang");
         cmanager.run();
     }
+
+    @Test
+    @Order(13)
+    @DisplayName("CDT links translation units of a compilation database")
+    public void parseCompilationDatabase() throws IOException {
+        Path workDir = Files.createDirectories(rootDir.resolve("test-compdb"));
+        Path srcDir = rootDir.resolve("source").toAbsolutePath();
+        Path dbPath = workDir.resolve("compile_commands.json");
+        Files.writeString(dbPath, String.format("""
+                [
+                  {"directory": "%s", "file": "%s", "command": "clang -c %s -o main.o"},
+                  {"directory": "%s", "file": "%s", "arguments": ["clang", "-c", "%s", "-o", "lib.o"]}
+                ]
+                """, srcDir, linkedMainName, linkedMainName, srcDir, linkedLibName, linkedLibName), StandardCharsets.UTF_8);
+        List<CompilationDatabase.Unit> units = CompilationDatabase.load(dbPath);
+        Assertions.assertEquals(2, units.size());
+
+        CDTCManager.setPreprocessCache(rootDir.resolve("pp-cache"));
+        CDTCManager cmanager = new CDTCManager(workDir, units, 2);
+        Assertions.assertFalse(cmanager.isInstrumentable());
+        cmanager.run();
+        for (ProgramRel rel : cmanager.getProducedRels()) {
+            if (rel.getName().equals("ExtMeth")) {
+                rel.load();
+                Assertions.assertFalse(rel.contains("incr"));
+                rel.close();
+            } else if (rel.getName().equals("MPentry")) {
+                // main, incr and the static helper of each unit
+                rel.load();
+                Assertions.assertEquals(4, rel.size());
+                rel.close();
+            } else if (rel.getName().equals("GlobalAlloca")) {
+                // the extern declaration and the definition of counter refer to a single object
+                rel.load();
+                int numCounters = 0;
+                for (Object[] tuple : rel.getValTuples()) {
+                    if (tuple[1].equals("counter"))
+                        ++numCounters;
+                }
+                Assertions.assertEquals(1, numCounters);
+                rel.close();
+            }
+        }
+        Map<Path, Object> cachedKeys = new HashMap<>();
+        try (var cached = Files.list(rootDir.resolve("pp-cache"))) {
+            for (Path path : cached.toList()) {
+                if (!path.toString().endsWith(".deps"))
+                    cachedKeys.put(path, Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+            }
+        }
+        Assertions.assertTrue(cachedKeys.size() >= 2);
+
+        // parsed again from the cached preprocessed units after restarting, which sets up the dummy headers again
+        CDTCManager.setDummySysroot(rootDir);
+        CDTCManager reparsed = new CDTCManager(Files.createDirectories(rootDir.resolve("test-compdb-cached")), units, 1);
+        Assertions.assertEquals(2, reparsed.getTranslationUnits().size());
+        for (var entry : cachedKeys.entrySet()) {
+            // a cache miss would have replaced the cached file
+            Assertions.assertEquals(entry.getValue(), Files.readAttributes(entry.getKey(), BasicFileAttributes.class).fileKey());
+        }
+    }
+
+    @Test
+    @Order(14)
+    @DisplayName("Commands of a compilation database are split with shell quoting")
+    public void splitCommandTest() {
+        Assertions.assertEquals(List.of("clang", "-DNAME=a b", "-DSTR=\"s\"", "-I", "dir with space", "-c", "main.c"),
+                CompilationDatabase.splitCommand("clang -DNAME=\"a b\" -DSTR='\"s\"' -I dir\\ with\\ space -c main.c"));
+    }
+
+    private static List<String> domElems(Map<String, String> domLocs, String domName) {
+        ProgramDom dom = new ProgramDom(domName);
+        dom.load(domLocs.get(domName));
+        List<String> elems = new ArrayList<>();
+        for (String elem : dom)
+            elems.add(elem);
+        return elems;
+    }
+
+    // node identities differ between builds, so CFGs are compared by their shapes per function
+    private static List<String> buildCFG(IASTTranslationUnit tu, int numJobs, List<String> registers) {
+        CFGBuilder cfgBuilder = new CFGBuilder(tu);
+        cfgBuilder.build(numJobs);
+        for (int i = 0; i < cfgBuilder.getRegisters().size(); ++i)
+            registers.add(cfgBuilder.util.regToRepr(i));
+        List<String> shapes = new ArrayList<>();
+        for (IFunction func : cfgBuilder.getFuncs()) {
+            var intraCFG = cfgBuilder.getIntraCFG(func);
+            if (intraCFG != null)
+                shapes.add(String.format("%s:%d:%d", cfgBuilder.util.methToRepr(func), intraCFG.nodes().size(), intraCFG.edges().size()));
+        }
+        return shapes;
+    }
+
+    @Test
+    @Order(15)
+    @DisplayName("CDT builds the same registers, doms and CFGs with one job and with several")
+    public void parallelBuildTest() throws IOException {
+        List<CompilationDatabase.Unit> units = List.of(CompilationDatabase.Unit.ofCommand(null, funcArrPath.toString(), "clang"));
+        CDTCManager serial = new CDTCManager(Files.createDirectories(rootDir.resolve("test-jobs1")), units, 1);
+        CDTCManager parallel = new CDTCManager(Files.createDirectories(rootDir.resolve("test-jobs4")), units, 4);
+
+        List<String> serialRegs = new ArrayList<>();
+        List<String> parallelRegs = new ArrayList<>();
+        List<String> serialCFGs = buildCFG(serial.getTranslationUnit(), 1, serialRegs);
+        List<String> parallelCFGs = buildCFG(parallel.getTranslationUnit(), 4, parallelRegs);
+        Assertions.assertFalse(serialRegs.isEmpty());
+        Assertions.assertEquals(serialRegs, parallelRegs);
+        Assertions.assertFalse(serialCFGs.isEmpty());
+        Assertions.assertEquals(serialCFGs, parallelCFGs);
+
+        Pair<Map<String, String>, Map<String, String>> serialOut = AnalysisUtil.runAnalysis(serial, new HashMap<>(), new HashMap<>());
+        Pair<Map<String, String>, Map<String, String>> parallelOut = AnalysisUtil.runAnalysis(parallel, new HashMap<>(), new HashMap<>());
+        Assertions.assertNotNull(serialOut);
+        Assertions.assertNotNull(parallelOut);
+        Assertions.assertEquals(serialOut.getLeft().keySet(), parallelOut.getLeft().keySet());
+        for (String domName : serialOut.getLeft().keySet()) {
+            Assertions.assertEquals(domElems(serialOut.getLeft(), domName), domElems(parallelOut.getLeft(), domName), domName);
+        }
+        Assertions.assertEquals(serialOut.getRight().keySet(), parallelOut.getRight().keySet());
+        for (String relName : serialOut.getRight().keySet()) {
+            Assertions.assertArrayEquals(Files.readAllBytes(Paths.get(serialOut.getRight().get(relName))),
+                    Files.readAllBytes(Paths.get(parallelOut.getRight().get(relName))), relName);
+        }
+    }
 }
@@ -0,0 +1,10 @@
+int counter = 0;
+
+static int helper(int v) {
+    return v + 1;
+}
+
+int incr(int *p, int v) {
+    *p += helper(v);
+    return *p;
+}
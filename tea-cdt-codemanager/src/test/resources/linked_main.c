@@ -0,0 +1,13 @@
+#include <stddef.h>
+
+extern int counter;
+int incr(int *p, int v);
+
+static int helper(int v) {
+    return v - 1;
+}
+
+int main() {
+    int (*f)(int *, int) = incr;
+    return f(&counter, helper(1)) + incr(&counter, 1);
+}
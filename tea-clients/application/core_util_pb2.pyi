@@ -31,12 +31,16 @@ class ApplicationRequest(_message.Message):
     def __init__(self, project_id: _Optional[str] = ..., option: _Optional[_Mapping[str, str]] = ..., source: _Optional[_Union[Compilation, _Mapping]] = ..., analysis: _Optional[_Iterable[str]] = ..., alarm_rel: _Optional[_Iterable[str]] = ..., need_rank: bool = ..., test_suite: _Optional[_Union[Test, _Mapping]] = ...) -> None: ...
 
 class ApplicationResponse(_message.Message):
-    __slots__ = ["alarm", "msg"]
+    __slots__ = ["alarm", "alarm_offset", "alarm_total", "msg"]
     ALARM_FIELD_NUMBER: _ClassVar[int]
+    ALARM_OFFSET_FIELD_NUMBER: _ClassVar[int]
+    ALARM_TOTAL_FIELD_NUMBER: _ClassVar[int]
     MSG_FIELD_NUMBER: _ClassVar[int]
     alarm: _containers.RepeatedScalarFieldContainer[str]
+    alarm_offset: int
+    alarm_total: int
     msg: str
-    def __init__(self, msg: _Optional[str] = ..., alarm: _Optional[_Iterable[str]] = ...) -> None: ...
+    def __init__(self, msg: _Optional[str] = ..., alarm: _Optional[_Iterable[str]] = ..., alarm_offset: _Optional[int] = ..., alarm_total: _Optional[int] = ...) -> None: ...
 
 class Compilation(_message.Message):
     __slots__ = ["command", "source"]
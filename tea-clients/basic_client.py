@@ -23,7 +23,7 @@ def run_analysis(proj_name, filename, compile_cmd, analyses, alarm_rels, need_ra
     channel = grpc.insecure_channel(core_addr)
     core_stub = app_grpc.CoreServiceStub(channel)
     for resp in core_stub.RunAnalyses(req, wait_for_ready=True):
-        if resp.msg is not None:
+        if resp.msg:
             print(resp.msg)
         for alarm in resp.alarm:
             print(alarm)
@@ -1,17 +1,31 @@
 package com.neuromancer42.tea.commons.analyses;
 
 import com.neuromancer42.tea.commons.analyses.annotations.*;
+import com.neuromancer42.tea.commons.bddbddb.BDDFactoryPool;
 import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
 import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import com.neuromancer42.tea.commons.bddbddb.ProgramTrgtCache;
 import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.core.analysis.Analysis;
 import com.neuromancer42.tea.core.analysis.Trgt;
+import io.grpc.StatusRuntimeException;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 
 public class AnalysisUtil {
@@ -117,9 +131,51 @@ public class AnalysisUtil {
         infoBuilder.addAllProducingDom(parseProduceDomInfo(clazz).values());
         infoBuilder.addAllConsumingRel(parseConsumeRelInfo(clazz).values());
         infoBuilder.addAllProducingRel(parseProduceRelInfo(clazz).values());
+        infoBuilder.setFingerprint(codeFingerprint(clazz));
         return infoBuilder.build();
     }
 
+    private static final Map<Path, String> codeFingerprints = new ConcurrentHashMap<>();
+
+    /**
+     * Identifies the build of a class by hashing the jar or class directory it is loaded from.
+     *
+     * @return the hex digest, or an empty string if the code location cannot be read
+     */
+    public static String codeFingerprint(Class<?> clazz) {
+        CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        if (codeSource == null) {
+            Messages.warn("AnalysisUtil: no code source of class '%s', leaving it unidentified", clazz.getName());
+            return "";
+        }
+        Path codePath;
+        try {
+            codePath = Paths.get(codeSource.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            Messages.warn("AnalysisUtil: unrecognized code source %s of class '%s', leaving it unidentified", codeSource.getLocation(), clazz.getName());
+            return "";
+        }
+        return codeFingerprints.computeIfAbsent(codePath, path -> {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                List<Path> files = new ArrayList<>();
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+                }
+                for (Path file : files) {
+                    digest.update(path.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(Files.readAllBytes(file));
+                    digest.update((byte) 0);
+                }
+                return HexFormat.of().formatHex(digest.digest());
+            } catch (IOException | NoSuchAlgorithmException e) {
+                Messages.warn("AnalysisUtil: failed to hash code at %s, leaving it unidentified: %s", path, e.getMessage());
+                return "";
+            }
+        });
+    }
+
     private static <T> String getAnalysisName(Class<T> clazz) {
         TeAAnalysis analysisAnnot = clazz.getAnnotation(TeAAnalysis.class);
         String name = analysisAnnot.name();
@@ -166,7 +222,7 @@ public class AnalysisUtil {
         return relName;
     }
 
-    private static <T> Map<String, ProgramDom> consumeDoms(T analysis, Map<String, String> domLocMap) throws IllegalAccessException {
+    private static <T> Map<String, ProgramDom> consumeDoms(T analysis, String projId, Map<String, String> domLocMap) throws IllegalAccessException {
         Class<?> clazz = analysis.getClass();
         assert clazz.isAnnotationPresent(TeAAnalysis.class);
         String analysisName = getAnalysisName(clazz);
@@ -179,8 +235,13 @@ public class AnalysisUtil {
                     Messages.fatal("AnalysisUtil: dom '%s' required by analysis '%s' not found", domName, analysisName);
                     assert false;
                 }
-                ProgramDom dom = new ProgramDom(domName);
-                dom.load(domLoc);
+                ProgramDom dom;
+                if (projId != null) {
+                    dom = ProgramTrgtCache.g().acquireDom(projId, domName, domLoc);
+                } else {
+                    dom = new ProgramDom(domName);
+                    dom.load(domLoc);
+                }
                 domMap.put(domName, dom);
                 f.setAccessible(true);
                 f.set(analysis, dom);
@@ -189,7 +250,7 @@ public class AnalysisUtil {
         return domMap;
     }
 
-    private static <T> Map<String, ProgramRel> consumeRels(T analysis, Map<String, ProgramDom> domMap, Map<String, String> relLocMap) throws IllegalAccessException {
+    private static <T> Map<String, ProgramRel> consumeRels(T analysis, String projId, Map<String, ProgramDom> domMap, Map<String, String> relLocMap) throws IllegalAccessException {
         Class<?> clazz = analysis.getClass();
         assert clazz.isAnnotationPresent(TeAAnalysis.class);
         String analysisName = getAnalysisName(clazz);
@@ -211,8 +272,13 @@ public class AnalysisUtil {
                         assert false;
                     }
                 }
-                ProgramRel rel = new ProgramRel(relName, doms);
-                rel.attach(relLoc);
+                ProgramRel rel;
+                if (projId != null) {
+                    rel = ProgramTrgtCache.g().acquireRel(projId, relName, doms, relLoc);
+                } else {
+                    rel = new ProgramRel(relName, doms);
+                    rel.attach(relLoc);
+                }
                 relMap.put(relName, rel);
                 f.setAccessible(true);
                 f.set(analysis, rel);
@@ -361,15 +427,25 @@ public class AnalysisUtil {
     }
 
     public static <T extends AbstractAnalysis> Pair<Map<String, String>, Map<String, String>> runAnalysis(T analysis, Map<String, String> inputDomLocMap, Map<String, String> inputRelLocMap) {
+        return runAnalysis(analysis, null, inputDomLocMap, inputRelLocMap);
+    }
+
+    /**
+     * Runs an analysis on the doms and rels saved at the given locations. With a project id, the inputs are
+     * acquired from the {@link ProgramTrgtCache} of the project and released after the run.
+     */
+    public static <T extends AbstractAnalysis> Pair<Map<String, String>, Map<String, String>> runAnalysis(T analysis, String projId, Map<String, String> inputDomLocMap, Map<String, String> inputRelLocMap) {
         Class<?> clazz = analysis.getClass();
         assert clazz.isAnnotationPresent(TeAAnalysis.class);
         String analysisName = getAnalysisName(clazz);
+        Map<String, ProgramDom> inputDomMap = new LinkedHashMap<>();
+        Map<String, ProgramRel> inputRelMap = new LinkedHashMap<>();
         try {
-            Map<String, ProgramDom> inputDomMap = consumeDoms(analysis, inputDomLocMap);
+            inputDomMap = consumeDoms(analysis, projId, inputDomLocMap);
 
             Map<String, ProgramDom> domMap = new LinkedHashMap<>(inputDomMap);
 
-            Map<String, ProgramRel> inputRelMap = consumeRels(analysis, domMap, inputRelLocMap);
+            inputRelMap = consumeRels(analysis, projId, domMap, inputRelLocMap);
 
             Map<String, ProgramDom> outputDomMap = newDoms(analysis);
             domMap.putAll(outputDomMap);
@@ -385,6 +461,7 @@ public class AnalysisUtil {
             analysis.relPhase();
             closeRels(analysis);
             saveRels(analysis, analysis.getOutDir());
+            Messages.debug("AnalysisUtil: %s after running %s", BDDFactoryPool.g().getStats(), analysisName);
 
             Map<String, String> outputDomLocMap = produceDoms(analysis);
             Map<String, String> outputRelLocMap = produceRels(analysis);
@@ -394,6 +471,15 @@ public class AnalysisUtil {
             Messages.error("AnalysisUtil: doms and rels should be marked public!");
             Messages.fatal(e);
             assert false;
+        } finally {
+            if (projId != null) {
+                for (ProgramRel rel : inputRelMap.values()) {
+                    ProgramTrgtCache.g().release(projId, rel);
+                }
+                for (ProgramDom dom : inputDomMap.values()) {
+                    ProgramTrgtCache.g().release(projId, dom);
+                }
+            }
         }
         return null;
     }
@@ -401,6 +487,12 @@ public class AnalysisUtil {
     public static <T extends AbstractAnalysis> Analysis.RunResults runAnalysis(T analysis, Analysis.RunRequest request) {
         String analysisName = getAnalysisName(analysis.getClass());
         assert analysisName.equals(request.getAnalysisName());
+        try {
+            request = TrgtStreams.fetchInputs(request, Paths.get(analysis.getOutDir(), "fetched"));
+        } catch (IOException | StatusRuntimeException e) {
+            Messages.error("AnalysisUtil: failed to fetch inputs of analysis '%s': %s", analysisName, e.getMessage());
+            return Analysis.RunResults.newBuilder().setMsg(Constants.MSG_FAIL + ": failed to fetch inputs").build();
+        }
         Map<String, String> inputDomMap = new LinkedHashMap<>();
         for (Trgt.DomTrgt inputDom : request.getDomInputList()) {
             inputDomMap.put(inputDom.getInfo().getName(), inputDom.getLocation());
@@ -410,7 +502,7 @@ public class AnalysisUtil {
             inputRelMap.put(inputRel.getInfo().getName(), inputRel.getLocation());
         }
 
-        Pair<Map<String, String>, Map<String, String>> output = runAnalysis(analysis, inputDomMap, inputRelMap);
+        Pair<Map<String, String>, Map<String, String>> output = runAnalysis(analysis, request.getProjectId(), inputDomMap, inputRelMap);
 
         Analysis.RunResults.Builder resultBuilder = Analysis.RunResults.newBuilder();
         if (output == null) {
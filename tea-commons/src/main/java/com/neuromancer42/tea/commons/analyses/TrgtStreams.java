@@ -0,0 +1,283 @@
+package com.neuromancer42.tea.commons.analyses;
+
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.neuromancer42.tea.commons.bddbddb.DomFile;
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import com.neuromancer42.tea.commons.configs.Messages;
+import com.neuromancer42.tea.core.analysis.Analysis;
+import com.neuromancer42.tea.core.analysis.ProviderGrpc;
+import com.neuromancer42.tea.core.analysis.Trgt;
+import io.grpc.*;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming transfer of doms and rels between providers and the core, for those not sharing a filesystem.
+ * <p>
+ * A provider serves what it has produced by the Fetch rpc, sending doms as chunks of elements and rels as
+ * consecutive chunks of the files they are saved in, after a first chunk carrying the version of the served files.
+ * A consumer pulls a dom or rel carrying a source address only when its location cannot be read locally, writing
+ * the chunks out as they arrive; fetched copies are kept by source, location and version under a fetch directory,
+ * so each saved content is transferred once per directory.
+ */
+public class TrgtStreams {
+    public static final int DOM_CHUNK = 4096;
+    public static final int REL_CHUNK = 1 << 20;
+
+    private static final Map<String, ProviderGrpc.ProviderBlockingStub> sources = new ConcurrentHashMap<>();
+
+    private TrgtStreams() {}
+
+    /**
+     * Serves a Fetch request from the files at the location of the requested dom or rel.
+     */
+    public static void serveFetch(Analysis.FetchRequest request, StreamObserver<Analysis.TrgtChunk> responseObserver) {
+        try {
+            switch (request.getTrgtCase()) {
+                case DOM -> sendDom(request.getDom(), responseObserver);
+                case REL -> sendRel(request.getRel(), responseObserver);
+                default -> {
+                    responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("no dom or rel to fetch").asRuntimeException());
+                    return;
+                }
+            }
+            responseObserver.onCompleted();
+        } catch (IOException e) {
+            Messages.error("TrgtStreams: failed to serve fetch request of project %s: %s", request.getProjectId(), e.getMessage());
+            responseObserver.onError(Status.NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
+        }
+    }
+
+    private static void sendDom(Trgt.DomTrgt domTrgt, StreamObserver<Analysis.TrgtChunk> responseObserver) throws IOException {
+        String domName = domTrgt.getInfo().getName();
+        Path location = Paths.get(domTrgt.getLocation());
+        if (!Files.isDirectory(location)) {
+            throw new NoSuchFileException(domTrgt.getLocation());
+        }
+        responseObserver.onNext(Analysis.TrgtChunk.newBuilder()
+                .setVersion(version(location.resolve(domName + ".map"), location.resolve(domName + DomFile.SUFFIX)))
+                .build());
+        ProgramDom dom = new ProgramDom(domName);
+        dom.load(domTrgt.getLocation());
+        Analysis.TrgtChunk.Builder chunkBuilder = Analysis.TrgtChunk.newBuilder();
+        for (String elem : dom) {
+            chunkBuilder.addDomElem(elem);
+            if (chunkBuilder.getDomElemCount() == DOM_CHUNK) {
+                responseObserver.onNext(chunkBuilder.build());
+                chunkBuilder.clear();
+            }
+        }
+        if (chunkBuilder.getDomElemCount() > 0) {
+            responseObserver.onNext(chunkBuilder.build());
+        }
+    }
+
+    private static void sendRel(Trgt.RelTrgt relTrgt, StreamObserver<Analysis.TrgtChunk> responseObserver) throws IOException {
+        Path location = Paths.get(relTrgt.getLocation());
+        try (FileChannel channel = FileChannel.open(location, StandardOpenOption.READ)) {
+            // the file is opened before taking its version, so that a later rewrite gets a newer version
+            responseObserver.onNext(Analysis.TrgtChunk.newBuilder().setVersion(version(location)).build());
+            ByteBuffer buffer = ByteBuffer.allocate(REL_CHUNK);
+            while (channel.read(buffer) >= 0) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    responseObserver.onNext(Analysis.TrgtChunk.newBuilder().setRelData(ByteString.copyFrom(buffer)).build());
+                    buffer.clear();
+                }
+            }
+            buffer.flip();
+            if (buffer.hasRemaining()) {
+                responseObserver.onNext(Analysis.TrgtChunk.newBuilder().setRelData(ByteString.copyFrom(buffer)).build());
+            }
+        }
+    }
+
+    // files are replaced rather than rewritten when saved again, so their identity tells contents apart besides times
+    private static String version(Path... files) throws IOException {
+        StringBuilder version = new StringBuilder();
+        for (Path file : files) {
+            if (!Files.exists(file)) {
+                continue;
+            }
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            version.append(file.getFileName()).append(':')
+                    .append(attrs.fileKey()).append(':')
+                    .append(attrs.size()).append(':')
+                    .append(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)).append(';');
+        }
+        return version.toString();
+    }
+
+    /**
+     * Replaces inputs of a run request that carry a source and cannot be read locally with fetched copies.
+     *
+     * @param request the run request received by a provider
+     * @param fetchDir directory to keep fetched copies in
+     * @return the request with all inputs readable locally
+     */
+    public static Analysis.RunRequest fetchInputs(Analysis.RunRequest request, Path fetchDir) throws IOException {
+        boolean remote = false;
+        for (Trgt.DomTrgt domTrgt : request.getDomInputList()) {
+            remote |= isRemote(domTrgt.hasSource(), domTrgt.getLocation());
+        }
+        for (Trgt.RelTrgt relTrgt : request.getRelInputList()) {
+            remote |= isRemote(relTrgt.hasSource(), relTrgt.getLocation());
+        }
+        if (!remote) {
+            return request;
+        }
+        String projId = request.getProjectId();
+        Analysis.RunRequest.Builder builder = request.toBuilder();
+        builder.clearDomInput();
+        builder.clearRelInput();
+        for (Trgt.DomTrgt domTrgt : request.getDomInputList()) {
+            if (isRemote(domTrgt.hasSource(), domTrgt.getLocation())) {
+                domTrgt = fetchDom(source(domTrgt.getSource()), projId, domTrgt, fetchDir);
+            }
+            builder.addDomInput(domTrgt);
+        }
+        for (Trgt.RelTrgt relTrgt : request.getRelInputList()) {
+            if (isRemote(relTrgt.hasSource(), relTrgt.getLocation())) {
+                relTrgt = fetchRel(source(relTrgt.getSource()), projId, relTrgt, fetchDir);
+            }
+            builder.addRelInput(relTrgt);
+        }
+        return builder.build();
+    }
+
+    private static boolean isRemote(boolean hasSource, String location) {
+        return hasSource && !Files.exists(Paths.get(location));
+    }
+
+    private static ProviderGrpc.ProviderBlockingStub source(String addr) {
+        return sources.computeIfAbsent(addr, a -> {
+            Channel channel = Grpc.newChannelBuilder(a, InsecureChannelCredentials.create())
+                    .maxInboundMessageSize(Integer.MAX_VALUE)
+                    .build();
+            return ProviderGrpc.newBlockingStub(channel);
+        });
+    }
+
+    /**
+     * Pulls a dom from the provider producing it and saves it under the fetch directory.
+     *
+     * @return the dom located at its local copy, without a source
+     */
+    public static Trgt.DomTrgt fetchDom(ProviderGrpc.ProviderBlockingStub provider, String projId, Trgt.DomTrgt domTrgt, Path fetchDir) throws IOException {
+        String domName = domTrgt.getInfo().getName();
+        Analysis.FetchRequest request = Analysis.FetchRequest.newBuilder().setProjectId(projId).setDom(domTrgt).build();
+        Path localDir = fetch(provider, request, domTrgt.getSource(), domTrgt.getLocation(), fetchDir, (chunks, tmpDir) -> {
+            ProgramDom dom = new ProgramDom(domName);
+            dom.init();
+            while (chunks.hasNext()) {
+                dom.addAll(chunks.next().getDomElemList());
+            }
+            dom.save(tmpDir.toString());
+            Messages.debug("TrgtStreams: fetched dom %s of %d elements from %s", domName, dom.size(), domTrgt.getSource());
+        });
+        return domTrgt.toBuilder().setLocation(localDir.toAbsolutePath().toString()).clearSource().build();
+    }
+
+    /**
+     * Pulls a rel from the provider producing it, appending each chunk to the local copy of its file as it arrives.
+     *
+     * @return the rel located at its local copy, without a source
+     */
+    public static Trgt.RelTrgt fetchRel(ProviderGrpc.ProviderBlockingStub provider, String projId, Trgt.RelTrgt relTrgt, Path fetchDir) throws IOException {
+        String relName = relTrgt.getInfo().getName();
+        // keep the file name, whose suffix tells the format it is saved in
+        String fileName = Paths.get(relTrgt.getLocation()).getFileName().toString();
+        Analysis.FetchRequest request = Analysis.FetchRequest.newBuilder().setProjectId(projId).setRel(relTrgt).build();
+        Path localDir = fetch(provider, request, relTrgt.getSource(), relTrgt.getLocation(), fetchDir, (chunks, tmpDir) -> {
+            long numBytes = 0;
+            try (FileChannel channel = FileChannel.open(tmpDir.resolve(fileName), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                while (chunks.hasNext()) {
+                    ByteBuffer data = chunks.next().getRelData().asReadOnlyByteBuffer();
+                    numBytes += data.remaining();
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                }
+            }
+            Messages.debug("TrgtStreams: fetched rel %s of %d bytes from %s", relName, numBytes, relTrgt.getSource());
+        });
+        return relTrgt.toBuilder().setLocation(localDir.resolve(fileName).toAbsolutePath().toString()).clearSource().build();
+    }
+
+    private interface ChunkReceiver {
+        void receive(Iterator<Analysis.TrgtChunk> chunks, Path tmpDir) throws IOException;
+    }
+
+    /**
+     * Reads the version of a dom or rel from the first chunk, and receives the rest into a new local copy
+     * unless the copy of that version has been fetched before.
+     *
+     * @return the directory of the local copy
+     */
+    private static Path fetch(ProviderGrpc.ProviderBlockingStub provider, Analysis.FetchRequest request,
+                              String source, String location, Path fetchDir, ChunkReceiver receiver) throws IOException {
+        Context.CancellableContext context = Context.current().withCancellation();
+        Context previous = context.attach();
+        try {
+            Iterator<Analysis.TrgtChunk> chunks = provider.fetch(request);
+            if (!chunks.hasNext()) {
+                throw new IOException("TrgtStreams: no version of " + location + " received from " + source);
+            }
+            String version = chunks.next().getVersion();
+            Path localDir = localCopy(fetchDir, source, location, version);
+            if (!Files.exists(localDir)) {
+                Path tmpDir = Files.createDirectories(localDir.resolveSibling(localDir.getFileName() + ".tmp-" + Thread.currentThread().getId()));
+                try {
+                    receiver.receive(chunks, tmpDir);
+                } catch (IOException | RuntimeException e) {
+                    deleteDir(tmpDir);
+                    throw e;
+                }
+                publish(tmpDir, localDir);
+            }
+            return localDir;
+        } finally {
+            context.detach(previous);
+            // stops the stream if the copy has been fetched before or receiving failed
+            context.cancel(null);
+        }
+    }
+
+    private static Path localCopy(Path fetchDir, String source, String location, String version) {
+        String key = Hashing.sha256().hashString(source + "|" + location + "|" + version, StandardCharsets.UTF_8).toString();
+        return fetchDir.resolve(key.substring(0, 16));
+    }
+
+    private static void publish(Path tmpDir, Path localDir) throws IOException {
+        try {
+            Files.move(tmpDir, localDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+            // fetched concurrently by another request
+            deleteDir(tmpDir);
+        }
+    }
+
+    private static void deleteDir(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (var stream = Files.list(dir)) {
+            stream.forEach(files::add);
+        }
+        for (Path file : files) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+}
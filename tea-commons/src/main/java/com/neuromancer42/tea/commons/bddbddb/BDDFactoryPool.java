@@ -0,0 +1,217 @@
+package com.neuromancer42.tea.commons.bddbddb;
+
+import com.github.javabdd.BDD;
+import com.github.javabdd.BDDDomain;
+import com.github.javabdd.BDDFactory;
+import com.neuromancer42.tea.commons.configs.Constants;
+import com.neuromancer42.tea.commons.configs.Messages;
+
+import java.util.*;
+
+/**
+ * Pool of BDD factories shared by relations.
+ * <p>
+ * Each relation needs a factory of its own while it is in memory, but creating a factory
+ * allocates a fresh node table and cache. Instead, a closed relation returns its factory
+ * to this pool, and a relation later initialized with the same domain layout (domain names,
+ * domain sizes and variable order) leases it again, skipping the allocation and the
+ * construction of domains.
+ * <p>
+ * Sizing is configured by system properties:
+ * <ul>
+ *     <li>bddnodes, bddcache and bddminfree: parameters of each factory,</li>
+ *     <li>bddreverse: whether bits of a domain are ordered reversely,</li>
+ *     <li>bddpool: maximal number of idle factories kept, 0 to disable pooling
+ *     (defaults to the number of processors),</li>
+ *     <li>bddpoolnodes: maximal node table size of an idle factory; a factory grown beyond it
+ *     is freed instead of pooled (defaults to 4 times bddnodes).</li>
+ * </ul>
+ */
+public class BDDFactoryPool {
+    private static BDDFactoryPool pool;
+
+    public static synchronized BDDFactoryPool g() {
+        if (pool == null) {
+            int bddnodes = Integer.parseInt(System.getProperty("bddnodes", "500000"));
+            pool = new BDDFactoryPool(
+                    bddnodes,
+                    Integer.parseInt(System.getProperty("bddcache", "125000")),
+                    Double.parseDouble(System.getProperty("bddminfree", ".20")),
+                    System.getProperty("bddreverse", "true").equals("true"),
+                    Integer.parseInt(System.getProperty("bddpool", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                    Integer.parseInt(System.getProperty("bddpoolnodes", String.valueOf(4 * bddnodes))));
+        }
+        return pool;
+    }
+
+    /**
+     * A factory leased to a single relation, together with its domains.
+     */
+    public static class Lease {
+        private final String key;
+        private final BDDFactory factory;
+        private final BDDDomain[] domBdds;
+        private final BDD iterBdd;
+        private final int varNum;
+
+        private Lease(String key, BDDFactory factory, BDDDomain[] domBdds, BDD iterBdd) {
+            this.key = key;
+            this.factory = factory;
+            this.domBdds = domBdds;
+            this.iterBdd = iterBdd;
+            this.varNum = factory.varNum();
+        }
+
+        public BDDFactory getFactory() {
+            return factory;
+        }
+
+        public BDDDomain[] getDomBdds() {
+            return domBdds;
+        }
+
+        /**
+         * @return the conjunction of all domains, used for counting and iterating tuples
+         */
+        public BDD getIterBdd() {
+            return iterBdd;
+        }
+    }
+
+    private final int bddnodes;
+    private final int bddcache;
+    private final double bddminfree;
+    private final boolean reverseLocal;
+    private final int maxIdle;
+    private final int maxIdleNodes;
+
+    // idle factories in LRU order
+    private final LinkedHashMap<Lease, String> idleLeases = new LinkedHashMap<>(16, 0.75f, false);
+    private final Map<String, Deque<Lease>> idleByKey = new HashMap<>();
+
+    private long numCreated = 0;
+    private long numReused = 0;
+    private long numDiscarded = 0;
+
+    public BDDFactoryPool(int bddnodes, int bddcache, double bddminfree, boolean reverseLocal, int maxIdle, int maxIdleNodes) {
+        this.bddnodes = bddnodes;
+        this.bddcache = bddcache;
+        this.bddminfree = bddminfree;
+        this.reverseLocal = reverseLocal;
+        this.maxIdle = maxIdle;
+        this.maxIdleNodes = maxIdleNodes;
+    }
+
+    public Lease acquire(RelSign sign, long[] domSizes) {
+        String key = makeKey(sign, domSizes);
+        synchronized (this) {
+            Deque<Lease> idles = idleByKey.get(key);
+            if (idles != null && !idles.isEmpty()) {
+                Lease lease = idles.pop();
+                if (idles.isEmpty()) {
+                    idleByKey.remove(key);
+                }
+                idleLeases.remove(lease);
+                ++numReused;
+                return lease;
+            }
+            ++numCreated;
+        }
+        return createLease(key, sign, domSizes);
+    }
+
+    public void release(Lease lease) {
+        // a factory extended on loading (see Rel.load) no longer matches its key,
+        // and a factory with a grown node table is not worth its memory while idle
+        if (maxIdle <= 0 || lease.factory.varNum() != lease.varNum
+                || lease.factory.getNodeTableSize() > maxIdleNodes) {
+            discard(lease);
+            return;
+        }
+        Lease evicted = null;
+        synchronized (this) {
+            idleByKey.computeIfAbsent(lease.key, k -> new ArrayDeque<>()).push(lease);
+            idleLeases.put(lease, lease.key);
+            if (idleLeases.size() > maxIdle) {
+                evicted = idleLeases.keySet().iterator().next();
+                idleLeases.remove(evicted);
+                Deque<Lease> idles = idleByKey.get(evicted.key);
+                idles.remove(evicted);
+                if (idles.isEmpty()) {
+                    idleByKey.remove(evicted.key);
+                }
+            }
+        }
+        if (evicted != null) {
+            discard(evicted);
+        }
+    }
+
+    /**
+     * Frees all idle factories.
+     */
+    public void clear() {
+        List<Lease> leases;
+        synchronized (this) {
+            leases = new ArrayList<>(idleLeases.keySet());
+            idleLeases.clear();
+            idleByKey.clear();
+        }
+        for (Lease lease : leases) {
+            discard(lease);
+        }
+    }
+
+    public synchronized String getStats() {
+        return String.format("BDDFactoryPool: %d factories created, %d reused, %d discarded, %d idle",
+                numCreated, numReused, numDiscarded, idleLeases.size());
+    }
+
+    private void discard(Lease lease) {
+        synchronized (this) {
+            ++numDiscarded;
+        }
+        lease.iterBdd.free();
+        lease.factory.done();
+    }
+
+    private Lease createLease(String key, RelSign sign, long[] domSizes) {
+        // Note: Do not change the argument "java" below to "buddy".
+        // We require a separate BDD factory for each relation in Chord,
+        // for modularity purposes.  We also require the ability for
+        // multiple such factories to be active simultaneously.  But
+        // BuDDyFactory, the factory of choice (since it is more
+        // efficient and is used for solving Datalog analyses in Chord)
+        // allows at most one instance of itself to be active at a time.
+        // Hence, we need to use JFactory here instead, which allows
+        // multiple instances of itself be active simultaneously.
+        BDDFactory factory = BDDFactory.init("java", bddnodes, bddcache);
+        factory.reorderVerbose(Constants.BDD_VERBOSE);
+        factory.setIncreaseFactor(2);
+        factory.setMinFreeNodes(bddminfree);
+        String[] domNames = sign.getDomNames();
+        BDDDomain[] domBdds = new BDDDomain[domNames.length];
+        for (int i = 0; i < domNames.length; i++) {
+            BDDDomain d = factory.extDomain(new long[] { domSizes[i] })[0];
+            d.setName(domNames[i]);
+            domBdds[i] = d;
+        }
+        int[] order = factory.makeVarOrdering(reverseLocal, sign.getDomOrder());
+        factory.setVarOrder(order);
+        BDD iterBdd = factory.one();
+        for (BDDDomain domBdd : domBdds) {
+            iterBdd = iterBdd.andWith(domBdd.set().toBDD());
+        }
+        Messages.debug("BDDFactoryPool: created factory for %s", key);
+        return new Lease(key, factory, domBdds, iterBdd);
+    }
+
+    private static String makeKey(RelSign sign, long[] domSizes) {
+        StringBuilder sb = new StringBuilder(sign.getDomOrder());
+        String[] domNames = sign.getDomNames();
+        for (int i = 0; i < domNames.length; ++i) {
+            sb.append(i == 0 ? '[' : ',').append(domNames[i]).append(':').append(domSizes[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
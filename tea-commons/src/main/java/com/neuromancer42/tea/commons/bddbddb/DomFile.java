@@ -0,0 +1,191 @@
+package com.neuromancer42.tea.commons.bddbddb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntFunction;
+
+/**
+ * Binary map file of a domain, kept next to the text map so that elements can be looked up without loading them all.
+ * <p>
+ * All numbers are little-endian. A file starts with a header of
+ * <ul>
+ *     <li>magic number and format version (int32 each),</li>
+ *     <li>number of elements and number of hash slots (int32 each),</li>
+ * </ul>
+ * followed by
+ * <ul>
+ *     <li>the offset index: start of each element in the data area and the end of the last one (int32 each),</li>
+ *     <li>the hash index: an open-addressing table of 1-based element ids, 0 for empty slots (int32 each),</li>
+ *     <li>the data area: UTF-8 bytes of all elements in the order of their ids.</li>
+ * </ul>
+ * The number of hash slots is a power of two, slots are probed linearly from the hash of an element.
+ */
+public class DomFile {
+    public static final String SUFFIX = ".dmap";
+
+    private static final int MAGIC = 0x4D4F4454; // "TDOM" in little-endian bytes
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4;
+
+    private final int size;
+    private final int numSlots;
+    private final int slotsStart;
+    private final int dataStart;
+    private final ByteBuffer buffer;
+
+    private DomFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("DomFile: not a binary dom file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("DomFile: unsupported format version " + version);
+        }
+        size = buffer.getInt(8);
+        numSlots = buffer.getInt(12);
+        if (size < 0 || numSlots <= 0 || Integer.bitCount(numSlots) != 1) {
+            throw new IOException("DomFile: corrupted header");
+        }
+        slotsStart = HEADER_SIZE + 4 * (size + 1);
+        dataStart = slotsStart + 4 * numSlots;
+        if (dataStart > buffer.limit() || dataStart + (long) buffer.getInt(slotsStart - 4) > buffer.limit()) {
+            throw new IOException("DomFile: truncated file");
+        }
+    }
+
+    /**
+     * Maps a dom file into memory read-only; elements are decoded from the mapping on access.
+     */
+    public static DomFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("DomFile: file too large " + path);
+            }
+            return new DomFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Provides the element of the given 0-based id.
+     */
+    public String get(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("DomFile: index " + idx + " out of size " + size);
+        }
+        int start = offset(idx);
+        byte[] bytes = new byte[offset(idx + 1) - start];
+        buffer.get(dataStart + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Looks up the 0-based id of an element in the hash index, or -1 if it is absent.
+     */
+    public int indexOf(String val) {
+        byte[] bytes = val.getBytes(StandardCharsets.UTF_8);
+        int mask = numSlots - 1;
+        for (int slot = hash(val) & mask; ; slot = (slot + 1) & mask) {
+            int id = buffer.getInt(slotsStart + 4 * slot) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (matches(id, bytes)) {
+                return id;
+            }
+        }
+    }
+
+    private int offset(int idx) {
+        return buffer.getInt(HEADER_SIZE + 4 * idx);
+    }
+
+    private boolean matches(int idx, byte[] bytes) {
+        int start = offset(idx);
+        if (offset(idx + 1) - start != bytes.length) {
+            return false;
+        }
+        int pos = dataStart + start;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (buffer.get(pos + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String val) {
+        int h = val.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Writes elements in the order of their ids; elements must be distinct.
+     */
+    public static void write(Path path, int size, IntFunction<String> elems) throws IOException {
+        byte[][] encoded = new byte[size][];
+        int[] hashes = new int[size];
+        long dataSize = 0;
+        for (int i = 0; i < size; ++i) {
+            String elem = elems.apply(i);
+            encoded[i] = elem.getBytes(StandardCharsets.UTF_8);
+            hashes[i] = hash(elem);
+            dataSize += encoded[i].length;
+        }
+        // keep the load factor of the hash index at most 1/2
+        int numSlots = Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+        long fileSize = HEADER_SIZE + 4L * (size + 1) + 4L * numSlots + dataSize;
+        if (numSlots <= 0 || fileSize > Integer.MAX_VALUE) {
+            throw new IOException("DomFile: dom of " + size + " elements too large to be written");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(size);
+        buffer.putInt(numSlots);
+        int offset = 0;
+        for (int i = 0; i < size; ++i) {
+            buffer.putInt(offset);
+            offset += encoded[i].length;
+        }
+        buffer.putInt(offset);
+        int slotsStart = buffer.position();
+        int mask = numSlots - 1;
+        for (int i = 0; i < size; ++i) {
+            int slot = hashes[i] & mask;
+            while (buffer.getInt(slotsStart + 4 * slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            buffer.putInt(slotsStart + 4 * slot, i + 1);
+        }
+        buffer.position(slotsStart + 4 * numSlots);
+        for (byte[] bytes : encoded) {
+            buffer.put(bytes);
+        }
+        buffer.flip();
+        // lazily loaded doms may still map an earlier file at this path, so publish a new file in its place
+        Path tmpPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+}
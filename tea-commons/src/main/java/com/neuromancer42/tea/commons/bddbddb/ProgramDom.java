@@ -2,14 +2,27 @@ package com.neuromancer42.tea.commons.bddbddb;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 
 import com.neuromancer42.tea.commons.configs.Messages;
 
+/**
+ * Domain of program elements named by strings.
+ * <p>
+ * Besides the text map, a {@link DomFile} is saved alongside. A dom loaded from a location having one is lazy:
+ * elements are read from the memory-mapped file and looked up through its hash index, and the in-heap map
+ * is only built when the dom gets modified.
+ */
 public class ProgramDom extends Dom<String> {
     private String cacheLocation;
+    // Note: a dom shared by concurrent holders may be materialized by any of them
+    private volatile DomFile domFile;
 
     public ProgramDom(String domName) {
         super();
@@ -18,12 +31,26 @@ public class ProgramDom extends Dom<String> {
 
     public void save(String location) {
         Messages.debug("ProgramDom %s: SAVING dom size: %d", name, size());
+        if (domFile != null && location.equals(cacheLocation)) {
+            // still backed by the files there
+            return;
+        }
         try {
             super.save(location, true);
         } catch (IOException e) {
             Messages.error("ProgramDom %s: cannot save dom map to %s", name, location);
             Messages.fatal(e);
         }
+        try {
+            DomFile.write(Paths.get(location, name + DomFile.SUFFIX), size(), this::get);
+        } catch (IOException e) {
+            // the text map is still there for loading
+            Messages.warn("ProgramDom %s: cannot save binary dom map to %s: %s", name, location, e.getMessage());
+            try {
+                Files.deleteIfExists(Paths.get(location, name + DomFile.SUFFIX));
+            } catch (IOException ignored) {
+            }
+        }
         this.cacheLocation = location;
     }
 
@@ -34,6 +61,11 @@ public class ProgramDom extends Dom<String> {
             }
             clear();
             cacheLocation = location;
+            Path domFilePath = Paths.get(location, name + DomFile.SUFFIX);
+            if (Files.exists(domFilePath)) {
+                domFile = DomFile.open(domFilePath);
+                return;
+            }
             List<String> vals = Files.readAllLines(Paths.get(location, name + ".map"));
             addAll(vals);
         } catch (IOException e) {
@@ -42,6 +74,102 @@ public class ProgramDom extends Dom<String> {
         }
     }
 
+    /**
+     * Builds the in-heap map of a lazily loaded dom, so that it can be modified.
+     */
+    public synchronized void materialize() {
+        DomFile file = domFile;
+        if (file != null) {
+            int size = file.size();
+            for (int i = 0; i < size; ++i) {
+                super.add(file.get(i));
+            }
+            // readers keep using the file until the in-heap map is complete
+            domFile = null;
+            Messages.debug("ProgramDom %s: materialized %d elements", name, size);
+        }
+    }
+
+    @Override
+    public void clear() {
+        domFile = null;
+        super.clear();
+    }
+
+    @Override
+    public boolean contains(Object val) {
+        return indexOf(val) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object val) {
+        DomFile file = domFile;
+        if (file != null) {
+            return val instanceof String ? file.indexOf((String) val) : -1;
+        }
+        return super.indexOf(val);
+    }
+
+    @Override
+    public int getOrAdd(String val) {
+        materialize();
+        return super.getOrAdd(val);
+    }
+
+    @Override
+    public boolean add(String val) {
+        materialize();
+        return super.add(val);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends String> c) {
+        materialize();
+        return super.addAll(c);
+    }
+
+    @Override
+    public String get(int idx) {
+        DomFile file = domFile;
+        if (file != null) {
+            return file.get(idx);
+        }
+        return super.get(idx);
+    }
+
+    @Override
+    public int size() {
+        DomFile file = domFile;
+        if (file != null) {
+            return file.size();
+        }
+        return super.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        DomFile file = domFile;
+        if (file == null) {
+            return super.iterator();
+        }
+        return new Iterator<>() {
+            private int cursor = 0;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < file.size();
+            }
+
+            @Override
+            public String next() {
+                if (cursor >= file.size()) {
+                    throw new NoSuchElementException();
+                }
+                return file.get(cursor++);
+            }
+        };
+    }
+
     @Override
     public String toString() {
         return name;
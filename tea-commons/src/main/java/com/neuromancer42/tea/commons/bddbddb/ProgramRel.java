@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -31,11 +32,35 @@ public class ProgramRel {
 
     private static final String BDD = "bdd";
     private static final String CSV = "csv";
+    private static final String REL = RelFile.SUFFIX;
 
     public Iterable<Object[]> getValTuples() {
         if (status == Status.UnInit) {
             Messages.fatal("ProgramRel %s: iterating uninitialized rel", getName());
         }
+        RelFile view = openView();
+        if (view != null) {
+            Dom<?>[] doms = rel.getDoms();
+            Iterable<int[]> intTuples = view.getIntTuples();
+            return () -> new Iterator<>() {
+                private final Iterator<int[]> it = intTuples.iterator();
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Object[] next() {
+                    int[] intTuple = it.next();
+                    Object[] valTuple = new Object[intTuple.length];
+                    for (int i = 0; i < intTuple.length; ++i) {
+                        valTuple[i] = doms[i].get(intTuple[i]);
+                    }
+                    return valTuple;
+                }
+            };
+        }
         if (status == Status.Detach) {
             Messages.debug("ProgramRel %s: iterating detached rel", getName());
             load();
@@ -47,6 +72,10 @@ public class ProgramRel {
         if (status == Status.UnInit) {
             Messages.fatal("ProgramRel %s: iterating uninitialized rel", getName());
         }
+        RelFile view = openView();
+        if (view != null) {
+            return view.getIntTuples();
+        }
         if (status == Status.Detach) {
             Messages.debug("ProgramRel %s: iterating detached rel", getName());
             load();
@@ -86,6 +115,8 @@ public class ProgramRel {
     }
 
     private String cacheLocation;
+    // mapped view of the binary table at cacheLocation, kept while detached
+    private RelFile view;
 
     private Status status = Status.UnInit;
 
@@ -182,8 +213,15 @@ public class ProgramRel {
         switch (status) {
             case UnSync:
                 Messages.log("SAVING rel " + rel.getName() + " size: " + rel.size());
-                rel.save(location);
-                cacheLocation = location + File.separator + getName() + ".bdd";
+                Path relPath = Paths.get(location, getName() + REL);
+                try {
+                    RelFile.write(relPath, getName(), getSign(), rel.getAryNIntTuples());
+                } catch (IOException e) {
+                    Messages.error("ProgramRel %s: failed to save table to %s", getName(), relPath.toString());
+                    Messages.fatal(e);
+                }
+                cacheLocation = relPath.toString();
+                view = null;
                 status = Status.Sync;
                 break;
             case UnInit:
@@ -220,12 +258,26 @@ public class ProgramRel {
         assert cacheLocation != null;
         File cacheFile = new File(cacheLocation);
         assert cacheFile.isFile();
-        if (cacheLocation.endsWith(BDD)) {
+        if (cacheLocation.endsWith(REL)) {
+            rel.zero();
+            Messages.debug("ProgramRel: loading binary table from path %s", cacheLocation);
+            try {
+                RelFile relFile = RelFile.open(cacheFile.toPath());
+                if (relFile.arity() != rel.getDoms().length) {
+                    Messages.fatal("ProgramRel %s: arity mismatch with binary table %s", getName(), cacheLocation);
+                }
+                rel.addAll(relFile.getIntTuples());
+            } catch (IOException e) {
+                Messages.error("ProgramRel: failed to read binary table from %s", cacheLocation);
+                Messages.fatal(e);
+            }
+        } else if (cacheLocation.endsWith(BDD)) {
             rel.load(cacheFile.getParent());
         } else if (cacheLocation.endsWith(CSV)) {
             init();
             Messages.debug("ProgramRel: loading facts from path %s", cacheLocation);
             Path outPath = cacheFile.toPath();
+            List<int[]> tuples = new ArrayList<>();
             try (Stream<String> csvStream = Files.lines(outPath)) {
                 csvStream.forEach(
                         line -> {
@@ -235,9 +287,10 @@ public class ProgramRel {
                             for (int i = 0; i < width; ++i) {
                                 indexes[i] = Integer.parseInt(tuple[i]) - 1; // Note: id's in CSV starts from 1
                             }
-                            rel.add(indexes);
+                            tuples.add(indexes);
                         }
                 );
+                rel.addAll(tuples);
             } catch (IOException e) {
                 Messages.error("ProgramRel: failed to read table from %s", outPath.toString());
                 Messages.fatal(e);
@@ -246,6 +299,39 @@ public class ProgramRel {
         status = Status.Sync;
     }
 
+    /**
+     * A detached rel cached in a binary table is read-only scanned from the memory-mapped file,
+     * so that iterating it once does not pay for building a BDD. The mapping is reused until the rel is saved again.
+     *
+     * @return the mapped table, or null if the rel has to be loaded
+     */
+    private RelFile openView() {
+        if (status != Status.Detach || !cacheLocation.endsWith(REL)) {
+            return null;
+        }
+        if (view != null) {
+            return view;
+        }
+        try {
+            view = RelFile.open(Paths.get(cacheLocation));
+            if (view.arity() != rel.getDoms().length) {
+                Messages.fatal("ProgramRel %s: arity mismatch with binary table %s", getName(), cacheLocation);
+            }
+            return view;
+        } catch (IOException e) {
+            Messages.error("ProgramRel %s: failed to map binary table from %s", getName(), cacheLocation);
+            Messages.fatal(e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true iff the rel is attached to its location, without being loaded in memory
+     */
+    public boolean isDetached() {
+        return status == Status.Detach;
+    }
+
     public void attach(String location) {
         if (status != Status.UnInit) {
             Messages.fatal("ProgramRel %s: resetting in-memory relation from disk", getName());
@@ -273,6 +359,10 @@ public class ProgramRel {
         if (status == Status.UnInit) {
             Messages.fatal("ProgramRel %s: querying uninitialized rel", getName());
         }
+        RelFile view = openView();
+        if (view != null) {
+            return view.size();
+        }
         if (status == Status.Detach) {
             Messages.debug("ProgramRel %s: querying detached rel", getName());
             load();
@@ -327,6 +417,21 @@ public class ProgramRel {
         status = Status.UnSync;
     }
 
+    /**
+     * Adds tuples in bulk, which is much faster than adding them one by one for large batches.
+     */
+    public void addAll(Iterable<int[]> tuples) {
+        if (status == Status.UnInit) {
+            Messages.fatal("ProgramRel %s: modifying uninitialized rel", getName());
+        }
+        if (status == Status.Detach) {
+            Messages.warn("ProgramRel %s: modifying detached rel", getName());
+            load();
+        }
+        rel.addAll(tuples);
+        status = Status.UnSync;
+    }
+
     public void remove(int[] idxs) {
         if (status == Status.UnInit) {
             Messages.fatal("ProgramRel %s: modifying uninitialized rel", getName());
@@ -0,0 +1,166 @@
+package com.neuromancer42.tea.commons.bddbddb;
+
+import com.neuromancer42.tea.commons.configs.Messages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Doms and rels loaded by a provider, shared by the analyses it runs for a project.
+ * <p>
+ * A schedule passes the same doms to most analyses of a project, so a provider acquires them here instead of
+ * reloading them for every request. Entries are keyed by name and location, and are reloaded when the files there
+ * get modified. A dom, being read-only once loaded, is shared by all holders; a rel is leased to one holder at a
+ * time, as loading and closing it changes its state, and a fresh one is created while it is in use. Reference
+ * counts track the holders; entries of a project are dropped on its shutdown, or on their last release after it.
+ * A rel released without being closed, e.g. by a failed analysis, is closed here and not leased again.
+ */
+public class ProgramTrgtCache {
+    private static ProgramTrgtCache cache;
+
+    public static synchronized ProgramTrgtCache g() {
+        if (cache == null) {
+            cache = new ProgramTrgtCache();
+        }
+        return cache;
+    }
+
+    private static class Entry<T> {
+        private final T trgt;
+        private final long mtime;
+        private int refCount = 0;
+
+        private Entry(T trgt, long mtime) {
+            this.trgt = trgt;
+            this.mtime = mtime;
+        }
+    }
+
+    private static class ProjectCache {
+        private final Map<String, Entry<ProgramDom>> doms = new HashMap<>();
+        private final Map<String, Entry<ProgramRel>> rels = new HashMap<>();
+        private final Map<Object, Entry<?>> held = new IdentityHashMap<>();
+    }
+
+    private final Map<String, ProjectCache> projects = new HashMap<>();
+    private int numHits = 0;
+    private int numMisses = 0;
+
+    private ProgramTrgtCache() {
+    }
+
+    /**
+     * Provides the dom saved at the location, loading it only if it is not cached or has been modified since.
+     * The dom must be released after use.
+     */
+    public ProgramDom acquireDom(String projId, String domName, String location) {
+        Path domFile = Paths.get(location, domName + DomFile.SUFFIX);
+        if (!Files.exists(domFile)) {
+            domFile = Paths.get(location, domName + ".map");
+        }
+        long mtime = lastModified(domFile);
+        String key = domName + "@" + location;
+        synchronized (this) {
+            ProjectCache projCache = projects.computeIfAbsent(projId, p -> new ProjectCache());
+            Entry<ProgramDom> entry = projCache.doms.get(key);
+            if (entry != null && entry.mtime == mtime) {
+                ++numHits;
+                return hold(projCache, entry);
+            }
+        }
+        ProgramDom dom = new ProgramDom(domName);
+        dom.load(location);
+        synchronized (this) {
+            ++numMisses;
+            ProjectCache projCache = projects.computeIfAbsent(projId, p -> new ProjectCache());
+            Entry<ProgramDom> entry = projCache.doms.get(key);
+            if (entry != null && entry.mtime == mtime) {
+                // loaded concurrently by another request
+                return hold(projCache, entry);
+            }
+            entry = new Entry<>(dom, mtime);
+            if (mtime >= 0) {
+                projCache.doms.put(key, entry);
+            }
+            return hold(projCache, entry);
+        }
+    }
+
+    /**
+     * Provides the rel attached to the location over the given doms, which should be acquired from this cache.
+     * The rel must be released after use, and left detached, i.e. closed if it has been loaded.
+     */
+    public ProgramRel acquireRel(String projId, String relName, ProgramDom[] doms, String location) {
+        long mtime = lastModified(Paths.get(location));
+        String key = relName + "@" + location;
+        synchronized (this) {
+            ProjectCache projCache = projects.computeIfAbsent(projId, p -> new ProjectCache());
+            Entry<ProgramRel> entry = projCache.rels.get(key);
+            if (entry != null && entry.mtime == mtime && entry.refCount == 0
+                    && Arrays.equals(entry.trgt.getDoms(), doms)) {
+                ++numHits;
+                return hold(projCache, entry);
+            }
+            ++numMisses;
+            ProgramRel rel = new ProgramRel(relName, doms);
+            rel.attach(location);
+            Entry<ProgramRel> newEntry = new Entry<>(rel, mtime);
+            if (mtime >= 0 && (entry == null || entry.refCount == 0)) {
+                projCache.rels.put(key, newEntry);
+            }
+            return hold(projCache, newEntry);
+        }
+    }
+
+    public synchronized void release(String projId, Object trgt) {
+        ProjectCache projCache = projects.get(projId);
+        if (projCache == null) {
+            return;
+        }
+        Entry<?> entry = projCache.held.get(trgt);
+        if (entry == null) {
+            Messages.warn("ProgramTrgtCache: releasing %s not acquired for project %s", trgt, projId);
+            return;
+        }
+        if (--entry.refCount == 0) {
+            projCache.held.remove(trgt);
+            if (trgt instanceof ProgramRel && !((ProgramRel) trgt).isDetached()) {
+                ProgramRel rel = (ProgramRel) trgt;
+                Messages.debug("ProgramTrgtCache: closing rel %s released in memory by project %s", rel.getName(), projId);
+                projCache.rels.values().remove(entry);
+                if (rel.rel.isOpen()) {
+                    rel.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all doms and rels of a project; those still in use are dropped by their holders.
+     */
+    public synchronized void releaseProject(String projId) {
+        ProjectCache projCache = projects.remove(projId);
+        if (projCache != null) {
+            Messages.log("ProgramTrgtCache: released %d doms and %d rels of project %s (%d in use), %d hits and %d misses so far",
+                    projCache.doms.size(), projCache.rels.size(), projId, projCache.held.size(), numHits, numMisses);
+        }
+    }
+
+    private static <T> T hold(ProjectCache projCache, Entry<T> entry) {
+        ++entry.refCount;
+        projCache.held.put(entry.trgt, entry);
+        return entry.trgt;
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            Messages.debug("ProgramTrgtCache: not caching %s: %s", path, e.getMessage());
+            return -1;
+        }
+    }
+}
@@ -14,7 +14,6 @@ import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
-import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.commons.util.tuple.integer.*;
 import com.neuromancer42.tea.commons.util.tuple.object.*;
@@ -83,6 +82,7 @@ public class Rel {
     protected BDDDomain[] domBdds;
     protected BDD bdd;
     protected BDD iterBdd;
+    protected BDDFactoryPool.Lease lease;
 
     /**
      * Sets the name of this relation.
@@ -173,46 +173,28 @@ public class Rel {
     protected void initialize() {
         if (doms == null)
             throw new RuntimeException("");
-        int bddnodes = Integer.parseInt(
-            System.getProperty("bddnodes", "500000"));
-        int bddcache = Integer.parseInt(
-            System.getProperty("bddcache", "125000"));
-        double bddminfree = Double.parseDouble(
-            System.getProperty("bddminfree", ".20"));
-        // Note: Do not change the argument "java" below to "buddy".
-        // We require a separate BDD factory for each relation in Chord,
-        // for modularity purposes.  We also require the ability for
-        // multiple such factories to be active simultaneously.  But
-        // BuDDyFactory, the factory of choice (since it is more
-        // efficient and is used for solving Datalog analyses in Chord)
-        // allows at most one instance of itself to be active at a time.
-        // Hence, we need to use JFactory here instead, which allows
-        // multiple instances of itself be active simultaneously.
-        factory = BDDFactory.init("java", bddnodes, bddcache);
-        factory.reorderVerbose(Constants.BDD_VERBOSE);
-        factory.setIncreaseFactor(2);
-        factory.setMinFreeNodes(bddminfree);
-        domBdds = new BDDDomain[numDoms];
-        String[] domNames = sign.val0;
+        if (lease != null) {
+            // re-initialized without closing, give back the previous factory first
+            if (bdd != null)
+                bdd.free();
+            bdd = null;
+            BDDFactoryPool.g().release(lease);
+        }
+        long[] domSizes = new long[numDoms];
         for (int i = 0; i < numDoms; i++) {
-            String name = domNames[i];
             int numElems = doms[i].size();
             if (numElems == 0)
                 numElems = 1;
-            BDDDomain d = factory.extDomain(new long[] { numElems })[0];
-            d.setName(name);
-            domBdds[i] = d;
+            domSizes[i] = numElems;
         }
-        boolean reverseLocal = System.getProperty("bddreverse","true").equals("true");
-        int[] order = factory.makeVarOrdering(reverseLocal, sign.val1);
-        factory.setVarOrder(order);
+        lease = BDDFactoryPool.g().acquire(sign, domSizes);
+        factory = lease.getFactory();
+        domBdds = lease.getDomBdds();
         domIdxs = new int[numDoms];
-        iterBdd = factory.one();
         for (int i = 0; i < numDoms; i++) {
-            BDDDomain domBdd = domBdds[i]; 
-            domIdxs[i] = domBdd.getIndex();
-            iterBdd = iterBdd.andWith(domBdd.set().toBDD());
+            domIdxs[i] = domBdds[i].getIndex();
         }
+        iterBdd = lease.getIterBdd();
     }
     /**
      * Sets this relation in memory to the full relation (containing all tuples).
@@ -285,8 +267,10 @@ public class Rel {
     public void close() {
         if (bdd == null)
             Messages.fatal("Rel %s: bdd is uninitialized", name);
-        factory.done();
+        bdd.free();
         bdd = null;
+        BDDFactoryPool.g().release(lease);
+        lease = null;
     }
     /**
      * Copies the relation from memory to disk and frees it from memory.
@@ -1865,6 +1849,100 @@ public class Rel {
         }
     }
 
+    /**
+     * Adds a batch of tuples to this relation at once.
+     * <p>
+     * Instead of or-ing the tuples one by one, the tuples are partitioned bit by bit
+     * following the variable order of the BDD factory (i.e. sorted in that order),
+     * and the BDD of the batch is built bottom-up from the partitions, so that its
+     * nodes are made once each rather than rebuilt by repeated unions.
+     *
+     * @param tuples Tuples of domain indices; they need not be sorted or distinct.
+     */
+    public void addAll(Iterable<int[]> tuples) {
+        if (bdd == null)
+            throw new RuntimeException("");
+        int size = 0;
+        int[][] columns = new int[numDoms][16];
+        for (int[] idxs : tuples) {
+            if (size == columns[0].length) {
+                for (int i = 0; i < numDoms; ++i)
+                    columns[i] = Arrays.copyOf(columns[i], size * 2);
+            }
+            for (int i = 0; i < numDoms; ++i) {
+                int idx = idxs[i];
+                if (idx < 0 || idx >= domBdds[i].size()) {
+                    checkRange(idx, i);
+                    throw new RuntimeException("Value has out of range index " + idx +
+                        " in domain #" + i + " named '" + doms[i] + "' in relation named '" + name + "'.");
+                }
+                columns[i][size] = idx;
+            }
+            ++size;
+        }
+        if (size == 0)
+            return;
+        // all variables of this relation, ordered by their levels
+        int numVars = 0;
+        for (BDDDomain d : domBdds)
+            numVars += d.varNum();
+        Integer[] varIds = new Integer[numVars];
+        int[] varDomOf = new int[factory.varNum()];
+        int[] varBitOf = new int[factory.varNum()];
+        for (int i = 0, k = 0; i < numDoms; ++i) {
+            int[] vars = domBdds[i].vars();
+            for (int j = 0; j < vars.length; ++j) {
+                varIds[k++] = vars[j];
+                varDomOf[vars[j]] = i;
+                varBitOf[vars[j]] = j; // Note: vars[0] encodes the lowest bit of an index
+            }
+        }
+        Arrays.sort(varIds, (v1, v2) -> Integer.compare(factory.var2Level(v1), factory.var2Level(v2)));
+        int[] levelVars = new int[numVars];
+        int[] levelDoms = new int[numVars];
+        int[] levelBits = new int[numVars];
+        for (int k = 0; k < numVars; ++k) {
+            levelVars[k] = varIds[k];
+            levelDoms[k] = varDomOf[varIds[k]];
+            levelBits[k] = varBitOf[varIds[k]];
+        }
+        int[] rows = new int[size];
+        for (int r = 0; r < size; ++r)
+            rows[r] = r;
+        BDD batchBdd = buildBottomUp(columns, rows, 0, size, 0, levelVars, levelDoms, levelBits);
+        bdd.orWith(batchBdd);
+    }
+
+    private BDD buildBottomUp(int[][] columns, int[] rows, int lo, int hi, int depth,
+                              int[] levelVars, int[] levelDoms, int[] levelBits) {
+        if (lo == hi)
+            return factory.zero();
+        if (depth == levelVars.length)
+            return factory.one();
+        int[] column = columns[levelDoms[depth]];
+        int bit = levelBits[depth];
+        // partition rows into those with the bit unset followed by those with the bit set
+        int i = lo, j = hi - 1;
+        while (i <= j) {
+            if (((column[rows[i]] >>> bit) & 1) == 0) {
+                ++i;
+            } else {
+                int t = rows[i];
+                rows[i] = rows[j];
+                rows[j] = t;
+                --j;
+            }
+        }
+        BDD low = buildBottomUp(columns, rows, lo, i, depth + 1, levelVars, levelDoms, levelBits);
+        BDD high = buildBottomUp(columns, rows, i, hi, depth + 1, levelVars, levelDoms, levelBits);
+        BDD var = factory.ithVar(levelVars[depth]);
+        BDD node = var.ite(high, low);
+        var.free();
+        high.free();
+        low.free();
+        return node;
+    }
+
     public void remove(Object[] vals) {
         if (bdd == null)
             throw new RuntimeException("");
@@ -0,0 +1,277 @@
+package com.neuromancer42.tea.commons.bddbddb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary columnar file of a relation, used to exchange relations between providers.
+ * <p>
+ * All numbers are little-endian. A file starts with a header of
+ * <ul>
+ *     <li>magic number and format version (int32 each),</li>
+ *     <li>arity and number of tuples (int32 each),</li>
+ *     <li>relation name, comma-separated domain names and domain order of the {@link RelSign}
+ *     (each as an int32 length followed by UTF-8 bytes),</li>
+ *     <li>element width of each column (1 byte each, valued 1, 2 or 4),</li>
+ * </ul>
+ * followed by the columns one after another. Each column holds the 0-based domain indices
+ * of all tuples, each element taking the fixed width of its column.
+ */
+public class RelFile {
+    public static final String SUFFIX = ".rel";
+
+    private static final int MAGIC = 0x4C455254; // "TREL" in little-endian bytes
+    private static final int VERSION = 1;
+
+    private final String name;
+    private final RelSign sign;
+    private final int arity;
+    private final int size;
+    private final int[] widths;
+    private final int[] offsets;
+    private final ByteBuffer buffer;
+
+    private RelFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("RelFile: not a binary relation file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("RelFile: unsupported format version " + version);
+        }
+        arity = buffer.getInt();
+        size = buffer.getInt();
+        name = getString(buffer);
+        String domNames = getString(buffer);
+        String domOrder = getString(buffer);
+        sign = new RelSign(domNames.split(","), domOrder.isEmpty() ? null : domOrder);
+        if (sign.val0.length != arity) {
+            throw new IOException("RelFile: arity mismatch of rel " + name);
+        }
+        widths = new int[arity];
+        offsets = new int[arity];
+        int offset = buffer.position() + arity;
+        for (int i = 0; i < arity; ++i) {
+            widths[i] = buffer.get();
+            if (widths[i] != 1 && widths[i] != 2 && widths[i] != 4) {
+                throw new IOException("RelFile: invalid column width " + widths[i] + " of rel " + name);
+            }
+            offsets[i] = offset;
+            offset += widths[i] * size;
+        }
+        if (offset > buffer.limit()) {
+            throw new IOException("RelFile: truncated columns of rel " + name);
+        }
+    }
+
+    /**
+     * Maps a relation file into memory read-only; tuples are decoded from the mapping on access.
+     */
+    public static RelFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("RelFile: file too large " + path);
+            }
+            return new RelFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RelSign getSign() {
+        return sign;
+    }
+
+    public int arity() {
+        return arity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Provides the 0-based domain index of a tuple at the given column.
+     *
+     * @param row Index of the tuple in this file.
+     * @param col Index of the column.
+     * @return The domain index.
+     */
+    public int get(int row, int col) {
+        int pos = offsets[col] + row * widths[col];
+        switch (widths[col]) {
+            case 1:
+                return buffer.get(pos) & 0xFF;
+            case 2:
+                return buffer.getShort(pos) & 0xFFFF;
+            default:
+                return buffer.getInt(pos);
+        }
+    }
+
+    /**
+     * Iterates over all tuples of this file.
+     * The returned array is freshly allocated for each tuple.
+     */
+    public Iterable<int[]> getIntTuples() {
+        return () -> new Iterator<>() {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public int[] next() {
+                if (row >= size) {
+                    throw new NoSuchElementException();
+                }
+                int[] tuple = new int[arity];
+                for (int i = 0; i < arity; ++i) {
+                    tuple[i] = get(row, i);
+                }
+                ++row;
+                return tuple;
+            }
+        };
+    }
+
+    public static void write(Path path, String name, RelSign sign, Iterable<int[]> tuples) throws IOException {
+        try (Writer writer = new Writer(path, name, sign)) {
+            for (int[] tuple : tuples) {
+                writer.add(tuple);
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int len = buffer.getInt();
+        byte[] bytes = new byte[len];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Collects tuples column by column and writes them out on closing,
+     * so that each column can be packed to the narrowest width fitting its elements.
+     */
+    public static class Writer implements Closeable {
+        private final Path path;
+        private final String name;
+        private final RelSign sign;
+        private final int arity;
+        private int[][] columns;
+        private final int[] maxVals;
+        private int size = 0;
+
+        public Writer(Path path, String name, RelSign sign) {
+            this.path = path;
+            this.name = name;
+            this.sign = sign;
+            this.arity = sign.val0.length;
+            this.columns = new int[arity][16];
+            this.maxVals = new int[arity];
+        }
+
+        public void add(int[] tuple) {
+            if (tuple.length != arity) {
+                throw new IllegalArgumentException("RelFile: arity mismatch for tuple " + Arrays.toString(tuple) + " of rel " + name);
+            }
+            if (size == columns[0].length) {
+                for (int i = 0; i < arity; ++i) {
+                    columns[i] = Arrays.copyOf(columns[i], size * 2);
+                }
+            }
+            for (int i = 0; i < arity; ++i) {
+                int val = tuple[i];
+                if (val < 0) {
+                    throw new IllegalArgumentException("RelFile: negative index in tuple " + Arrays.toString(tuple) + " of rel " + name);
+                }
+                columns[i][size] = val;
+                if (val > maxVals[i]) {
+                    maxVals[i] = val;
+                }
+            }
+            ++size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (columns == null) {
+                return;
+            }
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            byte[] domNamesBytes = String.join(",", sign.getDomNames()).getBytes(StandardCharsets.UTF_8);
+            String domOrder = sign.getDomOrder() == null ? "" : sign.getDomOrder();
+            byte[] domOrderBytes = domOrder.getBytes(StandardCharsets.UTF_8);
+            int[] widths = new int[arity];
+            long fileSize = 4L * 4 + 3 * 4 + nameBytes.length + domNamesBytes.length + domOrderBytes.length + arity;
+            for (int i = 0; i < arity; ++i) {
+                widths[i] = maxVals[i] < (1 << 8) ? 1 : (maxVals[i] < (1 << 16) ? 2 : 4);
+                fileSize += (long) widths[i] * size;
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("RelFile: rel " + name + " too large to be written");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) fileSize).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(arity);
+            buffer.putInt(size);
+            putString(buffer, nameBytes);
+            putString(buffer, domNamesBytes);
+            putString(buffer, domOrderBytes);
+            for (int i = 0; i < arity; ++i) {
+                buffer.put((byte) widths[i]);
+            }
+            for (int i = 0; i < arity; ++i) {
+                int[] column = columns[i];
+                switch (widths[i]) {
+                    case 1:
+                        for (int j = 0; j < size; ++j) buffer.put((byte) column[j]);
+                        break;
+                    case 2:
+                        for (int j = 0; j < size; ++j) buffer.putShort((short) column[j]);
+                        break;
+                    default:
+                        for (int j = 0; j < size; ++j) buffer.putInt(column[j]);
+                }
+            }
+            buffer.flip();
+            // readers may still map an earlier file at this path, so publish a new file in its place instead of rewriting it
+            Path tmpPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmpPath);
+            }
+            columns = null;
+        }
+    }
+}
@@ -10,10 +10,22 @@ public class Constants {
 
     public static final String OPT_SRC = "tea.source";
     public static final String OPT_SRC_CMD = "tea.source.cmd";
+    public static final String OPT_SRC_DB = "tea.source.db";
 
     public static final String OPT_DAI_MAXITER = "tea.dai.maxiter";
     public static final String OPT_DAI_MAXTIME = "tea.dai.maxtime";
     public static final String OPT_DAI_TOL = "tea.dai.tol";
+    public static final String OPT_DAI_DUMP = "tea.dai.dump";
+    public static final String OPT_DAI_EM_INCR = "tea.dai.em.incremental";
+    public static final String OPT_DAI_EM_HISTORY = "tea.dai.em.history";
+
+    public static final String OPT_BP_MAXITER = "tea.bp.maxiter";
+    public static final String OPT_BP_TOL = "tea.bp.tol";
+    public static final String OPT_BP_DAMPING = "tea.bp.damping";
+    public static final String OPT_BP_JOBS = "tea.bp.jobs";
+
+    public static final String OPT_ITV_RESTRICT = "tea.interval.restrict";
+    public static final String OPT_ITV_BUDGET = "tea.interval.budget";
 
     public static final String OPT_DIST = "dist";
     public static final String OPT_SQZ = "squeeze";
@@ -21,17 +33,32 @@ public class Constants {
     public static final String OPT_HOST = "host";
     public static final String OPT_PORT = "port";
     public static final String OPT_JOBS = "jobs";
+    public static final String OPT_CACHE = "cache";
+    public static final String OPT_MAX_MESSAGE = "maxmsg";
 
     public static final String OPT_WORK_DIR = "workdir";
     public static final String OPT_BUILD_DIR = "builddir";
     public static final String OPT_DRIVER = "inferer";
+    public static final String OPT_ENGINE = "engine";
+    public static final String OPT_ALARM_CHUNK = "tea.alarm.chunk";
+    public static final String OPT_ALARM_TOPK = "tea.alarm.topk";
+    public static final String OPT_TRANSFER = "tea.transfer";
+    public static final String TRANSFER_PATH = "path";
+    public static final String TRANSFER_STREAM = "stream";
     public static final String DEFAULT_ROOT_DIR = "test-out";
     public static final String DEFAULT_PORT = "10001";
     public static final String DEFAULT_DRIVER = "iterating";
+    public static final String DEFAULT_ENGINE = "libdai";
+    public static final String DEFAULT_ALARM_CHUNK = "1000";
+    public static final String DEFAULT_TRANSFER = TRANSFER_PATH;
     public static final String DEFAULT_JOBS = "8";
+    public static final String DEFAULT_CACHE = "4096";
+    // in MB, room for a chunk of DEFAULT_ALARM_CHUNK alarms of up to 64KB each
+    public static final String DEFAULT_MAX_MESSAGE = "64";
 
     public static final String NAME_CORE = "core";
     public static final String NAME_PROJ = "project";
+    public static final String NAME_CACHE = "cache";
 
     public static final String MSG_FAIL = "FAIL";
     public static final String MSG_SUCC = "SUCCESS";
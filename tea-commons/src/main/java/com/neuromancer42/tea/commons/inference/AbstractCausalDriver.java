@@ -1,5 +1,6 @@
 package com.neuromancer42.tea.commons.inference;
 
+import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.commons.util.IndexMap;
 
 import java.nio.file.Path;
@@ -58,6 +59,72 @@ public abstract class AbstractCausalDriver {
         return queryPossibilities(causalGraph.getAllNodes());
     }
 
+    private Map<Integer, Set<Integer>> cgRevProd = null;
+    private Map<Integer, Set<Integer>> cgRevSum = null;
+    // removes positive observations contradicting negative ones, which are unsatisfiable without noise
+    protected Map<Object, Boolean> filterContradictions(Map<Object, Boolean> obs) {
+        // build reverse index from body to head;
+        if (cgRevProd == null || cgRevSum == null) {
+            cgRevProd = new HashMap<>();
+            for (var prodIter = causalGraph.getProdIter(); prodIter.hasNext(); ) {
+                var prod = prodIter.next();
+                var headId = prod.getKey();
+                var bodyIdList = prod.getValue();
+                for (var bodyId : bodyIdList) {
+                    cgRevProd.computeIfAbsent(bodyId, k -> new HashSet<>()).add(headId);
+                }
+            }
+            cgRevSum = new HashMap<>();
+            for (var sumIter = causalGraph.getSumIter(); sumIter.hasNext(); ) {
+                var sum = sumIter.next();
+                var headId = sum.getKey();
+                var bodyIdList = sum.getValue();
+                for (var bodyId : bodyIdList) {
+                    cgRevSum.computeIfAbsent(bodyId, k -> new HashSet<>()).add(headId);
+                }
+            }
+        }
+        // Note:
+        //      eliminate which one when 0 -> 1? 0 or 1?
+        //      I think it should be the one to be eliminated as it tells less to the model;
+        Map<Object, Boolean> filtered = new LinkedHashMap<>(obs);
+        Set<Integer> workset = new LinkedHashSet<>();
+        Set<Integer> mustBeZeroProdIds = new HashSet<>();
+        for (var entry : obs.entrySet()) {
+            if (!entry.getValue()) {
+                var zeroBody = entry.getKey();
+                var zeroBodyId = causalGraph.getNodeId(zeroBody);
+                workset.add(zeroBodyId);
+            }
+        }
+        while (!workset.isEmpty()) {
+            Set<Integer> candSet = new LinkedHashSet<>();
+            for (var zeroBodyId : workset) {
+                var zeroBody = causalGraph.getNode(zeroBodyId);
+                if (filtered.getOrDefault(zeroBody, false)) {
+                    Messages.debug("CausalDriver %s: removing contradictory node +%d\n%s", getName(), zeroBodyId, zeroBody);
+                    filtered.remove(zeroBody);
+                }
+                for (var prodHeadId : cgRevProd.getOrDefault(zeroBodyId, Set.of())) {
+                    boolean newZero = mustBeZeroProdIds.add(prodHeadId);
+                    if (newZero) {
+                        candSet.addAll(cgRevSum.getOrDefault(prodHeadId, Set.of()));
+                    }
+                }
+            }
+            Set<Integer> newWorkset = new LinkedHashSet<>();
+            for (var cand : candSet) {
+                var sumBody = causalGraph.getSum(cand);
+                if (mustBeZeroProdIds.containsAll(sumBody)) {
+                    newWorkset.add(cand);
+                }
+            }
+            workset = newWorkset;
+        }
+        Messages.log("CausalDriver %s: applying %d / %d observation", getName(), filtered.size(), obs.size());
+        return filtered;
+    }
+
     protected abstract double[] queryFactorById(int distId);
 
     protected void updateAllFactors() {
@@ -0,0 +1,79 @@
+package com.neuromancer42.tea.commons.inference;
+
+import com.neuromancer42.tea.commons.configs.Constants;
+import com.neuromancer42.tea.commons.configs.Messages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Causal drivers running belief propagation in Java, without dumping factor graphs or calling native code.
+ */
+public class BPDriverFactory implements ICausalDriverFactory {
+    public static final String NAME = "javabp";
+    private static final String[] algorithms = {BPIteratingCausalDriver.type, BPEMCausalDriver.type};
+    // factories are created per ranking, so pools are shared by parallelism
+    private static final Map<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+    private final Path workPath;
+    private int maxIter = 10000;
+    private double tol = 1e-6;
+    private double damping = 0.0;
+    private final ForkJoinPool pool;
+
+    public BPDriverFactory(Path path, Map<String, String> opts) {
+        workPath = path;
+        if (opts.containsKey(Constants.OPT_BP_MAXITER)) {
+            maxIter = Integer.parseInt(opts.get(Constants.OPT_BP_MAXITER));
+        }
+        if (opts.containsKey(Constants.OPT_BP_TOL)) {
+            tol = Double.parseDouble(opts.get(Constants.OPT_BP_TOL));
+        }
+        if (opts.containsKey(Constants.OPT_BP_DAMPING)) {
+            damping = Double.parseDouble(opts.get(Constants.OPT_BP_DAMPING));
+        }
+        int jobs = Runtime.getRuntime().availableProcessors();
+        if (opts.containsKey(Constants.OPT_BP_JOBS)) {
+            jobs = Math.max(1, Integer.parseInt(opts.get(Constants.OPT_BP_JOBS)));
+        }
+        pool = pools.computeIfAbsent(jobs, ForkJoinPool::new);
+    }
+
+    BPFactorGraph compile(CausalGraph causalGraph, boolean bayes) {
+        return new BPFactorGraph(causalGraph, bayes, maxIter, tol, damping, pool);
+    }
+
+    @Override
+    public AbstractCausalDriver createCausalDriver(String type, String driverName, CausalGraph causalGraph) {
+        Path driverPath;
+        try {
+            driverPath = Files.createDirectories(workPath.resolve(driverName));
+        } catch (IOException e) {
+            Messages.error("BPDriverFactory: failed to create working dir for %s driver %s: %s", type, driverName, e.getMessage());
+            return null;
+        }
+        switch (type) {
+            case BPIteratingCausalDriver.type:
+                return new BPIteratingCausalDriver(driverName, driverPath, causalGraph, this);
+            case BPEMCausalDriver.type:
+                return new BPEMCausalDriver(driverName, driverPath, causalGraph, this);
+            default:
+                Messages.error("BPDriverFactory: unknown driver type %s, use iterating driver by default", type);
+                return new BPIteratingCausalDriver(driverName, driverPath, causalGraph, this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String[] getAlgorithms() {
+        return algorithms;
+    }
+}
@@ -0,0 +1,62 @@
+package com.neuromancer42.tea.commons.inference;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Learns point estimations of parameters from all observations so far by EM over belief propagation.
+ */
+public class BPEMCausalDriver extends AbstractCausalDriver {
+    public static final String type = "em";
+    private static final int EM_MAXITER = 100;
+    private static final double EM_TOL = 1e-4;
+
+    private final BPFactorGraph factorGraph;
+    private final List<Map<Integer, Boolean>> obsHistory = new ArrayList<>();
+    private boolean updated;
+
+    protected BPEMCausalDriver(String name, Path path, CausalGraph causalGraph, BPDriverFactory factory) {
+        super(name, path, causalGraph);
+        factorGraph = factory.compile(this.causalGraph, false);
+        updated = false;
+    }
+
+    @Override
+    public void appendObservation(Map<Object, Boolean> obs) {
+        Map<Integer, Boolean> encoded = new LinkedHashMap<>();
+        for (var obsEntry : filterContradictions(obs).entrySet()) {
+            Integer nodeId = causalGraph.getNodeId(obsEntry.getKey());
+            if (nodeId != null)
+                encoded.put(nodeId, obsEntry.getValue());
+        }
+        obsHistory.add(encoded);
+        // drop previous results
+        updated = false;
+    }
+
+    @Override
+    public Double queryPossibilityById(int nodeId) {
+        if (!updated) {
+            invokeLearner();
+            updated = true;
+        }
+        return factorGraph.queryNode(nodeId);
+    }
+
+    @Override
+    public double[] queryFactorById(int distId) {
+        if (!updated) {
+            invokeLearner();
+            updated = true;
+        }
+        return factorGraph.queryParam(distId);
+    }
+
+    private void invokeLearner() {
+        if (!obsHistory.isEmpty()) {
+            factorGraph.learn(obsHistory, EM_MAXITER, EM_TOL);
+        }
+        factorGraph.clearObservations();
+        factorGraph.propagate();
+    }
+}
@@ -0,0 +1,562 @@
+package com.neuromancer42.tea.commons.inference;
+
+import com.neuromancer42.tea.commons.configs.Messages;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Factor graph of a causal graph, solved by loopy belief propagation in Java.
+ * <p>
+ * Each causal node is a binary variable. A sum (product) node is the disjunction (conjunction) of its bodies,
+ * gated by a control variable if the node is stochastic; a stochastic singleton is a Bernoulli variable.
+ * In bayesian mode, each distribution is a categorical variable over its supports, and controls and singletons
+ * are Bernoulli variables conditioned on it; otherwise, each distribution is a point estimation shared by
+ * its controls and singletons, which can be learnt by EM.
+ * <p>
+ * Gates are propagated in time linear to their arity, so no phony nodes are needed to split large clauses.
+ * Factors and variables are stored in flattened arrays, and each sweep of the flooding schedule updates
+ * all factors and then all variables in parallel.
+ */
+public class BPFactorGraph {
+    private static final int GATE_OR = 0;
+    private static final int GATE_AND = 1;
+    private static final int UNARY = 2;
+    private static final int BERNOULLI = 3;
+    private static final int GRAIN = 256;
+    private static final double EPSILON = 1e-6;
+
+    private final CausalGraph causalGraph;
+    private final boolean bayes;
+    private final int maxIter;
+    private final double tol;
+    private final double damping;
+    private final ForkJoinPool pool;
+
+    private final int numNodes;
+    private final int numVars;
+    private final int[] varCards;
+    private final int[] varMsgStarts;
+    private final int[] varEdgeStarts;
+    private final int[] varEdges;
+
+    private final int numFactors;
+    private final int[] factorTypes;
+    private final boolean[] factorControlled;
+    private final int[] factorEdgeStarts;
+    // variable of each edge, edges of a factor are consecutive
+    private final int[] edgeVars;
+    private final int[] edgeMsgStarts;
+    private final int[] factorTableStarts;
+    private final double[] tables;
+
+    // controls and singletons sharing each distribution, used in EM
+    private final int[] tiedVars;
+    private final int[] tiedDists;
+    private final int[] tiedTableStarts;
+    private final double[] params;
+
+    private final double[] factorToVar;
+    private final double[] varToFactor;
+    private final double[] beliefs;
+    private final int[] clamps;
+
+    public BPFactorGraph(CausalGraph causalGraph, boolean bayes, int maxIter, double tol, double damping, ForkJoinPool pool) {
+        this.causalGraph = causalGraph;
+        this.bayes = bayes;
+        this.maxIter = maxIter;
+        this.tol = tol;
+        this.damping = damping;
+        this.pool = pool;
+
+        numNodes = causalGraph.nodeSize();
+        int numDists = causalGraph.distSize();
+        int[] controls = new int[numNodes];
+        Arrays.fill(controls, -1);
+        int varCnt = numNodes;
+        for (int nodeId = 0; nodeId < numNodes; ++nodeId) {
+            if (causalGraph.isStochNode(nodeId) && !causalGraph.isSingleton(nodeId)) {
+                controls[nodeId] = varCnt++;
+            }
+        }
+        int paramStart = varCnt;
+        if (bayes) {
+            varCnt += numDists;
+        }
+        numVars = varCnt;
+        varCards = new int[numVars];
+        Arrays.fill(varCards, 2);
+        if (bayes) {
+            for (int distId = 0; distId < numDists; ++distId) {
+                varCards[paramStart + distId] = causalGraph.getAllDistNodes().get(distId).getSupports().length;
+            }
+        }
+
+        FactorBuilder fb = new FactorBuilder();
+        List<Integer> tiedVarList = new ArrayList<>();
+        List<Integer> tiedDistList = new ArrayList<>();
+        List<Integer> tiedTableList = new ArrayList<>();
+        if (bayes) {
+            for (int distId = 0; distId < numDists; ++distId) {
+                fb.add(UNARY, false, new int[]{paramStart + distId},
+                        causalGraph.getAllDistNodes().get(distId).getProbabilitis());
+            }
+        }
+        for (var sumIter = causalGraph.getSumIter(); sumIter.hasNext(); ) {
+            var sum = sumIter.next();
+            fb.addGate(GATE_OR, sum.getKey(), controls[sum.getKey()], sum.getValue());
+        }
+        for (var prodIter = causalGraph.getProdIter(); prodIter.hasNext(); ) {
+            var prod = prodIter.next();
+            fb.addGate(GATE_AND, prod.getKey(), controls[prod.getKey()], prod.getValue());
+        }
+        List<Integer> tiedNodes = new ArrayList<>();
+        for (int nodeId = 0; nodeId < numNodes; ++nodeId) {
+            if (controls[nodeId] >= 0 || (causalGraph.isSingleton(nodeId) && causalGraph.isStochNode(nodeId))) {
+                tiedNodes.add(nodeId);
+            } else if (causalGraph.isSingleton(nodeId)) {
+                // deterministic singletons always hold
+                fb.add(UNARY, false, new int[]{nodeId}, new double[]{0, 1});
+            }
+        }
+        for (int nodeId : tiedNodes) {
+            int var = controls[nodeId] >= 0 ? controls[nodeId] : nodeId;
+            int distId = causalGraph.getNodesDistId(nodeId);
+            if (bayes) {
+                fb.add(BERNOULLI, false, new int[]{var, paramStart + distId},
+                        causalGraph.getAllDistNodes().get(distId).getSupports());
+            } else {
+                tiedVarList.add(var);
+                tiedDistList.add(distId);
+                tiedTableList.add(fb.tableSize());
+                fb.add(UNARY, false, new int[]{var}, new double[]{0.5, 0.5});
+            }
+        }
+        numFactors = fb.types.size();
+        factorTypes = toIntArray(fb.types);
+        factorControlled = new boolean[numFactors];
+        for (int f = 0; f < numFactors; ++f) {
+            factorControlled[f] = fb.controlled.get(f);
+        }
+        factorEdgeStarts = toIntArray(fb.edgeStarts);
+        edgeVars = toIntArray(fb.vars);
+        factorTableStarts = toIntArray(fb.tableStarts);
+        tables = new double[fb.tables.size()];
+        for (int i = 0; i < tables.length; ++i) {
+            tables[i] = fb.tables.get(i);
+        }
+        tiedVars = toIntArray(tiedVarList);
+        tiedDists = toIntArray(tiedDistList);
+        tiedTableStarts = toIntArray(tiedTableList);
+        params = new double[numDists];
+        if (!bayes) {
+            for (int distId = 0; distId < numDists; ++distId) {
+                params[distId] = causalGraph.getAllDistNodes().get(distId).estimation();
+            }
+            setParams(params);
+        }
+
+        // message layout
+        int numEdges = edgeVars.length;
+        edgeMsgStarts = new int[numEdges + 1];
+        for (int e = 0; e < numEdges; ++e) {
+            edgeMsgStarts[e + 1] = edgeMsgStarts[e] + varCards[edgeVars[e]];
+        }
+        varMsgStarts = new int[numVars + 1];
+        for (int v = 0; v < numVars; ++v) {
+            varMsgStarts[v + 1] = varMsgStarts[v] + varCards[v];
+        }
+        varEdgeStarts = new int[numVars + 1];
+        for (int e = 0; e < numEdges; ++e) {
+            ++varEdgeStarts[edgeVars[e] + 1];
+        }
+        for (int v = 0; v < numVars; ++v) {
+            varEdgeStarts[v + 1] += varEdgeStarts[v];
+        }
+        varEdges = new int[numEdges];
+        int[] fill = Arrays.copyOf(varEdgeStarts, numVars);
+        for (int e = 0; e < numEdges; ++e) {
+            varEdges[fill[edgeVars[e]]++] = e;
+        }
+        factorToVar = new double[edgeMsgStarts[numEdges]];
+        varToFactor = new double[edgeMsgStarts[numEdges]];
+        beliefs = new double[varMsgStarts[numVars]];
+        clamps = new int[numVars];
+        Arrays.fill(clamps, -1);
+        Messages.debug("BPFactorGraph %s: %d variables (%d nodes), %d factors, %d edges",
+                causalGraph.getName(), numVars, numNodes, numFactors, numEdges);
+    }
+
+    public void observe(int nodeId, boolean value) {
+        if (nodeId >= numNodes || nodeId < 0) {
+            Messages.fatal("BPFactorGraph: observing node %d which is not a causal node", nodeId);
+        }
+        clamps[nodeId] = value ? 1 : 0;
+    }
+
+    public void clearObservations() {
+        Arrays.fill(clamps, -1);
+    }
+
+    /**
+     * Reloads prior weights of distributions in bayesian mode.
+     */
+    public void resetPriors() {
+        if (!bayes) {
+            return;
+        }
+        for (int distId = 0; distId < causalGraph.distSize(); ++distId) {
+            double[] probs = causalGraph.getAllDistNodes().get(distId).getProbabilitis();
+            System.arraycopy(probs, 0, tables, factorTableStarts[distId], probs.length);
+        }
+    }
+
+    public void setParams(double[] newParams) {
+        System.arraycopy(newParams, 0, params, 0, params.length);
+        for (int i = 0; i < tiedVars.length; ++i) {
+            double p = params[tiedDists[i]];
+            tables[tiedTableStarts[i]] = 1 - p;
+            tables[tiedTableStarts[i] + 1] = p;
+        }
+    }
+
+    public double[] getParams() {
+        return params.clone();
+    }
+
+    /**
+     * Runs belief propagation till convergence or the iteration limit.
+     *
+     * @return number of sweeps
+     */
+    public int propagate() {
+        for (int v = 0; v < numVars; ++v) {
+            for (int i = varEdgeStarts[v]; i < varEdgeStarts[v + 1]; ++i) {
+                initMessage(varToFactor, edgeMsgStarts[varEdges[i]], v);
+            }
+        }
+        Arrays.fill(factorToVar, 1.0);
+        int iter = 0;
+        double diff = Double.MAX_VALUE;
+        while (iter < maxIter && diff > tol) {
+            diff = pool.invoke(new SweepTask(0, numFactors, this::updateFactor));
+            pool.invoke(new SweepTask(0, numVars, this::updateVariable));
+            ++iter;
+        }
+        if (diff > tol) {
+            Messages.warn("BPFactorGraph %s: not converged after %d sweeps, max diff %f", causalGraph.getName(), iter, diff);
+        } else {
+            Messages.debug("BPFactorGraph %s: converged after %d sweeps", causalGraph.getName(), iter);
+        }
+        pool.invoke(new SweepTask(0, numVars, this::updateBelief));
+        return iter;
+    }
+
+    public double queryNode(int nodeId) {
+        if (nodeId >= numNodes || nodeId < 0) {
+            Messages.fatal("BPFactorGraph: querying node %d which is not a causal node", nodeId);
+        }
+        return beliefs[varMsgStarts[nodeId] + 1];
+    }
+
+    /**
+     * @return posterior weights over supports of a distribution in bayesian mode,
+     * or the point estimation as a Bernoulli factor otherwise
+     */
+    public double[] queryParam(int distId) {
+        if (!bayes) {
+            return new double[]{1 - params[distId], params[distId]};
+        }
+        int var = numVars - causalGraph.distSize() + distId;
+        return Arrays.copyOfRange(beliefs, varMsgStarts[var], varMsgStarts[var + 1]);
+    }
+
+    /**
+     * Learns point estimations of distributions from observations by EM.
+     *
+     * @return number of EM iterations
+     */
+    public int learn(List<Map<Integer, Boolean>> observations, int maxEMIter, double emTol) {
+        if (bayes) {
+            Messages.fatal("BPFactorGraph: EM learning is only for point estimations");
+        }
+        int iter = 0;
+        double diff = Double.MAX_VALUE;
+        while (iter < maxEMIter && diff > emTol) {
+            double[] expected = new double[params.length];
+            int[] counts = new int[params.length];
+            for (Map<Integer, Boolean> obs : observations) {
+                clearObservations();
+                for (var entry : obs.entrySet()) {
+                    observe(entry.getKey(), entry.getValue());
+                }
+                propagate();
+                for (int i = 0; i < tiedVars.length; ++i) {
+                    expected[tiedDists[i]] += beliefs[varMsgStarts[tiedVars[i]] + 1];
+                    ++counts[tiedDists[i]];
+                }
+            }
+            double[] newParams = params.clone();
+            diff = 0;
+            for (int distId = 0; distId < params.length; ++distId) {
+                if (counts[distId] > 0) {
+                    double p = expected[distId] / counts[distId];
+                    newParams[distId] = Math.min(1 - EPSILON, Math.max(EPSILON, p));
+                    diff = Math.max(diff, Math.abs(newParams[distId] - params[distId]));
+                }
+            }
+            setParams(newParams);
+            ++iter;
+            Messages.debug("BPFactorGraph %s: EM iteration %d, max param diff %f", causalGraph.getName(), iter, diff);
+        }
+        clearObservations();
+        return iter;
+    }
+
+    private void initMessage(double[] msgs, int start, int var) {
+        int card = varCards[var];
+        if (clamps[var] >= 0) {
+            Arrays.fill(msgs, start, start + card, 0);
+            msgs[start + clamps[var]] = 1;
+        } else {
+            Arrays.fill(msgs, start, start + card, 1.0 / card);
+        }
+    }
+
+    private double updateFactor(int f) {
+        int eStart = factorEdgeStarts[f];
+        int eEnd = factorEdgeStarts[f + 1];
+        double[] newMsgs = new double[edgeMsgStarts[eEnd] - edgeMsgStarts[eStart]];
+        int base = edgeMsgStarts[eStart];
+        switch (factorTypes[f]) {
+            case UNARY -> {
+                int t = factorTableStarts[f];
+                System.arraycopy(tables, t, newMsgs, 0, newMsgs.length);
+            }
+            case BERNOULLI -> {
+                int t = factorTableStarts[f];
+                int xMsg = edgeMsgStarts[eStart];
+                int pMsg = edgeMsgStarts[eStart + 1];
+                int card = varCards[edgeVars[eStart + 1]];
+                double x0 = varToFactor[xMsg], x1 = varToFactor[xMsg + 1];
+                for (int k = 0; k < card; ++k) {
+                    double s = tables[t + k];
+                    double pk = varToFactor[pMsg + k];
+                    newMsgs[0] += pk * (1 - s);
+                    newMsgs[1] += pk * s;
+                    newMsgs[2 + k] = x1 * s + x0 * (1 - s);
+                }
+            }
+            default -> updateGate(f, eStart, eEnd, newMsgs);
+        }
+        double diff = 0;
+        for (int e = eStart; e < eEnd; ++e) {
+            int start = edgeMsgStarts[e];
+            int card = edgeMsgStarts[e + 1] - start;
+            normalize(newMsgs, start - base, card);
+            for (int k = 0; k < card; ++k) {
+                double msg = (1 - damping) * newMsgs[start - base + k] + damping * factorToVar[start + k];
+                diff = Math.max(diff, Math.abs(msg - factorToVar[start + k]));
+                factorToVar[start + k] = msg;
+            }
+        }
+        return diff;
+    }
+
+    // head = control && op(bodies); messages of binary variables are normalized,
+    // so the gate is summarized by the probability that all bodies take the non-dominant value
+    private void updateGate(int f, int eStart, int eEnd, double[] newMsgs) {
+        boolean isOr = factorTypes[f] == GATE_OR;
+        int nonDominant = isOr ? 0 : 1;
+        int hMsg = edgeMsgStarts[eStart];
+        double h0 = varToFactor[hMsg], h1 = varToFactor[hMsg + 1];
+        double c0 = 0, c1 = 1;
+        int bodyStart = eStart + 1;
+        if (factorControlled[f]) {
+            int cMsg = edgeMsgStarts[eStart + 1];
+            c0 = varToFactor[cMsg];
+            c1 = varToFactor[cMsg + 1];
+            bodyStart++;
+        }
+        int numBodies = eEnd - bodyStart;
+        double[] prefix = new double[numBodies + 1];
+        prefix[0] = 1;
+        for (int i = 0; i < numBodies; ++i) {
+            prefix[i + 1] = prefix[i] * varToFactor[edgeMsgStarts[bodyStart + i] + nonDominant];
+        }
+        double all = prefix[numBodies];
+        double g0 = isOr ? all : 1 - all;
+        double g1 = isOr ? 1 - all : all;
+        newMsgs[0] = c0 * (g0 + g1) + c1 * g0;
+        newMsgs[1] = c1 * g1;
+        int bodyOffset = 2;
+        if (factorControlled[f]) {
+            newMsgs[2] = h0 * (g0 + g1);
+            newMsgs[3] = h1 * g1 + h0 * g0;
+            bodyOffset = 4;
+        }
+        // weights of head and control given the gate value
+        double w0 = h0 * (c0 + c1);
+        double w1 = c1 * h1 + c0 * h0;
+        double wDominant = isOr ? w1 : w0;
+        double wNonDominant = isOr ? w0 : w1;
+        double suffix = 1;
+        for (int i = numBodies - 1; i >= 0; --i) {
+            double others = prefix[i] * suffix;
+            int off = bodyOffset + 2 * i;
+            newMsgs[off + 1 - nonDominant] = wDominant;
+            newMsgs[off + nonDominant] = others * wNonDominant + (1 - others) * wDominant;
+            suffix *= varToFactor[edgeMsgStarts[bodyStart + i] + nonDominant];
+        }
+    }
+
+    private double updateVariable(int v) {
+        int card = varCards[v];
+        int eStart = varEdgeStarts[v];
+        int eEnd = varEdgeStarts[v + 1];
+        if (clamps[v] >= 0) {
+            for (int i = eStart; i < eEnd; ++i) {
+                initMessage(varToFactor, edgeMsgStarts[varEdges[i]], v);
+            }
+            return 0;
+        }
+        // products of messages from other factors, by prefix and suffix, rescaled against underflow
+        double[] suffix = new double[card];
+        Arrays.fill(suffix, 1.0);
+        for (int i = eEnd - 1; i >= eStart; --i) {
+            int start = edgeMsgStarts[varEdges[i]];
+            System.arraycopy(suffix, 0, varToFactor, start, card);
+            for (int k = 0; k < card; ++k) {
+                suffix[k] *= factorToVar[start + k];
+            }
+            rescale(suffix, 0, card);
+        }
+        double[] prefix = new double[card];
+        Arrays.fill(prefix, 1.0);
+        for (int i = eStart; i < eEnd; ++i) {
+            int start = edgeMsgStarts[varEdges[i]];
+            for (int k = 0; k < card; ++k) {
+                varToFactor[start + k] *= prefix[k];
+                prefix[k] *= factorToVar[start + k];
+            }
+            normalize(varToFactor, start, card);
+            rescale(prefix, 0, card);
+        }
+        return 0;
+    }
+
+    private double updateBelief(int v) {
+        int card = varCards[v];
+        int start = varMsgStarts[v];
+        if (clamps[v] >= 0) {
+            initMessage(beliefs, start, v);
+            return 0;
+        }
+        Arrays.fill(beliefs, start, start + card, 1.0);
+        for (int i = varEdgeStarts[v]; i < varEdgeStarts[v + 1]; ++i) {
+            int msgStart = edgeMsgStarts[varEdges[i]];
+            for (int k = 0; k < card; ++k) {
+                beliefs[start + k] *= factorToVar[msgStart + k];
+            }
+            rescale(beliefs, start, card);
+        }
+        normalize(beliefs, start, card);
+        return 0;
+    }
+
+    private static void rescale(double[] values, int start, int len) {
+        double max = 0;
+        for (int k = start; k < start + len; ++k) {
+            max = Math.max(max, values[k]);
+        }
+        if (max > 0 && max < 1e-100) {
+            for (int k = start; k < start + len; ++k) {
+                values[k] /= max;
+            }
+        }
+    }
+
+    // contradicting messages are reset to uniform
+    private static void normalize(double[] values, int start, int len) {
+        double sum = 0;
+        for (int k = start; k < start + len; ++k) {
+            sum += values[k];
+        }
+        for (int k = start; k < start + len; ++k) {
+            values[k] = sum > 0 ? values[k] / sum : 1.0 / len;
+        }
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static final class SweepTask extends RecursiveTask<Double> {
+        private final int from;
+        private final int to;
+        private final IntToDoubleFunction update;
+
+        private SweepTask(int from, int to, IntToDoubleFunction update) {
+            this.from = from;
+            this.to = to;
+            this.update = update;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= GRAIN) {
+                double diff = 0;
+                for (int i = from; i < to; ++i) {
+                    diff = Math.max(diff, update.applyAsDouble(i));
+                }
+                return diff;
+            }
+            int mid = (from + to) >>> 1;
+            SweepTask left = new SweepTask(from, mid, update);
+            left.fork();
+            double right = new SweepTask(mid, to, update).compute();
+            return Math.max(left.join(), right);
+        }
+    }
+
+    private static final class FactorBuilder {
+        private final List<Integer> types = new ArrayList<>();
+        private final List<Boolean> controlled = new ArrayList<>();
+        private final List<Integer> edgeStarts = new ArrayList<>(List.of(0));
+        private final List<Integer> vars = new ArrayList<>();
+        private final List<Integer> tableStarts = new ArrayList<>();
+        private final List<Double> tables = new ArrayList<>();
+
+        private int tableSize() {
+            return tables.size();
+        }
+
+        private void add(int type, boolean isControlled, int[] factorVars, double[] table) {
+            types.add(type);
+            controlled.add(isControlled);
+            for (int var : factorVars) {
+                vars.add(var);
+            }
+            edgeStarts.add(vars.size());
+            tableStarts.add(tables.size());
+            for (double entry : table) {
+                tables.add(entry);
+            }
+        }
+
+        private void addGate(int type, int head, int control, List<Integer> bodies) {
+            int[] factorVars = new int[bodies.size() + (control >= 0 ? 2 : 1)];
+            int i = 0;
+            factorVars[i++] = head;
+            if (control >= 0) {
+                factorVars[i++] = control;
+            }
+            for (int body : bodies) {
+                factorVars[i++] = body;
+            }
+            add(type, control >= 0, factorVars, new double[0]);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.neuromancer42.tea.commons.inference;
+
+import com.neuromancer42.tea.commons.configs.Messages;
+import com.neuromancer42.tea.commons.util.IndexMap;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Bayesian updating by belief propagation: each observation is clamped on a network with the current priors,
+ * and the posteriors of parameters become the priors for the next observation.
+ */
+public class BPIteratingCausalDriver extends AbstractCausalDriver {
+    public static final String type = "iterating";
+
+    private final BPFactorGraph factorGraph;
+    private boolean updated;
+    private int updateCnt;
+
+    protected BPIteratingCausalDriver(String name, Path path, CausalGraph causalGraph, BPDriverFactory factory) {
+        super(name, path, causalGraph);
+        factorGraph = factory.compile(this.causalGraph, true);
+        updated = false;
+        updateCnt = 0;
+    }
+
+    @Override
+    public void appendObservation(Map<Object, Boolean> observations) {
+        factorGraph.resetPriors();
+        factorGraph.clearObservations();
+        for (var obsEntry : observations.entrySet()) {
+            Integer nodeId = causalGraph.getNodeId(obsEntry.getKey());
+            // Note: Observations may return nodes not in the derivation due to mix of instruments
+            if (nodeId != null)
+                factorGraph.observe(nodeId, obsEntry.getValue());
+        }
+        int sweeps = factorGraph.propagate();
+        ++updateCnt;
+        Messages.debug("BPIteratingCausalDriver %s: observation %d propagated in %d sweeps", name, updateCnt, sweeps);
+        // posteriors of the clamped network, not queryFactorById which answers on the prior network
+        IndexMap<Categorical01> distNodes = causalGraph.getAllDistNodes();
+        for (int distId = 0; distId < distNodes.size(); distId++) {
+            distNodes.get(distId).updateProbs(factorGraph.queryParam(distId));
+        }
+        updated = false;
+    }
+
+    @Override
+    public Double queryPossibilityById(int nodeId) {
+        propagatePriors();
+        return factorGraph.queryNode(nodeId);
+    }
+
+    @Override
+    public double[] queryFactorById(int distId) {
+        propagatePriors();
+        return factorGraph.queryParam(distId);
+    }
+
+    private void propagatePriors() {
+        if (!updated) {
+            factorGraph.resetPriors();
+            factorGraph.clearObservations();
+            factorGraph.propagate();
+            updated = true;
+        }
+    }
+}
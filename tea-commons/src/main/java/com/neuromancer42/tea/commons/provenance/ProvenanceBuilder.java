@@ -19,12 +19,11 @@ public class ProvenanceBuilder {
         this.name = name;
         this.needPrune = options.getOrDefault("tea.provenance.prune", "false").equals("true");
         this.doAugment = options.getOrDefault("tea.provenance.augment", "true").equals("true");
+        this.graphBuilder = new ProvenanceGraph.Builder(name);
     }
 
     private final IndexMap<String> ruleInfos = new IndexMap<>();
-    private final Set<Trgt.Constraint> constraints = new LinkedHashSet<>();
-    private final Set<Trgt.Tuple> inputTuples = new LinkedHashSet<>();
-    private final Set<Trgt.Tuple> outputTuples = new LinkedHashSet<>();
+    private final ProvenanceGraph.Builder graphBuilder;
 
     public void addRuleInfos(Collection<String> newRuleInfos) {
         for (String newRuleInfo : newRuleInfos) {
@@ -34,24 +33,27 @@ public class ProvenanceBuilder {
 
     public void addConstraints(Collection<Trgt.Constraint> newConstraints) {
         Messages.debug("ProvenanceBuilder %s: provenance add %d constraints", name, newConstraints.size());
-        constraints.addAll(newConstraints);
         for (Trgt.Constraint cons : newConstraints) {
-            Trgt.Tuple head = cons.getHeadTuple();
-            if (inputTuples.contains(head)) {
-                Messages.warn("ProvenanceBuilder %s: expand proof of tuple %s, removing it from inputs", name, TextFormat.shortDebugString(head));
-                inputTuples.remove(head);
+            int head = graphBuilder.getHead(graphBuilder.addClause(cons));
+            if (graphBuilder.isInput(head)) {
+                Messages.warn("ProvenanceBuilder %s: expand proof of tuple %s, removing it from inputs", name, TextFormat.shortDebugString(cons.getHeadTuple()));
+                graphBuilder.removeInput(head);
             }
         }
     }
 
     public void addInputTuples(Collection<Trgt.Tuple> newTuples) {
         Messages.debug("ProvenanceBuilder %s: provenance add %d input tuples", name, newTuples.size());
-        inputTuples.addAll(newTuples);
+        for (Trgt.Tuple tuple : newTuples) {
+            graphBuilder.addInput(graphBuilder.addTuple(tuple));
+        }
     }
 
     public void addOutputTuples(Collection<Trgt.Tuple> newTuples) {
         Messages.debug("ProvenanceBuilder %s: provenance add %d output tuples", name, newTuples.size());
-        outputTuples.addAll(newTuples);
+        for (Trgt.Tuple tuple : newTuples) {
+            graphBuilder.addOutput(graphBuilder.addTuple(tuple));
+        }
     }
 
     public Trgt.Provenance getProvenance() {
@@ -60,84 +62,71 @@ public class ProvenanceBuilder {
     }
 
     public void computeProvenance() {
-        computeProvenance(outputTuples);
+        computeProvenance(graphBuilder.build(), null);
     }
 
     public void computeProvenance(Collection<Trgt.Tuple> observeTuples) {
-//        Timer timer = new Timer("provenance-builder");
-//        Messages.log("ENTER: provenance-builder at " + (new Date()));
-//        timer.init();
-
-        // fetch results and generate dicts
-        Set<Trgt.Tuple> tuples = new LinkedHashSet<>();
-        for (Trgt.Constraint cons : constraints) {
-            tuples.add(cons.getHeadTuple());
-            tuples.addAll(cons.getBodyTupleList());
-        }
-        Messages.debug("ProvenanceBuilder recorded " + tuples.size() + " tuples.");
-
-        // generate provenance structures
-        Map<Trgt.Tuple, Set<Trgt.Constraint>> tuple2AntecedentClauses = new HashMap<>();
-        Map<Trgt.Tuple, Set<Trgt.Constraint>> tuple2ConsequentClauses = new HashMap<>();
-
-        for (Trgt.Tuple tuple : tuples) {
-            tuple2AntecedentClauses.put(tuple, new LinkedHashSet<>());
-            tuple2ConsequentClauses.put(tuple, new LinkedHashSet<>());
-        }
+        // tuples never added are not derived by any clause
+        int[] observeIds = observeTuples.stream().mapToInt(graphBuilder::indexOf).filter(t -> t >= 0).toArray();
+        computeProvenance(graphBuilder.build(), observeIds);
+    }
 
-        for (Trgt.Constraint cons : constraints) {
-            for (Trgt.Tuple sub : cons.getBodyTupleList()) {
-                tuple2ConsequentClauses.get(sub).add(cons);
-            }
-            Trgt.Tuple head = cons.getHeadTuple();
-            tuple2AntecedentClauses.get(head).add(cons);
+    private void computeProvenance(ProvenanceGraph graph, int[] observeTuples) {
+        Messages.debug("ProvenanceBuilder recorded " + graph.numTuples + " tuples.");
+        if (observeTuples == null) {
+            observeTuples = graph.outputs;
         }
 
         // de-cycle and prune unused clauses
-        Set<Trgt.Constraint> activeClauses;
+        int[] activeClauses;
         if (needPrune) {
-            DOBSolver dobSolver = new DOBSolver(tuples, inputTuples, tuple2ConsequentClauses, tuple2AntecedentClauses);
+            DOBSolver dobSolver = new DOBSolver(graph);
             activeClauses = dobSolver.getActiveClauses(observeTuples);
         } else {
-            activeClauses = new LinkedHashSet<>();
-            Queue<Trgt.Tuple> workSet = new LinkedList<>(observeTuples);
-            while (!workSet.isEmpty()) {
-                Trgt.Tuple t = workSet.poll();
-                for (Trgt.Constraint cons : tuple2AntecedentClauses.getOrDefault(t, Set.of())) {
-                    if (activeClauses.add(cons)) {
-                        workSet.addAll(cons.getBodyTupleList());
+            BitSet isActive = new BitSet(graph.numClauses);
+            int[] activeList = new int[graph.numClauses];
+            int numActive = 0;
+            BitSet visited = new BitSet(graph.numTuples);
+            int[] workList = new int[graph.numTuples];
+            int head = 0, tail = 0;
+            for (int t : observeTuples) {
+                if (!visited.get(t)) {
+                    visited.set(t);
+                    workList[tail++] = t;
+                }
+            }
+            while (head < tail) {
+                int t = workList[head++];
+                for (int i = graph.headClauseStarts[t]; i < graph.headClauseStarts[t + 1]; ++i) {
+                    int c = graph.headClauses[i];
+                    if (!isActive.get(c)) {
+                        isActive.set(c);
+                        activeList[numActive++] = c;
+                        for (int j = graph.bodyStarts[c]; j < graph.bodyStarts[c + 1]; ++j) {
+                            int sub = graph.bodies[j];
+                            if (!visited.get(sub)) {
+                                visited.set(sub);
+                                workList[tail++] = sub;
+                            }
+                        }
                     }
                 }
             }
+            activeClauses = Arrays.copyOf(activeList, numActive);
         }
 
         // filter out unused tuples again
-        Set<Trgt.Tuple> activeTuples = new LinkedHashSet<>();
-        for (Trgt.Constraint clause : activeClauses) {
-            activeTuples.add(clause.getHeadTuple());
-            activeTuples.addAll(clause.getBodyTupleList());
-        }
-        List<Trgt.Tuple> activeInputTuples = new ArrayList<>();
-        for (Trgt.Tuple t : inputTuples) {
-            if (activeTuples.contains(t))
-                activeInputTuples.add(t);
-        }
-        List<Trgt.Tuple> activeOutputTuples = new ArrayList<>();
-        for (Trgt.Tuple t : outputTuples) {
-            if (activeTuples.contains(t))
-                activeOutputTuples.add(t);
+        BitSet activeTuples = new BitSet(graph.numTuples);
+        for (int c : activeClauses) {
+            activeTuples.set(graph.clauseHeads[c]);
+            for (int j = graph.bodyStarts[c]; j < graph.bodyStarts[c + 1]; ++j) {
+                activeTuples.set(graph.bodies[j]);
+            }
         }
-        // generate provenance structure
-        provenance = Trgt.Provenance.newBuilder()
-                .setId(name)
-                .addAllConstraint(activeClauses)
-                .addAllInput(activeInputTuples)
-                .addAllOutput(activeOutputTuples)
-                .build();
-
-//        timer.done();
-//        Messages.log("LEAVE: provenance-builder");
-//        Timer.printTimer(timer);
+        int[] activeInputTuples = Arrays.stream(graph.inputs).filter(activeTuples::get).toArray();
+        int[] activeOutputTuples = Arrays.stream(graph.outputs).filter(activeTuples::get).toArray();
+        // generate provenance structure, only here tuples are converted back to messages
+        provenance = graph.toProvenance(activeClauses, activeInputTuples, activeOutputTuples);
     }
 
     public boolean dumpProvenance(Path path) {
@@ -149,121 +138,151 @@ public class ProvenanceBuilder {
     }
 
     private class DOBSolver {
-        private final Map<Trgt.Tuple, Integer> tupleDOB;
-        private final Map<Trgt.Tuple, Set<Trgt.Constraint>> tuple2ConsequentClauses;
-        private final Map<Trgt.Tuple, Set<Trgt.Constraint>> tuple2AntecedentClauses;
-        private final Set<Trgt.Constraint> allClauses;
-        private Set<Trgt.Constraint> fwdClauses;
-        private Set<Trgt.Constraint> augClauses;
-
-        public DOBSolver(
-                Collection<Trgt.Tuple> allTuples,
-                Collection<Trgt.Tuple> inputTuples,
-                Map<Trgt.Tuple, Set<Trgt.Constraint>> tuple2ConsequentClauses,
-                Map<Trgt.Tuple, Set<Trgt.Constraint>> tuple2AntecedentClauses
-        ) {
-            this.tuple2ConsequentClauses = tuple2ConsequentClauses;
-            this.tuple2AntecedentClauses = tuple2AntecedentClauses;
-            int maxDOB = allTuples.size();
-            tupleDOB = new HashMap<>();
-            allClauses = new LinkedHashSet<>();
-            for (Trgt.Tuple tuple : allTuples) {
-                if (inputTuples.contains(tuple)) {
-                    tupleDOB.put(tuple, 0);
-                } else {
-                    tupleDOB.put(tuple, maxDOB);
+        private final ProvenanceGraph graph;
+        private final int[] tupleDOB;
+        // clauses grouped by heads, in order of first appearance of tuples
+        private final int[] allClauses;
+        private BitSet fwdClauses;
+        private int numFwdClauses;
+        private BitSet augClauses;
+        // forward clauses followed by augmented ones
+        private int[] augClauseOrder;
+        private int numAugClauses;
+
+        public DOBSolver(ProvenanceGraph graph) {
+            this.graph = graph;
+            int maxDOB = graph.numTuples;
+            tupleDOB = new int[graph.numTuples];
+            Arrays.fill(tupleDOB, maxDOB);
+            for (int t : graph.inputs) {
+                tupleDOB[t] = 0;
+            }
+            allClauses = new int[graph.numClauses];
+            int numOrdered = 0;
+            BitSet seen = new BitSet(graph.numTuples);
+            for (int c = 0; c < graph.numClauses; ++c) {
+                int head = graph.clauseHeads[c];
+                if (!seen.get(head)) {
+                    seen.set(head);
+                    for (int i = graph.headClauseStarts[head]; i < graph.headClauseStarts[head + 1]; ++i) {
+                        allClauses[numOrdered++] = graph.headClauses[i];
+                    }
+                }
+                for (int j = graph.bodyStarts[c]; j < graph.bodyStarts[c + 1]; ++j) {
+                    int sub = graph.bodies[j];
+                    if (!seen.get(sub)) {
+                        seen.set(sub);
+                        for (int i = graph.headClauseStarts[sub]; i < graph.headClauseStarts[sub + 1]; ++i) {
+                            allClauses[numOrdered++] = graph.headClauses[i];
+                        }
+                    }
                 }
-                allClauses.addAll(tuple2AntecedentClauses.get(tuple));
             }
-            for (var cls : allClauses) {
-                if (cls.getBodyTupleCount() == 0) {
-                    tupleDOB.put(cls.getHeadTuple(), 0);
+            for (int c = 0; c < graph.numClauses; ++c) {
+                if (graph.bodyStarts[c] == graph.bodyStarts[c + 1]) {
+                    tupleDOB[graph.clauseHeads[c]] = 0;
                 }
             }
         }
 
-        private Integer maxAntecedentDob(Trgt.Constraint clause) {
-            Integer dob = 0;
-            for (Trgt.Tuple sub : clause.getBodyTupleList()) {
-                Integer subDOB = tupleDOB.get(sub);
-                if (subDOB > dob) dob = subDOB;
+        private int maxAntecedentDob(int clause) {
+            int dob = 0;
+            for (int j = graph.bodyStarts[clause]; j < graph.bodyStarts[clause + 1]; ++j) {
+                dob = Math.max(dob, tupleDOB[graph.bodies[j]]);
             }
             return dob;
         }
 
         private void computeFwdClauses() {
-            fwdClauses = new LinkedHashSet<>();
-            Queue<Trgt.Tuple> queue = new LinkedList<>();
-            for(Map.Entry<Trgt.Tuple, Integer> entry : tupleDOB.entrySet()){
-                if(entry.getValue() == 0){
-                    queue.add(entry.getKey());
+            fwdClauses = new BitSet(graph.numClauses);
+            numFwdClauses = 0;
+            IntQueue queue = new IntQueue(graph.numTuples);
+            for (int t = 0; t < graph.numTuples; ++t) {
+                if (tupleDOB[t] == 0) {
+                    queue.offer(t);
                 }
             }
-            Map<Trgt.Constraint, Integer> numAntecedants = new HashMap<>();
-            for (Trgt.Constraint clause : allClauses) {
-                numAntecedants.put(clause, new HashSet<>(clause.getBodyTupleList()).size());
+            int[] numAntecedants = new int[graph.numClauses];
+            for (int c = 0; c < graph.numClauses; ++c) {
+                for (int j = graph.bodyStarts[c]; j < graph.bodyStarts[c + 1]; ++j) {
+                    if (graph.isFirstInBody(c, j)) {
+                        ++numAntecedants[c];
+                    }
+                }
             }
-            while(!queue.isEmpty()){
-                Trgt.Tuple tuple = queue.poll();
-                for(Trgt.Constraint clause : tuple2ConsequentClauses.get(tuple)) {
-                    int remainAntecedants = numAntecedants.compute(clause, (cls, c) -> (c == null ? 0 : c - 1));
-                    if(remainAntecedants == 0) {
-                        Trgt.Tuple head = clause.getHeadTuple();
-                        if(tupleDOB.get(head) > tupleDOB.get(tuple) + 1){
-                            tupleDOB.put(head, tupleDOB.get(tuple) + 1);
-                            queue.add(head);
+            while (!queue.isEmpty()) {
+                int tuple = queue.poll();
+                for (int i = graph.bodyClauseStarts[tuple]; i < graph.bodyClauseStarts[tuple + 1]; ++i) {
+                    int clause = graph.bodyClauses[i];
+                    if (--numAntecedants[clause] == 0) {
+                        int head = graph.clauseHeads[clause];
+                        if (tupleDOB[head] > tupleDOB[tuple] + 1) {
+                            tupleDOB[head] = tupleDOB[tuple] + 1;
+                            queue.offer(head);
                         }
                     }
                 }
             }
-            for (Trgt.Constraint clause : allClauses) {
-                if (tupleDOB.get(clause.getHeadTuple()) > maxAntecedentDob(clause)) {
-                    fwdClauses.add(clause);
+            for (int c : allClauses) {
+                if (tupleDOB[graph.clauseHeads[c]] > maxAntecedentDob(c)) {
+                    fwdClauses.set(c);
+                    ++numFwdClauses;
                 }
             }
         }
 
-        private Set<Trgt.Constraint> getForwardClauses() {
+        private BitSet getForwardClauses() {
             if (fwdClauses == null) computeFwdClauses();
-            Messages.debug("Forward clauses found " + fwdClauses.size());
+            Messages.debug("Forward clauses found " + numFwdClauses);
             return fwdClauses;
         }
 
         // binary search to enlarge the non-circular provenances
-        private void augmentFromCandidates(List<Trgt.Constraint> candidateClauses) {
-            int tot = candidateClauses.size();
+        private void augmentFromCandidates(int[] candidateClauses, int from, int to) {
+            int tot = to - from;
             if (tot == 0) {
                 Messages.warn("No candidates to augment forward clauses.");
-            } else if (isAncestorDescendantDisjoint(candidateClauses)) {
-                augClauses.addAll(candidateClauses);
-                Messages.debug("Forward clauses augmented by " + candidateClauses.size());
+            } else if (isAncestorDescendantDisjoint(candidateClauses, from, to)) {
+                for (int i = from; i < to; ++i) {
+                    augClauses.set(candidateClauses[i]);
+                    augClauseOrder[numAugClauses++] = candidateClauses[i];
+                }
+                Messages.debug("Forward clauses augmented by " + tot);
             } else if (tot == 1) {
-                Messages.debug("Backward clause found: " + candidateClauses.get(0).toString());
+                Messages.debug("Backward clause found: " + graph.toConstraints(new int[]{candidateClauses[from]}, new Trgt.Tuple[graph.numTuples]).get(0));
             } else {
-                int mid = tot / 2;
-                augmentFromCandidates(candidateClauses.subList(0, mid));
-                augmentFromCandidates(candidateClauses.subList(mid, tot));
+                int mid = from + tot / 2;
+                augmentFromCandidates(candidateClauses, from, mid);
+                augmentFromCandidates(candidateClauses, mid, to);
             }
         }
 
         // check non-circularity
-        private boolean isAncestorDescendantDisjoint(Collection<Trgt.Constraint> roots) {
-            Set<Trgt.Tuple> ancestors = new HashSet<>();
-            Set<Trgt.Tuple> descendants = new HashSet<>();
-            for (Trgt.Constraint clause : roots) {
-                ancestors.addAll(clause.getBodyTupleList());
-                descendants.add(clause.getHeadTuple());
+        private boolean isAncestorDescendantDisjoint(int[] roots, int from, int to) {
+            // tuples are visited sparsely, so hash sets are cheaper than bitsets over all tuples
+            Set<Integer> ancestors = new HashSet<>();
+            Set<Integer> descendants = new HashSet<>();
+            IntQueue newAncestors = new IntQueue(16);
+            IntQueue newDescendants = new IntQueue(16);
+            for (int r = from; r < to; ++r) {
+                int clause = roots[r];
+                for (int j = graph.bodyStarts[clause]; j < graph.bodyStarts[clause + 1]; ++j) {
+                    if (ancestors.add(graph.bodies[j]))
+                        newAncestors.offer(graph.bodies[j]);
+                }
+                if (descendants.add(graph.clauseHeads[clause]))
+                    newDescendants.offer(graph.clauseHeads[clause]);
             }
-            Queue<Trgt.Tuple> newAncestors = new LinkedList<>(ancestors);
-            Queue<Trgt.Tuple> newDescendants = new LinkedList<>(descendants);
             while (!newAncestors.isEmpty() || !newDescendants.isEmpty()) {
                 if (newDescendants.isEmpty()
                         || (!newAncestors.isEmpty() && ancestors.size() < descendants.size())
                 ) {
-                    Trgt.Tuple newAncestor = newAncestors.poll();
-                    for (Trgt.Constraint cons : tuple2AntecedentClauses.get(newAncestor)) {
-                        if (augClauses.contains(cons)) {
-                            for (Trgt.Tuple sub : cons.getBodyTupleList()) {
+                    int newAncestor = newAncestors.poll();
+                    for (int i = graph.headClauseStarts[newAncestor]; i < graph.headClauseStarts[newAncestor + 1]; ++i) {
+                        int cons = graph.headClauses[i];
+                        if (augClauses.get(cons)) {
+                            for (int j = graph.bodyStarts[cons]; j < graph.bodyStarts[cons + 1]; ++j) {
+                                int sub = graph.bodies[j];
                                 if (descendants.contains(sub))
                                     return false;
                                 if (ancestors.add(sub))
@@ -272,10 +291,11 @@ public class ProvenanceBuilder {
                         }
                     }
                 } else {
-                    Trgt.Tuple newDescendant = newDescendants.poll();
-                    for (Trgt.Constraint ante : tuple2ConsequentClauses.get(newDescendant)) {
-                        if (augClauses.contains(ante)) {
-                            Trgt.Tuple head = ante.getHeadTuple();
+                    int newDescendant = newDescendants.poll();
+                    for (int i = graph.bodyClauseStarts[newDescendant]; i < graph.bodyClauseStarts[newDescendant + 1]; ++i) {
+                        int ante = graph.bodyClauses[i];
+                        if (augClauses.get(ante)) {
+                            int head = graph.clauseHeads[ante];
                             if (ancestors.contains(head))
                                 return false;
                             if (descendants.add(head))
@@ -287,32 +307,45 @@ public class ProvenanceBuilder {
             return true;
         }
 
-        private Set<Trgt.Constraint> getAugmentedClauses() {
+        private BitSet getAugmentedClauses() {
             if (augClauses == null) {
-                augClauses = new LinkedHashSet<>(getForwardClauses());
-                List<Trgt.Constraint> cands = new ArrayList<>();
-                for (Trgt.Constraint cons : allClauses) {
-                    if (!augClauses.contains(cons))
-                        cands.add(cons);
+                augClauses = (BitSet) getForwardClauses().clone();
+                augClauseOrder = new int[graph.numClauses];
+                numAugClauses = 0;
+                int[] cands = new int[graph.numClauses - numFwdClauses];
+                int numCands = 0;
+                for (int c : allClauses) {
+                    if (augClauses.get(c))
+                        augClauseOrder[numAugClauses++] = c;
+                    else
+                        cands[numCands++] = c;
                 }
-                Messages.debug("Forward clauses augment candidates " + cands.size());
-                augmentFromCandidates(cands);
-                Messages.debug("Forward clauses augmented by " + (augClauses.size() - fwdClauses.size()));
+                Messages.debug("Forward clauses augment candidates " + numCands);
+                augmentFromCandidates(cands, 0, numCands);
+                Messages.debug("Forward clauses augmented by " + (numAugClauses - numFwdClauses));
             }
             return augClauses;
         }
 
-        public Set<Trgt.Tuple> getCoreachableTuples(Collection<Trgt.Tuple> outputTuples, Collection<Trgt.Constraint> augFwdClauses) {
-            Set<Trgt.Tuple> coreachableTuples = new LinkedHashSet<>(outputTuples);
-            Queue<Trgt.Tuple> worklist = new LinkedList<>(outputTuples);
+        public BitSet getCoreachableTuples(int[] outputTuples, BitSet augFwdClauses) {
+            BitSet coreachableTuples = new BitSet(graph.numTuples);
+            IntQueue worklist = new IntQueue(graph.numTuples);
+            for (int t : outputTuples) {
+                if (!coreachableTuples.get(t)) {
+                    coreachableTuples.set(t);
+                    worklist.offer(t);
+                }
+            }
             while (!worklist.isEmpty()) {
-                Trgt.Tuple head = worklist.poll();
-                if (tuple2AntecedentClauses.containsKey(head)) {
-                    for (Trgt.Constraint clause : tuple2AntecedentClauses.get(head)) {
-                        if (augFwdClauses.contains(clause)) {
-                            for (Trgt.Tuple sub : clause.getBodyTupleList()) {
-                                if (coreachableTuples.add(sub))
-                                    worklist.offer(sub);
+                int head = worklist.poll();
+                for (int i = graph.headClauseStarts[head]; i < graph.headClauseStarts[head + 1]; ++i) {
+                    int clause = graph.headClauses[i];
+                    if (augFwdClauses.get(clause)) {
+                        for (int j = graph.bodyStarts[clause]; j < graph.bodyStarts[clause + 1]; ++j) {
+                            int sub = graph.bodies[j];
+                            if (!coreachableTuples.get(sub)) {
+                                coreachableTuples.set(sub);
+                                worklist.offer(sub);
                             }
                         }
                     }
@@ -321,23 +354,55 @@ public class ProvenanceBuilder {
             return coreachableTuples;
         }
 
-        public Set<Trgt.Constraint> getActiveClauses(Collection<Trgt.Tuple> observeTuples) {
-            Messages.debug("Computing active clauses for " + observeTuples.size() + " tuples.");
+        public int[] getActiveClauses(int[] observeTuples) {
+            Messages.debug("Computing active clauses for " + observeTuples.length + " tuples.");
 
-            Set<Trgt.Constraint> activeClauses = new LinkedHashSet<>();
-            Set<Trgt.Constraint> augFwdClauses;
-            if (doAugment)
+            BitSet augFwdClauses;
+            int[] augFwdOrder;
+            if (doAugment) {
                 augFwdClauses = getAugmentedClauses();
-            else
+                augFwdOrder = Arrays.copyOf(augClauseOrder, numAugClauses);
+            } else {
                 augFwdClauses = getForwardClauses();
-            Set<Trgt.Tuple> coreachableTuples = getCoreachableTuples(observeTuples, augFwdClauses);
-            for (Trgt.Constraint clause : augFwdClauses) {
-                if (coreachableTuples.contains(clause.getHeadTuple())) {
-                    activeClauses.add(clause);
-                }
+                augFwdOrder = Arrays.stream(allClauses).filter(augFwdClauses::get).toArray();
             }
-            Messages.debug("Found " + activeClauses.size() + " active clauses.");
+            BitSet coreachableTuples = getCoreachableTuples(observeTuples, augFwdClauses);
+            int[] activeClauses = Arrays.stream(augFwdOrder)
+                    .filter(clause -> coreachableTuples.get(graph.clauseHeads[clause]))
+                    .toArray();
+            Messages.debug("Found " + activeClauses.length + " active clauses.");
             return activeClauses;
         }
     }
-}
\ No newline at end of file
+
+    private static final class IntQueue {
+        private int[] data;
+        private int head = 0;
+        private int tail = 0;
+
+        private IntQueue(int capacity) {
+            data = new int[Math.max(capacity, 16)];
+        }
+
+        private void offer(int val) {
+            if (tail == data.length) {
+                if (head > 0) {
+                    System.arraycopy(data, head, data, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                } else {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+            }
+            data[tail++] = val;
+        }
+
+        private int poll() {
+            return data[head++];
+        }
+
+        private boolean isEmpty() {
+            return head == tail;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.neuromancer42.tea.commons.provenance;
+
+import com.neuromancer42.tea.commons.util.IndexMap;
+import com.neuromancer42.tea.core.analysis.Trgt;
+
+import java.util.*;
+
+/**
+ * Interned form of a provenance, on which provenance algorithms run.
+ * <p>
+ * Tuples and clauses are numbered by ints in the order they are added, relation names and rule infos are interned,
+ * and clause bodies as well as the clauses of each head/body tuple are stored in compressed sparse rows.
+ * So algorithms neither hash nor compare protobuf messages; conversion from and to {@link Trgt.Provenance}
+ * only happens at the gRPC boundary.
+ */
+public class ProvenanceGraph {
+    private final String id;
+    private final String[] relNames;
+    private final String[] ruleInfos;
+
+    final int numTuples;
+    private final int[] tupleRels;
+    private final int[] tupleAttrStarts;
+    private final int[] tupleAttrs;
+
+    final int numClauses;
+    final int[] clauseHeads;
+    private final int[] clauseRules;
+    final int[] bodyStarts;
+    final int[] bodies;
+
+    // clauses deriving each tuple
+    final int[] headClauseStarts;
+    final int[] headClauses;
+    // clauses using each tuple in body, each clause listed once per distinct body tuple
+    final int[] bodyClauseStarts;
+    final int[] bodyClauses;
+
+    final int[] inputs;
+    final int[] outputs;
+
+    private ProvenanceGraph(Builder builder) {
+        this.id = builder.id;
+        this.relNames = new String[builder.relNames.size()];
+        for (int r = 0; r < relNames.length; ++r) {
+            relNames[r] = builder.relNames.get(r);
+        }
+        this.ruleInfos = new String[builder.ruleInfos.size()];
+        for (int r = 0; r < ruleInfos.length; ++r) {
+            ruleInfos[r] = builder.ruleInfos.get(r);
+        }
+        this.numTuples = builder.tupleRels.size;
+        this.tupleRels = builder.tupleRels.toArray();
+        this.tupleAttrStarts = builder.tupleAttrStarts.toArray();
+        this.tupleAttrs = builder.tupleAttrs.toArray();
+        this.numClauses = builder.clauseHeads.size;
+        this.clauseHeads = builder.clauseHeads.toArray();
+        this.clauseRules = builder.clauseRules.toArray();
+        this.bodyStarts = builder.bodyStarts.toArray();
+        this.bodies = builder.bodies.toArray();
+        this.inputs = builder.inputs.toArray();
+        this.outputs = builder.outputs.toArray();
+
+        // reverse indices by counting sort
+        headClauseStarts = new int[numTuples + 1];
+        for (int c = 0; c < numClauses; ++c) {
+            ++headClauseStarts[clauseHeads[c] + 1];
+        }
+        for (int t = 0; t < numTuples; ++t) {
+            headClauseStarts[t + 1] += headClauseStarts[t];
+        }
+        headClauses = new int[numClauses];
+        int[] fill = Arrays.copyOf(headClauseStarts, numTuples);
+        for (int c = 0; c < numClauses; ++c) {
+            headClauses[fill[clauseHeads[c]]++] = c;
+        }
+
+        bodyClauseStarts = new int[numTuples + 1];
+        for (int c = 0; c < numClauses; ++c) {
+            for (int i = bodyStarts[c]; i < bodyStarts[c + 1]; ++i) {
+                if (isFirstInBody(c, i)) {
+                    ++bodyClauseStarts[bodies[i] + 1];
+                }
+            }
+        }
+        for (int t = 0; t < numTuples; ++t) {
+            bodyClauseStarts[t + 1] += bodyClauseStarts[t];
+        }
+        bodyClauses = new int[bodyClauseStarts[numTuples]];
+        fill = Arrays.copyOf(bodyClauseStarts, numTuples);
+        for (int c = 0; c < numClauses; ++c) {
+            for (int i = bodyStarts[c]; i < bodyStarts[c + 1]; ++i) {
+                if (isFirstInBody(c, i)) {
+                    bodyClauses[fill[bodies[i]]++] = c;
+                }
+            }
+        }
+    }
+
+    // bodies are short, so a linear scan is cheaper than a set
+    boolean isFirstInBody(int clause, int pos) {
+        for (int j = bodyStarts[clause]; j < pos; ++j) {
+            if (bodies[j] == bodies[pos]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int tupleSize() {
+        return numTuples;
+    }
+
+    public int clauseSize() {
+        return numClauses;
+    }
+
+    public int getHead(int clause) {
+        return clauseHeads[clause];
+    }
+
+    public String getRuleInfo(int clause) {
+        return ruleInfos[clauseRules[clause]];
+    }
+
+    public String getRelName(int tuple) {
+        return relNames[tupleRels[tuple]];
+    }
+
+    public int[] getInputs() {
+        return inputs.clone();
+    }
+
+    public int[] getOutputs() {
+        return outputs.clone();
+    }
+
+    public Trgt.Tuple toTuple(int tuple) {
+        Trgt.Tuple.Builder tupleBuilder = Trgt.Tuple.newBuilder().setRelName(relNames[tupleRels[tuple]]);
+        for (int i = tupleAttrStarts[tuple]; i < tupleAttrStarts[tuple + 1]; ++i) {
+            tupleBuilder.addAttrId(tupleAttrs[i]);
+        }
+        return tupleBuilder.build();
+    }
+
+    /**
+     * Converts clauses back to messages, sharing the message of each tuple among them.
+     */
+    public List<Trgt.Constraint> toConstraints(int[] clauses, Trgt.Tuple[] tupleCache) {
+        List<Trgt.Constraint> constraints = new ArrayList<>(clauses.length);
+        for (int c : clauses) {
+            Trgt.Constraint.Builder consBuilder = Trgt.Constraint.newBuilder();
+            consBuilder.setHeadTuple(cachedTuple(clauseHeads[c], tupleCache));
+            for (int i = bodyStarts[c]; i < bodyStarts[c + 1]; ++i) {
+                consBuilder.addBodyTuple(cachedTuple(bodies[i], tupleCache));
+            }
+            consBuilder.setRuleInfo(ruleInfos[clauseRules[c]]);
+            constraints.add(consBuilder.build());
+        }
+        return constraints;
+    }
+
+    Trgt.Tuple cachedTuple(int tuple, Trgt.Tuple[] tupleCache) {
+        if (tupleCache[tuple] == null) {
+            tupleCache[tuple] = toTuple(tuple);
+        }
+        return tupleCache[tuple];
+    }
+
+    public Trgt.Provenance toProvenance(int[] clauses, int[] inputTuples, int[] outputTuples) {
+        Trgt.Tuple[] tupleCache = new Trgt.Tuple[numTuples];
+        Trgt.Provenance.Builder provBuilder = Trgt.Provenance.newBuilder().setId(id);
+        provBuilder.addAllConstraint(toConstraints(clauses, tupleCache));
+        for (int t : inputTuples) {
+            provBuilder.addInput(cachedTuple(t, tupleCache));
+        }
+        for (int t : outputTuples) {
+            provBuilder.addOutput(cachedTuple(t, tupleCache));
+        }
+        return provBuilder.build();
+    }
+
+    public static ProvenanceGraph fromProvenance(Trgt.Provenance provenance) {
+        Builder builder = new Builder(provenance.getId());
+        builder.addProvenance(provenance);
+        return builder.build();
+    }
+
+    /**
+     * Interns tuples and clauses; duplicate clauses, inputs and outputs are added once.
+     */
+    public static class Builder {
+        private final String id;
+        private final IndexMap<String> relNames = new IndexMap<>();
+        private final IndexMap<String> ruleInfos = new IndexMap<>();
+        private final Map<IntsKey, Integer> tupleIds = new HashMap<>();
+        private final Map<IntsKey, Integer> clauseIds = new HashMap<>();
+
+        private final IntList tupleRels = new IntList();
+        private final IntList tupleAttrStarts = new IntList();
+        private final IntList tupleAttrs = new IntList();
+        private final IntList clauseHeads = new IntList();
+        private final IntList clauseRules = new IntList();
+        private final IntList bodyStarts = new IntList();
+        private final IntList bodies = new IntList();
+        private final IntList inputs = new IntList();
+        private final IntList outputs = new IntList();
+        private final BitSet inputSet = new BitSet();
+        private final BitSet outputSet = new BitSet();
+
+        public Builder(String id) {
+            this.id = id;
+            tupleAttrStarts.add(0);
+            bodyStarts.add(0);
+        }
+
+        /**
+         * @return id of the tuple, or -1 if it has not been added
+         */
+        public int indexOf(Trgt.Tuple tuple) {
+            int relId = relNames.indexOf(tuple.getRelName());
+            if (relId < 0) {
+                return -1;
+            }
+            return tupleIds.getOrDefault(new IntsKey(tupleKey(relId, tuple)), -1);
+        }
+
+        public int addTuple(Trgt.Tuple tuple) {
+            int relId = relNames.getOrAdd(tuple.getRelName());
+            int[] key = tupleKey(relId, tuple);
+            return tupleIds.computeIfAbsent(new IntsKey(key), k -> {
+                int tupleId = tupleRels.size;
+                tupleRels.add(relId);
+                for (int i = 1; i < key.length; ++i) {
+                    tupleAttrs.add(key[i]);
+                }
+                tupleAttrStarts.add(tupleAttrs.size);
+                return tupleId;
+            });
+        }
+
+        private static int[] tupleKey(int relId, Trgt.Tuple tuple) {
+            int arity = tuple.getAttrIdCount();
+            int[] key = new int[arity + 1];
+            key[0] = relId;
+            for (int i = 0; i < arity; ++i) {
+                key[i + 1] = tuple.getAttrId(i);
+            }
+            return key;
+        }
+
+        public int addClause(Trgt.Constraint cons) {
+            int bodyNum = cons.getBodyTupleCount();
+            int[] key = new int[bodyNum + 2];
+            key[0] = addTuple(cons.getHeadTuple());
+            key[1] = ruleInfos.getOrAdd(cons.getRuleInfo());
+            for (int i = 0; i < bodyNum; ++i) {
+                key[i + 2] = addTuple(cons.getBodyTuple(i));
+            }
+            return clauseIds.computeIfAbsent(new IntsKey(key), k -> {
+                int clauseId = clauseHeads.size;
+                clauseHeads.add(key[0]);
+                clauseRules.add(key[1]);
+                for (int i = 2; i < key.length; ++i) {
+                    bodies.add(key[i]);
+                }
+                bodyStarts.add(bodies.size);
+                return clauseId;
+            });
+        }
+
+        public void addProvenance(Trgt.Provenance provenance) {
+            for (Trgt.Constraint cons : provenance.getConstraintList()) {
+                addClause(cons);
+            }
+            for (Trgt.Tuple input : provenance.getInputList()) {
+                addInput(addTuple(input));
+            }
+            for (Trgt.Tuple output : provenance.getOutputList()) {
+                addOutput(addTuple(output));
+            }
+        }
+
+        public int tupleSize() {
+            return tupleRels.size;
+        }
+
+        public int clauseSize() {
+            return clauseHeads.size;
+        }
+
+        public int getHead(int clause) {
+            return clauseHeads.get(clause);
+        }
+
+        public void addInput(int tuple) {
+            if (!inputSet.get(tuple)) {
+                inputSet.set(tuple);
+                inputs.add(tuple);
+            }
+        }
+
+        public boolean isInput(int tuple) {
+            return inputSet.get(tuple);
+        }
+
+        public void removeInput(int tuple) {
+            if (inputSet.get(tuple)) {
+                inputSet.clear(tuple);
+                inputs.remove(tuple);
+            }
+        }
+
+        public void addOutput(int tuple) {
+            if (!outputSet.get(tuple)) {
+                outputSet.set(tuple);
+                outputs.add(tuple);
+            }
+        }
+
+        public ProvenanceGraph build() {
+            return new ProvenanceGraph(this);
+        }
+    }
+
+    private static final class IntsKey {
+        private final int[] ints;
+        private final int hash;
+
+        private IntsKey(int[] ints) {
+            this.ints = ints;
+            this.hash = Arrays.hashCode(ints);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntsKey && hash == ((IntsKey) o).hash && Arrays.equals(ints, ((IntsKey) o).ints);
+        }
+    }
+
+    static final class IntList {
+        private int[] data = new int[16];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        int get(int idx) {
+            return data[idx];
+        }
+
+        void add(int val) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = val;
+        }
+
+        void remove(int val) {
+            for (int i = 0; i < size; ++i) {
+                if (data[i] == val) {
+                    System.arraycopy(data, i + 1, data, i, size - i - 1);
+                    --size;
+                    return;
+                }
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
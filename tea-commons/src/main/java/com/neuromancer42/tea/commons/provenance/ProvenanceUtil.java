@@ -13,6 +13,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 public class ProvenanceUtil {
     private ProvenanceUtil() {}
@@ -139,204 +140,324 @@ public class ProvenanceUtil {
             Function<Trgt.Tuple, Categorical01> inputDist,
             Set<Trgt.Tuple> reservedTuples
     ) {
-        Set<Trgt.Tuple> reserved = new HashSet<>(reservedTuples);
-        Messages.debug("ProvenanceUtil: %d reserved tuples", reserved.size());
+        ProvenanceGraph.Builder graphBuilder = new ProvenanceGraph.Builder(provenance.getId());
+        graphBuilder.addProvenance(provenance);
+        BitSet reserved = new BitSet();
+        for (Trgt.Tuple tuple : reservedTuples) {
+            int t = graphBuilder.indexOf(tuple);
+            if (t >= 0) {
+                reserved.set(t);
+            }
+        }
+        return buildSqueezedCausalGraph(graphBuilder.build(), deriveDist, inputDist, reserved);
+    }
 
-        Map<Object, Categorical01> stochMapping = new LinkedHashMap<>();
-        List<Trgt.Tuple> singletons = new ArrayList<>(provenance.getInputList());
-        Map<Trgt.Tuple, Set<Trgt.Constraint>> headToConstrs = new LinkedHashMap<>();
-        Map<Trgt.Constraint, Set<Trgt.Tuple>> constrToBodies = new LinkedHashMap<>();
+    /**
+     * Squeezes the causal graph on interned ids; nodes are converted to tuples and constraints only when
+     * creating the resulting causal graph.
+     */
+    public static CausalGraph buildSqueezedCausalGraph(
+            ProvenanceGraph graph,
+            Function<Trgt.Constraint, Categorical01> deriveDist,
+            Function<Trgt.Tuple, Categorical01> inputDist,
+            BitSet reserved
+    ) {
+        Messages.debug("ProvenanceUtil: %d reserved tuples", reserved.cardinality());
+        int numTuples = graph.tupleSize();
+        int numClauses = graph.clauseSize();
+        Trgt.Tuple[] tupleObjs = new Trgt.Tuple[numTuples];
+        Trgt.Constraint[] clauseObjs = graph.toConstraints(IntStream.range(0, numClauses).toArray(), tupleObjs)
+                .toArray(new Trgt.Constraint[0]);
 
-        Map<Trgt.Tuple, Integer> bodyToConstrCnt = new HashMap<>();
-        Map<Trgt.Tuple, Integer> headToNonEmptyConstrCnt = new HashMap<>();
-        Set<Object> origHybrid = new HashSet<>();
+        // random nodes are keyed by tuple ids, or by clause ids offset by numTuples
+        Map<Integer, Categorical01> stochMapping = new LinkedHashMap<>();
+        // singletons in order of addition, an id is removed by skipping its first remaining occurrence
+        ProvenanceGraph.IntList singletons = new ProvenanceGraph.IntList();
+        int[] singletonCnt = new int[numTuples];
+        int[] singletonRemoved = new int[numTuples];
+        for (int t : graph.inputs) {
+            singletons.add(t);
+            ++singletonCnt[t];
+        }
+        int origSingletonNum = singletons.size();
+
+        // heads in order of first derivation
+        ProvenanceGraph.IntList headOrder = new ProvenanceGraph.IntList();
+        BitSet liveHeads = new BitSet(numTuples);
+        BitSet liveClauses = new BitSet(numClauses);
+        liveClauses.set(0, numClauses);
+        int[][] clauseBodies = new int[numClauses][];
+        int[] clauseBodyLens = new int[numClauses];
+        int[] bodyToConstrCnt = new int[numTuples];
+        int[] headToNonEmptyConstrCnt = new int[numTuples];
+        BitSet origTuples = new BitSet(numTuples);
         int origParamNum = 0;
 
-        for (Trgt.Constraint constr : provenance.getConstraintList()) {
-            Categorical01 dist = deriveDist.apply(constr);
+        for (int c = 0; c < numClauses; ++c) {
+            Categorical01 dist = deriveDist.apply(clauseObjs[c]);
             if (dist != null) {
-                stochMapping.put(constr, dist);
+                stochMapping.put(numTuples + c, dist);
                 origParamNum += dist.getSupports().length;
             }
         }
-        for (Trgt.Tuple inputTuple : provenance.getInputList()) {
-            Categorical01 dist = inputDist.apply(inputTuple);
+        for (int t : graph.inputs) {
+            Categorical01 dist = inputDist.apply(graph.cachedTuple(t, tupleObjs));
             if (dist != null) {
-                stochMapping.put(inputTuple, dist);
+                stochMapping.put(t, dist);
                 origParamNum += dist.getSupports().length;
             }
         }
 
-        for (Trgt.Constraint constr : provenance.getConstraintList()) {
-            origHybrid.add(constr);
-            Trgt.Tuple head = constr.getHeadTuple();
-            origHybrid.add(head);
-            headToConstrs.computeIfAbsent(head, t -> new LinkedHashSet<>()).add(constr);
-            Set<Trgt.Tuple> bodyList = new LinkedHashSet<>();
-            for (Trgt.Tuple body : constr.getBodyTupleList()) {
-                origHybrid.add(body);
-                bodyList.add(body);
-                bodyToConstrCnt.compute(body, (k, cnt) -> (cnt == null ? 1 : (cnt + 1)));
+        for (int c = 0; c < numClauses; ++c) {
+            int head = graph.clauseHeads[c];
+            origTuples.set(head);
+            if (!liveHeads.get(head)) {
+                liveHeads.set(head);
+                headOrder.add(head);
             }
-            constrToBodies.put(constr, bodyList);
-        }
-        for (var entry : headToConstrs.entrySet()) {
-            headToNonEmptyConstrCnt.put(entry.getKey(), entry.getValue().size());
+            ++headToNonEmptyConstrCnt[head];
+            int[] bodies = new int[graph.bodyStarts[c + 1] - graph.bodyStarts[c]];
+            int bodyLen = 0;
+            for (int j = graph.bodyStarts[c]; j < graph.bodyStarts[c + 1]; ++j) {
+                int body = graph.bodies[j];
+                origTuples.set(body);
+                if (graph.isFirstInBody(c, j)) {
+                    bodies[bodyLen++] = body;
+                }
+                ++bodyToConstrCnt[body];
+            }
+            clauseBodies[c] = bodies;
+            clauseBodyLens[c] = bodyLen;
         }
         Messages.log("ProvenanceUtil: original causal graph size [%d causal (head %d + constr %d + input %d) + %d random (%d params)]",
-                origHybrid.size(), headToConstrs.size(), constrToBodies.size(), singletons.size(), stochMapping.size(), origParamNum);
+                origTuples.cardinality() + numClauses, headOrder.size(), numClauses, origSingletonNum, stochMapping.size(), origParamNum);
 
-        Set<Trgt.Tuple> eliminatables = new LinkedHashSet<>();
-        Set<Trgt.Tuple> inputEliminated = new HashSet<>();
         // Step 1 : eliminate from inputs
-        for (Trgt.Tuple singleton : singletons) {
-            if (!reserved.contains(singleton)) {
-                eliminatables.add(singleton);
+        ProvenanceGraph.IntList eliminatables = new ProvenanceGraph.IntList();
+        for (int t : graph.inputs) {
+            if (!reserved.get(t)) {
+                eliminatables.add(t);
             }
         }
+        BitSet inputEliminated = new BitSet(numTuples);
+        int inputEliminatedNum = 0;
         Messages.debug("ProvenanceUtil: find %d eliminatable input nodes", eliminatables.size());
-        while (!eliminatables.isEmpty()) {
-            for (Trgt.Tuple elimTuple : eliminatables) {
-                if (elimTuple == null) break;
-                boolean newElim = inputEliminated.add(elimTuple);
-                if (!newElim) {
-                    Messages.error("ProvenanceUtil: input tuple %s has been eliminated before", elimTuple);
+        while (eliminatables.size() > 0) {
+            BitSet elimSet = new BitSet(numTuples);
+            for (int i = 0; i < eliminatables.size(); ++i) {
+                int elimTuple = eliminatables.get(i);
+                elimSet.set(elimTuple);
+                if (inputEliminated.get(elimTuple)) {
+                    Messages.error("ProvenanceUtil: input tuple %s has been eliminated before", graph.cachedTuple(elimTuple, tupleObjs));
                     continue;
                 }
-                if (inputEliminated.size() <= 10 || inputEliminated.size() % 100 == 0) {
-                    Messages.debug("ProvenanceUtil: %d input tuples has been compressed", inputEliminated.size());
+                inputEliminated.set(elimTuple);
+                ++inputEliminatedNum;
+                if (inputEliminatedNum <= 10 || inputEliminatedNum % 100 == 0) {
+                    Messages.debug("ProvenanceUtil: %d input tuples has been compressed", inputEliminatedNum);
+                }
+                if (singletonCnt[elimTuple] > 0) {
+                    --singletonCnt[elimTuple];
+                    ++singletonRemoved[elimTuple];
+                } else {
+                    Messages.error("ProvenanceUtil: eliminating non-input tuple %s ?", graph.cachedTuple(elimTuple, tupleObjs));
                 }
-                boolean isSingleton = singletons.remove(elimTuple);
-                if (!isSingleton)
-                    Messages.error("ProvenanceUtil: eliminating non-input tuple %s ?", elimTuple);
-                bodyToConstrCnt.remove(elimTuple);
+                bodyToConstrCnt[elimTuple] = 0;
             }
-            for (Trgt.Constraint constr : constrToBodies.keySet()) {
-                Set<Trgt.Tuple> bodies = constrToBodies.get(constr);
-                Set<Trgt.Tuple> elimTuples = new LinkedHashSet<>(bodies);
-                elimTuples.retainAll(eliminatables);
-                for (Trgt.Tuple elimTuple : elimTuples) {
-                    bodies.remove(elimTuple);
-                    {
-                        Categorical01 pConstr = stochMapping.get(constr);
-                        Categorical01 pTuple = stochMapping.get(elimTuple);
-                        Categorical01 pNew = Categorical01.multiplyDist(pTuple, pConstr);
+            for (int c = liveClauses.nextSetBit(0); c >= 0; c = liveClauses.nextSetBit(c + 1)) {
+                int[] bodies = clauseBodies[c];
+                int bodyLen = 0;
+                for (int j = 0; j < clauseBodyLens[c]; ++j) {
+                    int body = bodies[j];
+                    if (elimSet.get(body)) {
+                        Categorical01 pNew = Categorical01.multiplyDist(stochMapping.get(body), stochMapping.get(numTuples + c));
                         if (pNew != null) {
-                            stochMapping.put(constr, pNew);
+                            stochMapping.put(numTuples + c, pNew);
                         }
+                    } else {
+                        bodies[bodyLen++] = body;
                     }
                 }
-                if (bodies.isEmpty()) {
-                    Trgt.Tuple head = constr.getHeadTuple();
-                    headToNonEmptyConstrCnt.computeIfPresent(head, (t, cnt) -> (cnt - 1));
+                clauseBodyLens[c] = bodyLen;
+                if (bodyLen == 0) {
+                    --headToNonEmptyConstrCnt[graph.clauseHeads[c]];
                 }
             }
-            for (Trgt.Tuple elimTuple : eliminatables) {
-                stochMapping.remove(elimTuple);
+            for (int i = 0; i < eliminatables.size(); ++i) {
+                stochMapping.remove(eliminatables.get(i));
             }
 
-            Set<Trgt.Tuple> newEliminatables = new LinkedHashSet<>();
-            for (Trgt.Tuple head : headToConstrs.keySet()) {
-                if (headToNonEmptyConstrCnt.getOrDefault(head, 0) == 0) {
+            ProvenanceGraph.IntList newEliminatables = new ProvenanceGraph.IntList();
+            for (int i = 0; i < headOrder.size(); ++i) {
+                int head = headOrder.get(i);
+                if (liveHeads.get(head) && headToNonEmptyConstrCnt[head] == 0) {
                     newEliminatables.add(head);
                 }
             }
-            for (Trgt.Tuple head : newEliminatables) {
-                headToNonEmptyConstrCnt.remove(head);
+            eliminatables = new ProvenanceGraph.IntList();
+            for (int i = 0; i < newEliminatables.size(); ++i) {
+                int head = newEliminatables.get(i);
+                liveHeads.clear(head);
                 Categorical01 pNew = stochMapping.get(head);
-                Set<Trgt.Constraint> mergingConstrs = headToConstrs.remove(head);
-                for (Trgt.Constraint peerConstr : mergingConstrs) {
-                    constrToBodies.remove(peerConstr);
-                    Categorical01 pConstr = stochMapping.remove(peerConstr);
-                    pNew = Categorical01.revMultiply(pNew, pConstr);
+                for (int k = graph.headClauseStarts[head]; k < graph.headClauseStarts[head + 1]; ++k) {
+                    int peerConstr = graph.headClauses[k];
+                    liveClauses.clear(peerConstr);
+                    pNew = Categorical01.revMultiply(pNew, stochMapping.remove(numTuples + peerConstr));
                 }
                 if (pNew != null)
                     stochMapping.put(head, pNew);
                 singletons.add(head);
+                ++singletonCnt[head];
+                if (!reserved.get(head)) {
+                    eliminatables.add(head);
+                }
             }
-            eliminatables = newEliminatables;
-            eliminatables.removeAll(reserved);
             Messages.debug("ProvenanceUtil: find %d new input tuples to be compressed", eliminatables.size());
         }
-        Messages.debug("ProvenanceUtil: compressed %d input tuples", inputEliminated.size());
+        Messages.debug("ProvenanceUtil: compressed %d input tuples", inputEliminatedNum);
 
         // Step 2: eliminate middle nodes
-        eliminatables = new LinkedHashSet<>();
-        for (Trgt.Tuple head : headToConstrs.keySet()) {
-            if (!reserved.contains(head) && headToConstrs.get(head).size() == 1 && bodyToConstrCnt.getOrDefault(head, 0) == 1) {
-                eliminatables.add(head);
+        BitSet middleEliminatables = new BitSet(numTuples);
+        int middleEliminatableNum = 0;
+        for (int i = 0; i < headOrder.size(); ++i) {
+            int head = headOrder.get(i);
+            if (liveHeads.get(head) && !reserved.get(head)
+                    && graph.headClauseStarts[head + 1] - graph.headClauseStarts[head] == 1
+                    && bodyToConstrCnt[head] == 1) {
+                middleEliminatables.set(head);
+                ++middleEliminatableNum;
             }
         }
-        Messages.debug("ProvenanceUtil: find %d eliminatable middle nodes", eliminatables.size());
-        Set<Trgt.Tuple> middleEliminated = new HashSet<>();
-        Set<Trgt.Constraint> origConstrs = new LinkedHashSet<>(constrToBodies.keySet());
-        Set<Trgt.Constraint> deletedConstrs = new HashSet<>();
-        for (Trgt.Constraint sinkConstr : origConstrs) {
-            if (deletedConstrs.contains(sinkConstr)) {
+        Messages.debug("ProvenanceUtil: find %d eliminatable middle nodes", middleEliminatableNum);
+        BitSet middleEliminated = new BitSet(numTuples);
+        int middleEliminatedNum = 0;
+        int[] origConstrs = liveClauses.stream().toArray();
+        // marks bodies of the current sink clause, by its id plus 1
+        int[] sinkMarks = new int[numTuples];
+        for (int sinkConstr : origConstrs) {
+            if (!liveClauses.get(sinkConstr)) {
                 continue;
             }
-            Set<Trgt.Tuple> sinkBodies = constrToBodies.getOrDefault(sinkConstr, Set.of());
-            Set<Trgt.Tuple> elimTuples = new LinkedHashSet<>(sinkBodies);
-            elimTuples.retainAll(eliminatables);
-            while (!elimTuples.isEmpty()) {
-                for (Trgt.Tuple elimTuple : elimTuples) {
-                    if (elimTuple == null) break;
-
-                    boolean newElim = middleEliminated.add(elimTuple);
-                    if (!newElim) {
-                        Messages.error("ProvenanceUtil: middle tuple %s has been eliminated before", elimTuple);
+            for (int j = 0; j < clauseBodyLens[sinkConstr]; ++j) {
+                sinkMarks[clauseBodies[sinkConstr][j]] = sinkConstr + 1;
+            }
+            int[] elimTuples = filterBodies(clauseBodies[sinkConstr], clauseBodyLens[sinkConstr], middleEliminatables);
+            while (elimTuples.length > 0) {
+                for (int elimTuple : elimTuples) {
+                    if (middleEliminated.get(elimTuple)) {
+                        Messages.error("ProvenanceUtil: middle tuple %s has been eliminated before", graph.cachedTuple(elimTuple, tupleObjs));
                         continue;
                     }
-                    if (middleEliminated.size() <= 10 || middleEliminated.size() % 100 == 0) {
-                        Messages.debug("ProvenanceUtil: %d middle tuples has been compressed", middleEliminated.size());
+                    middleEliminated.set(elimTuple);
+                    ++middleEliminatedNum;
+                    if (middleEliminatedNum <= 10 || middleEliminatedNum % 100 == 0) {
+                        Messages.debug("ProvenanceUtil: %d middle tuples has been compressed", middleEliminatedNum);
                     }
-                    Trgt.Constraint srcConstr = headToConstrs.remove(elimTuple).toArray(new Trgt.Constraint[0])[0];
-                    Set<Trgt.Tuple> srcBodies = constrToBodies.remove(srcConstr);
-                    Categorical01 pSrc = stochMapping.remove(srcConstr);
-                    deletedConstrs.add(srcConstr);
+                    int srcConstr = graph.headClauses[graph.headClauseStarts[elimTuple]];
+                    liveHeads.clear(elimTuple);
+                    liveClauses.clear(srcConstr);
+                    Categorical01 pSrc = stochMapping.remove(numTuples + srcConstr);
 
-                    Categorical01 pSink = stochMapping.get(sinkConstr);
-                    sinkBodies.remove(elimTuple);
-                    sinkBodies.addAll(srcBodies);
+                    Categorical01 pSink = stochMapping.get(numTuples + sinkConstr);
+                    // remove before merging, as the source may be the sink itself
+                    int[] sinkBodies = clauseBodies[sinkConstr];
+                    int sinkLen = clauseBodyLens[sinkConstr];
+                    for (int j = 0; j < sinkLen; ++j) {
+                        if (sinkBodies[j] == elimTuple) {
+                            System.arraycopy(sinkBodies, j + 1, sinkBodies, j, sinkLen - j - 1);
+                            --sinkLen;
+                            break;
+                        }
+                    }
+                    sinkMarks[elimTuple] = 0;
+                    clauseBodyLens[sinkConstr] = sinkLen;
+                    int[] srcBodies = Arrays.copyOf(clauseBodies[srcConstr], clauseBodyLens[srcConstr]);
+                    for (int srcBody : srcBodies) {
+                        if (sinkMarks[srcBody] != sinkConstr + 1) {
+                            sinkMarks[srcBody] = sinkConstr + 1;
+                            if (sinkLen == sinkBodies.length) {
+                                sinkBodies = Arrays.copyOf(sinkBodies, Math.max(4, sinkLen * 2));
+                            }
+                            sinkBodies[sinkLen++] = srcBody;
+                        }
+                    }
+                    clauseBodies[sinkConstr] = sinkBodies;
+                    clauseBodyLens[sinkConstr] = sinkLen;
                     Categorical01 pNew = Categorical01.multiplyDist(pSrc, pSink);
                     if (pNew != null)
-                        stochMapping.put(sinkConstr, pNew);
-                    if (eliminatables.size() <= 10 || eliminatables.size() % 100 == 0)
-                        Messages.debug("ProvenanceUtil: %d middle tuples remaining to be compressed", eliminatables.size());
+                        stochMapping.put(numTuples + sinkConstr, pNew);
+                    if (middleEliminatableNum <= 10 || middleEliminatableNum % 100 == 0)
+                        Messages.debug("ProvenanceUtil: %d middle tuples remaining to be compressed", middleEliminatableNum);
                 }
-                elimTuples = new LinkedHashSet<>(sinkBodies);
-                elimTuples.retainAll(eliminatables);
+                elimTuples = filterBodies(clauseBodies[sinkConstr], clauseBodyLens[sinkConstr], middleEliminatables);
             }
         }
-        Messages.debug("ProvenanceUtil: compressed %d middle tuples in total", middleEliminated.size());
+        Messages.debug("ProvenanceUtil: compressed %d middle tuples in total", middleEliminatedNum);
 
+        // convert back to tuples and constraints
         Set<Object> hybrid = new LinkedHashSet<>();
-        Set<Object> newSingletons = new LinkedHashSet<>(singletons);
+        Set<Object> newSingletons = new LinkedHashSet<>();
+        for (int i = 0; i < singletons.size(); ++i) {
+            int t = singletons.get(i);
+            if (singletonRemoved[t] > 0) {
+                --singletonRemoved[t];
+            } else {
+                newSingletons.add(graph.cachedTuple(t, tupleObjs));
+            }
+        }
         Map<Object, List<Object>> newConstrToBodies = new LinkedHashMap<>();
         Map<Object, List<Object>> newHeadToConstrs = new LinkedHashMap<>();
-        for (var entry : headToConstrs.entrySet()) {
-            newHeadToConstrs.put(entry.getKey(), new ArrayList<>(entry.getValue()));
-            hybrid.add(entry.getKey());
-            hybrid.addAll(entry.getValue());
-            for (var constr : entry.getValue()) {
-                Set<Object> bodies = new LinkedHashSet<>(constrToBodies.get(constr));
-                newConstrToBodies.put(constr, new ArrayList<>(bodies));
+        for (int i = 0; i < headOrder.size(); ++i) {
+            int head = headOrder.get(i);
+            if (!liveHeads.get(head)) {
+                continue;
+            }
+            Trgt.Tuple headObj = graph.cachedTuple(head, tupleObjs);
+            List<Object> constrs = new ArrayList<>();
+            for (int k = graph.headClauseStarts[head]; k < graph.headClauseStarts[head + 1]; ++k) {
+                constrs.add(clauseObjs[graph.headClauses[k]]);
+            }
+            newHeadToConstrs.put(headObj, constrs);
+            hybrid.add(headObj);
+            hybrid.addAll(constrs);
+            for (int k = graph.headClauseStarts[head]; k < graph.headClauseStarts[head + 1]; ++k) {
+                int constr = graph.headClauses[k];
+                List<Object> bodies = new ArrayList<>(clauseBodyLens[constr]);
+                for (int j = 0; j < clauseBodyLens[constr]; ++j) {
+                    bodies.add(graph.cachedTuple(clauseBodies[constr][j], tupleObjs));
+                }
+                newConstrToBodies.put(clauseObjs[constr], bodies);
                 hybrid.addAll(bodies);
             }
         }
         hybrid.addAll(newSingletons); // in case of lonely nodes
+        Map<Object, Categorical01> newStochMapping = new LinkedHashMap<>();
         int sqzParamNum = 0;
-        for (Categorical01 dist : stochMapping.values()) {
-            sqzParamNum += dist.getSupports().length;
+        for (var entry : stochMapping.entrySet()) {
+            int node = entry.getKey();
+            Object nodeObj = node < numTuples ? graph.cachedTuple(node, tupleObjs) : clauseObjs[node - numTuples];
+            newStochMapping.put(nodeObj, entry.getValue());
+            sqzParamNum += entry.getValue().getSupports().length;
         }
         Messages.log("ProvenanceUtil: squeeze causal graph size to [%d causal + %d random (%d params)]",
-                hybrid.size(), stochMapping.size(), sqzParamNum);
-        return CausalGraph.createCausalGraph(provenance.getId(),
+                hybrid.size(), newStochMapping.size(), sqzParamNum);
+        return CausalGraph.createCausalGraph(graph.getId(),
                 hybrid,
                 newSingletons,
                 newHeadToConstrs,
                 newConstrToBodies,
-                stochMapping);
+                newStochMapping);
+    }
+
+    private static int[] filterBodies(int[] bodies, int bodyLen, BitSet filter) {
+        int[] filtered = new int[bodyLen];
+        int len = 0;
+        for (int j = 0; j < bodyLen; ++j) {
+            if (filter.get(bodies[j])) {
+                filtered[len++] = bodies[j];
+            }
+        }
+        return Arrays.copyOf(filtered, len);
     }
 
     public static Set<Trgt.Tuple> filterTuple(Trgt.Provenance provenance, Collection<String> rels) {
@@ -48,6 +48,7 @@ public class AnnotationTest {
         Assertions.assertEquals(1, analysisInfo.getConsumingRelCount());
         Assertions.assertEquals(1, analysisInfo.getProducingDomCount());
         Assertions.assertEquals(1, analysisInfo.getProducingRelCount());
+        Assertions.assertFalse(analysisInfo.getFingerprint().isEmpty());
     }
 
     @Test
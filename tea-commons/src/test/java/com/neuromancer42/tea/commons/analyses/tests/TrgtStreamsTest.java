@@ -0,0 +1,120 @@
+package com.neuromancer42.tea.commons.analyses.tests;
+
+import com.neuromancer42.tea.commons.analyses.TrgtStreams;
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import com.neuromancer42.tea.core.analysis.Analysis;
+import com.neuromancer42.tea.core.analysis.ProviderGrpc;
+import com.neuromancer42.tea.core.analysis.Trgt;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TrgtStreamsTest {
+    private static final Path workdir = Paths.get("test-out").resolve("trgtstreams");
+    private static final Path producerDir = workdir.resolve("producer");
+    private static final Path fetchDir = workdir.resolve("fetched");
+    private static final String serverName = "trgtstreams";
+    private static final AtomicInteger numFetches = new AtomicInteger();
+    private static Server server;
+    private static ManagedChannel channel;
+    private static ProgramDom domI;
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        Files.createDirectories(producerDir);
+        domI = new ProgramDom("I");
+        domI.init();
+        for (int i = 0; i < 300; ++i) {
+            domI.add("i" + i);
+        }
+        domI.save(producerDir.toString());
+        server = InProcessServerBuilder.forName(serverName).directExecutor()
+                .addService(new ProviderGrpc.ProviderImplBase() {
+                    @Override
+                    public void fetch(Analysis.FetchRequest request, StreamObserver<Analysis.TrgtChunk> responseObserver) {
+                        numFetches.incrementAndGet();
+                        TrgtStreams.serveFetch(request, responseObserver);
+                    }
+                }).build().start();
+        channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    private static String saveRel(String... elems) {
+        ProgramRel relI = new ProgramRel("RI", domI);
+        relI.init();
+        for (String elem : elems) {
+            relI.add(elem);
+        }
+        relI.save(producerDir.toString());
+        relI.close();
+        return relI.getLocation();
+    }
+
+    private static List<String> relElems(Trgt.RelTrgt relTrgt) {
+        ProgramRel relI = new ProgramRel("RI", domI);
+        relI.attach(relTrgt.getLocation());
+        List<String> elems = new ArrayList<>();
+        for (Object[] tuple : relI.getValTuples()) {
+            elems.add((String) tuple[0]);
+        }
+        relI.close();
+        return elems;
+    }
+
+    @Test
+    @DisplayName("doms and rels are fetched from their producer, and fetched again only when saved again")
+    public void roundTripTest() throws IOException {
+        ProviderGrpc.ProviderBlockingStub provider = ProviderGrpc.newBlockingStub(channel);
+        Trgt.DomTrgt remoteDom = Trgt.DomTrgt.newBuilder()
+                .setInfo(Trgt.DomInfo.newBuilder().setName("I"))
+                .setLocation(producerDir.toAbsolutePath().toString())
+                .setSource(serverName)
+                .build();
+        Trgt.DomTrgt localDom = TrgtStreams.fetchDom(provider, "proj", remoteDom, fetchDir);
+        Assertions.assertFalse(localDom.hasSource());
+        ProgramDom fetchedI = new ProgramDom("I");
+        fetchedI.load(localDom.getLocation());
+        Assertions.assertEquals(300, fetchedI.size());
+        Assertions.assertEquals("i299", fetchedI.get(299));
+
+        Trgt.RelTrgt remoteRel = Trgt.RelTrgt.newBuilder()
+                .setInfo(Trgt.RelInfo.newBuilder().setName("RI").addDom("I"))
+                .setLocation(saveRel("i1", "i299"))
+                .setSource(serverName)
+                .build();
+        Trgt.RelTrgt localRel = TrgtStreams.fetchRel(provider, "proj", remoteRel, fetchDir);
+        Assertions.assertNotEquals(remoteRel.getLocation(), localRel.getLocation());
+        Assertions.assertArrayEquals(Files.readAllBytes(Paths.get(remoteRel.getLocation())), Files.readAllBytes(Paths.get(localRel.getLocation())));
+        Assertions.assertEquals(List.of("i1", "i299"), relElems(localRel));
+
+        // the same content is reused
+        int fetches = numFetches.get();
+        Assertions.assertEquals(localRel.getLocation(), TrgtStreams.fetchRel(provider, "proj", remoteRel, fetchDir).getLocation());
+        Assertions.assertEquals(fetches + 1, numFetches.get());
+
+        // the producer runs again into the same location
+        Assertions.assertEquals(remoteRel.getLocation(), saveRel("i0"));
+        Trgt.RelTrgt refetched = TrgtStreams.fetchRel(provider, "proj", remoteRel, fetchDir);
+        Assertions.assertNotEquals(localRel.getLocation(), refetched.getLocation());
+        Assertions.assertEquals(List.of("i0"), relElems(refetched));
+        Assertions.assertEquals(List.of("i1", "i299"), relElems(localRel));
+    }
+}
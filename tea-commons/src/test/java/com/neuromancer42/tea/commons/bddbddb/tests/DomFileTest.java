@@ -0,0 +1,88 @@
+package com.neuromancer42.tea.commons.bddbddb.tests;
+
+import com.neuromancer42.tea.commons.bddbddb.DomFile;
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DomFileTest {
+    private static final Path workdir = Paths.get("test-out").resolve("domfile");
+    private static final List<String> elems = new ArrayList<>();
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        Files.createDirectories(workdir);
+        for (int i = 0; i < 1000; ++i) {
+            elems.add("v" + i);
+        }
+        elems.add("");
+        elems.add("multi\nline\telem");
+        elems.add("中文");
+        ProgramDom domV = new ProgramDom("V");
+        domV.init();
+        domV.addAll(elems);
+        domV.save(workdir.toString());
+    }
+
+    @Test
+    @DisplayName("binary dom file looks up elements by id and by value")
+    public void lookupTest() throws IOException {
+        DomFile domFile = DomFile.open(workdir.resolve("V" + DomFile.SUFFIX));
+        Assertions.assertEquals(elems.size(), domFile.size());
+        for (int i = 0; i < elems.size(); ++i) {
+            Assertions.assertEquals(elems.get(i), domFile.get(i));
+            Assertions.assertEquals(i, domFile.indexOf(elems.get(i)));
+        }
+        Assertions.assertEquals(-1, domFile.indexOf("v1000"));
+        Assertions.assertEquals(-1, domFile.indexOf("multi"));
+    }
+
+    @Test
+    @DisplayName("rewriting a dom file leaves readers of the earlier file intact")
+    public void rewriteTest() throws IOException {
+        Path dir = Files.createDirectories(workdir.resolve("rewrite"));
+        ProgramDom domW = new ProgramDom("W");
+        domW.init();
+        domW.addAll(List.of("w0", "w1", "w2"));
+        domW.save(dir.toString());
+        DomFile earlier = DomFile.open(dir.resolve("W" + DomFile.SUFFIX));
+
+        ProgramDom domW2 = new ProgramDom("W");
+        domW2.init();
+        domW2.add("x0");
+        domW2.save(dir.toString());
+        Assertions.assertEquals(3, earlier.size());
+        Assertions.assertEquals("w2", earlier.get(2));
+        DomFile later = DomFile.open(dir.resolve("W" + DomFile.SUFFIX));
+        Assertions.assertEquals(1, later.size());
+        Assertions.assertEquals(0, later.indexOf("x0"));
+        try (var files = Files.list(dir)) {
+            Assertions.assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    @DisplayName("program dom loaded lazily and materialized on modification")
+    public void lazyLoadTest() {
+        ProgramDom domV = new ProgramDom("V");
+        domV.load(workdir.toString());
+        Assertions.assertEquals(elems.size(), domV.size());
+        Assertions.assertEquals("v42", domV.get(42));
+        Assertions.assertEquals(999, domV.indexOf("v999"));
+        Assertions.assertTrue(domV.contains("中文"));
+        int i = 0;
+        for (String elem : domV) {
+            Assertions.assertEquals(elems.get(i++), elem);
+        }
+
+        Assertions.assertEquals(elems.size(), domV.getOrAdd("new"));
+        Assertions.assertEquals(elems.size() + 1, domV.size());
+        Assertions.assertEquals(5, domV.indexOf("v5"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.neuromancer42.tea.commons.bddbddb.tests;
+
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class RelBulkLoadTest {
+    private static final int numTuples = 20000;
+    private static ProgramDom domV;
+    private static ProgramDom domH;
+    private static final List<int[]> tuples = new ArrayList<>();
+
+    @BeforeAll
+    public static void setup() {
+        domV = new ProgramDom("V");
+        domV.init();
+        for (int i = 0; i < 1000; ++i) {
+            domV.add("v" + i);
+        }
+        domH = new ProgramDom("H");
+        domH.init();
+        for (int i = 0; i < 100; ++i) {
+            domH.add("h" + i);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < numTuples; ++i) {
+            tuples.add(new int[]{random.nextInt(1000), random.nextInt(100), random.nextInt(1000)});
+        }
+        // duplicates should be absorbed
+        tuples.add(tuples.get(0).clone());
+    }
+
+    @Test
+    @DisplayName("bulk loading builds the same relation as adding tuples one by one")
+    public void bulkLoadTest() {
+        ProgramRel perTupleRel = new ProgramRel("VHV", domV, domH, domV);
+        perTupleRel.init();
+        for (int[] tuple : tuples) {
+            perTupleRel.add(tuple);
+        }
+
+        ProgramRel bulkRel = new ProgramRel("VHV", domV, domH, domV);
+        bulkRel.init();
+        bulkRel.addAll(tuples);
+
+        Assertions.assertEquals(perTupleRel.size(), bulkRel.size());
+        for (int[] tuple : perTupleRel.getIntTuples()) {
+            Assertions.assertTrue(bulkRel.contains(tuple));
+        }
+        Assertions.assertTrue(bulkRel.contains(tuples.get(numTuples - 1)));
+        perTupleRel.close();
+        bulkRel.close();
+    }
+}
@@ -0,0 +1,97 @@
+package com.neuromancer42.tea.commons.bddbddb.tests;
+
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import com.neuromancer42.tea.commons.bddbddb.RelFile;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class RelFileTest {
+    private static final Path workdir = Paths.get("test-out").resolve("relfile");
+    private static ProgramDom domI;
+    private static ProgramDom domJ;
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        Files.createDirectories(workdir);
+        domI = new ProgramDom("I");
+        domI.init();
+        for (int i = 0; i < 300; ++i) {
+            domI.add(Integer.toString(i));
+        }
+        domI.save(workdir.toString());
+        domJ = new ProgramDom("J");
+        domJ.init();
+        domJ.add("a");
+        domJ.add("b");
+        domJ.save(workdir.toString());
+    }
+
+    @Test
+    @DisplayName("binary relation file keeps tuples and signature")
+    public void roundTripTest() throws IOException {
+        ProgramRel relIJI = new ProgramRel("IJI", domI, domJ, domI);
+        List<int[]> tuples = List.of(new int[]{0, 1, 299}, new int[]{256, 0, 3}, new int[]{7, 1, 7});
+        Path path = workdir.resolve("IJI" + RelFile.SUFFIX);
+        RelFile.write(path, relIJI.getName(), relIJI.getSign(), tuples);
+
+        RelFile relFile = RelFile.open(path);
+        Assertions.assertEquals("IJI", relFile.getName());
+        Assertions.assertArrayEquals(relIJI.getSign().getDomNames(), relFile.getSign().getDomNames());
+        Assertions.assertEquals(relIJI.getSign().getDomOrder(), relFile.getSign().getDomOrder());
+        Assertions.assertEquals(3, relFile.arity());
+        Assertions.assertEquals(3, relFile.size());
+        int row = 0;
+        for (int[] tuple : relFile.getIntTuples()) {
+            Assertions.assertArrayEquals(tuples.get(row++), tuple);
+        }
+    }
+
+    @Test
+    @DisplayName("rewriting a relation file leaves readers of the earlier file intact")
+    public void rewriteTest() throws IOException {
+        ProgramRel relIJ = new ProgramRel("IJ", domI, domJ);
+        Path path = workdir.resolve("rewrite" + RelFile.SUFFIX);
+        RelFile.write(path, relIJ.getName(), relIJ.getSign(), List.of(new int[]{1, 0}, new int[]{2, 1}));
+        RelFile earlier = RelFile.open(path);
+
+        RelFile.write(path, relIJ.getName(), relIJ.getSign(), List.of(new int[]{299, 1}));
+        Assertions.assertEquals(2, earlier.size());
+        Assertions.assertEquals(2, earlier.get(1, 0));
+        RelFile later = RelFile.open(path);
+        Assertions.assertEquals(1, later.size());
+        Assertions.assertEquals(299, later.get(0, 0));
+        try (var files = Files.list(workdir)) {
+            Assertions.assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    @DisplayName("program relation saved and re-loaded in binary format")
+    public void saveLoadTest() {
+        ProgramRel relIJ = new ProgramRel("IJ", domI, domJ);
+        relIJ.init();
+        relIJ.add("1", "a");
+        relIJ.add("299", "b");
+        relIJ.save(workdir.toString());
+        relIJ.close();
+        Assertions.assertTrue(relIJ.getLocation().endsWith(RelFile.SUFFIX));
+
+        ProgramRel attached = new ProgramRel("IJ", domI, domJ);
+        attached.attach(relIJ.getLocation());
+        Assertions.assertEquals(2, attached.size());
+        Set<String> vals = new HashSet<>();
+        for (Object[] tuple : attached.getValTuples()) {
+            vals.add(tuple[0] + "," + tuple[1]);
+        }
+        Assertions.assertEquals(Set.of("1,a", "299,b"), vals);
+        attached.close();
+    }
+}
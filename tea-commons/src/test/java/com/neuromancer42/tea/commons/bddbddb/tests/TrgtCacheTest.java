@@ -0,0 +1,86 @@
+package com.neuromancer42.tea.commons.bddbddb.tests;
+
+import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
+import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import com.neuromancer42.tea.commons.bddbddb.ProgramTrgtCache;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+public class TrgtCacheTest {
+    private static final Path workdir = Paths.get("test-out").resolve("trgtcache");
+    private static final String projId = "trgtcache";
+    private static String relLoc;
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        Files.createDirectories(workdir);
+        ProgramDom domI = new ProgramDom("I");
+        domI.init();
+        domI.add("i0");
+        domI.add("i1");
+        domI.save(workdir.toString());
+        ProgramRel relI = new ProgramRel("RI", domI);
+        relI.init();
+        relI.add("i1");
+        relI.save(workdir.toString());
+        relI.close();
+        relLoc = relI.getLocation();
+    }
+
+    @Test
+    @DisplayName("doms are shared and rels are leased across requests of a project")
+    public void shareTest() throws IOException {
+        ProgramTrgtCache cache = ProgramTrgtCache.g();
+        ProgramDom dom1 = cache.acquireDom(projId, "I", workdir.toString());
+        ProgramDom dom2 = cache.acquireDom(projId, "I", workdir.toString());
+        Assertions.assertSame(dom1, dom2);
+        Assertions.assertEquals(1, dom1.indexOf("i1"));
+
+        ProgramDom[] doms = {dom1};
+        ProgramRel rel1 = cache.acquireRel(projId, "RI", doms, relLoc);
+        ProgramRel rel2 = cache.acquireRel(projId, "RI", doms, relLoc);
+        Assertions.assertNotSame(rel1, rel2);
+        Assertions.assertEquals(1, rel2.size());
+        cache.release(projId, rel2);
+        cache.release(projId, rel1);
+        Assertions.assertSame(rel1, cache.acquireRel(projId, "RI", doms, relLoc));
+        cache.release(projId, rel1);
+
+        cache.release(projId, dom1);
+        cache.release(projId, dom2);
+        Path domFile = workdir.resolve("I.dmap");
+        Files.setLastModifiedTime(domFile, FileTime.fromMillis(Files.getLastModifiedTime(domFile).toMillis() + 1000));
+        ProgramDom dom3 = cache.acquireDom(projId, "I", workdir.toString());
+        Assertions.assertNotSame(dom1, dom3);
+        cache.release(projId, dom3);
+
+        cache.releaseProject(projId);
+        ProgramDom dom4 = cache.acquireDom(projId, "I", workdir.toString());
+        Assertions.assertNotSame(dom3, dom4);
+        cache.release(projId, dom4);
+        cache.releaseProject(projId);
+    }
+
+    @Test
+    @DisplayName("rels released without closing are closed and not leased again")
+    public void releaseLoadedTest() {
+        ProgramTrgtCache cache = ProgramTrgtCache.g();
+        ProgramDom dom = cache.acquireDom(projId, "I", workdir.toString());
+        ProgramDom[] doms = {dom};
+        ProgramRel rel1 = cache.acquireRel(projId, "RI", doms, relLoc);
+        rel1.load();
+        cache.release(projId, rel1);
+        Assertions.assertTrue(rel1.isDetached());
+        ProgramRel rel2 = cache.acquireRel(projId, "RI", doms, relLoc);
+        Assertions.assertNotSame(rel1, rel2);
+        Assertions.assertTrue(rel2.isDetached());
+        cache.release(projId, rel2);
+        cache.release(projId, dom);
+        cache.releaseProject(projId);
+    }
+}
@@ -0,0 +1,85 @@
+package com.neuromancer42.tea.commons.inference.tests;
+
+import com.neuromancer42.tea.commons.configs.Messages;
+import com.neuromancer42.tea.commons.inference.*;
+import org.junit.jupiter.api.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class BPDriverTest {
+    private static final Path workPath = Paths.get("test-out").resolve("javabp");
+    private static CausalGraph causalGraph;
+    private static BPDriverFactory factory;
+
+    @BeforeAll
+    public static void setup() {
+        List<Object> nodes = new ArrayList<>();
+        nodes.add("Coin1");  nodes.add("Coin2");
+        nodes.add("Or"); nodes.add("And");
+        List<Object> singletons = new ArrayList<>();
+        singletons.add("Coin1"); singletons.add("Coin2");
+        Map<Object, List<Object>> sums = new HashMap<>();
+        Map<Object, List<Object>> prods = new HashMap<>();
+        sums.put("Or", singletons);
+        prods.put("And", singletons);
+        causalGraph = CausalGraph.createCausalGraph("two_coins", nodes, singletons, sums, prods);
+        factory = new BPDriverFactory(workPath, Map.of());
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Prior of deterministic gates over two fair coins")
+    public void priorTest() {
+        causalGraph.resetStochNodes();
+        causalGraph.setStochNode("Coin1", new Categorical01(0.5D));
+        causalGraph.setStochNode("Coin2", new Categorical01(0.5D));
+        BPIteratingCausalDriver inferer = (BPIteratingCausalDriver) factory.createCausalDriver("iterating", "fair_coins", causalGraph);
+        Assertions.assertEquals(0.75, inferer.queryPossibilityById(causalGraph.getNodeId("Or")), 1e-6);
+        Assertions.assertEquals(0.25, inferer.queryPossibilityById(causalGraph.getNodeId("And")), 1e-6);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Testing iterating inferer")
+    public void iteratingInfererTest() {
+        Categorical01 unknownCoin = new Categorical01(0.1D, 0.5D, 0.9D);
+        causalGraph.resetStochNodes();
+        causalGraph.setStochNode("Coin1", new Categorical01(unknownCoin));
+        causalGraph.setStochNode("Coin2", new Categorical01(unknownCoin));
+        BPIteratingCausalDriver inferer = (BPIteratingCausalDriver) factory.createCausalDriver("iterating", "coin2", causalGraph);
+        int distId = causalGraph.getNodesDistId(causalGraph.getNodeId("Coin1"));
+        double[] prior = inferer.queryFactorById(distId);
+        double p_both0 = inferer.queryPossibilityById(causalGraph.getNodeId("And"));
+        double p_either0 = inferer.queryPossibilityById(causalGraph.getNodeId("Or"));
+        Messages.log("Prior: \t" + Arrays.toString(prior) + "\tboth - " + p_both0 + "\teither - " + p_either0);
+
+        Map<Object, Boolean> obs = new HashMap<>();
+        obs.put("And", true); obs.put("Or", true);
+        inferer.appendObservation(obs);
+        double[] posterior = inferer.queryFactorById(distId);
+        double p_both1 = inferer.queryPossibilityById(causalGraph.getNodeId("And"));
+        double p_either1 = inferer.queryPossibilityById(causalGraph.getNodeId("Or"));
+        Messages.log("Posterior: \t" + Arrays.toString(posterior) + "\tboth - " + p_both1 + "\teither - " + p_either1);
+        Assertions.assertTrue(posterior[2] > prior[2]);
+        Assertions.assertTrue(p_both1 > p_both0 && p_either1 > p_either0);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Testing EM inferer")
+    public void emInfererTest() {
+        causalGraph.resetStochNodes();
+        Categorical01 sharedCoin = new Categorical01(0.1D, 0.5D, 0.9D);
+        causalGraph.setStochNode("Coin1", sharedCoin);
+        causalGraph.setStochNode("Coin2", sharedCoin);
+        BPEMCausalDriver inferer = (BPEMCausalDriver) factory.createCausalDriver("em", "coin_em", causalGraph);
+        double p_either0 = inferer.queryPossibilityById(causalGraph.getNodeId("Or"));
+        inferer.appendObservation(Map.of("And", true));
+        inferer.appendObservation(Map.of("Or", true));
+        double p_either1 = inferer.queryPossibilityById(causalGraph.getNodeId("Or"));
+        Messages.log("EM: \teither - " + p_either0 + " -> " + p_either1);
+        Assertions.assertTrue(p_either1 > p_either0);
+    }
+}
@@ -2,6 +2,7 @@ package com.neuromancer42.tea.commons.provenance.tests;
 
 import com.google.protobuf.TextFormat;
 import com.neuromancer42.tea.commons.provenance.ProvenanceBuilder;
+import com.neuromancer42.tea.commons.provenance.ProvenanceGraph;
 import com.neuromancer42.tea.core.analysis.Trgt;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
@@ -60,6 +61,28 @@ public class ProvenanceTest {
         Assertions.assertEquals(1, prov.getOutputCount());
     }
 
+    @Order(0)
+    @Test
+    @DisplayName("Intern provenance and convert it back")
+    public void testProvenanceGraph() {
+        Trgt.Provenance prov = Trgt.Provenance.newBuilder()
+                .setId("graph")
+                .addAllConstraint(List.of(cons21, cons22, cons20, cons22))
+                .addAllInput(List.of(i2, i2))
+                .addOutput(o1)
+                .build();
+        ProvenanceGraph graph = ProvenanceGraph.fromProvenance(prov);
+        Assertions.assertEquals(3, graph.tupleSize());
+        Assertions.assertEquals(3, graph.clauseSize());
+        Assertions.assertEquals(1, graph.getInputs().length);
+        Assertions.assertEquals(o1, graph.toTuple(graph.getHead(1)));
+        Assertions.assertEquals("rule4", graph.getRuleInfo(2));
+        Trgt.Provenance converted = graph.toProvenance(new int[]{0, 1, 2}, graph.getInputs(), graph.getOutputs());
+        Assertions.assertEquals(List.of(cons21, cons22, cons20), converted.getConstraintList());
+        Assertions.assertEquals(List.of(i2), converted.getInputList());
+        Assertions.assertEquals(List.of(o1), converted.getOutputList());
+    }
+
     @Order(1)
     @Test
     @DisplayName("Dump provenance correctly")
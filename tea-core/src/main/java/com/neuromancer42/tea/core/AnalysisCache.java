@@ -0,0 +1,256 @@
+package com.neuromancer42.tea.core;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.neuromancer42.tea.commons.configs.Constants;
+import com.neuromancer42.tea.commons.configs.Messages;
+import com.neuromancer42.tea.core.analysis.Analysis;
+import com.neuromancer42.tea.core.analysis.Trgt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of analysis results, shared by all projects.
+ * <p>
+ * A run is identified by hashing its analysis name, the fingerprint of the analysis reported by its provider,
+ * its options and the contents of its input doms and rels.
+ * Outputs of a successful run are copied into an entry of the cache, so that they outlive the producing project,
+ * and a later run with the same identity gets the copied locations without invoking the provider.
+ * Entries survive restarts, and are evicted in least-recently-used order when exceeding the disk budget.
+ * An entry handed out by a lookup is pinned by the looking-up project until the project releases it,
+ * as the project keeps reading doms and rels from the entry.
+ */
+public class AnalysisCache {
+    private static final String RESULTS_FILE = "results.pb";
+
+    private final Path cacheDir;
+    private final long budget;
+    // entry key -> disk size, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize = 0;
+    // entry key -> projects reading from the entry
+    private final Map<String, Set<String>> holders = new HashMap<>();
+
+    private long numHits = 0;
+    private long numMisses = 0;
+    private long numStored = 0;
+    private long numEvicted = 0;
+
+    public AnalysisCache(Path cacheDir, long budget) throws IOException {
+        this.cacheDir = Files.createDirectories(cacheDir);
+        this.budget = budget;
+        List<Path> entryDirs = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(cacheDir)) {
+            dirs.filter(dir -> Files.isRegularFile(dir.resolve(RESULTS_FILE))).forEach(entryDirs::add);
+        }
+        // restore the LRU order from the last access time of each entry
+        Map<Path, FileTime> accessTimes = new HashMap<>();
+        for (Path dir : entryDirs) {
+            accessTimes.put(dir, Files.getLastModifiedTime(dir.resolve(RESULTS_FILE)));
+        }
+        entryDirs.sort(Comparator.comparing(accessTimes::get));
+        for (Path dir : entryDirs) {
+            long size = diskSize(dir);
+            entries.put(dir.getFileName().toString(), size);
+            totalSize += size;
+        }
+        Messages.log("AnalysisCache: %d entries (%d bytes) restored from %s", entries.size(), totalSize, cacheDir);
+    }
+
+    /**
+     * Computes the identity of a run from its analysis name, options and input contents.
+     *
+     * @param fingerprint identifies the rules and code of the analysis, so that entries of earlier builds are not reused
+     */
+    public String computeKey(Analysis.RunRequest request, String fingerprint) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(request.getAnalysisName(), StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(fingerprint, StandardCharsets.UTF_8).putByte((byte) 0);
+        for (var option : new TreeMap<>(request.getOption().getPropertyMap()).entrySet()) {
+            hasher.putString(option.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+            hasher.putString(option.getValue(), StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        for (Trgt.DomTrgt dom : request.getDomInputList()) {
+            String domName = dom.getInfo().getName();
+            hasher.putString("dom:" + domName, StandardCharsets.UTF_8).putByte((byte) 0);
+            for (Path file : domFiles(Paths.get(dom.getLocation()), domName)) {
+                hasher.putBytes(MoreFiles.asByteSource(file).hash(Hashing.sha256()).asBytes());
+            }
+        }
+        for (Trgt.RelTrgt rel : request.getRelInputList()) {
+            hasher.putString("rel:" + rel.getInfo().getName(), StandardCharsets.UTF_8).putByte((byte) 0);
+            hasher.putBytes(MoreFiles.asByteSource(Paths.get(rel.getLocation())).hash(Hashing.sha256()).asBytes());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @param holder the project reading the results, which pins the entry until it calls {@link #release}
+     * @return results with locations inside the cache, or null on a miss
+     */
+    public synchronized Analysis.RunResults lookup(String key, String holder) {
+        if (!entries.containsKey(key)) {
+            ++numMisses;
+            return null;
+        }
+        Path resultsPath = cacheDir.resolve(key).resolve(RESULTS_FILE);
+        try (InputStream in = Files.newInputStream(resultsPath)) {
+            Analysis.RunResults results = Analysis.RunResults.parseFrom(in);
+            entries.get(key); // refresh LRU order
+            Files.setLastModifiedTime(resultsPath, FileTime.fromMillis(System.currentTimeMillis()));
+            ++numHits;
+            holders.computeIfAbsent(key, k -> new HashSet<>()).add(holder);
+            return results;
+        } catch (IOException e) {
+            ++numMisses;
+            if (holders.containsKey(key)) {
+                Messages.error("AnalysisCache: failed to read cached entry %s: %s", key, e.getMessage());
+                return null;
+            }
+            Messages.error("AnalysisCache: failed to read cached entry %s, dropping it: %s", key, e.getMessage());
+            evict(key);
+            return null;
+        }
+    }
+
+    /**
+     * Copies outputs of a successful run into the cache.
+     */
+    public void store(String key, Analysis.RunResults results) {
+        if (!results.getMsg().startsWith(Constants.MSG_SUCC)) {
+            return;
+        }
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        Path tmpDir = cacheDir.resolve(key + ".tmp-" + UUID.randomUUID());
+        Path entryDir = cacheDir.resolve(key);
+        long size;
+        try {
+            Files.createDirectories(tmpDir);
+            Analysis.RunResults.Builder cachedBuilder = results.toBuilder();
+            cachedBuilder.clearDomOutput();
+            cachedBuilder.clearRelOutput();
+            for (Trgt.DomTrgt dom : results.getDomOutputList()) {
+                String domName = dom.getInfo().getName();
+                for (Path file : domFiles(Paths.get(dom.getLocation()), domName)) {
+                    Files.copy(file, tmpDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+                cachedBuilder.addDomOutput(dom.toBuilder().setLocation(entryDir.toAbsolutePath().toString()));
+            }
+            for (Trgt.RelTrgt rel : results.getRelOutputList()) {
+                Path file = Paths.get(rel.getLocation());
+                Files.copy(file, tmpDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                cachedBuilder.addRelOutput(rel.toBuilder().setLocation(entryDir.resolve(file.getFileName()).toAbsolutePath().toString()));
+            }
+            try (OutputStream out = Files.newOutputStream(tmpDir.resolve(RESULTS_FILE))) {
+                cachedBuilder.build().writeTo(out);
+            }
+            size = diskSize(tmpDir);
+        } catch (IOException e) {
+            Messages.error("AnalysisCache: failed to store results of %s: %s", results.getMsg(), e.getMessage());
+            deleteQuietly(tmpDir);
+            return;
+        }
+        try {
+            Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteQuietly(tmpDir);
+            // a concurrent run with the same identity has stored the entry first
+            if (!Files.isRegularFile(entryDir.resolve(RESULTS_FILE))) {
+                Messages.error("AnalysisCache: failed to store results of %s: %s", results.getMsg(), e.getMessage());
+            }
+            return;
+        }
+        synchronized (this) {
+            entries.put(key, size);
+            totalSize += size;
+            ++numStored;
+            trim(key);
+        }
+    }
+
+    /**
+     * Unpins all entries read by a project, evicting them if over budget.
+     */
+    public synchronized void release(String holder) {
+        holders.values().removeIf(projs -> projs.remove(holder) && projs.isEmpty());
+        trim(null);
+    }
+
+    public synchronized String getStats() {
+        return String.format("AnalysisCache: %d hits, %d misses, %d stored, %d evicted, %d entries using %d/%d bytes",
+                numHits, numMisses, numStored, numEvicted, entries.size(), totalSize, budget);
+    }
+
+    // evicts unpinned entries in LRU order until within budget, stopping at the newly stored entry
+    private synchronized void trim(String newest) {
+        Iterator<Map.Entry<String, Long>> lru = entries.entrySet().iterator();
+        List<String> evicted = new ArrayList<>();
+        long remaining = totalSize;
+        while (remaining > budget && lru.hasNext()) {
+            Map.Entry<String, Long> eldest = lru.next();
+            if (eldest.getKey().equals(newest)) {
+                break;
+            }
+            if (holders.containsKey(eldest.getKey())) {
+                continue;
+            }
+            evicted.add(eldest.getKey());
+            remaining -= eldest.getValue();
+        }
+        for (String eldest : evicted) {
+            evict(eldest);
+        }
+    }
+
+    private synchronized void evict(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalSize -= size;
+            ++numEvicted;
+        }
+        deleteQuietly(cacheDir.resolve(key));
+    }
+
+    private static List<Path> domFiles(Path domDir, String domName) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(domDir)) {
+            stream.filter(file -> file.getFileName().toString().startsWith(domName + "."))
+                    .sorted()
+                    .forEach(files::add);
+        }
+        return files;
+    }
+
+    private static long diskSize(Path dir) throws IOException {
+        long size = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+
+    private static void deleteQuietly(Path dir) {
+        try {
+            if (Files.exists(dir)) {
+                MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+            }
+        } catch (IOException e) {
+            Messages.warn("AnalysisCache: failed to delete %s: %s", dir, e.getMessage());
+        }
+    }
+}
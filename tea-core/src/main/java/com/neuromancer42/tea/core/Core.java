@@ -28,6 +28,8 @@ public class Core {
         options.addOption("d", Constants.OPT_WORK_DIR, true, "working directory");
         options.addOption("t", Constants.OPT_DIST, true, "[optional] path to list of derivation prior params");
         options.addOption("j", Constants.OPT_JOBS, true, "[optional] maximum threads for parallel computing");
+        options.addOption("c", Constants.OPT_CACHE, true, "[optional] disk budget (in MB) of cached analysis results, 0 to disable caching");
+        options.addOption("m", Constants.OPT_MAX_MESSAGE, true, "[optional] maximum size (in MB) of messages received from providers");
         options.addOption(Option.builder("Q")
                 .longOpt(OPT_PROVIDERS)
                 .hasArgs()
@@ -83,13 +85,15 @@ public class Core {
         DAIRuntime.init(workPath, num_jobs);
         Messages.log("Core: initialized LibDAI at %s", allTimer);
 
+        int maxMessageSize = (int) Math.min(Integer.MAX_VALUE, Long.parseLong(cmd.getOptionValue(Constants.OPT_MAX_MESSAGE, Constants.DEFAULT_MAX_MESSAGE)) << 20);
+        Messages.log("Core: receive messages of at most %d bytes from providers", maxMessageSize);
         Map<String, ProviderGrpc.ProviderBlockingStub> providerMap = new LinkedHashMap<>();
         for (var entry : cmd.getOptionProperties(OPT_PROVIDERS).entrySet()) {
             String providerName = (String) entry.getKey();
             String addr = (String) entry.getValue();
             Messages.log("Core: configured provider %s [%s] at %s", providerName, addr, allTimer);
             Channel channel = Grpc.newChannelBuilder(addr, InsecureChannelCredentials.create())
-                    .maxInboundMessageSize(Integer.MAX_VALUE)
+                    .maxInboundMessageSize(maxMessageSize)
                     .build();
             ProviderGrpc.ProviderBlockingStub stub = ProviderGrpc.newBlockingStub(channel);
             providerMap.put(providerName, stub);
@@ -107,7 +111,13 @@ public class Core {
         allTimer.stop();
         Messages.log("Core: all providers registered in %s", allTimer);
         int core_port = Integer.parseInt(cmd.getOptionValue(Constants.OPT_PORT, Constants.DEFAULT_PORT));
-        var core_impl = new CoreServiceImpl(distMap, defaultDist);
+        long cacheBudget = Long.parseLong(cmd.getOptionValue(Constants.OPT_CACHE, Constants.DEFAULT_CACHE));
+        AnalysisCache resultCache = null;
+        if (cacheBudget > 0) {
+            resultCache = new AnalysisCache(Paths.get(root_workdir, Constants.NAME_CACHE), cacheBudget << 20);
+            Messages.log("Core: caching analysis results within %d MB", cacheBudget);
+        }
+        var core_impl = new CoreServiceImpl(distMap, defaultDist, (int) num_jobs, resultCache);
         Server coreServer = Grpc.newServerBuilderForPort(core_port, InsecureServerCredentials.create())
                 .addService(core_impl).build();
         System.err.println("*** core server started on port " + core_port);
@@ -10,6 +10,7 @@ import io.grpc.stub.StreamObserver;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
+import java.util.function.BiFunction;
 
 public class CoreServiceImpl extends CoreServiceGrpc.CoreServiceImplBase {
     protected final Set<String> projects = new HashSet<>();
@@ -47,6 +48,9 @@ public class CoreServiceImpl extends CoreServiceGrpc.CoreServiceImplBase {
             Stopwatch buildTimer = Stopwatch.createStarted();
             proj = ProjectBuilder.g().buildProject(projId, appOption, schedule);
             buildTimer.stop();
+            if (proj != null && resultCache != null) {
+                proj.setResultCache(resultCache, request.getNeedRank());
+            }
             if (proj == null) {
                 failMsg = Constants.MSG_FAIL + ": exception happens when build project";
             } else {
@@ -56,17 +60,13 @@ public class CoreServiceImpl extends CoreServiceGrpc.CoreServiceImplBase {
                     CoreUtil.ApplicationResponse response = respBuilder.build();
                     responseObserver.onNext(response);
                 }
-                for (String analysis : schedule) {
-                    String msg = proj.runAnalysis(analysis);
+                // independent analyses run concurrently, and each reports as soon as it finishes
+                failMsg = proj.runSchedule(maxJobs, msg -> {
                     CoreUtil.ApplicationResponse.Builder respBuilder = CoreUtil.ApplicationResponse.newBuilder();
                     respBuilder.setMsg(msg);
                     CoreUtil.ApplicationResponse response = respBuilder.build();
                     responseObserver.onNext(response);
-                    if (msg.startsWith(Constants.MSG_FAIL)) {
-                        failMsg = msg;
-                        break;
-                    }
-                }
+                });
             }
         } else {
             failMsg = Constants.MSG_FAIL + ": failed to build project pipeline on required analyses";
@@ -86,20 +86,19 @@ public class CoreServiceImpl extends CoreServiceGrpc.CoreServiceImplBase {
         }
 
         List<String> alarm_rels = request.getAlarmRelList();
+        int chunkSize = Math.max(1, Integer.parseInt(appOption.getOrDefault(Constants.OPT_ALARM_CHUNK, Constants.DEFAULT_ALARM_CHUNK)));
+        int topK = Integer.parseInt(appOption.getOrDefault(Constants.OPT_ALARM_TOPK, String.valueOf(Integer.MAX_VALUE)));
+        final Project project = proj;
         if (!request.getNeedRank()) {
-            CoreUtil.ApplicationResponse.Builder respBuilder = CoreUtil.ApplicationResponse.newBuilder();
+            String msg = String.format(Constants.MSG_SUCC + ": all analyses completed in %s", allTimer);
             if (appOption.getOrDefault("tea.debug.summaryonly", "false").equals("true")) {
-                for (var summary : proj.summaryRels(alarm_rels).entrySet()) {
-                    respBuilder.addAlarm(summary.getKey() + ":" + summary.getValue());
-                }
+                List<Map.Entry<String, Integer>> summaries = new ArrayList<>(proj.summaryRels(alarm_rels).entrySet());
+                streamAlarms(responseObserver, msg, summaries, chunkSize, topK,
+                        (i, summary) -> summary.getKey() + ":" + summary.getValue());
             } else {
-                for (Trgt.Tuple alarm : proj.printRels(alarm_rels)) {
-                    respBuilder.addAlarm(proj.decodeTuple(alarm, ","));
-                }
+                streamAlarms(responseObserver, msg, proj.printRels(alarm_rels), chunkSize, topK,
+                        (i, alarm) -> project.decodeTuple(alarm, ","));
             }
-            respBuilder.setMsg(String.format(Constants.MSG_SUCC + ": all analyses completed in %s", allTimer));
-            CoreUtil.ApplicationResponse response = respBuilder.build();
-            responseObserver.onNext(response);
         } else {
             Stopwatch provTimer = Stopwatch.createStarted();
             Trgt.Provenance prov = proj.proveRels(alarm_rels);
@@ -132,18 +131,8 @@ public class CoreServiceImpl extends CoreServiceGrpc.CoreServiceImplBase {
                         appOption
                 );
                 priorTimer.stop();
-                {
-                    CoreUtil.ApplicationResponse.Builder respBuilder = CoreUtil.ApplicationResponse.newBuilder();
-                    respBuilder.setMsg(String.format(Constants.MSG_SUCC + ": compute prior ranking in %s", priorTimer));
-                    for (int i = 0; i < priorRanking.size(); ++i) {
-                        var alarmProb = priorRanking.get(i);
-                        Trgt.Tuple alarm = alarmProb.getKey();
-                        Double prob = alarmProb.getValue();
-                        respBuilder.addAlarm(String.format("%04d", i+1) + ":" + prettifyProbability(prob) + ":" + proj.decodeTuple(alarm, ","));
-                    }
-                    CoreUtil.ApplicationResponse response = respBuilder.build();
-                    responseObserver.onNext(response);
-                }
+                streamAlarms(responseObserver, String.format(Constants.MSG_SUCC + ": compute prior ranking in %s", priorTimer),
+                        priorRanking, chunkSize, topK, (i, alarmProb) -> encodeRanked(project, i, alarmProb));
             }
             Stopwatch testTimer = Stopwatch.createStarted();
             List<Map<Trgt.Tuple, Boolean>> trace = new ArrayList<>();
@@ -164,20 +153,8 @@ public class CoreServiceImpl extends CoreServiceGrpc.CoreServiceImplBase {
                 List<Map.Entry<Trgt.Tuple, Double>> postRanking;
                 postRanking = proj.postRanking(alarms, trace);
                 postTimer.stop();
-                {
-                    CoreUtil.ApplicationResponse.Builder respBuilder = CoreUtil.ApplicationResponse.newBuilder();
-
-                    respBuilder.setMsg(String.format(Constants.MSG_SUCC + ": posterior ranking completed in %s", postTimer));
-
-                    for (int i = 0; i < postRanking.size(); ++i) {
-                        var alarmProb = postRanking.get(i);
-                        Trgt.Tuple alarm = alarmProb.getKey();
-                        Double prob = alarmProb.getValue();
-                        respBuilder.addAlarm(String.format("%04d", i+1) + ":" + prettifyProbability(prob) + ":" + proj.decodeTuple(alarm, ","));
-                    }
-                    CoreUtil.ApplicationResponse response = respBuilder.build();
-                    responseObserver.onNext(response);
-                }
+                streamAlarms(responseObserver, String.format(Constants.MSG_SUCC + ": posterior ranking completed in %s", postTimer),
+                        postRanking, chunkSize, topK, (i, alarmProb) -> encodeRanked(project, i, alarmProb));
             }
             {
                 CoreUtil.ApplicationResponse response = CoreUtil.ApplicationResponse.newBuilder()
@@ -192,12 +169,44 @@ public class CoreServiceImpl extends CoreServiceGrpc.CoreServiceImplBase {
         responseObserver.onCompleted();
     }
 
+    private static String encodeRanked(Project proj, int rank, Map.Entry<Trgt.Tuple, Double> alarmProb) {
+        return String.format("%04d", rank + 1) + ":" + prettifyProbability(alarmProb.getValue()) + ":" + proj.decodeTuple(alarmProb.getKey(), ",");
+    }
+
+    /**
+     * Sends the first topK alarms in chunks of chunkSize, the message goes with the first chunk.
+     * Alarms are only encoded when their chunk is sent, so no response holds the whole report.
+     */
+    private static <T> void streamAlarms(StreamObserver<CoreUtil.ApplicationResponse> responseObserver, String msg,
+                                         List<T> alarms, int chunkSize, int topK, BiFunction<Integer, T, String> encoder) {
+        int total = Math.min(alarms.size(), Math.max(0, topK));
+        int offset = 0;
+        do {
+            CoreUtil.ApplicationResponse.Builder respBuilder = CoreUtil.ApplicationResponse.newBuilder();
+            if (offset == 0) {
+                respBuilder.setMsg(msg);
+            }
+            respBuilder.setAlarmOffset(offset);
+            respBuilder.setAlarmTotal(total);
+            int end = Math.min(total, offset + chunkSize);
+            for (int i = offset; i < end; ++i) {
+                respBuilder.addAlarm(encoder.apply(i, alarms.get(i)));
+            }
+            responseObserver.onNext(respBuilder.build());
+            offset = end;
+        } while (offset < total);
+    }
+
     private final Map<String, Categorical01> probMap;
     private final Categorical01 defaultProb;
+    private final int maxJobs;
+    private final AnalysisCache resultCache;
 
-    public CoreServiceImpl(Map<String, Categorical01> probMap, Categorical01 defaultProb) {
+    public CoreServiceImpl(Map<String, Categorical01> probMap, Categorical01 defaultProb, int maxJobs, AnalysisCache resultCache) {
         this.probMap = probMap;
         this.defaultProb = defaultProb;
+        this.maxJobs = Math.max(1, maxJobs);
+        this.resultCache = resultCache;
     }
 
     public Categorical01 getRuleParam(String ruleInfo) {
@@ -1,14 +1,22 @@
 package com.neuromancer42.tea.core;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.TextFormat;
+import com.neuromancer42.tea.commons.analyses.TrgtStreams;
+import com.neuromancer42.tea.commons.bddbddb.BDDFactoryPool;
 import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
 import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
 import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.commons.inference.AbstractCausalDriver;
+import com.neuromancer42.tea.commons.inference.BPDriverFactory;
 import com.neuromancer42.tea.commons.inference.Categorical01;
 import com.neuromancer42.tea.commons.inference.CausalGraph;
+import com.neuromancer42.tea.commons.inference.ICausalDriverFactory;
 import com.neuromancer42.tea.commons.provenance.ProvenanceBuilder;
 import com.neuromancer42.tea.commons.provenance.ProvenanceUtil;
 import com.neuromancer42.tea.commons.util.StringUtil;
@@ -16,35 +24,49 @@ import com.neuromancer42.tea.core.analysis.Analysis;
 import com.neuromancer42.tea.core.analysis.ProviderGrpc;
 import com.neuromancer42.tea.core.analysis.Trgt;
 import com.neuromancer42.tea.libdai.DAIDriverFactory;
+import io.grpc.StatusRuntimeException;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class Project {
     private final String ID;
-    private final Map<String, ProgramDom> producedDoms = new HashMap<>();
-    private final Map<String, ProgramRel> producedRels = new HashMap<>();
+    // Note: concurrent maps, as independent analyses may finish simultaneously
+    private final Map<String, ProgramDom> producedDoms = new ConcurrentHashMap<>();
+    private final Map<String, ProgramRel> producedRels = new ConcurrentHashMap<>();
+    // in streaming transfer mode, outputs as located by the providers producing them
+    private final Map<String, Trgt.DomTrgt> remoteDoms = new ConcurrentHashMap<>();
+    private final Map<String, Trgt.RelTrgt> remoteRels = new ConcurrentHashMap<>();
 
     private final Map<String, String> option;
     private final Path workDir;
 
     private final List<String> schedule;
+    private final Map<String, Set<String>> dependencies;
     private final Map<String, Analysis.AnalysisInfo> analysisInfo;
     private final Map<String, ProviderGrpc.ProviderBlockingStub> analysisProvider;
     private final Map<String, String[]> relSign;
     private final Set<String> provableRels;
-    private final Map<String, String> relProducer = new HashMap<>();
+    private final Map<String, String> relProducer = new ConcurrentHashMap<>();
     private final Map<ProviderGrpc.ProviderBlockingStub, Set<String>> observableRels;
 
+    private AnalysisCache resultCache = null;
+    private boolean needProof = true;
+
     public Project(String projId,
                    Map<String, String> option,
                    Path workDir,
                    List<String> schedule,
+                   Map<String, Set<String>> dependencies,
                    Map<String, String[]> relSign,
                    Map<String, Analysis.AnalysisInfo> analysisInfo,
                    Map<String, ProviderGrpc.ProviderBlockingStub> analysisProvider,
@@ -54,6 +76,7 @@ public class Project {
         this.option = option;
         this.workDir = workDir;
         this.schedule = schedule;
+        this.dependencies = dependencies;
         this.relSign = relSign;
         this.analysisInfo = analysisInfo;
         this.analysisProvider = analysisProvider;
@@ -66,15 +89,226 @@ public class Project {
         return workDir;
     }
 
-    public String runAnalysis(String analysis) {
+    /**
+     * Enables reusing results of earlier runs of the same analysis build with identical inputs, possibly from other projects.
+     * A reused run never reaches its provider, which then keeps no instance for this project;
+     * so analyses of observing providers are never reused,
+     * and analyses producing provable rels are reused only if this project needs no proof.
+     */
+    public void setResultCache(AnalysisCache resultCache, boolean needProof) {
+        this.resultCache = resultCache;
+        this.needProof = needProof;
+    }
+
+    /**
+     * Calls the provider of an analysis asynchronously; the results are handled in a gRPC callback thread.
+     */
+    public ListenableFuture<String> runAnalysisAsync(String analysis) {
+        Stopwatch inclusiveTimer = Stopwatch.createStarted();
+        Analysis.RunRequest.Builder inputBuilder = Analysis.RunRequest.newBuilder();
+        String failMsg = buildRunRequest(analysis, inputBuilder);
+        if (failMsg != null) {
+            return Futures.immediateFuture(failMsg);
+        }
+        Analysis.RunRequest request = inputBuilder.build();
+        String cacheKey = computeCacheKey(analysis, request);
+        if (cacheKey != null) {
+            Analysis.RunResults cached = resultCache.lookup(cacheKey, ID);
+            if (cached != null) {
+                return Futures.immediateFuture(handleCachedResults(analysis, cached, inclusiveTimer));
+            }
+        }
+        ProviderGrpc.ProviderFutureStub provider = ProviderGrpc.newFutureStub(analysisProvider.get(analysis).getChannel());
+        return Futures.transform(provider.runAnalysis(withSources(request)),
+                remoteOutput -> {
+                    Analysis.RunResults output = fetchOutputs(analysis, remoteOutput);
+                    if (output == null) {
+                        return Constants.MSG_FAIL + ": failed to fetch outputs of " + analysis;
+                    }
+                    if (cacheKey != null) {
+                        resultCache.store(cacheKey, output);
+                    }
+                    return handleRunResults(analysis, output, inclusiveTimer);
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    private boolean streamTransfer() {
+        return option.getOrDefault(Constants.OPT_TRANSFER, Constants.DEFAULT_TRANSFER).equals(Constants.TRANSFER_STREAM);
+    }
+
+    /**
+     * In streaming transfer mode, marks inputs produced remotely with the providers serving them,
+     * located where the providers saved them.
+     */
+    private Analysis.RunRequest withSources(Analysis.RunRequest request) {
+        if (!streamTransfer()) {
+            return request;
+        }
+        Analysis.RunRequest.Builder builder = request.toBuilder();
+        for (int i = 0; i < builder.getDomInputCount(); ++i) {
+            Trgt.DomTrgt remote = remoteDoms.get(builder.getDomInput(i).getInfo().getName());
+            if (remote != null) {
+                builder.setDomInput(i, remote.toBuilder().setInfo(builder.getDomInput(i).getInfo()));
+            }
+        }
+        for (int i = 0; i < builder.getRelInputCount(); ++i) {
+            Trgt.RelTrgt remote = remoteRels.get(builder.getRelInput(i).getInfo().getName());
+            if (remote != null) {
+                builder.setRelInput(i, remote.toBuilder().setInfo(builder.getRelInput(i).getInfo()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * In streaming transfer mode, pulls outputs not readable locally from the provider producing them,
+     * and remembers the provider as their source for later consumers.
+     *
+     * @return the results located at local copies, or null if fetching fails
+     */
+    private Analysis.RunResults fetchOutputs(String analysis, Analysis.RunResults output) {
+        if (!streamTransfer() || !output.getMsg().startsWith(Constants.MSG_SUCC)) {
+            return output;
+        }
+        ProviderGrpc.ProviderBlockingStub provider = analysisProvider.get(analysis);
+        String source = provider.getChannel().authority();
+        Path fetchDir = workDir.resolve("fetched");
+        Analysis.RunResults.Builder builder = output.toBuilder();
+        try {
+            for (int i = 0; i < builder.getDomOutputCount(); ++i) {
+                Trgt.DomTrgt remote = builder.getDomOutput(i).toBuilder().setSource(source).build();
+                remoteDoms.put(remote.getInfo().getName(), remote);
+                if (!Files.exists(Path.of(remote.getLocation()))) {
+                    builder.setDomOutput(i, TrgtStreams.fetchDom(provider, ID, remote, fetchDir));
+                }
+            }
+            for (int i = 0; i < builder.getRelOutputCount(); ++i) {
+                Trgt.RelTrgt remote = builder.getRelOutput(i).toBuilder().setSource(source).build();
+                remoteRels.put(remote.getInfo().getName(), remote);
+                if (!Files.exists(Path.of(remote.getLocation()))) {
+                    builder.setRelOutput(i, TrgtStreams.fetchRel(provider, ID, remote, fetchDir));
+                }
+            }
+        } catch (IOException | StatusRuntimeException e) {
+            Messages.error("Project %s: failed to fetch outputs of analysis %s from %s: %s", ID, analysis, source, e.getMessage());
+            return null;
+        }
+        return builder.build();
+    }
+
+    private String computeCacheKey(String analysis, Analysis.RunRequest request) {
+        if (resultCache == null) {
+            return null;
+        }
+        if (observableRels.containsKey(analysisProvider.get(analysis))) {
+            return null;
+        }
+        String fingerprint = analysisInfo.get(analysis).getFingerprint();
+        if (fingerprint.isEmpty()) {
+            Messages.debug("Project %s: analysis %s reports no fingerprint, bypassing result cache", ID, analysis);
+            return null;
+        }
+        if (needProof) {
+            for (Trgt.RelInfo relInfo : analysisInfo.get(analysis).getProducingRelList()) {
+                if (provableRels.contains(relInfo.getName())) {
+                    return null;
+                }
+            }
+        }
+        try {
+            return resultCache.computeKey(request, fingerprint);
+        } catch (IOException e) {
+            Messages.warn("Project %s: failed to hash inputs of analysis %s, bypassing result cache: %s", ID, analysis, e.getMessage());
+            return null;
+        }
+    }
+
+    private String handleCachedResults(String analysis, Analysis.RunResults cached, Stopwatch inclusiveTimer) {
+        Messages.log("Project %s: reusing cached results of analysis %s", ID, analysis);
+        String msg = handleRunResults(analysis, cached, inclusiveTimer);
+        return msg == null ? null : msg + " (cached)";
+    }
+
+    /**
+     * Runs all scheduled analyses, dispatching an analysis as soon as the analyses it depends on finish,
+     * with at most maxJobs analyses running at a time.
+     * After a failure, no more analyses are dispatched, but running ones are waited for.
+     *
+     * @param maxJobs maximal number of analyses running concurrently
+     * @param onFinish invoked with the message of each analysis in the calling thread, in the order they finish
+     * @return the first failure message, or null if all analyses succeed
+     */
+    public String runSchedule(int maxJobs, Consumer<String> onFinish) {
+        Map<String, Integer> numPendingDeps = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        Deque<String> ready = new ArrayDeque<>();
+        for (String analysis : schedule) {
+            Set<String> deps = dependencies.getOrDefault(analysis, Set.of());
+            numPendingDeps.put(analysis, deps.size());
+            for (String dep : deps) {
+                dependents.computeIfAbsent(dep, k -> new ArrayList<>()).add(analysis);
+            }
+            if (deps.isEmpty()) {
+                ready.add(analysis);
+            }
+        }
+        BlockingQueue<Map.Entry<String, String>> finished = new LinkedBlockingQueue<>();
+        String failMsg = null;
+        int running = 0;
+        while (true) {
+            while (failMsg == null && running < maxJobs && !ready.isEmpty()) {
+                String analysis = ready.poll();
+                ++running;
+                Futures.addCallback(runAnalysisAsync(analysis), new FutureCallback<>() {
+                    @Override
+                    public void onSuccess(String msg) {
+                        finished.add(Map.entry(analysis, msg != null ? msg : Constants.MSG_FAIL + ": failed to record outputs of " + analysis));
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        Messages.error("Project %s: analysis %s failed: %s", ID, analysis, t.getMessage());
+                        finished.add(Map.entry(analysis, Constants.MSG_FAIL + ": " + analysis + " aborted: " + t.getMessage()));
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+            if (running == 0) {
+                break;
+            }
+            Map.Entry<String, String> result;
+            try {
+                result = finished.take();
+            } catch (InterruptedException e) {
+                Messages.error("Project %s: interrupted when waiting for analyses", ID);
+                Thread.currentThread().interrupt();
+                return Constants.MSG_FAIL + ": interrupted";
+            }
+            --running;
+            String msg = result.getValue();
+            onFinish.accept(msg);
+            if (msg.startsWith(Constants.MSG_FAIL)) {
+                if (failMsg == null) {
+                    failMsg = msg;
+                }
+                continue;
+            }
+            for (String next : dependents.getOrDefault(result.getKey(), List.of())) {
+                if (numPendingDeps.merge(next, -1, Integer::sum) == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        return failMsg;
+    }
+
+    private String buildRunRequest(String analysis, Analysis.RunRequest.Builder inputBuilder) {
         if (!schedule.contains(analysis)) {
             return String.format(Constants.MSG_FAIL + ": NOT-SCHEDULED analysis '%s'", analysis);
         }
         Messages.log("Project %s: started running analysis %s", ID, analysis);
-        Stopwatch inclusiveTimer = Stopwatch.createStarted();
         // 1. build input message
         Analysis.AnalysisInfo info = analysisInfo.get(analysis);
-        Analysis.RunRequest.Builder inputBuilder = Analysis.RunRequest.newBuilder();
         inputBuilder.setProjectId(ID);
         inputBuilder.setOption(Analysis.Configs.newBuilder().putAllProperty(option));
         inputBuilder.setAnalysisName(analysis);
@@ -105,12 +339,11 @@ public class Project {
                     "doms [" + StringUtil.join(lost_doms, ",") + "], " +
                     "rels [" + StringUtil.join(lost_rels, ",") + "]";
         }
-        Analysis.RunRequest input = inputBuilder.build();
-
-        // 2. call analysis
-        Analysis.RunResults output = analysisProvider.get(analysis).runAnalysis(input);
+        return null;
+    }
 
-        // 3. handle results
+    private String handleRunResults(String analysis, Analysis.RunResults output, Stopwatch inclusiveTimer) {
+        Analysis.AnalysisInfo info = analysisInfo.get(analysis);
         for (Trgt.DomTrgt domTrgt : output.getDomOutputList()) {
             String domName = domTrgt.getInfo().getName();
             String domLoc = domTrgt.getLocation();
@@ -171,7 +404,7 @@ public class Project {
         if (rel == null) {
             return 0;
         } else {
-            rel.load();
+            // Note: binary tables are counted from the mapped file without loading
             int size = rel.size();
             rel.close();
             return size;
@@ -192,9 +425,8 @@ public class Project {
             Messages.error("Project %s: rel '%s' is not produced", ID, relName);
             return 0;
         } else {
-            rel.load();
-            Messages.debug("Project %s: rel %s loaded from %s, size: %d", ID, relName, rel.getLocation(), rel.size());
             int size = rel.size();
+            Messages.debug("Project %s: rel %s scanned from %s, size: %d", ID, relName, rel.getLocation(), size);
             for (int[] intTuple : rel.getIntTuples()) {
                 Trgt.Tuple.Builder tupleBuilder = Trgt.Tuple.newBuilder();
                 tupleBuilder.setRelName(rel.getName());
@@ -279,12 +511,23 @@ public class Project {
     private int rank_time = 0;
     private AbstractCausalDriver driver = null;
 
+    private ICausalDriverFactory createDriverFactory() {
+        String engine = option.getOrDefault(Constants.OPT_ENGINE, Constants.DEFAULT_ENGINE);
+        if (engine.equals(BPDriverFactory.NAME)) {
+            return new BPDriverFactory(workDir, option);
+        }
+        if (!engine.equals(Constants.DEFAULT_ENGINE)) {
+            Messages.warn("Project %s: unknown inference engine %s, use %s by default", ID, engine, Constants.DEFAULT_ENGINE);
+        }
+        return new DAIDriverFactory(workDir, option);
+    }
+
     private void prepareRanking(Trgt.Provenance provenance, Function<String, Categorical01> ruleDist, Function<String, Categorical01> inputRelDist, String driverType) {
         CausalGraph cg = ProvenanceUtil.buildCausalGraph(provenance,
                 constr -> ruleDist.apply(constr.getRuleInfo()),
                 input -> inputRelDist.apply(input.getRelName())
         );
-        driver = new DAIDriverFactory(workDir, option).createCausalDriver(driverType, driverType+"-"+cg.getName(), cg);
+        driver = createDriverFactory().createCausalDriver(driverType, driverType+"-"+cg.getName(), cg);
     }
 
     private void prepareRanking(Trgt.Provenance provenance, Function<String, Categorical01> ruleDist, Function<String, Categorical01> inputRelDist, Set<Trgt.Tuple> reservedTuples, String driverType) {
@@ -293,7 +536,7 @@ public class Project {
                 input -> inputRelDist.apply(input.getRelName()),
                 reservedTuples
         );
-        driver = new DAIDriverFactory(workDir, option).createCausalDriver(driverType, driverType+"-"+cg.getName(), cg);
+        driver = createDriverFactory().createCausalDriver(driverType, driverType+"-"+cg.getName(), cg);
     }
 
     public List<Map.Entry<Trgt.Tuple, Double>> priorRanking(Trgt.Provenance provenance,
@@ -388,6 +631,9 @@ public class Project {
                                     .setInfo(Trgt.DomInfo.newBuilder().setName(domName))
                                     .setLocation(producedDoms.get(domName).getLocation())
                                     .build();
+                            if (streamTransfer() && remoteDoms.containsKey(domName)) {
+                                domTrgt = remoteDoms.get(domName).toBuilder().setInfo(domTrgt.getInfo()).build();
+                            }
                             refDoms.put(domName, domTrgt);
                         }
                     }
@@ -444,5 +690,10 @@ public class Project {
             Messages.log("Project %s: release instances in provider: %s", ID, provider.getChannel().toString());
             Analysis.ShutdownResponse shutdownResp = provider.shutdown(Analysis.ShutdownRequest.newBuilder().setProjectId(ID).build());
         }
+        Messages.log("Project %s: %s", ID, BDDFactoryPool.g().getStats());
+        if (resultCache != null) {
+            resultCache.release(ID);
+            Messages.log("Project %s: %s", ID, resultCache.getStats());
+        }
     }
 }
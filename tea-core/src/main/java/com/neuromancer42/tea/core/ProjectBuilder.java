@@ -215,6 +215,49 @@ public class ProjectBuilder {
         return true;
     }
 
+    /**
+     * Builds the dependency DAG of a schedule: an analysis depends on every earlier scheduled analysis
+     * that produces a dom/rel it consumes, consumes a dom/rel it produces, or produces the same dom/rel,
+     * so that running analyses once their dependencies finish keeps the results of running them in order.
+     *
+     * @param schedule analyses in a topological order, as returned by {@link #scheduleProject(List)}
+     * @return map from each scheduled analysis to the analyses it depends on
+     */
+    public synchronized Map<String, Set<String>> scheduleDependencies(List<String> schedule) {
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        for (int i = 0; i < schedule.size(); ++i) {
+            String analysis = schedule.get(i);
+            Set<String> inputs = new HashSet<>();
+            Set<String> outputs = new HashSet<>();
+            collectTargets(analyses.get(analysis), inputs, outputs);
+            Set<String> deps = new LinkedHashSet<>();
+            for (int j = 0; j < i; ++j) {
+                String prev = schedule.get(j);
+                Set<String> prevInputs = new HashSet<>();
+                Set<String> prevOutputs = new HashSet<>();
+                collectTargets(analyses.get(prev), prevInputs, prevOutputs);
+                if (!Collections.disjoint(prevOutputs, inputs)
+                        || !Collections.disjoint(prevInputs, outputs)
+                        || !Collections.disjoint(prevOutputs, outputs)) {
+                    deps.add(prev);
+                }
+            }
+            dependencies.put(analysis, deps);
+        }
+        return dependencies;
+    }
+
+    private static void collectTargets(Analysis.AnalysisInfo info, Set<String> inputs, Set<String> outputs) {
+        for (Trgt.DomInfo dom : info.getConsumingDomList())
+            inputs.add("dom_" + dom.getName());
+        for (Trgt.RelInfo rel : info.getConsumingRelList())
+            inputs.add("rel_" + rel.getName());
+        for (Trgt.DomInfo dom : info.getProducingDomList())
+            outputs.add("dom_" + dom.getName());
+        for (Trgt.RelInfo rel : info.getProducingRelList())
+            outputs.add("rel_" + rel.getName());
+    }
+
     public Project buildProject(String projId, Map<String, String> option, List<String> schedule) {
         Map<String, String[]> relSign = new HashMap<>();
         Map<String, Analysis.AnalysisInfo> analysisInfo = new HashMap<>();
@@ -251,6 +294,7 @@ public class ProjectBuilder {
                 observableRels.computeIfAbsent(observer, p -> new LinkedHashSet<>()).add(relInfo.getName());
             }
         }
-        return new Project(projId, option, path, schedule, relSign, analysisInfo, analysisProvider, provable, observableRels);
+        Map<String, Set<String>> dependencies = scheduleDependencies(schedule);
+        return new Project(projId, option, path, schedule, dependencies, relSign, analysisInfo, analysisProvider, provable, observableRels);
     }
 }
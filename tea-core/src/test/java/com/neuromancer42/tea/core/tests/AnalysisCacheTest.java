@@ -0,0 +1,119 @@
+package com.neuromancer42.tea.core.tests;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.neuromancer42.tea.commons.configs.Constants;
+import com.neuromancer42.tea.core.AnalysisCache;
+import com.neuromancer42.tea.core.analysis.Analysis;
+import com.neuromancer42.tea.core.analysis.Trgt;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class AnalysisCacheTest {
+	private static final Path workdir = Paths.get("test-out").resolve("analysiscache");
+	private static final Path inputDir = workdir.resolve("inputs");
+	private static final Path outputDir = workdir.resolve("outputs");
+
+	@BeforeAll
+	public static void setup() throws IOException {
+		if (Files.exists(workdir)) {
+			MoreFiles.deleteRecursively(workdir, RecursiveDeleteOption.ALLOW_INSECURE);
+		}
+		Files.createDirectories(inputDir);
+		Files.createDirectories(outputDir);
+		Files.write(inputDir.resolve("V.map"), List.of("v1", "v2"));
+		Files.write(inputDir.resolve("VV.csv"), List.of("0\t1"));
+		Files.write(outputDir.resolve("H.map"), List.of("h1"));
+		Files.write(outputDir.resolve("VH.csv"), List.of("1\t0"));
+	}
+
+	private static Analysis.RunRequest request(String projId) {
+		return Analysis.RunRequest.newBuilder()
+				.setProjectId(projId)
+				.setAnalysisName("Phony")
+				.setOption(Analysis.Configs.newBuilder().putProperty("k", "v"))
+				.addDomInput(Trgt.DomTrgt.newBuilder()
+						.setInfo(Trgt.DomInfo.newBuilder().setName("V"))
+						.setLocation(inputDir.toString()))
+				.addRelInput(Trgt.RelTrgt.newBuilder()
+						.setInfo(Trgt.RelInfo.newBuilder().setName("VV"))
+						.setLocation(inputDir.resolve("VV.csv").toString()))
+				.build();
+	}
+
+	private static Analysis.RunResults results() {
+		return Analysis.RunResults.newBuilder()
+				.setMsg(Constants.MSG_SUCC)
+				.addDomOutput(Trgt.DomTrgt.newBuilder()
+						.setInfo(Trgt.DomInfo.newBuilder().setName("H"))
+						.setLocation(outputDir.toString()))
+				.addRelOutput(Trgt.RelTrgt.newBuilder()
+						.setInfo(Trgt.RelInfo.newBuilder().setName("VH"))
+						.setLocation(outputDir.resolve("VH.csv").toString()))
+				.build();
+	}
+
+	@Test
+	@DisplayName("Results are reused across projects with identical inputs")
+	public void hitTest() throws IOException {
+		AnalysisCache cache = new AnalysisCache(workdir.resolve("hit"), 1 << 20);
+		String key = cache.computeKey(request("proj1"), "build1");
+		Assertions.assertEquals(key, cache.computeKey(request("proj2"), "build1"));
+		// results of a rebuilt analysis are not reused
+		Assertions.assertNotEquals(key, cache.computeKey(request("proj2"), "build2"));
+		Assertions.assertNull(cache.lookup(key, "proj1"));
+		cache.store(key, results());
+
+		// entries are restored after restarting
+		AnalysisCache restarted = new AnalysisCache(workdir.resolve("hit"), 1 << 20);
+		Analysis.RunResults cached = restarted.lookup(key, "proj2");
+		Assertions.assertNotNull(cached);
+		Path domLoc = Paths.get(cached.getDomOutput(0).getLocation());
+		Path relLoc = Paths.get(cached.getRelOutput(0).getLocation());
+		Assertions.assertNotEquals(outputDir.toAbsolutePath(), domLoc);
+		Assertions.assertEquals(List.of("h1"), Files.readAllLines(domLoc.resolve("H.map")));
+		Assertions.assertEquals(List.of("1\t0"), Files.readAllLines(relLoc));
+
+		Files.write(inputDir.resolve("VV.csv"), List.of("1\t1"));
+		Assertions.assertNotEquals(key, restarted.computeKey(request("proj1"), "build1"));
+		Files.write(inputDir.resolve("VV.csv"), List.of("0\t1"));
+	}
+
+	@Test
+	@DisplayName("Least recently used entries are evicted over budget")
+	public void evictTest() throws IOException {
+		Path cacheDir = workdir.resolve("evict");
+		AnalysisCache cache = new AnalysisCache(cacheDir, 0);
+		cache.store("first", results());
+		cache.store("second", results());
+		Assertions.assertNull(cache.lookup("first", "proj1"));
+		Assertions.assertFalse(Files.exists(cacheDir.resolve("first")));
+		Assertions.assertNotNull(cache.lookup("second", "proj1"));
+	}
+
+	@Test
+	@DisplayName("Entries read by a live project are not evicted until it releases them")
+	public void pinTest() throws IOException {
+		Path cacheDir = workdir.resolve("pin");
+		AnalysisCache cache = new AnalysisCache(cacheDir, 0);
+		cache.store("first", results());
+		Assertions.assertNotNull(cache.lookup("first", "proj1"));
+		cache.store("second", results());
+		Assertions.assertTrue(Files.exists(cacheDir.resolve("first")));
+		// storing an existing entry again succeeds silently
+		cache.store("first", results());
+		Assertions.assertNotNull(cache.lookup("first", "proj2"));
+		cache.release("proj1");
+		Assertions.assertTrue(Files.exists(cacheDir.resolve("first")));
+		cache.release("proj2");
+		Assertions.assertFalse(Files.exists(cacheDir.resolve("first")));
+	}
+}
@@ -9,6 +9,8 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class ProjectBuilderTest {
@@ -49,5 +51,10 @@ public class ProjectBuilderTest {
 		ProjectBuilder.g().registerProvider(null, providerInfo2);
 		List<String> list2 = ProjectBuilder.g().scheduleProject(List.of("Empty", "ConsumeOne"));
 		Assertions.assertEquals(3, list2.size());
+
+		Map<String, Set<String>> deps = ProjectBuilder.g().scheduleDependencies(list2);
+		Assertions.assertTrue(deps.get("Empty").isEmpty());
+		Assertions.assertTrue(deps.get("ProduceOne").isEmpty());
+		Assertions.assertEquals(Set.of("ProduceOne"), deps.get("ConsumeOne"));
 	}
 }
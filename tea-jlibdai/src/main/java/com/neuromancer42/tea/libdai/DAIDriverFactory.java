@@ -16,6 +16,8 @@ public class DAIDriverFactory implements ICausalDriverFactory {
     private static final String[] algorithms = {IteratingCausalDriver.type, OneShotCausalDriver.type, EMCausalDriver.type};
 
     private final Path workPath;
+    private boolean emIncremental = false;
+    private int emMaxHistory = 100;
 
     public DAIDriverFactory(Path path, Map<String, String> opts) {
         workPath = path;
@@ -28,6 +30,15 @@ public class DAIDriverFactory implements ICausalDriverFactory {
         if (opts.containsKey(Constants.OPT_DAI_TOL)) {
             DAIMetaNetwork.tol = Double.parseDouble(opts.get(Constants.OPT_DAI_TOL));
         }
+        if (opts.containsKey(Constants.OPT_DAI_DUMP)) {
+            DAIMetaNetwork.dumpFactorGraph = Boolean.parseBoolean(opts.get(Constants.OPT_DAI_DUMP));
+        }
+        if (opts.containsKey(Constants.OPT_DAI_EM_INCR)) {
+            emIncremental = Boolean.parseBoolean(opts.get(Constants.OPT_DAI_EM_INCR));
+        }
+        if (opts.containsKey(Constants.OPT_DAI_EM_HISTORY)) {
+            emMaxHistory = Math.max(1, Integer.parseInt(opts.get(Constants.OPT_DAI_EM_HISTORY)));
+        }
     }
 
     @Override
@@ -48,7 +59,7 @@ public class DAIDriverFactory implements ICausalDriverFactory {
             case OneShotCausalDriver.type:
                 return new OneShotCausalDriver(driverName, driverPath, causalGraph);
             case EMCausalDriver.type:
-                return new EMCausalDriver(driverName, driverPath, causalGraph);
+                return new EMCausalDriver(driverName, driverPath, causalGraph, emIncremental, emMaxHistory);
             default:
                 Messages.error("DAIDriverFactory: unknown driver type, use iterating driver by default");
                 return new IteratingCausalDriver(driverName, driverPath, causalGraph);
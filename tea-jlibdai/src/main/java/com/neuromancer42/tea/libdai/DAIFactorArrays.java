@@ -0,0 +1,258 @@
+package com.neuromancer42.tea.libdai;
+
+import com.neuromancer42.tea.commons.inference.Categorical01;
+import com.neuromancer42.tea.commons.inference.CausalGraph;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Factor definitions of a libDAI factor graph in primitive arrays.
+ * <p>
+ * Each factor is either a sparse table over its variables, or, in a causal factor graph, a constant, sum or
+ * product node. Factors of distributions come first, so that a graph is built once per causal graph and only
+ * their tables are refreshed when priors get updated; the text format read by libDAI is produced from the
+ * arrays only when loading.
+ */
+final class DAIFactorArrays {
+    private static final byte TABLE = 0;
+    private static final byte CONST = 1;
+    private static final byte SUM = 2;
+    private static final byte PROD = 3;
+
+    private final boolean bayes;
+    private final boolean causal;
+    private int subSize;
+
+    private int numFactors = 0;
+    private byte[] kinds = new byte[16];
+    // variables of each factor, the head comes first in causal factors
+    private int[] varStarts = new int[17];
+    private int[] vars = new int[64];
+    private int[] cards = new int[64];
+    // sparse table entries of each factor, or the single value of a constant
+    private int[] entryStarts = new int[17];
+    private long[] entryIndices = new long[64];
+    private double[] entryValues = new double[64];
+    private int numVars = 0;
+    private int numEntries = 0;
+
+    DAIFactorArrays(boolean bayes, boolean causal) {
+        this.bayes = bayes;
+        this.causal = causal;
+    }
+
+    boolean isCausal() {
+        return causal;
+    }
+
+    int factorSize() {
+        return numFactors;
+    }
+
+    int getSubSize() {
+        return subSize;
+    }
+
+    void setSubSize(int subSize) {
+        this.subSize = subSize;
+    }
+
+    /**
+     * Refreshes tables of distributions from current priors, the structure is kept.
+     */
+    void updateDistFactors(CausalGraph causalGraph) {
+        for (int distId = 0; distId < causalGraph.distSize(); ++distId) {
+            Categorical01 distNode = causalGraph.getAllDistNodes().get(distId);
+            int start = entryStarts[distId];
+            if (bayes) {
+                double[] probs = distNode.getProbabilitis();
+                System.arraycopy(probs, 0, entryValues, start, probs.length);
+            } else if (causal) {
+                entryValues[start] = distNode.estimation();
+            } else {
+                double e = distNode.estimation();
+                entryValues[start] = 1 - e;
+                entryValues[start + 1] = e;
+            }
+        }
+    }
+
+    void addConstantFactor(int singletonId, int dim, long value) {
+        if (causal) {
+            beginFactor(CONST);
+            addVar(singletonId, 2);
+            addEntry(0, 1);
+        } else {
+            beginFactor(TABLE);
+            addVar(singletonId, dim);
+            addEntry(value, 1);
+        }
+        endFactor();
+    }
+
+    void addSingletonFactor(int distId, double prob) {
+        if (causal) {
+            beginFactor(CONST);
+            addVar(distId, 2);
+            addEntry(0, prob);
+        } else {
+            beginFactor(TABLE);
+            addVar(distId, 2);
+            addEntry(0, 1 - prob);
+            addEntry(1, prob);
+        }
+        endFactor();
+    }
+
+    void addCategoricalFactor(int distId, double[] weights) {
+        beginFactor(TABLE);
+        addVar(distId, weights.length);
+        for (int i = 0; i < weights.length; i++) {
+            addEntry(i, weights[i]);
+        }
+        endFactor();
+    }
+
+    void addBernoulliFactor(int latentId, int distId, double[] params) {
+        beginFactor(TABLE);
+        addVar(latentId, 2);
+        addVar(distId, params.length);
+        for (int j = 0; j < params.length; j++) {
+            double trueProb = params[j];
+            double falseProb = 1 - trueProb;
+            if (falseProb > 0)
+                addEntry((long) j * 2, falseProb);
+            if (trueProb > 0)
+                addEntry((long) j * 2 + 1, trueProb);
+        }
+        endFactor();
+    }
+
+    void addSumFactor(int head, List<Integer> body, Integer control) {
+        addClauseFactor(SUM, head, body, control);
+    }
+
+    void addProdFactor(int head, List<Integer> body, Integer control) {
+        addClauseFactor(PROD, head, body, control);
+    }
+
+    private void addClauseFactor(byte op, int head, List<Integer> body, Integer control) {
+        beginFactor(causal ? op : TABLE);
+        addVar(head, 2);
+        if (control != null) {
+            addVar(control, 2);
+        }
+        for (int b : body) {
+            addVar(b, 2);
+        }
+        if (!causal) {
+            // the head is the lowest digit, followed by the control and then the bodies
+            long allRep = (1L << body.size()) - 1;
+            for (long subRep = 0; subRep <= allRep; subRep++) {
+                int result = (op == SUM ? subRep != 0 : subRep == allRep) ? 1 : 0;
+                if (control == null) {
+                    addEntry(subRep * 2 + result, 1);
+                } else {
+                    long blockRep = subRep * 2 * 2;
+                    addEntry(blockRep, 1);
+                    addEntry(blockRep + 2 + result, 1);
+                }
+            }
+        }
+        endFactor();
+    }
+
+    private void beginFactor(byte kind) {
+        if (numFactors + 1 >= varStarts.length) {
+            int cap = varStarts.length * 2;
+            kinds = Arrays.copyOf(kinds, cap);
+            varStarts = Arrays.copyOf(varStarts, cap);
+            entryStarts = Arrays.copyOf(entryStarts, cap);
+        }
+        kinds[numFactors] = kind;
+    }
+
+    private void endFactor() {
+        ++numFactors;
+        varStarts[numFactors] = numVars;
+        entryStarts[numFactors] = numEntries;
+    }
+
+    private void addVar(int var, int card) {
+        if (numVars == vars.length) {
+            vars = Arrays.copyOf(vars, numVars * 2);
+            cards = Arrays.copyOf(cards, numVars * 2);
+        }
+        vars[numVars] = var;
+        cards[numVars] = card;
+        ++numVars;
+    }
+
+    private void addEntry(long index, double value) {
+        if (numEntries == entryIndices.length) {
+            entryIndices = Arrays.copyOf(entryIndices, numEntries * 2);
+            entryValues = Arrays.copyOf(entryValues, numEntries * 2);
+        }
+        entryIndices[numEntries] = index;
+        entryValues[numEntries] = value;
+        ++numEntries;
+    }
+
+    /**
+     * Writes factors in the .fg format of libDAI, or the causal format of its fork when built as causal.
+     */
+    void writeTo(PrintWriter pw) {
+        pw.println(numFactors);
+        for (int f = 0; f < numFactors; ++f) {
+            pw.println();
+            int vStart = varStarts[f];
+            int vEnd = varStarts[f + 1];
+            switch (kinds[f]) {
+                case CONST -> {
+                    pw.println(vars[vStart]);
+                    pw.println('I');
+                    pw.println(formatValue(entryValues[entryStarts[f]]));
+                }
+                case SUM, PROD -> {
+                    pw.println(vars[vStart]);
+                    pw.println(kinds[f] == SUM ? '+' : '*');
+                    pw.println(vEnd - vStart - 1);
+                    for (int i = vStart + 1; i < vEnd; ++i) {
+                        if (i > vStart + 1)
+                            pw.print(' ');
+                        pw.print(vars[i]);
+                    }
+                    pw.println();
+                }
+                default -> {
+                    pw.println(vEnd - vStart);
+                    for (int i = vStart; i < vEnd; ++i) {
+                        if (i > vStart)
+                            pw.print(' ');
+                        pw.print(vars[i]);
+                    }
+                    pw.println();
+                    for (int i = vStart; i < vEnd; ++i) {
+                        if (i > vStart)
+                            pw.print(' ');
+                        pw.print(cards[i]);
+                    }
+                    pw.println();
+                    pw.println(entryStarts[f + 1] - entryStarts[f]);
+                    for (int i = entryStarts[f]; i < entryStarts[f + 1]; ++i) {
+                        pw.print(Long.toUnsignedString(entryIndices[i]));
+                        pw.print(' ');
+                        pw.println(formatValue(entryValues[i]));
+                    }
+                }
+            }
+        }
+        pw.flush();
+    }
+
+    private static String formatValue(double value) {
+        return value == 1 ? "1" : Double.toString(value);
+    }
+}
@@ -31,18 +31,39 @@ public class DAIMetaNetwork {
     public static int maxiter = 10000;
     public static int maxtime = 3600;
     public static double tol = 1e-6;
+    // keeps factor graph files in the working directory for debugging
+    public static boolean dumpFactorGraph = false;
 
     public static DAIMetaNetwork createDAIMetaNetwork(Path dumpDir, String name, CausalGraph causalGraph, int numRepeats, boolean bayes, boolean causal) {
-        Path fgFilePath = dumpDir.resolve(name+ (causal ? ".causal_fg" : ".fg"));
-        int subSize = causalGraph.nodeSize();
-        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(fgFilePath, StandardCharsets.UTF_8))){
-            subSize = DAIRuntime.dumpRepeatedFactorGraph(pw, causalGraph, numRepeats, bayes, causal);
+        DAIFactorArrays factors = DAIRuntime.buildRepeatedFactorGraph(causalGraph, numRepeats, bayes, causal);
+        return createDAIMetaNetwork(dumpDir, name, causalGraph, factors, numRepeats);
+    }
+
+    static DAIMetaNetwork createDAIMetaNetwork(Path dumpDir, String name, CausalGraph causalGraph, DAIFactorArrays factors, int numRepeats) {
+        String suffix = factors.isCausal() ? ".causal_fg" : ".fg";
+        Path fgFilePath = null;
+        try {
+            // the native factor graph is loaded from a file, which is only a transient handover unless debugging
+            fgFilePath = dumpFactorGraph ? dumpDir.resolve(name + suffix) : Files.createTempFile(dumpDir, name, suffix);
+            try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(fgFilePath, StandardCharsets.UTF_8))) {
+                factors.writeTo(pw);
+            }
             Messages.debug("DAIFactorGraph: dumping factor graph to path " + fgFilePath);
         } catch (IOException e) {
             Messages.error("DAIFacetorGraph: failed to dump factor graph.");
             Messages.fatal(e);
         }
-        return new DAIMetaNetwork(fgFilePath, causalGraph, numRepeats, subSize);
+        try {
+            return new DAIMetaNetwork(fgFilePath, causalGraph, numRepeats, factors.getSubSize());
+        } finally {
+            if (!dumpFactorGraph) {
+                try {
+                    Files.deleteIfExists(fgFilePath);
+                } catch (IOException e) {
+                    Messages.warn("DAIFactorGraph: failed to delete loaded factor graph %s: %s", fgFilePath, e.getMessage());
+                }
+            }
+        }
     }
 
     private DAIMetaNetwork(Path fgFilePath, CausalGraph causalGraph, int numRepeats, int subSize) {
@@ -121,6 +142,18 @@ public class DAIMetaNetwork {
         if (activated) {
             Messages.warn("DAIFactorGraph: learning has been activated before, are you sure to run it again?");
         }
+        doRunEM(dumpDir, name, obsHistory);
+    }
+
+    /**
+     * Re-runs EM on the evidence, starting from the parameters learnt in previous runs on this network.
+     */
+    public void continueEM(Path dumpDir, String name, List<Map<Object, Boolean>> obsHistory) {
+        Messages.log("DAIFactorGraph: warm-starting EM with %d observations", obsHistory.size());
+        doRunEM(dumpDir, name, obsHistory);
+    }
+
+    private void doRunEM(Path dumpDir, String name, List<Map<Object, Boolean>> obsHistory) {
         // 1. dump evidence file
         Path tabFilePath = dumpDir.resolve(name + ".tab");
         Messages.log("DAIFactorGraph: dumping evidence to %s", tabFilePath.toAbsolutePath().toString());
@@ -85,6 +85,13 @@ public class DAIRuntime {
     }
 
     public static int dumpRepeatedFactorGraph(PrintWriter pw, CausalGraph causalGraph, int numRepeats, boolean bayes, boolean causal) throws IOException {
+        DAIFactorArrays factors = buildRepeatedFactorGraph(causalGraph, numRepeats, bayes, causal);
+        factors.writeTo(pw);
+        pw.close();
+        return factors.getSubSize();
+    }
+
+    static DAIFactorArrays buildRepeatedFactorGraph(CausalGraph causalGraph, int numRepeats, boolean bayes, boolean causal) {
         assert (clauseLimit > 1);
         Messages.debug("DAIRuntime: current clause limit %d", clauseLimit);
 
@@ -134,16 +141,15 @@ public class DAIRuntime {
 
         final int subSize = (bayes ? latentMap.size() : 0) + causalGraph.nodeSize() + numPhony;
         int numFactors = causalGraph.distSize() + subSize * (numRepeats + 1);
-        pw.println(numFactors);
-        pw.flush();
+        DAIFactorArrays factors = new DAIFactorArrays(bayes, causal);
+        factors.setSubSize(subSize);
         // each distnode has a factor block
         for (int distId = 0; distId < causalGraph.getAllDistNodes().size(); distId++) {
             Categorical01 distNode = causalGraph.getAllDistNodes().get(distId);
 //            fw.println("# DistNode " + i + " " + distNode.toString())
-            pw.println();
             if (bayes) {
                 double[] probs = distNode.getProbabilitis();
-                dumpCategoricalFactor(pw, distId, probs);
+                factors.addCategoricalFactor(distId, probs);
             } else {
                 // if using EM, only a (0,1)-factor is needed
 //                double e = distNode.estimation();
@@ -152,26 +158,24 @@ public class DAIRuntime {
 //                if (e > 1 - Categorical01.epsilon)
 //                    e = 1 - Categorical01.epsilon;
                 double e = distNode.estimation();
-                dumpSingletonFactor(pw, distId, e, causal);
+                factors.addSingletonFactor(distId, e);
             }
         }
 
         int offset = causalGraph.distSize();
 
-        offset = dumpSubFactorGraph(pw, causalGraph, latentMap, offset, bayes, causal);
+        offset = buildSubFactorGraph(factors, causalGraph, latentMap, offset, bayes, causal);
 
         for (int r = 0; r < numRepeats; r++) {
-            offset = dumpSubFactorGraph(pw, causalGraph, latentMap, offset, bayes, causal);
+            offset = buildSubFactorGraph(factors, causalGraph, latentMap, offset, bayes, causal);
         }
-        assert offset == numFactors;
+        assert offset == numFactors && factors.factorSize() == numFactors;
 
-        pw.flush();
-        pw.close();
         Messages.debug("DAIRuntime: FactorGraph consisting of "+ causalGraph.distSize() + " dist nodes, (1+" + numRepeats + ")x(" + (bayes ? (latentMap.size() + " latent nodes, ") : "") + causalGraph.nodeSize() + " nodes and " + numPhony + " phony nodes)." );
-        return subSize;
+        return factors;
     }
 
-    private static int dumpSubFactorGraph(PrintWriter pw, CausalGraph causalGraph, IndexMap<Integer> latentMap, int offset, boolean bayes, boolean causal) {
+    private static int buildSubFactorGraph(DAIFactorArrays factors, CausalGraph causalGraph, IndexMap<Integer> latentMap, int offset, boolean bayes, boolean causal) {
         int offsetNodes = offset;
         // if using bayesian learning, a latent variable is needed to bridge between parameters and clauses
         // if using em-learning or inference-only, clauses are directly connected to parameters;
@@ -183,8 +187,7 @@ public class DAIRuntime {
                 Integer distId = causalGraph.getNodesDistId(nodeId);
                 assert (distId != null);
                 Categorical01 dist = causalGraph.getAllDistNodes().get(distId);
-                pw.println();
-                dumpBernoulliFactor(pw, latentId, distId, dist.getSupports());
+                factors.addBernoulliFactor(latentId, distId, dist.getSupports());
             }
         }
 
@@ -211,8 +214,7 @@ public class DAIRuntime {
                         Integer phonyHead = phonyId++;
                         List<Integer> phonyBody = sumBody.subList(phonyBodyStart, phonyBodyEnd);
                         Messages.debug("CausalGraph: Create sum phony node " + phonyHead);
-                        pw.println();
-                        dumpSumFactor(pw, phonyHead, phonyBody, causal);
+                        factors.addSumFactor(phonyHead, phonyBody, null);
                         phonyHeads.add(phonyHead);
                     }
                 }
@@ -220,11 +222,9 @@ public class DAIRuntime {
             }
             int latentId = latentMap.indexOf(headId);
             if (latentId < 0) {
-                pw.println();
-                dumpSumFactor(pw, sumHead, sumBody, causal);
+                factors.addSumFactor(sumHead, sumBody, null);
             } else {
-                pw.println();
-                dumpSumFactor(pw, sumHead, sumBody, bayes ? (offsetLatent + latentId) : causalGraph.getNodesDistId(headId), causal);
+                factors.addSumFactor(sumHead, sumBody, bayes ? (offsetLatent + latentId) : causalGraph.getNodesDistId(headId));
             }
         }
         for (var prodIter = causalGraph.getProdIter(); prodIter.hasNext();) {
@@ -248,8 +248,7 @@ public class DAIRuntime {
                         Integer phonyHead = phonyId++;
                         List<Integer> phonyBody = prodBody.subList(phonyBodyStart, phonyBodyEnd);
                         Messages.debug("CausalGraph: Create prod phony node " + phonyHead);
-                        pw.println();
-                        dumpProdFactor(pw, phonyHead, phonyBody, causal);
+                        factors.addProdFactor(phonyHead, phonyBody, null);
                         phonyHeads.add(phonyHead);
                     }
                 }
@@ -257,11 +256,9 @@ public class DAIRuntime {
             }
             int latentId = latentMap.indexOf(headId);
             if (latentId < 0) {
-                pw.println();
-                dumpProdFactor(pw, prodHead, prodBody, causal);
+                factors.addProdFactor(prodHead, prodBody, null);
             } else {
-                pw.println();
-                dumpProdFactor(pw, prodHead, prodBody, bayes ? (offsetLatent + latentId) : causalGraph.getNodesDistId(headId), causal);
+                factors.addProdFactor(prodHead, prodBody, bayes ? (offsetLatent + latentId) : causalGraph.getNodesDistId(headId));
             }
         }
         // singleton nodes are directly linked to distNodes
@@ -270,248 +267,21 @@ public class DAIRuntime {
             int singletonId = offsetNodes + nodeId;
             Integer distId = causalGraph.getNodesDistId(nodeId);
             if (distId != null) {
-                pw.println();
                 if (bayes) {
                     Categorical01 dist = causalGraph.getAllDistNodes().get(distId);
-                    dumpBernoulliFactor(pw, singletonId, distId, dist.getSupports());
+                    factors.addBernoulliFactor(singletonId, distId, dist.getSupports());
                 } else {
                     // if no bayesian is needed, singleton node is directly connected to parameter
-                    dumpProdFactor(pw, singletonId, List.of(), distId, causal);
+                    factors.addProdFactor(singletonId, List.of(), distId);
                 }
             } else {
-                pw.println();
-                dumpConstantFactor(pw, singletonId, 2, 1, causal);
+                factors.addConstantFactor(singletonId, 2, 1);
             }
         }
 
         return phonyId;
     }
 
-    private static void dumpConstantFactor(PrintWriter pw, int singletonId, long dim, long value, boolean causal) {
-        if (causal) {
-            pw.println(singletonId);
-            pw.println('I');
-            pw.println(1);
-        } else {
-            pw.println(1);
-            pw.println(singletonId);
-            pw.println(dim);
-            pw.println(1);
-            pw.println(value + " " + 1);
-        }
-        pw.flush();
-    }
-
-    private static void dumpSingletonFactor(PrintWriter pw, int distId, double prob, boolean causal) {
-        if (causal) {
-            pw.println(distId);
-            pw.println('I');
-            pw.println(prob);
-        } else {
-            pw.println(1);// variable numbers
-            pw.println(distId); // variable IDs
-            int cardinality = 2;
-            pw.println(cardinality); // cardinalities
-            pw.println(cardinality); // number of non-zero entries
-            pw.print(0); pw.print(" "); pw.println(1-prob);
-            pw.print(1); pw.print(" "); pw.println(prob);
-        }
-        pw.flush();
-    }
-
-    private static void dumpCategoricalFactor(PrintWriter pw, int distId, double[] weights) {
-        pw.println(1);// variable numbers
-        pw.println(distId); // variable IDs
-        int cardinality = weights.length;
-        pw.println(cardinality); // cardinalities
-        pw.println(cardinality); // number of non-zero entries
-        for (int i = 0; i < cardinality; i++) {
-            pw.print(i);
-            pw.print(" ");
-            pw.println(weights[i]);
-        }
-        pw.flush();
-    }
-
-    private static void dumpBernoulliFactor(PrintWriter pw, int latentId, Integer distId, double[] params) {
-        pw.println(2);
-        pw.println(latentId + " " + distId);
-        pw.println(2 + " " + params.length);
-        List<String> entries = new ArrayList<>();
-        for (int j = 0; j < params.length; j++) {
-            long falseRep = (long) j * 2;
-            long trueRep = (long) j * 2 + 1;
-            double trueProb = params[j];
-            double falseProb = 1 - trueProb;
-            if (falseProb > 0)
-                entries.add(falseRep + " " + falseProb);
-            if (trueProb > 0)
-                entries.add(trueRep + " " + trueProb);
-        }
-        pw.println(entries.size());
-        for (String e : entries)
-            pw.println(e);
-        pw.flush();
-    }
-
-    private static void dumpSumFactor(PrintWriter pw, Integer head, List<Integer> body, boolean causal) {
-        if (causal) {
-            pw.println(head);
-            pw.println('+');
-            pw.println(body.size());
-            boolean first = true;
-            for (Integer b : body) {
-                if (first) first = false;
-                else pw.print(' ');
-                pw.print(b);
-            }
-            pw.println();
-            pw.flush();
-            return;
-        }
-        dumpClauseVariables(pw, head, body);
-        long allRep = (1L << body.size()) - 1;
-        pw.println(allRep + 1);
-        long noneRep = 0;
-        dumpClauseWithoutControl(pw, noneRep, 0);
-        for (long subRep = 1; subRep <= allRep; subRep++) {
-            dumpClauseWithoutControl(pw, subRep, 1);
-        }
-        pw.flush();
-    }
-
-    private static void dumpSumFactor(PrintWriter pw, Integer head, List<Integer> body, Integer control, boolean causal) {
-        if (control == null) {
-            dumpSumFactor(pw, head, body, causal);
-            return;
-        }
-        if (causal) {
-            pw.println(head);
-            pw.println('+');
-            pw.println(1+body.size());
-            pw.print(control);
-            for (Integer b : body) {
-                pw.print(' ');
-                pw.print(b);
-            }
-            pw.println();
-            pw.flush();
-            return;
-        }
-        dumpClauseVariables(pw, head, body, control);
-        long allRep = (1L << body.size()) - 1;
-        pw.println((allRep + 1) * 2);
-        long noneRep = 0;
-        dumpClauseWithControl(pw, noneRep, 0);
-        for (long subRep = 1; subRep <= allRep; subRep++) {
-            dumpClauseWithControl(pw, subRep, 1);
-        }
-        pw.flush();
-    }
-
-    private static void dumpProdFactor(PrintWriter pw, Integer head, List<Integer> body, boolean causal) {
-        if (causal) {
-            pw.println(head);
-            pw.println('*');
-            pw.println(body.size());
-            boolean first = true;
-            for (Integer b : body) {
-                if (first) first = false;
-                else pw.print(' ');
-                pw.print(b);
-            }
-            pw.println();
-            pw.flush();
-            return;
-        }
-        dumpClauseVariables(pw, head, body);
-        long allRep = (1L << body.size()) - 1;
-        pw.println(allRep + 1);
-        long noneRep = 0;
-        for (long subRep = noneRep; subRep < allRep; subRep++) {
-            dumpClauseWithoutControl(pw, subRep, 0);
-        }
-        dumpClauseWithoutControl(pw, allRep, 1);
-        pw.flush();
-    }
-
-    private static void dumpProdFactor(PrintWriter pw, Integer head, List<Integer> body, Integer control, boolean causal) {
-        if (control == null) {
-            dumpProdFactor(pw, head, body, causal);
-            return;
-        }
-        if (causal) {
-            pw.println(head);
-            pw.println('*');
-            pw.println(1+body.size());
-            pw.print(control);
-            for (Integer b : body) {
-                pw.print(' ');
-                pw.print(b);
-            }
-            pw.println();
-            pw.flush();
-            return;
-        }
-        dumpClauseVariables(pw, head, body, control);
-        long allRep = (1L << body.size()) - 1;
-        pw.println((allRep + 1) * 2);
-        long noneRep = 0;
-        for (long subRep = noneRep; subRep < allRep; subRep++) {
-            dumpClauseWithControl(pw, subRep, 0);
-        }
-        dumpClauseWithControl(pw, allRep, 1);
-        pw.flush();
-    }
-
-    private static void dumpClauseVariables(PrintWriter pw, Integer head, List<Integer> body) {
-        pw.println(body.size() + 1);
-        pw.print(head);
-        for (int sub : body) {
-            pw.print(" ");
-            pw.print(sub);
-        }
-        pw.println();
-        pw.print(2);
-        for (int j = 0; j < body.size(); j++) {
-            pw.print(" ");
-            pw.print(2);
-        }
-        pw.println();
-    }
-
-    private static void dumpClauseVariables(PrintWriter pw, Integer head, List<Integer> body, Integer control) {
-        pw.println(body.size() + 2);
-        pw.print(head);
-        pw.print(" ");
-        pw.print(control);
-        for (int sub : body) {
-            pw.print(" ");
-            pw.print(sub);
-        }
-        pw.println();
-        pw.print(2);
-        pw.print(" ");
-        pw.print(2);
-        for (int j = 0; j < body.size(); j++) {
-            pw.print(" ");
-            pw.print(2);
-        }
-        pw.println();
-    }
-
-    private static void dumpClauseWithoutControl(PrintWriter pw, long condRep, int result) {
-        long rep = condRep * 2 + result;
-        pw.println(Long.toUnsignedString(rep) + " " + 1);
-    }
-
-    private static void dumpClauseWithControl(PrintWriter pw, long condRep, int result) {
-        long blockRep = condRep * 2 * 2;
-        long passRep = blockRep + 2 + result;
-        pw.println(Long.toUnsignedString(blockRep) + " " + 1);
-        pw.println(Long.toUnsignedString(passRep) + " " + 1);
-    }
-
     public long getNumThreads() {
         return num_jobs;
     }
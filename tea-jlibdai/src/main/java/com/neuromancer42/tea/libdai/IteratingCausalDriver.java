@@ -15,6 +15,8 @@ public class IteratingCausalDriver extends AbstractCausalDriver {
     public static final String type = "iterating";
 
     private DAIMetaNetwork metaNetwork;
+    // structure is fixed, only priors are refreshed before each round
+    private DAIFactorArrays factors;
     private boolean updated;
     private int updateCnt;
 
@@ -87,7 +89,12 @@ public class IteratingCausalDriver extends AbstractCausalDriver {
                 metaNetwork.release();
                 metaNetwork = null;
             }
-            metaNetwork = DAIMetaNetwork.createDAIMetaNetwork(workDir, String.format("%03d.post", updateCnt), causalGraph, 0, true, false);
+            if (factors == null) {
+                factors = DAIRuntime.buildRepeatedFactorGraph(causalGraph, 0, true, false);
+            } else {
+                factors.updateDistFactors(causalGraph);
+            }
+            metaNetwork = DAIMetaNetwork.createDAIMetaNetwork(workDir, String.format("%03d.post", updateCnt), causalGraph, factors, 0);
             updated = true;
         }
     }
@@ -2,8 +2,12 @@ package com.neuromancer42.tea.libdai.tests;
 
 import com.neuromancer42.tea.commons.inference.Categorical01;
 import com.neuromancer42.tea.commons.inference.CausalGraph;
+import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
+import com.neuromancer42.tea.commons.inference.AbstractCausalDriver;
+import com.neuromancer42.tea.libdai.DAIDriverFactory;
 import com.neuromancer42.tea.libdai.DAIRuntime;
+import com.neuromancer42.tea.libdai.EMCausalDriver;
 import com.neuromancer42.tea.libdai.IteratingCausalDriver;
 import org.junit.jupiter.api.*;
 
@@ -107,4 +111,31 @@ public class FactorGraphTest {
         Messages.log("Predict: \tboth - " + p_both1 + "\teither - " + p_either1);
         Assertions.assertTrue(p_both1 > p_both0 && p_either1 > p_either0);
     }
+
+    @Test
+    @Order(4)
+    @DisplayName("Incremental EM agrees with EM over the whole history")
+    public void incrementalEMTest() {
+        causalGraph.resetStochNodes();
+        causalGraph.setStochNode("Coin1", new Categorical01(unknownCoin));
+        causalGraph.setStochNode("Coin2", new Categorical01(unknownCoin));
+        AbstractCausalDriver full = new DAIDriverFactory(workPath.resolve("em-full"), Map.of())
+                .createCausalDriver(EMCausalDriver.type, "coin_em", causalGraph);
+        AbstractCausalDriver incremental = new DAIDriverFactory(workPath.resolve("em-incr"), Map.of(Constants.OPT_DAI_EM_INCR, "true"))
+                .createCausalDriver(EMCausalDriver.type, "coin_em", causalGraph);
+        List<Object> queries = List.of("And", "Or");
+        for (int i = 0; i < 4; ++i) {
+            Map<Object, Boolean> obs = new HashMap<>();
+            obs.put("And", i % 2 == 0); obs.put("Or", true);
+            full.appendObservations(List.of(obs));
+            incremental.appendObservations(List.of(obs));
+            // the incremental driver resumes from the parameters learnt in the previous round
+            Map<Object, Double> fullPreds = full.queryPossibilities(queries);
+            Map<Object, Double> incrPreds = incremental.queryPossibilities(queries);
+            Messages.log("Round %d: \tfull - %s\tincremental - %s", i, fullPreds, incrPreds);
+            for (Object query : queries) {
+                Assertions.assertEquals(fullPreds.get(query), incrPreds.get(query), 0.05, query.toString());
+            }
+        }
+    }
 }
@@ -3,6 +3,9 @@ package com.neuromancer42.tea.jsouffle;
 import com.google.protobuf.TextFormat;
 import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
 import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import com.neuromancer42.tea.commons.bddbddb.RelFile;
+import com.neuromancer42.tea.commons.bddbddb.RelSign;
+import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.core.analysis.Trgt;
 import com.neuromancer42.tea.jsouffle.swig.SWIGSouffleProgram;
@@ -15,21 +18,27 @@ import java.util.*;
 import java.util.stream.Stream;
 
 public final class SouffleAnalysis {
+    // facts and text outputs of souffle are dumped only for debugging
+    private static final boolean dumpText = System.getenv(Constants.ENV_DEBUG) != null;
+
     private final String name;
-    private final SWIGSouffleProgram souffleProgram;
-    private final SWIGSouffleProgram proverProgram;
+    private final SouffleProgramPool programPool;
+    private final SouffleProgramPool proverPool;
 
     private final String analysis; // field for debug; different analysis instance may refer to the same analysis program
+    private final String fingerprint;
 
     private final Set<String> domNames;
     private final List<String> inputRelNames;
     private final List<String> outputRelNames;
     private final Map<String, String[]> relSignMap;
 
-    SouffleAnalysis(String name, String analysis, SWIGSouffleProgram program, SWIGSouffleProgram provProgram) {
+    SouffleAnalysis(String name, String analysis, String fingerprint, SouffleProgramPool programPool, SouffleProgramPool proverPool) {
         this.name = name;
         this.analysis = analysis;
-        souffleProgram = program;
+        this.fingerprint = fingerprint;
+        this.programPool = programPool;
+        SWIGSouffleProgram souffleProgram = programPool.getMetadataProgram();
         inputRelNames = new ArrayList<>();
         inputRelNames.addAll(souffleProgram.getInputRelNames());
         outputRelNames = new ArrayList<>();
@@ -54,13 +63,17 @@ public final class SouffleAnalysis {
             }
             relSignMap.put(relName, relAttrs);
         }
-        proverProgram = provProgram;
+        this.proverPool = proverPool;
     }
 
     public String getName() {
         return name;
     }
 
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
     public String[] getAllDomKinds() {
         return domNames.toArray(new String[0]);
     }
@@ -85,7 +98,7 @@ public final class SouffleAnalysis {
         Path factDir = Files.createDirectories(workPath.resolve("fact"));
         Path outDir = Files.createDirectories(workPath.resolve("out"));
         Path proofDir;
-        if (proverProgram != null) {
+        if (proverPool != null) {
             proofDir = Files.createDirectories(workPath.resolve("provenance"));
         } else {
             proofDir = null;
@@ -125,6 +138,8 @@ public final class SouffleAnalysis {
         }
 
         private final Map<String, ProgramDom> doms = new LinkedHashMap<>();
+        // flattened 0-based domain indices of input rels, tuple after tuple
+        private final Map<String, int[]> inputTuples = new LinkedHashMap<>();
         private final Map<String, ProgramRel> producedRels = new LinkedHashMap<>();
 
         public Collection<ProgramRel> run(Map<String, ProgramDom> domMap, Map<String, ProgramRel> inputRelMap) {
@@ -132,7 +147,7 @@ public final class SouffleAnalysis {
                 doms.put(domName, domMap.get(domName));
             }
             for (String relName : inputRelNames) {
-                dumpFactsFromRel(relName, inputRelMap.get(relName));
+                collectInputTuples(relName, inputRelMap.get(relName));
             }
             activate();
 //            close();
@@ -149,12 +164,19 @@ public final class SouffleAnalysis {
 //            if (souffleProgram == null) {
 //                Messages.fatal("SouffleAnalysis %s: souffle analysis has been closed", name);
 //            }
-            synchronized (souffleProgram) {
+            // Note: a native program is used exclusively from loading inputs to purging
+            SWIGSouffleProgram souffleProgram = programPool.checkout();
+            try {
                 Messages.log("SouffleAnalysis %s: run in %d jobs", name, souffleProgram.getMaxJobs());
-                souffleProgram.loadAll(factDir.toString());
+                loadInputs(souffleProgram);
                 souffleProgram.run();
-                souffleProgram.printAll(outDir.toString());
+                printOutputs(souffleProgram);
+                if (dumpText) {
+                    souffleProgram.printAll(outDir.toString());
+                }
                 souffleProgram.purge();
+            } finally {
+                programPool.checkin(souffleProgram);
             }
             activated = true;
         }
@@ -170,39 +192,91 @@ public final class SouffleAnalysis {
 //            }
 //        }
 
-        private void dumpFactsFromRel(String relName, ProgramRel rel) {
+        private void collectInputTuples(String relName, ProgramRel rel) {
             assert relName.equals(rel.getName());
-            Path factPath = factDir.resolve(relName+".facts");
-            try {
-                if (rel.getLocation().endsWith(".csv")) {
-                    Path origPath = Paths.get(rel.getLocation());
-                    Messages.debug("SouffleAnalysis %s: copying facts to path %s from %s", name, factPath.toAbsolutePath(), origPath.toString());
-                    Files.copy(origPath, factPath, StandardCopyOption.REPLACE_EXISTING);
-                } else {
-                    Messages.debug("SouffleAnalysis %s: dumping facts to path %s from %s", name, factPath.toAbsolutePath(), rel.getLocation());
-                    rel.load();
-                    BufferedWriter factWriter = Files.newBufferedWriter(factPath, StandardCharsets.UTF_8);
-                    Iterable<int[]> tuples = rel.getIntTuples();
-                    int domNum = rel.getDoms().length;
-                    for (int[] tuple : tuples) {
-                        StringBuilder sb = new StringBuilder();
-                        for (int i = 0; i < domNum; ++i) {
-                            int id = tuple[i];
-                            //s += rel.getDoms()[i].toUniqueString(element);
-                            sb.append(id + 1); // Note: let output id starts from 1
-                            if (i < domNum - 1) {
-                                sb.append("\t");
+            int arity = relSignMap.get(relName).length;
+            // Note: binary tables are scanned from the mapped file without loading
+            int[] tuples = new int[tupleBufferSize(relName, rel.size(), arity)];
+            int pos = 0;
+            for (int[] tuple : rel.getIntTuples()) {
+                System.arraycopy(tuple, 0, tuples, pos, arity);
+                pos += arity;
+            }
+            rel.close();
+            inputTuples.put(relName, tuples);
+            if (dumpText) {
+                Path factPath = factDir.resolve(relName + ".facts");
+                Messages.debug("SouffleAnalysis %s: dumping facts to path %s from %s", name, factPath.toAbsolutePath(), rel.getLocation());
+                try (BufferedWriter factWriter = Files.newBufferedWriter(factPath, StandardCharsets.UTF_8)) {
+                    for (int i = 0; i < tuples.length; i += arity) {
+                        for (int j = 0; j < arity; ++j) {
+                            if (j > 0) {
+                                factWriter.write('\t');
                             }
+                            factWriter.write(Integer.toString(tuples[i + j] + 1)); // Note: souffle indices start from 1
                         }
-                        factWriter.append(sb.toString());
                         factWriter.newLine();
                     }
-                    factWriter.close();
-                    rel.close();
+                } catch (IOException e) {
+                    Messages.error("SouffleAnalysis %s: failed to dump facts of relation %s: %s", name, relName, e.getMessage());
+                }
+            }
+        }
+
+        // Note: tuples cross JNI in a single java array, which cannot hold more than Integer.MAX_VALUE elements
+        private int tupleBufferSize(String relName, int size, int arity) {
+            try {
+                return Math.multiplyExact(size, arity);
+            } catch (ArithmeticException e) {
+                Messages.fatal("SouffleAnalysis %s: rel %s of %d tuples is too large to transfer", name, relName, size);
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // tuples are pushed into the native program in bulk; text facts in factDir are still accepted for debugging
+        private void loadInputs(SWIGSouffleProgram program) {
+            for (String relName : inputRelNames) {
+                int[] tuples = inputTuples.get(relName);
+                Path factPath = factDir.resolve(relName + ".facts");
+                boolean loaded;
+                if (tuples != null) {
+                    loaded = program.insertTuples(relName, tuples, tuples.length);
+                } else if (Files.exists(factPath)) {
+                    loaded = program.loadFactFile(relName, factPath.toString());
+                } else {
+                    Messages.debug("SouffleAnalysis %s: no facts for input rel %s", name, relName);
+                    loaded = true;
+                }
+                if (!loaded) {
+                    Messages.fatal("SouffleAnalysis %s: failed to load facts of rel %s", name, relName);
+                }
+            }
+        }
+
+        // outputs are pulled from the native program in bulk, and written once in the exchanging format
+        private void printOutputs(SWIGSouffleProgram program) {
+            for (String relName : outputRelNames) {
+                int arity = program.getRelArity(relName);
+                int size = program.getRelSize(relName);
+                if (arity < 0 || size < 0) {
+                    Messages.fatal("SouffleAnalysis %s: output rel %s not found in souffle program", name, relName);
+                }
+                int[] tuples = new int[tupleBufferSize(relName, size, arity)];
+                if (!program.scanTuples(relName, tuples, tuples.length)) {
+                    Messages.fatal("SouffleAnalysis %s: failed to scan rel %s", name, relName);
+                }
+                RelSign sign = ProgramRel.genDefaultRelSign(relSignMap.get(relName));
+                Path relPath = outDir.resolve(relName + RelFile.SUFFIX);
+                try (RelFile.Writer writer = new RelFile.Writer(relPath, relName, sign)) {
+                    int[] tuple = new int[arity];
+                    for (int i = 0; i < tuples.length; i += arity) {
+                        System.arraycopy(tuples, i, tuple, 0, arity);
+                        writer.add(tuple);
+                    }
+                } catch (IOException e) {
+                    Messages.error("SouffleAnalysis %s: failed to print rel %s to %s", name, relName, relPath);
+                    Messages.fatal(e);
                 }
-            } catch (IOException e) {
-                Messages.error("SouffleAnalysis %s: failed to dump relation %s", name, relName);
-                Messages.fatal(e);
             }
         }
 
@@ -220,52 +294,70 @@ public final class SouffleAnalysis {
 
             ProgramRel rel = new ProgramRel(relName, relDoms);
 
-            Path csvPath = outDir.resolve(relName+".csv").toAbsolutePath();
-            rel.attach(csvPath.toString());
-            assert Files.exists(csvPath);
-            Messages.debug("SouffleAnalysis %s: attach cache file %s", name, csvPath);
+            Path relPath = outDir.resolve(relName + RelFile.SUFFIX).toAbsolutePath();
+            rel.attach(relPath.toString());
+            assert Files.exists(relPath);
+            Messages.debug("SouffleAnalysis %s: attach cache file %s", name, relPath);
 
             return rel;
         }
 
-        public List<Trgt.Constraint> prove(Collection<Trgt.Tuple> targets) {
-            // 0. filter targets and activate prover program
+        // derivations explored by earlier prove requests, indexed by head tuple
+        private final Map<Trgt.Tuple, List<Trgt.Constraint>> clauseIndex = new HashMap<>();
+        // output tuples requested before, including underivable ones
+        private final Set<Trgt.Tuple> exploredTargets = new HashSet<>();
+
+        public synchronized List<Trgt.Constraint> prove(Collection<Trgt.Tuple> targets) {
+            // 0. filter targets not explored yet, and activate prover program only for them
+            // Note: the prover expands derivations recursively, so an explored head has its full proof in the index
             List<Trgt.Tuple> outputs = new ArrayList<>();
-            try (BufferedWriter targetsWriter = Files.newBufferedWriter(proofDir.resolve("targets.list"), StandardCharsets.UTF_8)) {
-                for (Trgt.Tuple target : targets) {
-                    if (outputRelNames.contains(target.getRelName())) {
-                        outputs.add(target);
+            for (Trgt.Tuple target : targets) {
+                if (outputRelNames.contains(target.getRelName())
+                        && !exploredTargets.contains(target) && !clauseIndex.containsKey(target)) {
+                    outputs.add(target);
+                }
+            }
+            if (outputs.isEmpty()) {
+                Messages.log("SouffleAnalysis %s: prove %d targets from explored provenance", name, targets.size());
+            } else {
+                try (BufferedWriter targetsWriter = Files.newBufferedWriter(proofDir.resolve("targets.list"), StandardCharsets.UTF_8)) {
+                    for (Trgt.Tuple target : outputs) {
                         String targetLine = tupleToLine(target);
                         targetsWriter.append(targetLine);
                         targetsWriter.newLine();
                     }
+                } catch (IOException ioException) {
+                    Messages.error("SouffleAnalysis %s: failed to dump target tuples: %s", name, ioException.getMessage());
                 }
-            } catch (IOException ioException) {
-                Messages.error("SouffleAnalysis %s: failed to dump target tuples: %s", name, ioException.getMessage());
-            }
 
-            Messages.log("SouffleAnalysis %s: activate provenance program to prove %d targets", name, outputs.size());
-            activateProver(proofDir);
-
-            // 3. fetch ruleInfos
-            List<String> ruleInfos = new ArrayList<>(proverProgram.getInfoRelNames());
-
-            // 4. fetch constraintItems
-            Map<Trgt.Tuple, List<Trgt.Constraint>> clauseMap = new LinkedHashMap<>();
-            Path consFilePath = proofDir.resolve("cons_all.txt");
-            try (Stream<String> consStream = Files.lines(consFilePath, StandardCharsets.UTF_8)) {
-                consStream.forEach(
-                        line -> {
-                            Trgt.Constraint constraint = lineToConstraint(line);
-                            clauseMap.computeIfAbsent(constraint.getHeadTuple(), k -> new ArrayList<>()).add(constraint);
-                        }
-                );
-            } catch (IOException e) {
-                Messages.error("SouffleAnalysis %s: failed to read constraint items from provenance file %s", name, consFilePath.toString());
-                Messages.fatal(e);
+                Messages.log("SouffleAnalysis %s: activate provenance program to prove %d new targets", name, outputs.size());
+                activateProver(proofDir);
+
+                // 1. fetch constraintItems, and merge them into the index
+                Map<Trgt.Tuple, List<Trgt.Constraint>> clauseMap = new HashMap<>();
+                Path consFilePath = proofDir.resolve("cons_all.txt");
+                try (Stream<String> consStream = Files.lines(consFilePath, StandardCharsets.UTF_8)) {
+                    consStream.forEach(
+                            line -> {
+                                Trgt.Constraint constraint = lineToConstraint(line);
+                                clauseMap.computeIfAbsent(constraint.getHeadTuple(), k -> new ArrayList<>()).add(constraint);
+                            }
+                    );
+                } catch (IOException e) {
+                    Messages.error("SouffleAnalysis %s: failed to read constraint items from provenance file %s", name, consFilePath.toString());
+                    Messages.fatal(e);
+                }
+                for (var entry : clauseMap.entrySet()) {
+                    clauseIndex.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+                exploredTargets.addAll(outputs);
             }
 
-            ProvenanceBuilder provBuilder = new ProvenanceBuilder(clauseMap, ruleInfos);
+            // 2. fetch ruleInfos
+            List<String> ruleInfos = new ArrayList<>(proverPool.getMetadataProgram().getInfoRelNames());
+
+            // 3. traverse backward from targets
+            ProvenanceBuilder provBuilder = new ProvenanceBuilder(clauseIndex, ruleInfos);
             Messages.log("SouffleAnalysis %s: %s provenance finished", name, ID);
 
             return provBuilder.prove(targets);
@@ -276,16 +368,19 @@ public final class SouffleAnalysis {
                 Messages.fatal("SouffleAnalysis %s: the analysis for %s should be activated before building provenance", name, ID);
                 assert false;
             }
-            if (proverProgram == null) {
+            if (proverPool == null) {
                 Messages.fatal("SouffleAnalysis %s: provenance program has not been built for this analysis", name);
                 assert false;
             }
-            synchronized (proverProgram) {
+            SWIGSouffleProgram proverProgram = proverPool.checkout();
+            try {
                 Messages.log("SouffleAnalysis %s: provenance run in %d jobs", name, proverProgram.getMaxJobs());
-                proverProgram.loadAll(factDir.toString());
+                loadInputs(proverProgram);
                 proverProgram.run();
                 proverProgram.printProvenance(proofPath.toString());
                 proverProgram.purge();
+            } finally {
+                proverPool.checkin(proverProgram);
             }
         }
 
@@ -402,6 +497,8 @@ public final class SouffleAnalysis {
                     unsolvedTargets.add(target);
                 }
             }
+            // Note: each tuple is expanded once, so that the traversal only covers the proofs of targets
+            Set<Trgt.Tuple> visited = new HashSet<>(workList);
             while (!workList.isEmpty()) {
                 Set<Trgt.Tuple> newWorkList = new LinkedHashSet<>();
                 for (Trgt.Tuple head : workList) {
@@ -410,8 +507,11 @@ public final class SouffleAnalysis {
                         for (Trgt.Constraint constraint : clauseMap.get(head)) {
                             assert constraint.getHeadTuple().equals(head);
                             constrs.add(constraint);
-                            newWorkList.addAll(constraint.getBodyTupleList());
-                            constrs.add(constraint);
+                            for (Trgt.Tuple body : constraint.getBodyTupleList()) {
+                                if (visited.add(body)) {
+                                    newWorkList.add(body);
+                                }
+                            }
                         }
                     } else {
                         if (inputRelNames.contains(headRelName)) {
@@ -0,0 +1,118 @@
+package com.neuromancer42.tea.jsouffle;
+
+import com.neuromancer42.tea.commons.configs.Messages;
+import com.neuromancer42.tea.jsouffle.swig.SWIGSouffleProgram;
+import com.neuromancer42.tea.jsouffle.swig.SwigInterface;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Native programs of a compiled souffle analysis.
+ * <p>
+ * A native program holds its relations from loading inputs until purging, so a run checks out a program
+ * for exclusive use; programs are instantiated on demand up to the pool size, letting runs of different
+ * projects execute concurrently. While executing, a run also holds as many permits of the runtime-wide
+ * thread budget as its program may use, so concurrent runs never oversubscribe the provider: a run waits
+ * for one permit, takes as many more as are free up to the jobs per program, and its program runs with
+ * that many jobs. A run alone thus uses all jobs, while concurrent runs share them.
+ */
+final class SouffleProgramPool {
+    private final String analysis;
+    private final int maxSize;
+    private final long jobsPerProgram;
+    private final Semaphore threadBudget;
+
+    private final SWIGSouffleProgram first;
+    private final Deque<SWIGSouffleProgram> idlePrograms = new ArrayDeque<>();
+    // checked-out program -> permits held by its run
+    private final Map<SWIGSouffleProgram, Integer> grantedJobs = new IdentityHashMap<>();
+    private int numCreated = 0;
+
+    SouffleProgramPool(String analysis, int maxSize, long jobsPerProgram, Semaphore threadBudget) {
+        this.analysis = analysis;
+        this.maxSize = Math.max(1, maxSize);
+        this.jobsPerProgram = Math.max(1, jobsPerProgram);
+        this.threadBudget = threadBudget;
+        this.first = createProgram();
+        idlePrograms.push(first);
+    }
+
+    /**
+     * @return a program for querying metadata (relation names and signatures) only
+     */
+    SWIGSouffleProgram getMetadataProgram() {
+        return first;
+    }
+
+    long getJobsPerProgram() {
+        return jobsPerProgram;
+    }
+
+    SWIGSouffleProgram checkout() {
+        SWIGSouffleProgram program;
+        try {
+            synchronized (this) {
+                while (idlePrograms.isEmpty() && numCreated >= maxSize) {
+                    wait();
+                }
+                program = idlePrograms.poll();
+                if (program == null) {
+                    program = createProgram();
+                }
+            }
+        } catch (InterruptedException e) {
+            Messages.error("SouffleProgramPool %s: interrupted when waiting for a native program", analysis);
+            Thread.currentThread().interrupt();
+            Messages.fatal(e);
+            throw new IllegalStateException(e);
+        }
+        int granted;
+        try {
+            threadBudget.acquire();
+            granted = 1;
+            while (granted < jobsPerProgram && threadBudget.tryAcquire()) {
+                ++granted;
+            }
+        } catch (InterruptedException e) {
+            Messages.error("SouffleProgramPool %s: interrupted when waiting for jobs", analysis);
+            synchronized (this) {
+                idlePrograms.push(program);
+                notify();
+            }
+            Thread.currentThread().interrupt();
+            Messages.fatal(e);
+            throw new IllegalStateException(e);
+        }
+        program.setMaxJobs(granted);
+        synchronized (this) {
+            grantedJobs.put(program, granted);
+        }
+        Messages.debug("SouffleProgramPool %s: running native program with %d/%d jobs", analysis, granted, jobsPerProgram);
+        return program;
+    }
+
+    void checkin(SWIGSouffleProgram program) {
+        synchronized (this) {
+            threadBudget.release(grantedJobs.remove(program));
+            idlePrograms.push(program);
+            notify();
+        }
+    }
+
+    // Note: called only in constructor or with the monitor held
+    private SWIGSouffleProgram createProgram() {
+        SWIGSouffleProgram program = SwigInterface.newInstance(analysis);
+        if (program == null) {
+            Messages.fatal("SouffleProgramPool: failed to create instance of analysis %s", analysis);
+            throw new IllegalStateException(analysis);
+        }
+        program.setMaxJobs(jobsPerProgram);
+        ++numCreated;
+        Messages.debug("SouffleProgramPool %s: created native program %d/%d", analysis, numCreated, maxSize);
+        return program;
+    }
+}
@@ -1,36 +1,42 @@
 package com.neuromancer42.tea.jsouffle;
 
+import com.neuromancer42.tea.commons.analyses.AnalysisUtil;
+import com.neuromancer42.tea.commons.analyses.TrgtStreams;
 import com.neuromancer42.tea.commons.bddbddb.ProgramDom;
 import com.neuromancer42.tea.commons.bddbddb.ProgramRel;
+import com.neuromancer42.tea.commons.bddbddb.ProgramTrgtCache;
 import com.neuromancer42.tea.commons.configs.Constants;
 import com.neuromancer42.tea.commons.configs.Messages;
 import com.neuromancer42.tea.commons.util.Timer;
 import com.neuromancer42.tea.core.analysis.Analysis;
 import com.neuromancer42.tea.core.analysis.ProviderGrpc;
 import com.neuromancer42.tea.core.analysis.Trgt;
-import com.neuromancer42.tea.jsouffle.swig.SWIGSouffleProgram;
-import com.neuromancer42.tea.jsouffle.swig.SwigInterface;
 import io.grpc.Grpc;
 import io.grpc.InsecureServerCredentials;
 import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.SystemUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 
 public final class SouffleRuntime {
 
-//    static private final String CACHE_DIR_NAME = "cache";
     private static final String NAME_SOUFFLE = "souffle";
     private static final String OPT_ANALYSES = "analyses";
+    private static final String OPT_INSTANCES = "instances";
+    private static final String DEFAULT_INSTANCES = "1";
 
     public static void main(String[] args) throws IOException, InterruptedException, ParseException {
         Options options = new Options();
@@ -39,6 +45,7 @@ public final class SouffleRuntime {
         options.addOption("d", Constants.OPT_WORK_DIR, true, "working directory");
         options.addOption("b", Constants.OPT_BUILD_DIR, true, "directory for (reusable) building souffle and datalogs");
         options.addOption("j", Constants.OPT_JOBS, true, "[optional] maximal jobs for parallelism");
+        options.addOption("i", OPT_INSTANCES, true, "[optional] maximal native instances per analysis, sharing the jobs (default " + DEFAULT_INSTANCES + ")");
         options.addOption(Option.builder("A")
                 .longOpt(OPT_ANALYSES)
                 .hasArgs()
@@ -60,19 +67,22 @@ public final class SouffleRuntime {
         Path buildPath = Paths.get(buildDir);
 
         long num_jobs = Long.parseLong(cmd.getOptionValue(Constants.OPT_JOBS, Constants.DEFAULT_JOBS));
+        int num_instances = Integer.parseInt(cmd.getOptionValue(OPT_INSTANCES, DEFAULT_INSTANCES));
 
         System.err.println("*** jsouffle server works in " + rootWorkPath.toAbsolutePath() + " with libraries in directory " + rootWorkPath.toAbsolutePath());
         SouffleRuntime.init(buildPath, rootWorkPath, num_jobs);
+        runtime.setMaxInstances(num_instances);
 
+        Map<String, File> dlogFiles = new LinkedHashMap<>();
         for (var entry : cmd.getOptionProperties(OPT_ANALYSES).entrySet()) {
             String analysisName = (String) entry.getKey();
             String dlog = (String) entry.getValue();
-            File dlogFile = new File(dlog);
-            SouffleAnalysis analysis = runtime.createSouffleAnalysisFromFile(analysisName, analysisName, dlogFile);
-            if (analysis != null) {
-                Messages.log("SouffleRuntime: created souffle analysis %s from dlog %s", analysisName, dlogFile.getAbsolutePath());
-                analysisMap.put(analysisName, analysis);
-            }
+            dlogFiles.put(analysisName, new File(dlog));
+        }
+        for (var entry : runtime.createSouffleAnalysesFromFiles(dlogFiles).entrySet()) {
+            String analysisName = entry.getKey();
+            Messages.log("SouffleRuntime: created souffle analysis %s from dlog %s", analysisName, dlogFiles.get(analysisName).getAbsolutePath());
+            analysisMap.put(analysisName, entry.getValue());
         }
         int souffle_port = Integer.parseInt(cmd.getOptionValue(Constants.OPT_PORT, Constants.DEFAULT_PORT));
 
@@ -150,36 +160,25 @@ public final class SouffleRuntime {
                 throw new RuntimeException("Not supported yet!");
             }
 
-            // 2. build native library and install it to workdir
-            // we do not cache the generated targets, as cmake takes this responsibility
-            Path cmakeDir = Files.createDirectories(runtime.buildPath.resolve("cmake-build"));
-            {
-                List<String> cmakeCmd = new ArrayList<>();
-                cmakeCmd.add("cmake");
-                cmakeCmd.add("-DBUILD_WRAPPER=On");
+            // 2. build native library and install it to workdir, unless an identical build has been installed
+            runtime.souffleVersion = captureExternal(List.of("souffle", "--version"), runtime.buildPath).trim();
+            Messages.log("SouffleRuntime: found %s", runtime.souffleVersion.lines().findFirst().orElse("souffle"));
+            String wrapperHash = runtime.hashBuild(List.of(
+                    Files.readAllBytes(runtime.buildPath.resolve("CMakeLists.txt")),
+                    Files.readAllBytes(runtime.buildPath.resolve("souffle-swig-interface_wrap.cxx")),
+                    Files.readAllBytes(runtime.buildPath.resolve("souffle-swig-interface.h"))
+            ), "java.home=" + System.getProperty("java.home"));
+            if (isBuildCached(runtime.buildPath, "souffle", wrapperHash, List.of(libraryFileName))) {
+                Messages.log("SouffleRuntime: reusing cached souffle runtime");
+            } else {
+                List<String> cmakeArgs = new ArrayList<>();
+                cmakeArgs.add("-DBUILD_WRAPPER=On");
                 if (System.getProperty("java.home") != null)
-                    cmakeCmd.add("-DJAVA_HOME=" + System.getProperty("java.home"));
-                cmakeCmd.add("..");
-                executeExternal(cmakeCmd, cmakeDir);
-            }
-            {
-                List<String> makeCmd = new ArrayList<>();
-                makeCmd.add("make");
-                makeCmd.add("-j");
-                makeCmd.add(String.valueOf(num_jobs));
-                executeExternal(makeCmd, cmakeDir);
-            }
-            {
-                List<String> installCmd = new ArrayList<>();
-                installCmd.add("cmake");
-                installCmd.add("--install");
-                installCmd.add(".");
-                installCmd.add("--prefix");
-                installCmd.add(runtime.buildPath.toAbsolutePath().toString());
-                executeExternal(installCmd, cmakeDir);
+                    cmakeArgs.add("-DJAVA_HOME=" + System.getProperty("java.home"));
+                buildAndInstall(runtime.buildPath, cmakeArgs, num_jobs);
+                markBuildCached(runtime.buildPath, "souffle", wrapperHash);
             }
 
-
             // 3. load library
             Path souffleJNIPath = runtime.buildPath.resolve("native").resolve(libraryFileName);
             System.load(souffleJNIPath.toAbsolutePath().toString());
@@ -209,6 +208,86 @@ public final class SouffleRuntime {
         }
     }
 
+    private static String captureExternal(List<String> cmd, Path path) throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(cmd);
+        builder.directory(path.toFile());
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            throw new RuntimeException(output);
+        }
+        return output;
+    }
+
+    // Note: cmake only tracks changes within one build directory, and re-running it still costs much;
+    // a hash stamp installed along with the libraries lets a restarted runtime skip the whole build
+    private static boolean isBuildCached(Path installPath, String target, String hash, List<String> libNames) throws IOException {
+        Path nativePath = installPath.resolve("native");
+        Path stampPath = nativePath.resolve(target + ".hash");
+        if (!Files.exists(stampPath) || !Files.readString(stampPath).equals(hash)) {
+            return false;
+        }
+        for (String libName : libNames) {
+            if (!Files.exists(nativePath.resolve(libName))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void markBuildCached(Path installPath, String target, String hash) throws IOException {
+        Files.writeString(installPath.resolve("native").resolve(target + ".hash"), hash);
+    }
+
+    private static void buildAndInstall(Path srcPath, List<String> cmakeArgs, long makeJobs) throws IOException, InterruptedException {
+        Path cmakeDir = Files.createDirectories(srcPath.resolve("cmake-build"));
+        {
+            List<String> cmakeCmd = new ArrayList<>();
+            cmakeCmd.add("cmake");
+            cmakeCmd.addAll(cmakeArgs);
+            cmakeCmd.add("..");
+            executeExternal(cmakeCmd, cmakeDir);
+        }
+        {
+            List<String> makeCmd = new ArrayList<>();
+            makeCmd.add("make");
+            makeCmd.add("-j");
+            makeCmd.add(String.valueOf(makeJobs));
+            executeExternal(makeCmd, cmakeDir);
+        }
+        {
+            List<String> installCmd = new ArrayList<>();
+            installCmd.add("cmake");
+            installCmd.add("--install");
+            installCmd.add(".");
+            installCmd.add("--prefix");
+            installCmd.add(srcPath.toAbsolutePath().toString());
+            executeExternal(installCmd, cmakeDir);
+        }
+    }
+
+    /**
+     * Identifies a native build by its sources, the souffle version and the build flags.
+     */
+    private String hashBuild(List<byte[]> sources, String... flags) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] source : sources) {
+                digest.update(source);
+                digest.update((byte) 0);
+            }
+            digest.update(souffleVersion.getBytes(StandardCharsets.UTF_8));
+            for (String flag : flags) {
+                digest.update((byte) 0);
+                digest.update(flag.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public Path getBuildPath() {
         return buildPath;
     }
@@ -225,30 +304,53 @@ public final class SouffleRuntime {
         return loadedLibraries;
     }
 
+    // Note: analyses are compiled and loaded concurrently;
+    // an analysis is claimed in loadingLibraries while building, and is recorded as loaded only after System.load
+    private final Set<String> loadingLibraries;
     private final Set<String> loadedLibraries;
     private final Map<String, String> loadedProvenances;
+    // analysis -> hash of its rules, build flags and souffle version, along with the code running it
+    private final Map<String, String> loadedFingerprints;
 
     private final long num_jobs;
+    private String souffleVersion = "";
+    // Note: runs of all analyses share the thread budget, one permit for each job
+    private final Semaphore threadBudget;
+    private int maxInstances = 1;
 
     public SouffleRuntime(Path buildPath, Path cachePath, long num_jobs) {
         this.buildPath = buildPath;
         this.cachePath = cachePath;
-        loadedLibraries = new HashSet<>();
-        loadedProvenances = new HashMap<>();
+        loadingLibraries = ConcurrentHashMap.newKeySet();
+        loadedLibraries = ConcurrentHashMap.newKeySet();
+        loadedProvenances = new ConcurrentHashMap<>();
+        loadedFingerprints = new ConcurrentHashMap<>();
         this.num_jobs = num_jobs;
+        this.threadBudget = new Semaphore((int) num_jobs, true);
     }
 
-    private synchronized void loadDlog(String analysis, InputStream dlogStream, boolean withProvenance, boolean withDebug) {
-        if (loadedLibraries.contains(analysis)) {
+    /**
+     * Sets the number of native programs of each analysis created afterwards;
+     * each program runs with at most an equal share of the jobs, and fewer while other runs hold them.
+     */
+    public void setMaxInstances(int maxInstances) {
+        this.maxInstances = Math.max(1, maxInstances);
+        Messages.log("SouffleRuntime: set maximal instances per analysis as %d", this.maxInstances);
+    }
+
+    private void loadDlog(String analysis, byte[] dlog, boolean withProvenance, boolean withDebug, long makeJobs) {
+        if (loadedLibraries.contains(analysis) || !loadingLibraries.add(analysis)) {
             Messages.warn("SouffleRuntime: analysis %s has been loaded before!", analysis);
             return;
         }
         try {
-            // 0. copy files
+            // 0. copy files into a separate source directory, so that analyses can be built concurrently
+            Path analysisPath = Files.createDirectories(buildPath.resolve("analyses").resolve(analysis));
+            Files.copy(buildPath.resolve("CMakeLists.txt"), analysisPath.resolve("CMakeLists.txt"), StandardCopyOption.REPLACE_EXISTING);
             String dlogFileName = analysis + ".dl";
-            Path dlogFilePath = buildPath.resolve(dlogFileName);
+            Path dlogFilePath = analysisPath.resolve(dlogFileName);
             Messages.debug("SouffleRuntime: dumping dlog to file " + dlogFilePath);
-            Files.copy(dlogStream, dlogFilePath, StandardCopyOption.REPLACE_EXISTING);
+            Files.write(dlogFilePath, dlog);
 
             // 1. get target name for specific OS
             String provenance = analysis + "_wP";
@@ -264,62 +366,51 @@ public final class SouffleRuntime {
                 throw new RuntimeException("Not supported yet!");
             }
 
-            // 1. build native library and load it
-            Path cmakeDir = buildPath.resolve("cmake-build");
-            {
-                List<String> cmakeCmd = new ArrayList<>();
-                cmakeCmd.add("cmake");
-                cmakeCmd.add("-DBUILD_WRAPPER=Off");
-                cmakeCmd.add("-DANALYSIS_NAME="+analysis);
-                if (withDebug) {
-                    cmakeCmd.add("-DENABLE_EXE=On");
-                } else {
-                    cmakeCmd.add("-DENABLE_EXE=Off");
-                }
-                if (withProvenance) {
-                    cmakeCmd.add("-DENABLE_PROVENANCE=On");
-                } else {
-                    cmakeCmd.add("-DENABLE_PROVENANCE=Off");
-                }
-                if (num_jobs > 1) {
-                    cmakeCmd.add(String.format("-DSOUFFLE_JOBS=%d", num_jobs));
-                }
-                if (System.getProperty("java.home") != null)
-                    cmakeCmd.add("-DJAVA_HOME=" + System.getProperty("java.home"));
-                cmakeCmd.add("..");
-                executeExternal(cmakeCmd, cmakeDir);
+            // 2. build native library, unless an identical build has been installed
+            List<String> cmakeArgs = new ArrayList<>();
+            cmakeArgs.add("-DBUILD_WRAPPER=Off");
+            cmakeArgs.add("-DANALYSIS_NAME="+analysis);
+            if (withDebug) {
+                cmakeArgs.add("-DENABLE_EXE=On");
+            } else {
+                cmakeArgs.add("-DENABLE_EXE=Off");
             }
-            {
-                List<String> makeCmd = new ArrayList<>();
-                makeCmd.add("make");
-                makeCmd.add("-j");
-                makeCmd.add(String.valueOf(num_jobs));
-                executeExternal(makeCmd, cmakeDir);
+            if (withProvenance) {
+                cmakeArgs.add("-DENABLE_PROVENANCE=On");
+            } else {
+                cmakeArgs.add("-DENABLE_PROVENANCE=Off");
             }
-            {
-                List<String> installCmd = new ArrayList<>();
-                installCmd.add("cmake");
-                installCmd.add("--install");
-                installCmd.add(".");
-                installCmd.add("--prefix");
-                installCmd.add(runtime.buildPath.toAbsolutePath().toString());
-                executeExternal(installCmd, cmakeDir);
+            if (num_jobs > 1) {
+                cmakeArgs.add(String.format("-DSOUFFLE_JOBS=%d", num_jobs));
+            }
+            String buildHash = hashBuild(List.of(dlog, Files.readAllBytes(buildPath.resolve("CMakeLists.txt"))), cmakeArgs.toArray(new String[0]));
+            if (System.getProperty("java.home") != null)
+                cmakeArgs.add("-DJAVA_HOME=" + System.getProperty("java.home"));
+            List<String> libNames = withProvenance ? List.of(analysisLibName, provLibName) : List.of(analysisLibName);
+            if (isBuildCached(analysisPath, analysis, buildHash, libNames)) {
+                Messages.log("SouffleRuntime: reusing cached runtime of analysis %s", analysis);
+            } else {
+                buildAndInstall(analysisPath, cmakeArgs, makeJobs);
+                markBuildCached(analysisPath, analysis, buildHash);
             }
 
             // 3. load library
-            Path analysisLibPath = runtime.buildPath.resolve("native").resolve(analysisLibName);
+            Path analysisLibPath = analysisPath.resolve("native").resolve(analysisLibName);
             System.load(analysisLibPath.toAbsolutePath().toString());
             Messages.debug("SouffleRuntime: analysis runtime %s has been loaded", analysisLibName);
-            loadedLibraries.add(analysis);
             if (withProvenance) {
-                Path provLibPath = runtime.buildPath.resolve("native").resolve(provLibName);
+                Path provLibPath = analysisPath.resolve("native").resolve(provLibName);
                 System.load(provLibPath.toAbsolutePath().toString());
                 Messages.debug("SouffleRuntime: provenance runtime %s has been loaded", provLibName);
                 loadedProvenances.put(analysis, provenance);
             }
-        } catch (IOException | InterruptedException e) {
+            loadedFingerprints.put(analysis, buildHash + ":" + AnalysisUtil.codeFingerprint(SouffleAnalysis.class));
+            loadedLibraries.add(analysis);
+        } catch (IOException | InterruptedException | RuntimeException | UnsatisfiedLinkError e) {
             Messages.error("SouffelRuntime: failed to compile runtime of analysis %s", analysis);
             Messages.fatal(e);
+        } finally {
+            loadingLibraries.remove(analysis);
         }
     }
 
@@ -331,6 +422,10 @@ public final class SouffleRuntime {
         return loadedProvenances.get(analysis);
     }
 
+    public String getFingerprint(String analysis) {
+        return loadedFingerprints.getOrDefault(analysis, "");
+    }
+
     public SouffleAnalysis createSouffleAnalysisFromFile(String name, String analysis, File dlogFile) {
         SouffleAnalysis ret = null;
         try {
@@ -345,34 +440,76 @@ public final class SouffleRuntime {
         if (hasLoaded(analysis)) {
             Messages.warn("SouffleRuntime: the analysis %s has been loaded before!");
         } else {
-            loadDlog(analysis, dlogStream, true, false);
+            try {
+                loadDlog(analysis, dlogStream.readAllBytes(), true, false, num_jobs);
+            } catch (IOException e) {
+                Messages.error("SouffleRuntime: failed to read dlog of analysis %s", analysis);
+                Messages.fatal(e);
+            }
         }
         return createSouffleAnalysis(name, analysis);
     }
 
+    /**
+     * Compiles analyses concurrently, sharing the job budget among simultaneous builds.
+     *
+     * @param dlogFiles dlog file of each analysis, each analysis named by itself
+     * @return created analyses, in the order of given files
+     */
+    public Map<String, SouffleAnalysis> createSouffleAnalysesFromFiles(Map<String, File> dlogFiles) {
+        int numBuilds = (int) Math.max(1, Math.min(dlogFiles.size(), num_jobs));
+        long makeJobs = Math.max(1, num_jobs / numBuilds);
+        ExecutorService executor = Executors.newFixedThreadPool(numBuilds);
+        Map<String, Future<?>> builds = new LinkedHashMap<>();
+        for (var entry : dlogFiles.entrySet()) {
+            String analysis = entry.getKey();
+            File dlogFile = entry.getValue();
+            builds.put(analysis, executor.submit(() -> {
+                byte[] dlog;
+                try {
+                    dlog = Files.readAllBytes(dlogFile.toPath());
+                } catch (IOException e) {
+                    Messages.error("SouffleRuntime: the referenced dlog file of analysis %s does not exists!", analysis);
+                    return;
+                }
+                loadDlog(analysis, dlog, true, false, makeJobs);
+            }));
+        }
+        executor.shutdown();
+        Map<String, SouffleAnalysis> analyses = new LinkedHashMap<>();
+        for (var entry : builds.entrySet()) {
+            String analysis = entry.getKey();
+            try {
+                entry.getValue().get();
+            } catch (InterruptedException | ExecutionException e) {
+                Messages.error("SouffleRuntime: failed to build analysis %s", analysis);
+                Messages.fatal(e);
+            }
+            if (hasLoaded(analysis)) {
+                analyses.put(analysis, createSouffleAnalysis(analysis, analysis));
+            }
+        }
+        return analyses;
+    }
+
     public synchronized SouffleAnalysis createSouffleAnalysis(String name, String analysis) {
         if (!hasLoaded(analysis)) {
             Messages.fatal("SouffleRuntime: the analysis %s has not been loaded yet!");
         }
-        SWIGSouffleProgram program = SwigInterface.newInstance(analysis);
-        if (program == null) {
-            Messages.fatal("SouffleRuntime: failed to create instance of analysis %s", analysis);
-            assert false;
-        }
-        program.setMaxJobs(num_jobs);
-        SWIGSouffleProgram provProgram = null;
+        long jobsPerInstance = Math.max(1, num_jobs / maxInstances);
+        SouffleProgramPool programPool = new SouffleProgramPool(analysis, maxInstances, jobsPerInstance, threadBudget);
+        SouffleProgramPool proverPool = null;
         String provName = hasLoadedProvenance(analysis);
         if (provName != null) {
-            provProgram = SwigInterface.newInstance(provName);
-            assert provProgram != null;
-            provProgram.setMaxJobs(num_jobs);
+            proverPool = new SouffleProgramPool(provName, maxInstances, jobsPerInstance, threadBudget);
         }
-        return new SouffleAnalysis(name, analysis, program, provProgram);
+        return new SouffleAnalysis(name, analysis, getFingerprint(analysis), programPool, proverPool);
     }
 
     private static class SouffleProvider extends ProviderGrpc.ProviderImplBase {
         private final Map<String, SouffleAnalysis> analysisMap;
-        private final Map<String, Map<String, SouffleAnalysis.Instance>> projRelToProducers = new HashMap<>();
+        // Note: analyses of a project may be requested concurrently
+        private final Map<String, Map<String, SouffleAnalysis.Instance>> projRelToProducers = new ConcurrentHashMap<>();
         public SouffleProvider(Map<String, SouffleAnalysis> analysisMap) {
             this.analysisMap = analysisMap;
         }
@@ -392,6 +529,7 @@ public final class SouffleRuntime {
                 String name = entry.getKey();
                 analysisInfoBuilder.setName(name);
                 SouffleAnalysis analysis = entry.getValue();
+                analysisInfoBuilder.setFingerprint(analysis.getFingerprint());
                 for (String domName : analysis.getAllDomKinds()) {
                     Trgt.DomInfo domInfo = Trgt.DomInfo.newBuilder()
                             .setName(domName)
@@ -443,12 +581,21 @@ public final class SouffleRuntime {
             if (analysis == null) {
                 respBuilder.setMsg(Constants.MSG_FAIL + ": analysis not found");
             } else {
+                try {
+                    request = TrgtStreams.fetchInputs(request, SouffleRuntime.g().cachePath.resolve(projId).resolve("fetched"));
+                } catch (IOException | StatusRuntimeException e) {
+                    Messages.error("SouffleAnalysis %s: failed to fetch inputs: %s", analysis.getName(), e.getMessage());
+                    responseObserver.onNext(respBuilder.setMsg(Constants.MSG_FAIL + ": failed to fetch inputs").build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+                // Note: inputs are shared by analyses of the project until it shuts down
+                ProgramTrgtCache trgtCache = ProgramTrgtCache.g();
                 Map<String, ProgramDom> domMap = new HashMap<>();
                 for (Trgt.DomTrgt domTrgt : request.getDomInputList()) {
                     String domName = domTrgt.getInfo().getName();
                     String domLoc = domTrgt.getLocation();
-                    ProgramDom dom = new ProgramDom(domName);
-                    dom.load(domLoc);
+                    ProgramDom dom = trgtCache.acquireDom(projId, domName, domLoc);
                     domMap.put(domName, dom);
                 }
 
@@ -460,8 +607,7 @@ public final class SouffleRuntime {
                         doms.add(domMap.get(domName));
                     }
                     String relLoc = relTrgt.getLocation();
-                    ProgramRel rel = new ProgramRel(relName, doms.toArray(new ProgramDom[0]));
-                    rel.attach(relLoc);
+                    ProgramRel rel = trgtCache.acquireRel(projId, relName, doms.toArray(new ProgramDom[0]), relLoc);
                     inputRelMap.put(relName, rel);
                 }
 
@@ -486,13 +632,20 @@ public final class SouffleRuntime {
                         respBuilder.addRelOutput(relTrgt);
 
                         // side work: mark producer for future provenancce
-                        projRelToProducers.computeIfAbsent(projId, k -> new HashMap<>()).put(relName, instance);
+                        projRelToProducers.computeIfAbsent(projId, k -> new ConcurrentHashMap<>()).put(relName, instance);
                     }
                     respBuilder.setMsg(Constants.MSG_SUCC);
                 } catch (IOException e) {
                     String failMsg = "failed to create souffle working directory";
                     Messages.error("SouffleAnalysis %s: %s", analysis.getName(), failMsg);
                     respBuilder.setMsg(Constants.MSG_FAIL + ": " + failMsg);
+                } finally {
+                    for (ProgramRel rel : inputRelMap.values()) {
+                        trgtCache.release(projId, rel);
+                    }
+                    for (ProgramDom dom : domMap.values()) {
+                        trgtCache.release(projId, dom);
+                    }
                 }
             }
             Analysis.RunResults results = respBuilder.build();
@@ -552,6 +705,7 @@ public final class SouffleRuntime {
          */
         @Override
         public void shutdown(Analysis.ShutdownRequest request, StreamObserver<Analysis.ShutdownResponse> responseObserver) {
+            ProgramTrgtCache.g().releaseProject(request.getProjectId());
             Map<String, SouffleAnalysis.Instance> producers = projRelToProducers.remove(request.getProjectId());
             if (producers == null) {
                 Messages.error("SouffleRuntime: project %s never request souffle analyses", request.getProjectId());
@@ -561,5 +715,14 @@ public final class SouffleRuntime {
             responseObserver.onNext(Analysis.ShutdownResponse.getDefaultInstance());
             responseObserver.onCompleted();
         }
+
+        /**
+         * @param request
+         * @param responseObserver
+         */
+        @Override
+        public void fetch(Analysis.FetchRequest request, StreamObserver<Analysis.TrgtChunk> responseObserver) {
+            TrgtStreams.serveFetch(request, responseObserver);
+        }
     }
 }
@@ -1,5 +1,6 @@
 package com.neuromancer42.tea.jsouffle.tests;
 
+import com.neuromancer42.tea.commons.bddbddb.RelFile;
 import com.neuromancer42.tea.jsouffle.SouffleAnalysis;
 import com.neuromancer42.tea.jsouffle.SouffleRuntime;
 import org.junit.jupiter.api.*;
@@ -12,6 +13,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -53,10 +55,15 @@ public class SouffleSingleRunTest {
         SouffleAnalysis.Instance instance = analysis.createInstance("test1-single-run", SouffleRuntime.g().getCachePath().resolve("test1-single-run"));
         dumpInput(instance);
         instance.activate();
-        List<String> outputLines = Files.readAllLines(instance.getOutDir().resolve("PPP.csv"));
-        Assertions.assertEquals(outputLines.size(), 2);
-        Assertions.assertTrue(outputLines.contains("1\t3"));
-        Assertions.assertTrue(outputLines.contains("2\t4"));
+        RelFile output = RelFile.open(instance.getOutDir().resolve("PPP" + RelFile.SUFFIX));
+        Assertions.assertEquals(output.size(), 2);
+        List<String> outputTuples = new ArrayList<>();
+        for (int[] tuple : output.getIntTuples()) {
+            outputTuples.add(Arrays.toString(tuple));
+        }
+        // Note: indices in binary relation files start from 0
+        Assertions.assertTrue(outputTuples.contains("[0, 2]"));
+        Assertions.assertTrue(outputTuples.contains("[1, 3]"));
     }
 
     @Test
@@ -28,6 +28,7 @@
 #include <set>
 #include <queue>
 #include <fstream>
+#include <sstream>
 
 /**
  * Abstract base class for generated Datalog programs
@@ -87,6 +88,100 @@ public:
         program->dumpOutputs();
     }
 
+    /**
+     * Inserts tuples of a relation in bulk from a flattened array, tuple after tuple, without passing through files.
+     * Domain indices are 0-based in the array while 1-based in souffle relations.
+     * @param length number of elements in the array, a multiple of the arity of the relation
+     * @return false if the relation is unknown or the length mismatches its arity
+     */
+    bool insertTuples(const std::string& relName, int* tuples, int length) {
+        souffle::Relation* rel = program->getRelation(relName);
+        if (rel == nullptr) {
+            return false;
+        }
+        std::size_t arity = rel->getPrimaryArity();
+        if (length < 0 || arity == 0 || length % arity != 0) {
+            return false;
+        }
+        for (std::size_t j = 0; j < static_cast<std::size_t>(length); j += arity) {
+            souffle::tuple t(rel);
+            for (std::size_t i = 0; i < arity; ++i) {
+                t << static_cast<souffle::RamUnsigned>(tuples[j + i]) + 1;
+            }
+            rel->insert(t);
+        }
+        return true;
+    }
+
+    /**
+     * @return number of tuples in a relation, or -1 if the relation is unknown
+     */
+    int getRelSize(const std::string& relName) {
+        souffle::Relation* rel = program->getRelation(relName);
+        return rel == nullptr ? -1 : static_cast<int>(rel->size());
+    }
+
+    /**
+     * @return number of (primary) attributes of a relation, or -1 if the relation is unknown
+     */
+    int getRelArity(const std::string& relName) {
+        souffle::Relation* rel = program->getRelation(relName);
+        return rel == nullptr ? -1 : static_cast<int>(rel->getPrimaryArity());
+    }
+
+    /**
+     * Copies all tuples of a relation in bulk into a flattened array, tuple after tuple.
+     * Domain indices are 1-based in souffle relations while 0-based in the array.
+     * @param length number of elements in the array, which must equal size times arity of the relation
+     * @return false if the relation is unknown or the length mismatches
+     */
+    bool scanTuples(const std::string& relName, int* buffer, int length) {
+        souffle::Relation* rel = program->getRelation(relName);
+        if (rel == nullptr) {
+            return false;
+        }
+        std::size_t arity = rel->getPrimaryArity();
+        if (length < 0 || static_cast<std::size_t>(length) != rel->size() * arity) {
+            return false;
+        }
+        std::size_t pos = 0;
+        for (auto& tuple : *rel) {
+            for (std::size_t i = 0; i < arity; ++i) {
+                buffer[pos++] = static_cast<int>(souffle::ramBitCast<souffle::RamUnsigned>(tuple[i]) - 1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts tuples of a relation from a tab-separated text file of unsigned numbers, as souffle's `.facts` files.
+     * @return false if the relation is unknown or the file cannot be opened
+     */
+    bool loadFactFile(const std::string& relName, const std::string& fileName) {
+        souffle::Relation* rel = program->getRelation(relName);
+        if (rel == nullptr) {
+            return false;
+        }
+        std::ifstream in(fileName, std::ios::in);
+        if (!in.good()) {
+            return false;
+        }
+        std::string line;
+        while (std::getline(in, line)) {
+            if (line.empty()) {
+                continue;
+            }
+            std::istringstream liness(line);
+            souffle::tuple t(rel);
+            souffle::RamUnsigned a;
+            for (std::size_t i = 0; i < rel->getPrimaryArity() && liness >> a; ++i) {
+                t << a;
+            }
+            rel->insert(t);
+        }
+        return true;
+    }
+
     std::vector<std::string> getRelNames() {
         std::vector<souffle::Relation*> relations = program->getAllRelations();
         return getRelNamesFromRels(relations);
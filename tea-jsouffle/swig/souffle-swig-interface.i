@@ -18,9 +18,12 @@
 %module SwigInterface
 %include "std_string.i"
 %include "std_vector.i"
+%include "arrays_java.i"
 namespace std {
     %template(StringVector) vector<string>;
 }
+// bulk transfer of tuples as java int[], copied across JNI at once
+%apply int[] { int* tuples, int* buffer };
 
 %{
 #include "souffle-swig-interface.h"